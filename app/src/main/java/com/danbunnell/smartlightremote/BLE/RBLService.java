@@ -12,92 +12,497 @@ import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.danbunnell.smartlightremote.effect.EffectUploader;
+import com.danbunnell.smartlightremote.metrics.Counter;
+import com.danbunnell.smartlightremote.metrics.Gauge;
+import com.danbunnell.smartlightremote.metrics.Histogram;
+import com.danbunnell.smartlightremote.metrics.MetricsRegistry;
+import com.danbunnell.smartlightremote.metrics.SampleRing;
+import com.danbunnell.smartlightremote.protocol.FrameDecoder;
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+import com.danbunnell.smartlightremote.protocol.WritePipeline;
+import com.danbunnell.smartlightremote.sync.ClockSync;
+import com.danbunnell.smartlightremote.sync.ClockSyncEstimator;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service for managing connection and data communication with a GATT server
  * hosted on a given Bluetooth LE device.
  *
+ * All Bluetooth state is owned by a single event loop on a background thread. Public methods
+ * may be called from any thread; they post a message to the loop and return. GATT and scan
+ * callbacks arrive on binder threads and are forwarded to the loop the same way, so nothing
+ * below needs locking.
+ *
  * This code was adapted from Liang He's project: <a href-"https://github.com/jonfroehlich/CSE590Sp2018/tree/master/A03-BLEAdvanced">AndroidBLEAdvanced</a>
  */
 public class RBLService extends Service{
 
     private final static String TAG = RBLService.class.getSimpleName();
 
-    private BluetoothManager mBluetoothManager;
-    private BluetoothAdapter mBluetoothAdapter;
+    private static final long CAPABILITY_PROBE_TIMEOUT_MS = 1000;
+    private static final long PRIORITY_BALANCED_AFTER_MS = 2000;
+    private static final long PRIORITY_LOW_POWER_AFTER_MS = 30000;
+    private static final int PROTOCOL_CAPTURE_CAPACITY = 1024;
+    private static final long SCAN_PERIOD_MS = 2000;
+    private static final long SCAN_SETTLE_MS = 500;
+    private static final long CANDIDATE_WINDOW_MS = 500;
+    private static final long CANDIDATE_PERIOD_MS = 5000;
+    private static final int CANDIDATE_MIN_SIGHTINGS = 2;
+    private static final int NEARER_LIGHT_MARGIN_DB = 8;
+    private static final long RSSI_POLL_INTERVAL_MS = 500;
+    private static final long DUMP_TIMEOUT_MS = 1000;
+    private static final long WRITE_RETRY_MS = 20;
+
+    // Remembers the last light that connected, so it can be reconnected without a scan
+    private static final String PREFERENCES_NAME = "ble";
+    private static final String PREFERENCE_DEVICE_ADDRESS = "last_device_address";
+    private static final String PREFERENCE_DEVICE_NAME = "last_device_name";
+    private static final String PREFERENCE_DEVICE_UUID = "last_device_uuid";
+
+    // Operations requested by clients
+    private static final int MSG_SCAN_AND_CONNECT = 1;
+    private static final int MSG_CONNECT = 2;
+    private static final int MSG_DISCONNECT = 3;
+    private static final int MSG_CLOSE = 4;
+    private static final int MSG_SEND_COMMAND = 5;
+    private static final int MSG_SEND_FRAME = 6;
+    private static final int MSG_USER_ACTIVITY = 7;
+    private static final int MSG_STREAM_ACTIVE = 8;
+    private static final int MSG_SET_RSSI_POLLING = 9;
+    private static final int MSG_CONNECT_LAST_DEVICE = 10;
+    private static final int MSG_UPLOAD_EFFECT = 11;
+    private static final int MSG_SEND_TIMED_COMMAND = 12;
+    private static final int MSG_SET_CANDIDATE_SCAN = 13;
+    private static final int MSG_SWITCH_TO_NEAREST = 14;
+
+    // Timers
+    private static final int MSG_SCAN_TIMEOUT = 20;
+    private static final int MSG_READ_RSSI = 21;
+    private static final int MSG_PRIORITY_TICK = 22;
+    private static final int MSG_CAPABILITY_PROBE_TIMEOUT = 23;
+    private static final int MSG_TIME_SYNC = 24;
+    private static final int MSG_CANDIDATE_WINDOW = 25;
+    private static final int MSG_SCAN_SETTLED = 26;
+    private static final int MSG_RETRY_WRITE = 27;
+
+    // Callbacks from the Bluetooth stack
+    private static final int MSG_SCAN_RESULT = 40;
+    private static final int MSG_CONNECTION_STATE_CHANGED = 41;
+    private static final int MSG_SERVICES_DISCOVERED = 42;
+    private static final int MSG_MTU_CHANGED = 43;
+    private static final int MSG_DESCRIPTOR_WRITE = 44;
+    private static final int MSG_CHARACTERISTIC_READ = 45;
+    private static final int MSG_CHARACTERISTIC_WRITE = 46;
+    private static final int MSG_CHARACTERISTIC_CHANGED = 47;
+    private static final int MSG_RSSI_READ = 48;
+
+    private volatile BluetoothManager mBluetoothManager;
+    private volatile BluetoothAdapter mBluetoothAdapter;
+
+    // Owned by the event loop
     private String mBluetoothDeviceAddress;
+    private String mBluetoothDeviceName = "";
+    private String mBluetoothDeviceUuid = "";
     private BluetoothGatt mBluetoothGatt;
+    private BluetoothGattCharacteristic mTxCharacteristic;
+    private boolean mScanning = false;
+    private long mScanStartMs;
+    private BluetoothDevice mFoundDevice;
+    private boolean mLeScanActive = false;
+    private boolean mCandidateScanning = false;
+    private boolean mCandidateWindowOpen = false;
+    private long mNearerLightAddress = -1;
+    private int mLinkRssi = Integer.MIN_VALUE;
+    private boolean mRssiPolling = true;
+    private boolean mCapabilityProbePending = false;
+    private int mLightCapabilities = 0;
+    private boolean mPriorityTickScheduled = false;
+    private boolean mConnected = false;
+    private boolean mQuietConnectAttempt = false;
+    private int mRxArrivalMicros;
+
+    // Written on the loop, read by the write callback to measure latency
+    private volatile long mWriteStartNanos;
+
+    // Read by scan callbacks to discard other devices before they reach the loop
+    private volatile String mTargetDeviceName;
+
+    private HandlerThread mBleThread;
+    private Handler mHandler;
+
+    private final MetricsRegistry mMetrics = MetricsRegistry.getDefault();
+    private final Counter mWritesIssued = mMetrics.counter("ble.writes.issued");
+    private final Counter mWritesCompleted = mMetrics.counter("ble.writes.completed");
+    private final Counter mWritesFailed = mMetrics.counter("ble.writes.failed");
+    private final Gauge mWritesCoalesced = mMetrics.gauge("ble.writes.coalesced");
+    private final Histogram mWriteLatencyUs =
+            mMetrics.histogram("ble.write.latency_us", Histogram.exponentialBounds(1000, 12));
+    private final SampleRing mWriteLatencyTrace =
+            mMetrics.sampleRing("ble.write.latency_ms", SampleRing.DEFAULT_CAPACITY);
+    private final Counter mNotifications = mMetrics.counter("ble.notifications");
+    private final Gauge mRssi = mMetrics.gauge("ble.rssi");
+    private final Counter mConnections = mMetrics.counter("ble.connections");
+    private final Counter mDisconnections = mMetrics.counter("ble.disconnections");
+    private final Counter mReconnects = mMetrics.counter("ble.reconnects");
+    private final Counter mEffectUploads = mMetrics.counter("ble.effect.uploads");
+    private final Gauge mClockUncertaintyUs = mMetrics.gauge("ble.clock.uncertainty_us");
+    private final Counter mTimedCommands = mMetrics.counter("ble.clock.timed_commands");
+    private final Histogram mScanDurationMs =
+            mMetrics.histogram("ble.scan.duration_ms", Histogram.exponentialBounds(100, 10));
+    private final Histogram mScanTimeToDeviceMs =
+            mMetrics.histogram("ble.scan.time_to_device_ms", Histogram.exponentialBounds(100, 10));
+    private final Gauge mCandidateCount = mMetrics.gauge("ble.candidates");
+    private final Counter mAdvertisements = mMetrics.counter("ble.advertisements");
+    private final Histogram mLoopDelayMs =
+            mMetrics.histogram("ble.loop.delay_ms", Histogram.exponentialBounds(1, 10));
+
+    // Lights heard while scanning, ranked by signal strength
+    private final CandidateTable<BluetoothDevice> mCandidates = new CandidateTable<>(
+            CandidateTable.DEFAULT_CAPACITY,
+            CandidateTable.DEFAULT_TIME_CONSTANT_MS,
+            CandidateTable.DEFAULT_STALE_AFTER_MS);
+
+    // The most recent frames in both directions, for diagnosing problems in the field
+    private final ProtocolCapture mProtocolCapture = new ProtocolCapture(PROTOCOL_CAPTURE_CAPACITY);
+
+    // Characteristic values by length, reused so that writes do not allocate
+    private final byte[][] mWriteValues =
+            new byte[LightProtocol.maxWriteLength(LightProtocol.PREFERRED_MTU) + 1][];
+
+    /**
+     * Writes payloads to the TX characteristic, one at a time.
+     */
+    private final WritePipeline mWritePipeline = new WritePipeline(new WritePipeline.Transport() {
+        @Override
+        public boolean write(byte[] payload, int length) {
+            if (mBluetoothGatt == null || mTxCharacteristic == null) {
+                return false;
+            }
+
+            byte[] value = mWriteValues[length];
+            if (value == null) {
+                value = new byte[length];
+                mWriteValues[length] = value;
+            }
+
+            System.arraycopy(payload, 0, value, 0, length);
+            mTxCharacteristic.setValue(value);
+            mWriteStartNanos = System.nanoTime();
+            if (!mBluetoothGatt.writeCharacteristic(mTxCharacteristic)) {
+                // Another GATT operation is outstanding; the payload stays queued. Its
+                // completion retries sooner, but not every operation reports back here
+                if (!mHandler.hasMessages(MSG_RETRY_WRITE)) {
+                    mHandler.sendEmptyMessageDelayed(MSG_RETRY_WRITE, WRITE_RETRY_MS);
+                }
+                return false;
+            }
+
+            mProtocolCapture.record(ProtocolCapture.DIRECTION_TX, value, 0, length);
+            mWritesIssued.increment();
+            return true;
+        }
+    });
+
+    // Tracks the light's clock so timed commands land together, and the frame they are built in
+    private final ClockSync mClockSync = new ClockSync(new ClockSyncEstimator(ClockSyncEstimator.DEFAULT_WINDOW));
+    private final byte[] mClockSyncFrame = new byte[ClockSync.TIMED_COMMAND_LENGTH];
+
+    /**
+     * Requests a shorter connection interval while the user is active, and a longer one when idle.
+     */
+    private final ConnectionPriorityManager mPriorityManager = new ConnectionPriorityManager(
+            new ConnectionPriorityManager.Listener() {
+                @Override
+                public void onPriorityChanged(int priority) {
+                    applyConnectionPriority(priority);
+                }
+            },
+            PRIORITY_BALANCED_AFTER_MS,
+            PRIORITY_LOW_POWER_AFTER_MS);
+
+    /**
+     * Runs every operation on the event loop.
+     */
+    private final Handler.Callback mEventLoop = new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            mLoopDelayMs.record(Math.max(0, SystemClock.uptimeMillis() - msg.getWhen()));
+
+            switch (msg.what) {
+                case MSG_SCAN_AND_CONNECT:
+                    handleScanAndConnect((String) msg.obj);
+                    return true;
+                case MSG_CONNECT:
+                    mQuietConnectAttempt = false;
+                    handleConnect((String) msg.obj);
+                    return true;
+                case MSG_CONNECT_LAST_DEVICE:
+                    handleConnectLastDevice();
+                    return true;
+                case MSG_DISCONNECT:
+                    handleDisconnect();
+                    return true;
+                case MSG_CLOSE:
+                    handleSetCandidateScan(null);
+                    handleClose();
+                    return true;
+                case MSG_SEND_COMMAND:
+                    if (mBluetoothGatt == null) {
+                        Log.w(TAG, "Not connected; command dropped");
+                    } else {
+                        mWritePipeline.send((byte) msg.arg1, (byte) (msg.arg2 >> 8), (byte) msg.arg2);
+                    }
+                    return true;
+                case MSG_SEND_FRAME:
+                    if (mBluetoothGatt == null) {
+                        Log.w(TAG, "Not connected; frame dropped");
+                    } else {
+                        byte[] frame = (byte[]) msg.obj;
+                        mWritePipeline.sendFrame(frame, 0, frame.length);
+                    }
+                    return true;
+                case MSG_UPLOAD_EFFECT:
+                    handleUploadEffect((byte[]) msg.obj);
+                    return true;
+                case MSG_SET_CANDIDATE_SCAN:
+                    handleSetCandidateScan((String) msg.obj);
+                    return true;
+                case MSG_SWITCH_TO_NEAREST:
+                    handleSwitchToNearest();
+                    return true;
+                case MSG_SEND_TIMED_COMMAND:
+                    handleSendTimedCommand((TimedCommand) msg.obj);
+                    return true;
+                case MSG_USER_ACTIVITY:
+                    schedulePriorityTick(mPriorityManager.onUserActivity(SystemClock.uptimeMillis()));
+                    return true;
+                case MSG_STREAM_ACTIVE:
+                    schedulePriorityTick(mPriorityManager.setStreamActive(msg.arg1 != 0, SystemClock.uptimeMillis()));
+                    return true;
+                case MSG_SET_RSSI_POLLING:
+                    mRssiPolling = msg.arg1 != 0;
+                    mHandler.removeMessages(MSG_READ_RSSI);
+                    if (mRssiPolling && mBluetoothGatt != null) {
+                        mHandler.sendEmptyMessage(MSG_READ_RSSI);
+                    }
+                    return true;
+                case MSG_SCAN_TIMEOUT:
+                    handleScanTimeout();
+                    return true;
+                case MSG_SCAN_SETTLED:
+                    handleScanSettled();
+                    return true;
+                case MSG_CANDIDATE_WINDOW:
+                    handleCandidateWindow();
+                    return true;
+                case MSG_READ_RSSI:
+                    if (mBluetoothGatt != null && mRssiPolling) {
+                        mBluetoothGatt.readRemoteRssi();
+                        mHandler.sendEmptyMessageDelayed(MSG_READ_RSSI, RSSI_POLL_INTERVAL_MS);
+                    }
+                    return true;
+                case MSG_PRIORITY_TICK:
+                    mPriorityTickScheduled = false;
+                    schedulePriorityTick(mPriorityManager.evaluate(SystemClock.uptimeMillis()));
+                    return true;
+                case MSG_TIME_SYNC:
+                    handleTimeSync();
+                    return true;
+                case MSG_RETRY_WRITE:
+                    if (mBluetoothGatt != null) {
+                        mWritePipeline.retry();
+                    }
+                    return true;
+                case MSG_CAPABILITY_PROBE_TIMEOUT:
+                    if (mCapabilityProbePending) {
+                        mCapabilityProbePending = false;
+                        Log.i(TAG, "No capability response; using legacy 3-byte writes");
+                    }
+                    return true;
+                case MSG_SCAN_RESULT:
+                    handleScanResult((BluetoothDevice) msg.obj, msg.arg1);
+                    return true;
+                case MSG_CONNECTION_STATE_CHANGED:
+                    handleConnectionStateChanged((BluetoothGatt) msg.obj, msg.arg1);
+                    return true;
+                case MSG_SERVICES_DISCOVERED:
+                    handleServicesDiscovered(msg.arg1);
+                    return true;
+                case MSG_MTU_CHANGED:
+                    handleMtuChanged(msg.arg1, msg.arg2);
+                    return true;
+                case MSG_DESCRIPTOR_WRITE:
+                    handleDescriptorWrite(msg.arg1);
+                    return true;
+                case MSG_CHARACTERISTIC_READ:
+                    if (msg.arg1 == BluetoothGatt.GATT_SUCCESS && msg.obj != null) {
+                        byte[] value = (byte[]) msg.obj;
+                        mRxDecoder.decode(value, 0, value.length);
+                    }
+                    // Queuing the probe also retries anything refused during the read
+                    startCapabilityProbe();
+                    return true;
+                case MSG_CHARACTERISTIC_WRITE:
+                    handleCharacteristicWrite(msg.arg1, msg.arg2);
+                    return true;
+                case MSG_CHARACTERISTIC_CHANGED:
+                    handleCharacteristicChanged((byte[]) msg.obj, msg.arg1);
+                    return true;
+                case MSG_RSSI_READ:
+                    if (msg.arg2 == BluetoothGatt.GATT_SUCCESS) {
+                        mRssi.set(msg.arg1);
+                        mLinkRssi = msg.arg1;
+                        broadcastUpdate(ACTION_GATT_RSSI, msg.arg1);
+                    } else {
+                        Log.w(TAG, "onReadRemoteRssi received: " + msg.arg2);
+                    }
+                    mWritePipeline.retry();
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    };
 
     public final static String ACTION_GATT_CONNECTED = "ACTION_GATT_CONNECTED";
     public final static String ACTION_GATT_DISCONNECTED = "ACTION_GATT_DISCONNECTED";
     public final static String ACTION_GATT_SERVICES_DISCOVERED = "ACTION_GATT_SERVICES_DISCOVERED";
     public final static String ACTION_GATT_RSSI = "ACTION_GATT_RSSI";
     public final static String ACTION_DATA_AVAILABLE = "ACTION_DATA_AVAILABLE";
+    public final static String ACTION_DEVICE_NOT_FOUND = "ACTION_DEVICE_NOT_FOUND";
+    public final static String ACTION_NEARER_LIGHT = "ACTION_NEARER_LIGHT";
+    /**
+     * ACTION_DATA_AVAILABLE carries one complete frame from the light, starting with the
+     * command byte
+     */
     public final static String EXTRA_DATA = "EXTRA_DATA";
+    public final static String EXTRA_DEVICE_NAME = "EXTRA_DEVICE_NAME";
+    public final static String EXTRA_DEVICE_UUID = "EXTRA_DEVICE_UUID";
 
     public final static UUID UUID_BLE_SHIELD_TX = UUID.fromString(RBLGattAttributes.BLE_SHIELD_TX);
     public final static UUID UUID_BLE_SHIELD_RX = UUID.fromString(RBLGattAttributes.BLE_SHIELD_RX);
     public final static UUID UUID_BLE_SHIELD_SERVICE = UUID
             .fromString(RBLGattAttributes.BLE_SHIELD_SERVICE);
 
+    // The light's service UUID as it appears in advertisements, least significant byte first,
+    // and as the hex string clients are given
+    private final static byte[] ADVERTISED_SERVICE_UUID = toAdvertisedUuid(UUID_BLE_SHIELD_SERVICE);
+    private final static String SERVICE_UUID_HEX = RBLGattAttributes.BLE_SHIELD_SERVICE.replace("-", "");
+
+    /**
+     * Forwards GATT callbacks to the event loop.
+     */
     private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status,
                                             int newState) {
-            String intentAction;
-
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                intentAction = ACTION_GATT_CONNECTED;
-                broadcastUpdate(intentAction);
-                Log.i(TAG, "Connected to GATT server.");
-                // Attempts to discover services after successful connection.
-                Log.i(TAG, "Attempting to start service discovery:"
-                        + mBluetoothGatt.discoverServices());
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                intentAction = ACTION_GATT_DISCONNECTED;
-                Log.i(TAG, "Disconnected from GATT server.");
-                broadcastUpdate(intentAction);
-            }
+            mHandler.obtainMessage(MSG_CONNECTION_STATE_CHANGED, newState, status, gatt).sendToTarget();
         }
 
         public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_GATT_RSSI, rssi);
-            } else {
-                Log.w(TAG, "onReadRemoteRssi received: " + status);
-            }
+            mHandler.obtainMessage(MSG_RSSI_READ, rssi, status).sendToTarget();
         };
 
         @Override
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
-            } else {
-                Log.w(TAG, "onServicesDiscovered received: " + status);
-            }
+            mHandler.obtainMessage(MSG_SERVICES_DISCOVERED, status, 0).sendToTarget();
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            mHandler.obtainMessage(MSG_MTU_CHANGED, mtu, status).sendToTarget();
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                      int status) {
+            mHandler.obtainMessage(MSG_DESCRIPTOR_WRITE, status, 0).sendToTarget();
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                                          BluetoothGattCharacteristic characteristic, int status) {
+            int latencyMicros = (int) ((System.nanoTime() - mWriteStartNanos) / 1000);
+            mHandler.obtainMessage(MSG_CHARACTERISTIC_WRITE, status, latencyMicros).sendToTarget();
         }
 
         @Override
         public void onCharacteristicRead(BluetoothGatt gatt,
                                          BluetoothGattCharacteristic characteristic, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
-            }
+            byte[] value = UUID_BLE_SHIELD_RX.equals(characteristic.getUuid()) ? characteristic.getValue() : null;
+            mHandler.obtainMessage(MSG_CHARACTERISTIC_READ, status, 0, value).sendToTarget();
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt,
                                             BluetoothGattCharacteristic characteristic) {
-            broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+            // The stack hands each notification a new array, so it can be passed on as is
+            byte[] value = characteristic.getValue();
+            if (value != null) {
+                mProtocolCapture.record(ProtocolCapture.DIRECTION_RX, value, 0, value.length);
+            }
+
+            // Stamped here rather than on the loop, which may be busy; clock sync needs the arrival
+            mHandler.obtainMessage(MSG_CHARACTERISTIC_CHANGED, (int) nowMicros(), 0, value).sendToTarget();
         }
     };
 
+    /**
+     * Forwards advertisements of the light's service from the target device to the event loop.
+     * Busy rooms deliver hundreds of advertisements a second, so this does not allocate beyond
+     * the pooled message.
+     */
+    private final BluetoothAdapter.LeScanCallback mLeScanCallback = new BluetoothAdapter.LeScanCallback() {
+        @Override
+        public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
+            String targetDeviceName = mTargetDeviceName;
+            if (targetDeviceName != null && targetDeviceName.equals(device.getName())
+                    && advertisesService(scanRecord, targetDeviceName.length() + 1)) {
+                mHandler.obtainMessage(MSG_SCAN_RESULT, rssi, 0, device).sendToTarget();
+            }
+        }
+    };
+
+    /**
+     * A command to apply at a given time
+     */
+    private static class TimedCommand {
+        final long atMicros;
+        final byte command;
+        final byte arg0;
+        final byte arg1;
+
+        TimedCommand(long atMicros, byte command, byte arg0, byte arg1) {
+            this.atMicros = atMicros;
+            this.command = command;
+            this.arg0 = arg0;
+            this.arg1 = arg1;
+        }
+    }
+
     private void broadcastUpdate(final String action) {
         final Intent intent = new Intent(action);
         sendBroadcast(intent);
@@ -109,16 +514,9 @@ public class RBLService extends Service{
         sendBroadcast(intent);
     }
 
-    private void broadcastUpdate(final String action,
-                                 final BluetoothGattCharacteristic characteristic) {
+    private void broadcastUpdate(final String action, final byte[] rx) {
         final Intent intent = new Intent(action);
-
-        // This is special handling for the Heart Rate Measurement profile. Data
-        // parsing is
-        // carried out as per profile specifications:
-        // http://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.heart_rate_measurement.xml
-        if (UUID_BLE_SHIELD_RX.equals(characteristic.getUuid())) {
-            final byte[] rx = characteristic.getValue();
+        if (rx != null) {
             intent.putExtra(EXTRA_DATA, rx);
         }
 
@@ -131,6 +529,22 @@ public class RBLService extends Service{
         }
     }
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mBleThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+        mBleThread.start();
+        mHandler = new Handler(mBleThread.getLooper(), mEventLoop);
+    }
+
+    @Override
+    public void onDestroy() {
+        mHandler.sendEmptyMessage(MSG_CLOSE);
+        mBleThread.quitSafely();
+        super.onDestroy();
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
@@ -151,7 +565,45 @@ public class RBLService extends Service{
     private final IBinder mBinder = new LocalBinder();
 
     /**
-     * Initializes a reference to the local Bluetooth adapter.
+     * Prints operational metrics for {@code adb shell dumpsys activity service RBLService}.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        final String[] linkState = new String[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mWritesCoalesced.set(mWritePipeline.getCommandsCoalesced());
+                linkState[0] = String.format(Locale.ENGLISH,
+                        "  connected = %b%n  MTU = %d%n  packed writes = %b%n  connection priority = %s%n",
+                        mBluetoothGatt != null,
+                        mWritePipeline.getMtu(),
+                        mWritePipeline.isPackedWrites(),
+                        mPriorityManager.summary());
+                done.countDown();
+            }
+        });
+
+        writer.println("Link:");
+        try {
+            if (done.await(DUMP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                writer.print(linkState[0]);
+            } else {
+                writer.println("  event loop did not respond within " + DUMP_TIMEOUT_MS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        writer.println("  frames captured = " + mProtocolCapture.getRecordedCount());
+        writer.println("Metrics:");
+        mMetrics.dump(writer, "  ");
+    }
+
+    /**
+     * Initializes a reference to the local Bluetooth adapter. Must be called before any other
+     * operation.
      *
      * @return Return true if the initialization is successful.
      */
@@ -177,21 +629,460 @@ public class RBLService extends Service{
     }
 
     /**
-     * Connects to the GATT server hosted on the Bluetooth LE device.
+     * Connects to the light with the given name, scanning for it first unless it was found
+     * before. The result is broadcast as {@link #ACTION_GATT_SERVICES_DISCOVERED} once the link
+     * is ready, or {@link #ACTION_DEVICE_NOT_FOUND}.
+     *
+     * @param deviceName the advertised name of the light
+     */
+    public void scanAndConnect(String deviceName) {
+        mHandler.obtainMessage(MSG_SCAN_AND_CONNECT, deviceName).sendToTarget();
+    }
+
+    /**
+     * Connects to the GATT server hosted on the Bluetooth LE device. The
+     * connection result is reported asynchronously through the
+     * {@link #ACTION_GATT_CONNECTED} broadcast.
      *
      * @param address
      *            The device address of the destination device.
+     */
+    public void connect(final String address) {
+        mHandler.obtainMessage(MSG_CONNECT, address).sendToTarget();
+    }
+
+    /**
+     * Reconnects to the light that was last connected, if any, without scanning. A failed
+     * attempt is not broadcast, so this can be called speculatively at startup.
+     */
+    public void connectToLastDevice() {
+        mHandler.sendEmptyMessage(MSG_CONNECT_LAST_DEVICE);
+    }
+
+    /**
+     * Disconnects an existing connection or cancel a pending connection, and releases it.
+     */
+    public void disconnect() {
+        mHandler.sendEmptyMessage(MSG_DISCONNECT);
+    }
+
+    /**
+     * After using a given BLE device, the app must call this method to ensure
+     * resources are released properly.
+     */
+    public void close() {
+        mHandler.sendEmptyMessage(MSG_CLOSE);
+    }
+
+    /**
+     * Starts or stops polling the signal strength while connected, e.g. while the activity is
+     * visible.
+     *
+     * @param enabled whether to poll
+     */
+    public void setRssiPolling(boolean enabled) {
+        mHandler.obtainMessage(MSG_SET_RSSI_POLLING, enabled ? 1 : 0, 0).sendToTarget();
+    }
+
+    /**
+     * Keeps a ranking of the lights with the given name in range, scanning in short windows a
+     * tenth of the time, e.g. while the activity is visible. {@link #scanAndConnect} then
+     * connects to the nearest light without waiting for a scan, and while connected, a light
+     * whose signal is clearly stronger is broadcast as {@link #ACTION_NEARER_LIGHT}.
+     *
+     * @param deviceName the advertised name of the lights
+     */
+    public void startCandidateScan(String deviceName) {
+        mHandler.obtainMessage(MSG_SET_CANDIDATE_SCAN, deviceName).sendToTarget();
+    }
+
+    /**
+     * Stops the scan windows started by {@link #startCandidateScan}.
+     */
+    public void stopCandidateScan() {
+        mHandler.obtainMessage(MSG_SET_CANDIDATE_SCAN, null).sendToTarget();
+    }
+
+    /**
+     * Moves the connection to the light with the strongest signal, if it is not the connected
+     * one. Needs {@link #startCandidateScan}.
+     */
+    public void switchToNearestLight() {
+        mHandler.sendEmptyMessage(MSG_SWITCH_TO_NEAREST);
+    }
+
+    /**
+     * Sends a state command to the light. If an older command of the same type is still
+     * waiting for the link, it is replaced rather than sent.
+     *
+     * @param command the command byte
+     * @param arg0    the first argument byte
+     * @param arg1    the second argument byte
+     */
+    public void sendCommand(byte command, byte arg0, byte arg1) {
+        mHandler.obtainMessage(MSG_SEND_COMMAND, command, (arg0 & 0xFF) << 8 | (arg1 & 0xFF)).sendToTarget();
+    }
+
+    /**
+     * Sends a frame that must reach the light in order, such as an effect keyframe.
+     *
+     * @param frame  buffer holding the frame; copied, so it may be reused after the call
+     * @param offset offset of the frame in the buffer
+     * @param length length of the frame
+     */
+    public void sendFrame(byte[] frame, int offset, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(frame, offset, copy, 0, length);
+        mHandler.obtainMessage(MSG_SEND_FRAME, copy).sendToTarget();
+    }
+
+    /**
+     * Uploads a compiled effect for the light to play on its own. Lights without
+     * {@link LightProtocol#CAPABILITY_EFFECTS} ignore it. The light reports the outcome with
+     * {@link LightProtocol#CMD_CLIENT_NOTIFY_EFFECT_STATUS}.
+     *
+     * @param program the compiled program; copied, so it may be reused after the call
+     */
+    public void uploadEffect(byte[] program) {
+        mHandler.obtainMessage(MSG_UPLOAD_EFFECT, program.clone()).sendToTarget();
+    }
+
+    /**
+     * Sends a state command for the light to apply at a given time, so that several lights
+     * can change together. Lights without {@link LightProtocol#CAPABILITY_CLOCK}, or whose
+     * clock is not known yet, apply it on arrival instead.
+     *
+     * @param atMicros when to apply the command, on the {@link #nowMicros()} clock
+     * @param command  the command byte
+     * @param arg0     the first argument byte
+     * @param arg1     the second argument byte
+     */
+    public void sendCommandAt(long atMicros, byte command, byte arg0, byte arg1) {
+        mHandler.obtainMessage(MSG_SEND_TIMED_COMMAND, new TimedCommand(atMicros, command, arg0, arg1))
+                .sendToTarget();
+    }
+
+    /**
+     * Gets the time base of {@link #sendCommandAt}.
+     *
+     * @return a monotonic time in microseconds
+     */
+    public static long nowMicros() {
+        return System.nanoTime() / 1000;
+    }
+
+    /**
+     * Stops the effect the light is playing, keeping its current colour.
+     */
+    public void stopEffect() {
+        sendCommand(LightProtocol.CMD_EFFECT_STOP, (byte) 0x00, (byte) 0x00);
+    }
+
+    /**
+     * Writes the most recently sent and received frames to a file, for offline replay.
+     *
+     * @param file the file to write
+     * @return     the number of frames written
+     * @throws IOException if the file cannot be written
+     */
+    public int dumpProtocolCapture(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            return mProtocolCapture.dump(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reports user interaction with the controls, so that the link runs at high priority.
+     */
+    public void onUserActivity() {
+        mHandler.sendEmptyMessage(MSG_USER_ACTIVITY);
+    }
+
+    /**
+     * Reports the start or end of a continuous command stream, such as motion mode, which
+     * keeps the link at high priority until it ends.
+     *
+     * @param active whether the stream is active
+     */
+    public void setStreamActive(boolean active) {
+        mHandler.obtainMessage(MSG_STREAM_ACTIVE, active ? 1 : 0, 0).sendToTarget();
+    }
+
+    /**
+     * Connects to the nearest light heard recently, or the known light, or scans for one.
+     *
+     * @param deviceName the advertised name of the light
+     */
+    private void handleScanAndConnect(String deviceName) {
+        if (mBluetoothAdapter == null) {
+            Log.w(TAG, "BluetoothAdapter not initialized");
+            return;
+        }
+
+        mQuietConnectAttempt = false;
+        setTargetDeviceName(deviceName);
+
+        int nearest = mCandidates.strongest(SystemClock.uptimeMillis(), CANDIDATE_MIN_SIGHTINGS);
+        if (nearest >= 0) {
+            connectToCandidate(nearest);
+            return;
+        }
+
+        if (mBluetoothDeviceAddress != null && deviceName.equals(mBluetoothDeviceName)) {
+            handleConnect(mBluetoothDeviceAddress);
+            return;
+        }
+
+        if (mScanning) {
+            return;
+        }
+
+        mFoundDevice = null;
+        mScanning = true;
+        mScanStartMs = SystemClock.uptimeMillis();
+        updateLeScan();
+        mHandler.sendEmptyMessageDelayed(MSG_SCAN_TIMEOUT, SCAN_PERIOD_MS);
+    }
+
+    /**
+     * Connects to the light remembered from an earlier session.
+     */
+    private void handleConnectLastDevice() {
+        if (mBluetoothGatt != null || mScanning) {
+            return;
+        }
+
+        SharedPreferences preferences = getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        String address = preferences.getString(PREFERENCE_DEVICE_ADDRESS, null);
+        if (address == null) {
+            return;
+        }
+
+        mBluetoothDeviceName = preferences.getString(PREFERENCE_DEVICE_NAME, "");
+        mBluetoothDeviceUuid = preferences.getString(PREFERENCE_DEVICE_UUID, "");
+        mQuietConnectAttempt = true;
+        handleConnect(address);
+    }
+
+    /**
+     * Ranks a light by an advertisement of the light's service. A scan to connect waits
+     * briefly after the first light is heard, so that a nearer one is not passed over.
+     *
+     * @param device the advertising light
+     * @param rssi   the received signal strength in dBm
+     */
+    private void handleScanResult(BluetoothDevice device, int rssi) {
+        mAdvertisements.increment();
+
+        long nowMs = SystemClock.uptimeMillis();
+        int index = mCandidates.update(CandidateTable.parseAddress(device.getAddress()), rssi, nowMs, device);
+        mCandidateCount.set(mCandidates.size());
+        if (index < 0) {
+            return;
+        }
+
+        if (mScanning) {
+            if (!mHandler.hasMessages(MSG_SCAN_SETTLED)) {
+                mScanTimeToDeviceMs.record(nowMs - mScanStartMs);
+                mHandler.sendEmptyMessageDelayed(MSG_SCAN_SETTLED, SCAN_SETTLE_MS);
+            }
+        } else if (mConnected) {
+            checkForNearerLight(index);
+        }
+    }
+
+    /**
+     * Connects to the strongest light heard since the scan found the first one.
+     */
+    private void handleScanSettled() {
+        if (!mScanning) {
+            return;
+        }
+
+        int nearest = mCandidates.strongest(SystemClock.uptimeMillis(), 1);
+        if (nearest >= 0) {
+            connectToCandidate(nearest);
+        }
+    }
+
+    /**
+     * Gives up scanning when no light advertised in time.
+     */
+    private void handleScanTimeout() {
+        if (!mScanning) {
+            return;
+        }
+
+        // A light heard just before the timeout has not had its settling time yet
+        int nearest = mCandidates.strongest(SystemClock.uptimeMillis(), 1);
+        if (nearest >= 0) {
+            connectToCandidate(nearest);
+            return;
+        }
+
+        stopScan();
+        broadcastUpdate(ACTION_DEVICE_NOT_FOUND);
+    }
+
+    /**
+     * Stops a scan in progress.
+     */
+    private void stopScan() {
+        mHandler.removeMessages(MSG_SCAN_TIMEOUT);
+        mHandler.removeMessages(MSG_SCAN_SETTLED);
+        mScanning = false;
+        updateLeScan();
+        mScanDurationMs.record(SystemClock.uptimeMillis() - mScanStartMs);
+    }
+
+    /**
+     * Starts or stops the background scan windows.
      *
-     * @return Return true if the connection is initiated successfully. The
-     *         connection result is reported asynchronously through the
-     *         {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
-     *         callback.
+     * @param deviceName the advertised name of the lights, or null to stop
+     */
+    private void handleSetCandidateScan(String deviceName) {
+        if (mBluetoothAdapter == null) {
+            return;
+        }
+
+        mHandler.removeMessages(MSG_CANDIDATE_WINDOW);
+        mCandidateWindowOpen = false;
+        mCandidateScanning = deviceName != null;
+        if (mCandidateScanning) {
+            setTargetDeviceName(deviceName);
+            mHandler.sendEmptyMessage(MSG_CANDIDATE_WINDOW);
+        }
+
+        updateLeScan();
+    }
+
+    /**
+     * Opens or closes a background scan window. Stale lights are dropped as each one opens.
+     */
+    private void handleCandidateWindow() {
+        if (!mCandidateScanning) {
+            return;
+        }
+
+        mCandidateWindowOpen = !mCandidateWindowOpen;
+        if (mCandidateWindowOpen) {
+            mCandidates.evictStale(SystemClock.uptimeMillis());
+            mCandidateCount.set(mCandidates.size());
+        }
+
+        updateLeScan();
+        mHandler.sendEmptyMessageDelayed(MSG_CANDIDATE_WINDOW,
+                mCandidateWindowOpen ? CANDIDATE_WINDOW_MS : CANDIDATE_PERIOD_MS - CANDIDATE_WINDOW_MS);
+    }
+
+    /**
+     * Runs the radio scan while a scan to connect or a background window needs it. Both share
+     * one legacy scan, since a second concurrent scan would report every advertisement twice.
      */
-    public boolean connect(final String address) {
+    private void updateLeScan() {
+        boolean wanted = mScanning || (mCandidateScanning && mCandidateWindowOpen);
+        if (wanted == mLeScanActive) {
+            return;
+        }
+
+        if (wanted) {
+            mLeScanActive = mBluetoothAdapter.startLeScan(mLeScanCallback);
+            if (!mLeScanActive) {
+                Log.w(TAG, "Unable to start scan");
+            }
+        } else {
+            mBluetoothAdapter.stopLeScan(mLeScanCallback);
+            mLeScanActive = false;
+        }
+    }
+
+    /**
+     * Sets the name of the lights scanned for, forgetting the lights ranked under another.
+     *
+     * @param deviceName the advertised name
+     */
+    private void setTargetDeviceName(String deviceName) {
+        if (!deviceName.equals(mTargetDeviceName)) {
+            mCandidates.clear();
+            mCandidateCount.set(0);
+        }
+        mTargetDeviceName = deviceName;
+    }
+
+    /**
+     * Moves the connection to the strongest light, unless it is already connected.
+     */
+    private void handleSwitchToNearest() {
+        int nearest = mCandidates.strongest(SystemClock.uptimeMillis(), CANDIDATE_MIN_SIGHTINGS);
+        if (nearest < 0) {
+            return;
+        }
+
+        if (mBluetoothGatt != null) {
+            if (mCandidates.getTag(nearest).getAddress().equals(mBluetoothDeviceAddress)) {
+                return;
+            }
+
+            handleDisconnect();
+            broadcastUpdate(ACTION_GATT_DISCONNECTED);
+        }
+
+        mQuietConnectAttempt = false;
+        connectToCandidate(nearest);
+    }
+
+    /**
+     * Tells clients once about a light whose signal is clearly stronger than the connected
+     * light's, suggesting the user has moved closer to it.
+     *
+     * @param index the light's index in the candidate table
+     */
+    private void checkForNearerLight(int index) {
+        long address = mCandidates.getAddress(index);
+        if (address == mNearerLightAddress
+                || mLinkRssi == Integer.MIN_VALUE
+                || mCandidates.getSightings(index) < CANDIDATE_MIN_SIGHTINGS
+                || mCandidates.getRssi(index) < mLinkRssi + NEARER_LIGHT_MARGIN_DB
+                || address == CandidateTable.parseAddress(mBluetoothDeviceAddress)) {
+            return;
+        }
+
+        mNearerLightAddress = address;
+        final Intent intent = new Intent(ACTION_NEARER_LIGHT);
+        intent.putExtra(EXTRA_DATA, mCandidates.getTag(index).getAddress());
+        sendBroadcast(intent);
+    }
+
+    /**
+     * Connects to a ranked light.
+     *
+     * @param index the light's index in the candidate table
+     */
+    private void connectToCandidate(int index) {
+        BluetoothDevice device = mCandidates.getTag(index);
+        mFoundDevice = device;
+        mBluetoothDeviceName = device.getName();
+        mBluetoothDeviceUuid = SERVICE_UUID_HEX;
+
+        if (mScanning) {
+            stopScan();
+        }
+        handleConnect(device.getAddress());
+    }
+
+    /**
+     * Opens a GATT connection.
+     *
+     * @param address the device address
+     */
+    private void handleConnect(String address) {
         if (mBluetoothAdapter == null || address == null) {
             Log.w(TAG,
                     "BluetoothAdapter not initialized or unspecified address.");
-            return false;
+            return;
         }
 
         // Previously connected device. Try to reconnect.
@@ -200,14 +1091,15 @@ public class RBLService extends Service{
                 && mBluetoothGatt != null) {
             Log.d(TAG,
                     "Trying to use an existing mBluetoothGatt for connection.");
-
-            return mBluetoothGatt.connect();
+            mReconnects.increment();
+            mBluetoothGatt.connect();
+            return;
         }
 
         final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
         if (device == null) {
             Log.w(TAG, "Device not found.  Unable to connect.");
-            return false;
+            return;
         }
         // We want to directly connect to the device, so we are setting the
         // autoConnect
@@ -215,29 +1107,32 @@ public class RBLService extends Service{
         mBluetoothGatt = device.connectGatt(this, false, mGattCallback);
         Log.d(TAG, "Trying to create a new connection.");
         mBluetoothDeviceAddress = address;
-
-        return true;
     }
 
     /**
-     * Disconnects an existing connection or cancel a pending connection. The
-     * disconnection result is reported asynchronously through the
-     * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
-     * callback.
+     * Disconnects and releases the connection. No disconnect broadcast follows.
      */
-    public void disconnect() {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+    private void handleDisconnect() {
+        if (mBluetoothGatt == null) {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
+
         mBluetoothGatt.disconnect();
+        handleClose();
     }
 
     /**
-     * After using a given BLE device, the app must call this method to ensure
-     * resources are released properly.
+     * Releases the connection and any scan in progress.
      */
-    public void close() {
+    private void handleClose() {
+        if (mScanning) {
+            stopScan();
+        }
+
+        resetWriteState();
+        mConnected = false;
+
         if (mBluetoothGatt == null) {
             return;
         }
@@ -245,40 +1140,341 @@ public class RBLService extends Service{
         mBluetoothGatt = null;
     }
 
+    private void handleConnectionStateChanged(BluetoothGatt gatt, int newState) {
+        if (gatt != mBluetoothGatt) {
+            // A late callback for a connection that has since been closed
+            return;
+        }
+
+        if (newState == BluetoothProfile.STATE_CONNECTED) {
+            mConnected = true;
+            mQuietConnectAttempt = false;
+            mConnections.increment();
+            broadcastUpdate(ACTION_GATT_CONNECTED);
+            schedulePriorityTick(mPriorityManager.start(SystemClock.uptimeMillis()));
+            Log.i(TAG, "Connected to GATT server.");
+            // Attempts to discover services after successful connection.
+            Log.i(TAG, "Attempting to start service discovery:"
+                    + mBluetoothGatt.discoverServices());
+        } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+            if (!mConnected && mQuietConnectAttempt) {
+                Log.i(TAG, "Light from the last session is not reachable");
+                mQuietConnectAttempt = false;
+                handleClose();
+                return;
+            }
+
+            mConnected = false;
+            mDisconnections.increment();
+            resetWriteState();
+            Log.i(TAG, "Disconnected from GATT server.");
+            broadcastUpdate(ACTION_GATT_DISCONNECTED);
+        }
+    }
+
+    private void handleServicesDiscovered(int status) {
+        if (mBluetoothGatt == null) {
+            return;
+        }
+
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            Log.w(TAG, "onServicesDiscovered received: " + status);
+            return;
+        }
+
+        BluetoothGattService service = mBluetoothGatt.getService(UUID_BLE_SHIELD_SERVICE);
+        if (service != null) {
+            mTxCharacteristic = service.getCharacteristic(UUID_BLE_SHIELD_TX);
+        }
+
+        // Only one GATT operation may be outstanding, so the MTU exchange has to
+        // finish before notifications are enabled
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP
+                || !mBluetoothGatt.requestMtu(LightProtocol.PREFERRED_MTU)) {
+            onLinkReady();
+        }
+    }
+
+    private void handleMtuChanged(int mtu, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            Log.i(TAG, "Negotiated MTU " + mtu);
+            mWritePipeline.setMtu(mtu);
+        } else {
+            Log.w(TAG, "onMtuChanged received: " + status);
+        }
+
+        onLinkReady();
+    }
+
+    /**
+     * Enables notifications from the light and tells clients the link is ready.
+     */
+    private void onLinkReady() {
+        if (mBluetoothGatt == null) {
+            return;
+        }
+
+        BluetoothGattService service = mBluetoothGatt.getService(UUID_BLE_SHIELD_SERVICE);
+        if (service == null) {
+            Log.w(TAG, "Light service not found");
+            return;
+        }
+
+        BluetoothGattCharacteristic characteristicRx = service.getCharacteristic(UUID_BLE_SHIELD_RX);
+        if (characteristicRx != null) {
+            setCharacteristicNotification(characteristicRx, true);
+        }
+
+        mHandler.removeMessages(MSG_READ_RSSI);
+        if (mRssiPolling) {
+            mHandler.sendEmptyMessage(MSG_READ_RSSI);
+        }
+
+        // A request made while the link was being set up may have been ignored; this also
+        // brings back the priority of a stream that was running before a reconnect
+        applyConnectionPriority(mPriorityManager.getPriority());
+
+        getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit()
+                .putString(PREFERENCE_DEVICE_ADDRESS, mBluetoothDeviceAddress)
+                .putString(PREFERENCE_DEVICE_NAME, mBluetoothDeviceName)
+                .putString(PREFERENCE_DEVICE_UUID, mBluetoothDeviceUuid)
+                .apply();
+
+        final Intent intent = new Intent(ACTION_GATT_SERVICES_DISCOVERED);
+        intent.putExtra(EXTRA_DEVICE_NAME, mBluetoothDeviceName);
+        intent.putExtra(EXTRA_DEVICE_UUID, mBluetoothDeviceUuid);
+        sendBroadcast(intent);
+    }
+
+    private void handleDescriptorWrite(int status) {
+        if (mBluetoothGatt == null) {
+            return;
+        }
+
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            mWritePipeline.retry();
+            return;
+        }
+
+        // Read the light's current state before probing its capabilities; the read and the
+        // probe cannot be outstanding at the same time
+        BluetoothGattService service = mBluetoothGatt.getService(UUID_BLE_SHIELD_SERVICE);
+        BluetoothGattCharacteristic characteristicRx =
+                service == null ? null : service.getCharacteristic(UUID_BLE_SHIELD_RX);
+        if (characteristicRx == null || !mBluetoothGatt.readCharacteristic(characteristicRx)) {
+            startCapabilityProbe();
+        }
+    }
+
+    private void handleCharacteristicWrite(int status, int latencyMicros) {
+        mPriorityManager.onWriteCompleted(latencyMicros * 1000L);
+        mWriteLatencyUs.record(latencyMicros);
+        mWriteLatencyTrace.add(latencyMicros / 1000f);
+
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            mWritesCompleted.increment();
+        } else {
+            mWritesFailed.increment();
+        }
+
+        mWritePipeline.onWriteComplete(status == BluetoothGatt.GATT_SUCCESS);
+    }
+
+    private void handleCharacteristicChanged(byte[] value, int arrivalMicros) {
+        mNotifications.increment();
+
+        if (value != null) {
+            mRxArrivalMicros = arrivalMicros;
+            mRxDecoder.decode(value, 0, value.length);
+        }
+    }
+
     /**
-     * Request a read on a given {@code BluetoothGattCharacteristic}. The read
-     * result is reported asynchronously through the
-     * {@code BluetoothGattCallback#onCharacteristicRead(android.bluetooth.BluetoothGatt, android.bluetooth.BluetoothGattCharacteristic, int)}
-     * callback.
+     * Splits the notification stream into frames once for every consumer. The service keeps the
+     * frames it negotiates with and broadcasts the rest one frame at a time.
+     */
+    private final FrameDecoder mRxDecoder = new FrameDecoder(new FrameDecoder.FrameListener() {
+        @Override
+        public void onFrame(byte[] frame, int offset, int length) {
+            byte command = frame[offset];
+
+            if (command == LightProtocol.CMD_CLIENT_NOTIFY_CAPABILITIES && mCapabilityProbePending
+                    && length >= 2) {
+                onCapabilityResponse(frame[offset + 1] & 0xFF);
+                return;
+            }
+
+            if (command == LightProtocol.CMD_CLIENT_NOTIFY_TIME_SYNC) {
+                long now = nowMicros();
+                if (mClockSync.onReply(frame, offset, length, now + (mRxArrivalMicros - (int) now))) {
+                    mClockUncertaintyUs.set(mClockSync.getEstimator().getUncertaintyUs());
+                }
+                return;
+            }
+
+            broadcastUpdate(ACTION_DATA_AVAILABLE, Arrays.copyOfRange(frame, offset, offset + length));
+        }
+    });
+
+    /**
+     * Makes sure the connection priority is re-evaluated after a delay.
      *
-     * @param characteristic
-     *            The characteristic to read from.
+     * @param delayMs milliseconds until the next evaluation, or -1 if none is needed
      */
-    public void readCharacteristic(BluetoothGattCharacteristic characteristic) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized");
+    private void schedulePriorityTick(long delayMs) {
+        if (delayMs >= 0 && !mPriorityTickScheduled) {
+            mPriorityTickScheduled = true;
+            mHandler.sendEmptyMessageDelayed(MSG_PRIORITY_TICK, delayMs);
+        }
+    }
+
+    /**
+     * Requests a connection priority from the stack, where the platform supports it.
+     *
+     * @param priority one of the ConnectionPriorityManager.PRIORITY_* constants
+     */
+    private void applyConnectionPriority(int priority) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || mBluetoothGatt == null) {
             return;
         }
 
-        mBluetoothGatt.readCharacteristic(characteristic);
+        int gattPriority;
+        switch (priority) {
+            case ConnectionPriorityManager.PRIORITY_HIGH:
+                gattPriority = BluetoothGatt.CONNECTION_PRIORITY_HIGH;
+                break;
+            case ConnectionPriorityManager.PRIORITY_LOW_POWER:
+                gattPriority = BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER;
+                break;
+            default:
+                gattPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+                break;
+        }
+
+        mBluetoothGatt.requestConnectionPriority(gattPriority);
     }
 
-    public void readRssi() {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized");
+    /**
+     * Queues the frames of an effect upload.
+     *
+     * @param program the compiled program
+     */
+    private void handleUploadEffect(byte[] program) {
+        if (mBluetoothGatt == null) {
+            Log.w(TAG, "Not connected; effect dropped");
             return;
         }
 
-        mBluetoothGatt.readRemoteRssi();
+        if ((mLightCapabilities & LightProtocol.CAPABILITY_EFFECTS) == 0) {
+            Log.w(TAG, "Light does not play effects; upload skipped");
+            return;
+        }
+
+        int frames = EffectUploader.upload(program, mWritePipeline);
+        if (frames < 0) {
+            Log.w(TAG, "Write queue full; effect upload incomplete");
+            return;
+        }
+
+        mEffectUploads.increment();
+        Log.i(TAG, "Uploading " + program.length + "-byte effect in " + frames + " frames");
     }
 
-    public void writeCharacteristic(BluetoothGattCharacteristic characteristic) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized");
+    /**
+     * Sends a timed command, or the plain command if the light's clock is not known.
+     *
+     * @param timed the command and its time
+     */
+    private void handleSendTimedCommand(TimedCommand timed) {
+        if (mBluetoothGatt == null) {
+            Log.w(TAG, "Not connected; timed command dropped");
+            return;
+        }
+
+        int length = -1;
+        if ((mLightCapabilities & LightProtocol.CAPABILITY_CLOCK) != 0) {
+            length = mClockSync.buildTimedCommand(
+                    mClockSyncFrame, 0, timed.atMicros, timed.command, timed.arg0, timed.arg1);
+        }
+        if (length < 0) {
+            mWritePipeline.send(timed.command, timed.arg0, timed.arg1);
             return;
         }
 
-        mBluetoothGatt.writeCharacteristic(characteristic);
+        mTimedCommands.increment();
+        mWritePipeline.sendFrame(mClockSyncFrame, 0, length);
+    }
+
+    /**
+     * Sends the next clock sync request and schedules the one after it. The request is stamped
+     * when queued, so one that waits behind other writes has a long round trip and counts for
+     * little in the estimate.
+     */
+    private void handleTimeSync() {
+        if (mBluetoothGatt == null || (mLightCapabilities & LightProtocol.CAPABILITY_CLOCK) == 0) {
+            return;
+        }
+
+        int length = mClockSync.buildRequest(mClockSyncFrame, 0, nowMicros());
+        mWritePipeline.sendFrame(mClockSyncFrame, 0, length);
+        mHandler.sendEmptyMessageDelayed(MSG_TIME_SYNC, mClockSync.getRequestIntervalMs());
+    }
+
+    /**
+     * Asks the light which framing it supports. Legacy firmware ignores the query, in which
+     * case the probe times out and writes stay in the 3-byte form.
+     */
+    private void startCapabilityProbe() {
+        mCapabilityProbePending = true;
+        mHandler.removeMessages(MSG_CAPABILITY_PROBE_TIMEOUT);
+        mHandler.sendEmptyMessageDelayed(MSG_CAPABILITY_PROBE_TIMEOUT, CAPABILITY_PROBE_TIMEOUT_MS);
+        mWritePipeline.send(LightProtocol.CMD_QUERY_CAPABILITIES, (byte) 0x00, (byte) 0x00);
+    }
+
+    /**
+     * Handles the answer to the capability query.
+     *
+     * @param capabilities bit mask of LightProtocol.CAPABILITY_* flags
+     */
+    private void onCapabilityResponse(int capabilities) {
+        mCapabilityProbePending = false;
+        mHandler.removeMessages(MSG_CAPABILITY_PROBE_TIMEOUT);
+
+        mLightCapabilities = capabilities;
+        boolean packedWrites = (capabilities & LightProtocol.CAPABILITY_PACKED_WRITES) != 0;
+        mWritePipeline.setPackedWrites(packedWrites);
+        Log.i(TAG, "Light capabilities: " + capabilities + ", packed writes " + packedWrites
+                + ", MTU " + mWritePipeline.getMtu());
+
+        if ((mLightCapabilities & LightProtocol.CAPABILITY_CLOCK) != 0) {
+            mClockSync.reset();
+            mHandler.removeMessages(MSG_TIME_SYNC);
+            mHandler.sendEmptyMessage(MSG_TIME_SYNC);
+        }
+    }
+
+    /**
+     * Forgets queued writes and negotiated link parameters.
+     */
+    private void resetWriteState() {
+        mCapabilityProbePending = false;
+        mLightCapabilities = 0;
+        mHandler.removeMessages(MSG_CAPABILITY_PROBE_TIMEOUT);
+        mHandler.removeMessages(MSG_READ_RSSI);
+        mHandler.removeMessages(MSG_PRIORITY_TICK);
+        mHandler.removeMessages(MSG_TIME_SYNC);
+        mHandler.removeMessages(MSG_RETRY_WRITE);
+        mPriorityTickScheduled = false;
+        mLinkRssi = Integer.MIN_VALUE;
+        mNearerLightAddress = -1;
+        mClockSync.reset();
+        mRxDecoder.reset();
+        mTxCharacteristic = null;
+        mWritePipeline.reset();
+
+        if (mPriorityManager.stop(SystemClock.uptimeMillis())) {
+            Log.i(TAG, "Connection priority: " + mPriorityManager.summary());
+        }
     }
 
     /**
@@ -289,12 +1485,8 @@ public class RBLService extends Service{
      * @param enabled
      *            If true, enable notification. False otherwise.
      */
-    public void setCharacteristicNotification(
+    private void setCharacteristicNotification(
             BluetoothGattCharacteristic characteristic, boolean enabled) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized");
-            return;
-        }
         mBluetoothGatt.setCharacteristicNotification(characteristic, enabled);
 
         if (UUID_BLE_SHIELD_RX.equals(characteristic.getUuid())) {
@@ -307,10 +1499,41 @@ public class RBLService extends Service{
         }
     }
 
-    public BluetoothGattService getSupportedGattService() {
-        if (mBluetoothGatt == null)
-            return null;
+    /**
+     * Checks whether an advertisement carries the light's service UUID, which follows the
+     * local name.
+     *
+     * @param scanRecord the advertisement
+     * @param offset     the length of the local name plus one
+     * @return           true if the UUID matches
+     */
+    private static boolean advertisesService(byte[] scanRecord, int offset) {
+        if (scanRecord == null || scanRecord.length < 22 + offset) {
+            return false;
+        }
+
+        for (int i = 0; i < ADVERTISED_SERVICE_UUID.length; i++) {
+            if (scanRecord[6 + offset + i] != ADVERTISED_SERVICE_UUID[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        return mBluetoothGatt.getService(UUID_BLE_SHIELD_SERVICE);
+    /**
+     * Lays out a UUID as it is advertised, least significant byte first.
+     *
+     * @param uuid the UUID
+     * @return     its 16 bytes
+     */
+    private static byte[] toAdvertisedUuid(UUID uuid) {
+        byte[] bytes = new byte[16];
+        long least = uuid.getLeastSignificantBits();
+        long most = uuid.getMostSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (least >>> (8 * i));
+            bytes[8 + i] = (byte) (most >>> (8 * i));
+        }
+        return bytes;
     }
 }
@@ -10,9 +10,6 @@ package com.danbunnell.smartlightremote;
 
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
@@ -24,41 +21,61 @@ import android.content.pm.PackageManager;
 import android.graphics.Color;
 import android.hardware.SensorManager;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.CompoundButton;
+import android.widget.FrameLayout;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ToggleButton;
 
-import com.danbunnell.smartlightremote.BLE.RBLGattAttributes;
 import com.danbunnell.smartlightremote.BLE.RBLService;
+import com.danbunnell.smartlightremote.ambient.AmbientColorListener;
+import com.danbunnell.smartlightremote.ambient.CameraColorProvider;
 import com.danbunnell.smartlightremote.acceleration.AccelerometerDataProvider;
 import com.danbunnell.smartlightremote.acceleration.AccelerometerListener;
-import com.danbunnell.smartlightremote.common.MovingAverageFilter;
-
+import com.danbunnell.smartlightremote.acceleration.GestureRecognizer;
+import com.danbunnell.smartlightremote.acceleration.OrientationDataProvider;
+import com.danbunnell.smartlightremote.acceleration.OrientationListener;
+import com.danbunnell.smartlightremote.audio.AudioAnalyzer;
+import com.danbunnell.smartlightremote.audio.AudioDataProvider;
+import com.danbunnell.smartlightremote.audio.AudioListener;
+import com.danbunnell.smartlightremote.color.HsbColor;
+import com.danbunnell.smartlightremote.common.AudioMapping;
+import com.danbunnell.smartlightremote.common.DecimatingFilter;
+import com.danbunnell.smartlightremote.common.FixedPointMovingAverageFilter;
+import com.danbunnell.smartlightremote.common.HueMapping;
+import com.danbunnell.smartlightremote.common.NumberStrings;
+import com.danbunnell.smartlightremote.common.OrientationMapping;
+import com.danbunnell.smartlightremote.common.PredictiveFilter;
+import com.danbunnell.smartlightremote.effect.EffectCompiler;
+import com.danbunnell.smartlightremote.metrics.Histogram;
+import com.danbunnell.smartlightremote.metrics.MetricsRegistry;
+import com.danbunnell.smartlightremote.metrics.SampleRing;
+import com.danbunnell.smartlightremote.metrics.StartupTrace;
+import com.danbunnell.smartlightremote.protocol.EchoSuppressor;
+import com.danbunnell.smartlightremote.protocol.FrameDecoder;
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+import com.danbunnell.smartlightremote.ui.DebugOverlayView;
+import com.danbunnell.smartlightremote.ui.UiUpdateCoalescer;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainActivity extends AppCompatActivity {
     private String mTargetDeviceName = "xJ91s4k"; // Name must match device in 'smart-lite' project
-    private int mNameLen = mTargetDeviceName.length() + 1;
 
     private final static String TAG = MainActivity.class.getSimpleName();
 
-    private final static byte CMD_CLIENT_NOTIFY_HUE = 0x01;
-    private final static byte CMD_CLIENT_NOTIFY_SATURATION = 0x02;
-
-    private final static byte CMD_ENABLE_REMOTE_CONTROL = 0x01;
-    private final static byte CMD_SET_HUE = 0x02;
-    private final static byte CMD_SET_SATURATUION = 0x03;
-
     // Declare all variables associated with the UI components
     private Button mConnectBtn = null;
     private TextView mDeviceName = null;
@@ -68,33 +85,236 @@ public class MainActivity extends AppCompatActivity {
     private TextView txtLightSaturationValue = null;
     private ToggleButton btnRemoteControlEnabled = null;
     private ToggleButton btnUseAccelerometer = null;
+    private ToggleButton btnUseOrientation = null;
+    private ToggleButton btnUseGestures = null;
+    private ToggleButton btnUseMicrophone = null;
+    private ToggleButton btnMatchRoom = null;
     private SeekBar seekLightHue = null;
     private SeekBar seekLightSaturation = null;
     private String mBluetoothDeviceName = "";
     private String mBluetoothDeviceUUID = "";
 
     // Declare all Bluetooth stuff
-    private BluetoothGattCharacteristic mCharacteristicTx = null;
     private RBLService mBluetoothLeService;
     private BluetoothAdapter mBluetoothAdapter;
-    private BluetoothDevice mDevice = null;
-    private String mDeviceAddress;
 
-    private boolean flag = true;
     private boolean mConnState = false;
-    private boolean mScanFlag = false;
 
-    private byte[] mData = new byte[3]; // Keep global to avoid reallocation of memory
     private static final int REQUEST_ENABLE_BT = 1;
-    private static final long SCAN_PERIOD = 2000;   // millis
 
-    final private static char[] hexArray = { '0', '1', '2', '3', '4', '5', '6',
-            '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+    private static final int ECHO_TRACKING_CAPACITY = 32;
+    private static final long ECHO_TIMEOUT_MS = 1000;
+
+    // Fields of the view model refreshed by the UI update coalescer
+    private static final int DIRTY_HUE = 1;
+    private static final int DIRTY_SATURATION = 1 << 1;
+    private static final int DIRTY_CONNECTION_INFO = 1 << 2;
+    private static final int DIRTY_CONNECTION_STATE = 1 << 3;
+
+    // Each suppressed notification skips setText, setBackgroundColor and setProgress
+    private static final int UI_UPDATES_PER_NOTIFICATION = 3;
+
+    // Hues that flick gestures step through
+    private static final int[] HUE_PRESETS = { 0, 30, 60, 120, 180, 240, 300 };
+    private static final int TILT_SATURATION_STEP = 64;
+
+    // Played by the light itself, so it keeps running while the phone sleeps; the fades between
+    // known colours are split so they look even rather than rushing through yellow and cyan
+    private static final String DEMO_EFFECT =
+            "loop forever\n"
+            + "  fade 0 255 1500 in-out\n"
+            + "  fade 120 255 1500 in-out perceptual\n"
+            + "  fade 240 255 1500 in-out perceptual\n"
+            + "  hold 500\n"
+            + "end\n";
+
+    // Hue updates per second in motion mode; the radio carries a few tens of frames per second
+    private static final float MOTION_HUE_RATE_HZ = 40;
+
+    // Share of the smoothing delay and write latency that motion mode predicts away; predicting
+    // all of it overshoots on fast waving (see PredictionEvaluation)
+    private static final float MOTION_PREDICTION_SHARE = 0.5f;
+    private static final float MOTION_MAX_HORIZON_MS = 500;
+
+    // Accelerometer period while the phone rests. Only used without gestures: a tap from rest
+    // would span a whole resting sample, longer than the recognizer accepts
+    private static final long ACCELEROMETER_STILL_RATE_MS = 100;
 
     private int currentHue = 0;
     private int currentSaturation = 255;
+    private String mRssi = "";
+
+    private UiUpdateCoalescer uiUpdateCoalescer;
 
+    // Created on first use, to keep it off the startup path
+    private DebugOverlayView debugOverlay;
+
+    // Every hue sent, whatever the mode, for the debug overlay
+    private final SampleRing hueTrace =
+            MetricsRegistry.getDefault().sampleRing("light.hue_sent", SampleRing.DEFAULT_CAPACITY);
+
+    // Created on first use of motion mode, to keep it off the startup path
     private AccelerometerDataProvider accelerometerProvider;
+    private PredictiveFilter motionPredictor;
+    private float motionSmoothingDelayMs;
+    private boolean effectRequested = false;
+    private boolean accelerometerRunning = false;
+
+    private final AccelerometerListener motionListener = new AccelerometerListener() {
+        @Override
+        public void onAccelerometerData(float magnitude, float filteredMagnitude) {
+            sendSetHueCommand(HueMapping.fromMagnitude(filteredMagnitude));
+        }
+    };
+
+    private OrientationDataProvider orientationProvider;
+
+    // Latest mapped orientation, written on the sensor thread and applied on the UI thread
+    private volatile int orientationHue;
+    private volatile int orientationSaturation;
+    private final AtomicBoolean orientationUpdatePosted = new AtomicBoolean();
+
+    private final Runnable applyOrientation = new Runnable() {
+        @Override
+        public void run() {
+            orientationUpdatePosted.set(false);
+            if (!btnUseOrientation.isChecked()) {
+                return;
+            }
+
+            int hue = orientationHue;
+            int saturation = orientationSaturation;
+            if (hue != currentHue) {
+                sendSetHueCommand(hue);
+            }
+            if (saturation != currentSaturation) {
+                sendSetSaturationCommand(saturation);
+            }
+        }
+    };
+
+    private final OrientationListener orientationListener = new OrientationListener() {
+        @Override
+        public void onOrientationData(float rollDegrees, float pitchDegrees) {
+            orientationHue = OrientationMapping.toHue(rollDegrees);
+            orientationSaturation = OrientationMapping.toSaturation(pitchDegrees);
+
+            // At most one update waits on the UI thread; it applies the latest values
+            if (orientationUpdatePosted.compareAndSet(false, true)) {
+                runOnUiThread(applyOrientation);
+            }
+        }
+    };
+
+    private AudioDataProvider audioProvider;
+
+    // Hue of the current beat, only touched on the audio thread
+    private int audioBeatHue = HUE_PRESETS[0];
+
+    // Latest mapped audio features, written on the audio thread and applied on the UI thread
+    private volatile int audioHue;
+    private volatile int audioSaturation;
+    private final AtomicBoolean audioUpdatePosted = new AtomicBoolean();
+
+    private final Runnable applyAudio = new Runnable() {
+        @Override
+        public void run() {
+            audioUpdatePosted.set(false);
+            if (!btnUseMicrophone.isChecked()) {
+                return;
+            }
+
+            int hue = audioHue;
+            int saturation = audioSaturation;
+            if (hue != currentHue) {
+                sendSetHueCommand(hue);
+            }
+            if (saturation != currentSaturation) {
+                sendSetSaturationCommand(saturation);
+            }
+        }
+    };
+
+    private final AudioListener audioListener = new AudioListener() {
+        @Override
+        public void onAudioData(float[] bandLevelsDb, float levelDb, float centroid, boolean onset) {
+            // Each beat moves to the next preset; the spectrum shades the hue between beats
+            if (onset) {
+                audioBeatHue = nextHuePreset(audioBeatHue, 1);
+            }
+            audioHue = AudioMapping.toHue(audioBeatHue, centroid);
+            audioSaturation = AudioMapping.toSaturation(levelDb);
+
+            if (audioUpdatePosted.compareAndSet(false, true)) {
+                runOnUiThread(applyAudio);
+            }
+        }
+    };
+
+    private CameraColorProvider cameraColorProvider;
+
+    // Latest smoothed room colour, written on the camera thread and applied on the UI thread
+    private volatile int roomHue;
+    private volatile int roomSaturation;
+    private final AtomicBoolean roomUpdatePosted = new AtomicBoolean();
+
+    private final Runnable applyRoomColor = new Runnable() {
+        @Override
+        public void run() {
+            roomUpdatePosted.set(false);
+            if (!btnMatchRoom.isChecked()) {
+                return;
+            }
+
+            int hue = roomHue;
+            int saturation = roomSaturation;
+            if (hue != currentHue) {
+                sendSetHueCommand(hue);
+            }
+            if (saturation != currentSaturation) {
+                sendSetSaturationCommand(saturation);
+            }
+        }
+    };
+
+    private final AmbientColorListener roomColorListener = new AmbientColorListener() {
+        @Override
+        public void onAmbientColor(int hue, int saturation) {
+            roomHue = hue;
+            roomSaturation = saturation;
+
+            if (roomUpdatePosted.compareAndSet(false, true)) {
+                runOnUiThread(applyRoomColor);
+            }
+        }
+
+        @Override
+        public void onCameraError() {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    btnMatchRoom.setChecked(false);
+                    Toast.makeText(MainActivity.this, "Camera unavailable", Toast.LENGTH_SHORT).show();
+                }
+            });
+        }
+    };
+
+    private final GestureRecognizer gestureRecognizer = new GestureRecognizer(new GestureRecognizer.Listener() {
+        @Override
+        public void onGesture(int gesture, long timestampNanos) {
+            onGestureRecognized(gesture);
+        }
+    });
+
+    private StartupTrace startupTrace;
+    private boolean mServiceBound = false;
+
+    private final EchoSuppressor hueEchoSuppressor =
+            new EchoSuppressor(ECHO_TRACKING_CAPACITY, ECHO_TIMEOUT_MS);
+    private final EchoSuppressor saturationEchoSuppressor =
+            new EchoSuppressor(ECHO_TRACKING_CAPACITY, ECHO_TIMEOUT_MS);
+    private long dragSuppressedBaseline = 0;
 
     /**
      * Manages the connection with our Android BLE service
@@ -114,7 +334,12 @@ public class MainActivity extends AppCompatActivity {
             if (!mBluetoothLeService.initialize()) {
                 Log.e(TAG, "Unable to initialize Bluetooth");
                 finish();
+                return;
             }
+
+            markStartup(StartupTrace.MARK_SERVICE_BOUND);
+            mBluetoothLeService.startCandidateScan(mTargetDeviceName);
+            mBluetoothLeService.connectToLastDevice();
         }
 
         /**
@@ -132,28 +357,22 @@ public class MainActivity extends AppCompatActivity {
      * Called when service is disconnected
      */
     private void onServiceDisconnect() {
-        flag = false;
         mConnState = false;
+        mRssi = "";
 
-        btnRemoteControlEnabled.setEnabled(flag);
-        btnUseAccelerometer.setEnabled(flag);
-        seekLightHue.setEnabled(flag);
-        seekLightSaturation.setEnabled(flag);
-        mConnectBtn.setText("Connect");
-        mRssiValue.setText("");
-        mDeviceName.setText("");
-        mUUID.setText("");
+        uiUpdateCoalescer.markDirty(DIRTY_CONNECTION_STATE | DIRTY_CONNECTION_INFO);
+
+        hueEchoSuppressor.reset();
+        saturationEchoSuppressor.reset();
     }
 
     /**
      * Called when service connects.
      */
     private void onServiceConnect() {
-        flag = true;
         mConnState = true;
 
-        btnRemoteControlEnabled.setEnabled(flag);
-        mConnectBtn.setText("Disconnect");
+        uiUpdateCoalescer.markDirty(DIRTY_CONNECTION_STATE | DIRTY_CONNECTION_INFO);
     }
 
     /**
@@ -179,23 +398,22 @@ public class MainActivity extends AppCompatActivity {
                 Toast.makeText(getApplicationContext(), "Connected",
                         Toast.LENGTH_SHORT).show();
 
-                getGattService(mBluetoothLeService.getSupportedGattService());
+                mBluetoothDeviceName = intent.getStringExtra(RBLService.EXTRA_DEVICE_NAME);
+                mBluetoothDeviceUUID = intent.getStringExtra(RBLService.EXTRA_DEVICE_UUID);
+                onServiceConnect();
+            } else if (RBLService.ACTION_DEVICE_NOT_FOUND.equals(action)) {
+                Toast toast = Toast.makeText(MainActivity.this,
+                        "Could not find target device.", Toast.LENGTH_SHORT);
+                toast.setGravity(0, 0, Gravity.CENTER);
+                toast.show();
+            } else if (RBLService.ACTION_NEARER_LIGHT.equals(action)) {
+                Toast.makeText(getApplicationContext(),
+                        "A nearer light was found. Long-press Disconnect to switch to it.",
+                        Toast.LENGTH_LONG).show();
             } else if (RBLService.ACTION_DATA_AVAILABLE.equals(action)) {
-                mData = intent.getByteArrayExtra(RBLService.EXTRA_DATA);
-                byte command = mData[0];
-                byte upper = mData[1];
-                byte lower = mData[2];
-
-                switch(command) {
-                    case CMD_CLIENT_NOTIFY_HUE:
-                        int hue = bytesToWord(upper, lower);
-                        updateCurrentHue(hue);
-                        break;
-                    case CMD_CLIENT_NOTIFY_SATURATION:
-                        int saturation = upper & 0xFF;
-                        updateCurrentSaturation(saturation);
-                    default:
-                        Log.w(TAG, String.format("UNKNOWN CMD: %x", command));
+                byte[] data = intent.getByteArrayExtra(RBLService.EXTRA_DATA);
+                if (data != null) {
+                    mRxDecoder.decodeFrame(data, 0, data.length);
                 }
             } else if (RBLService.ACTION_GATT_RSSI.equals(action)) {
                 displayConnectionInfo(intent.getStringExtra(RBLService.EXTRA_DATA));
@@ -203,6 +421,46 @@ public class MainActivity extends AppCompatActivity {
         }
     };
 
+    /**
+     * Handles frames the service has split off the notification stream.
+     */
+    private final FrameDecoder mRxDecoder = new FrameDecoder(new FrameDecoder.Listener() {
+        @Override
+        public void onHue(int hue) {
+            if (hueEchoSuppressor.onNotification(hue, SystemClock.uptimeMillis())
+                    == EchoSuppressor.ACCEPTED) {
+                updateCurrentHue(hue);
+            }
+        }
+
+        @Override
+        public void onSaturation(int saturation) {
+            if (saturationEchoSuppressor.onNotification(saturation, SystemClock.uptimeMillis())
+                    == EchoSuppressor.ACCEPTED) {
+                updateCurrentSaturation(saturation);
+            }
+        }
+
+        @Override
+        public void onCapabilities(int capabilities) {
+            // Consumed by RBLService while it negotiates the framing
+        }
+
+        @Override
+        public void onEffectStatus(int status) {
+            if (status == LightProtocol.EFFECT_STATUS_PLAYING) {
+                Toast.makeText(MainActivity.this, "Effect playing on the light.", Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(MainActivity.this, "Effect upload failed (" + status + ").", Toast.LENGTH_SHORT).show();
+            }
+        }
+
+        @Override
+        public void onUnknownFrame(byte command, byte[] frame, int offset, int length) {
+            Log.w(TAG, String.format("UNKNOWN CMD: %x", command));
+        }
+    });
+
     /**
      * Displays Bluetooth connection information.
      *
@@ -210,9 +468,8 @@ public class MainActivity extends AppCompatActivity {
      */
     private void displayConnectionInfo(String data) {
         if (data != null) {
-            mRssiValue.setText(data);
-            mDeviceName.setText(mBluetoothDeviceName);
-            mUUID.setText(mBluetoothDeviceUUID);
+            mRssi = data;
+            uiUpdateCoalescer.markDirty(DIRTY_CONNECTION_INFO);
         }
     }
 
@@ -223,12 +480,7 @@ public class MainActivity extends AppCompatActivity {
      */
     private void updateCurrentHue(int hue) {
         currentHue = hue;
-        txtLightHueValue.setText(String.format("%d", currentHue));
-
-        int currentColor = getColorFromHSB(currentHue, currentSaturation, 255);
-
-        txtLightHueValue.setBackgroundColor(currentColor);
-        seekLightHue.setProgress(currentHue);
+        uiUpdateCoalescer.markDirty(DIRTY_HUE);
     }
 
     /**
@@ -238,109 +490,51 @@ public class MainActivity extends AppCompatActivity {
      */
     private void updateCurrentSaturation(int saturation) {
         currentSaturation = saturation;
-        txtLightSaturationValue.setText(String.format("%d", saturation));
-
-        int currentColor = getColorFromHSB(currentHue, currentSaturation, 255);
-
-        txtLightHueValue.setBackgroundColor(currentColor);
-        seekLightSaturation.setProgress(currentSaturation);
+        uiUpdateCoalescer.markDirty(DIRTY_SATURATION);
     }
 
     /**
-     * Initialize based on BLE protocol provided.
+     * Copies the dirty parts of the view model into the views, once per display frame.
      *
-     * @param gattService the protocol provider
+     * @param dirtyFields bit mask of dirty fields
      */
-    private void getGattService(BluetoothGattService gattService) {
-        if (gattService == null)
-            return;
-
-        onServiceConnect();
-        startReadRssi();
-
-        mCharacteristicTx = gattService.getCharacteristic(RBLService.UUID_BLE_SHIELD_TX);
-
-        BluetoothGattCharacteristic characteristicRx = gattService
-                .getCharacteristic(RBLService.UUID_BLE_SHIELD_RX);
-        mBluetoothLeService.setCharacteristicNotification(characteristicRx,true);
-        mBluetoothLeService.readCharacteristic(characteristicRx);
-    }
-
-    /**
-     * Read the BLE signal strength.
-     */
-    private void startReadRssi() {
-        new Thread() {
-            public void run() {
-
-                while (flag) {
-                    mBluetoothLeService.readRssi();
-                    try {
-                        sleep(500);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-            };
-        }.start();
-    }
+    private void applyUiUpdates(int dirtyFields) {
+        if ((dirtyFields & DIRTY_HUE) != 0) {
+            txtLightHueValue.setText(NumberStrings.valueOf(currentHue));
+            seekLightHue.setProgress(currentHue);
+        }
 
-    /**
-     * Starts procedure to scan for BLE devices.
-     */
-    private void scanLeDevice() {
-        new Thread() {
+        if ((dirtyFields & DIRTY_SATURATION) != 0) {
+            txtLightSaturationValue.setText(NumberStrings.valueOf(currentSaturation));
+            seekLightSaturation.setProgress(currentSaturation);
+        }
 
-            @Override
-            public void run() {
-                mBluetoothAdapter.startLeScan(mLeScanCallback);
+        if ((dirtyFields & (DIRTY_HUE | DIRTY_SATURATION)) != 0) {
+            txtLightHueValue.setBackgroundColor(HsbColor.toArgb(currentHue, currentSaturation, 255));
+        }
 
-                try {
-                    Thread.sleep(SCAN_PERIOD);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+        if ((dirtyFields & DIRTY_CONNECTION_INFO) != 0) {
+            mRssiValue.setText(mRssi);
+            mDeviceName.setText(mConnState ? mBluetoothDeviceName : "");
+            mUUID.setText(mConnState ? mBluetoothDeviceUUID : "");
+        }
 
-                mBluetoothAdapter.stopLeScan(mLeScanCallback);
+        if ((dirtyFields & DIRTY_CONNECTION_STATE) != 0) {
+            btnRemoteControlEnabled.setEnabled(mConnState);
+            btnUseGestures.setEnabled(mConnState);
+            mConnectBtn.setText(mConnState ? "Disconnect" : "Connect");
+
+            if (!mConnState) {
+                btnUseAccelerometer.setEnabled(false);
+                btnUseOrientation.setEnabled(false);
+                btnUseMicrophone.setEnabled(false);
+                btnMatchRoom.setEnabled(false);
+                btnUseGestures.setChecked(false);
+                seekLightHue.setEnabled(false);
+                seekLightSaturation.setEnabled(false);
             }
-        }.start();
-    }
-
-    /**
-     * Handles data received from BLE scanning.
-     */
-    private BluetoothAdapter.LeScanCallback mLeScanCallback = new BluetoothAdapter.LeScanCallback() {
-        /**
-         * Called back with information from scan.
-         *
-         * @param device     the BLE device found
-         * @param rssi       the connection signal strength
-         * @param scanRecord the scanned device's identifying information
-         */
-        @Override
-        public void onLeScan(final BluetoothDevice device, final int rssi,
-                             final byte[] scanRecord) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    byte[] serviceUuidBytes = new byte[16];
-                    String serviceUuid = "";
-                    for (int i = (21+mNameLen), j = 0; i >= (6+mNameLen); i--, j++) {
-                        serviceUuidBytes[j] = scanRecord[i];
-                    }
-
-                    serviceUuid = bytesToHex(serviceUuidBytes);
-                    if (stringToUuidString(serviceUuid).equals(
-                            RBLGattAttributes.BLE_SHIELD_SERVICE
-                                    .toUpperCase(Locale.ENGLISH)) && device.getName().equals(mTargetDeviceName)) {
-                        mDevice = device;
-                        mBluetoothDeviceName = mDevice.getName();
-                        mBluetoothDeviceUUID = serviceUuid;
-                    }
-                }
-            });
         }
-    };
+    }
 
     /**
      * Called on activity creation
@@ -350,19 +544,41 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        startupTrace = ((SmartLightApplication) getApplication()).getStartupTrace();
+        markStartup(StartupTrace.MARK_ACTIVITY_CREATED);
+
+        // Verify Bluetooth LE supported
+        if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE)) {
+            Toast.makeText(this, "Ble not supported", Toast.LENGTH_SHORT)
+                    .show();
+            finish();
+        }
+
+        final BluetoothManager mBluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+        mBluetoothAdapter = mBluetoothManager.getAdapter();
+        if (mBluetoothAdapter == null) {
+            Toast.makeText(this, "Ble not supported", Toast.LENGTH_SHORT)
+                    .show();
+            finish();
+            return;
+        }
+
+        // Bind before inflating the layout, so that the service starts and reconnects to the
+        // last light while the first frame is being prepared
+        Intent gattServiceIntent = new Intent(MainActivity.this, RBLService.class);
+        mServiceBound = bindService(gattServiceIntent, mServiceConnection, BIND_AUTO_CREATE);
+
         setContentView(R.layout.activity_main);
+        markStartup(StartupTrace.MARK_CONTENT_VIEW_SET);
+        watchFirstFrame();
+
+        uiUpdateCoalescer = new UiUpdateCoalescer(new UiUpdateCoalescer.Applier() {
+            @Override
+            public void applyUpdates(int dirtyFields) {
+                applyUiUpdates(dirtyFields);
+            }
+        });
 
-        this.accelerometerProvider =  new AccelerometerDataProvider(
-                (SensorManager) getSystemService(Context.SENSOR_SERVICE),
-                5,
-                new MovingAverageFilter(50));
-        accelerometerProvider.registerCallback(
-                TAG,
-                new AccelerometerListener() {
-                    @Override
-                    public void onAccelerometerData(float magnitude, float filteredMagnitude) {
-                        sendSetHueCommand((int) ((Math.min(30, filteredMagnitude) / 30) * 359));
-                    }});
         // Associate all UI components with variables
         mConnectBtn = (Button) findViewById(R.id.connectBtn);
         mDeviceName = (TextView) findViewById(R.id.deviceName);
@@ -371,6 +587,10 @@ public class MainActivity extends AppCompatActivity {
         txtLightSaturationValue = (TextView) findViewById(R.id.txtLightSaturationValue);
         btnRemoteControlEnabled = (ToggleButton) findViewById(R.id.btnRemoteControlEnabled);
         btnUseAccelerometer = (ToggleButton) findViewById(R.id.btnUseAccelerometer);
+        btnUseOrientation = (ToggleButton) findViewById(R.id.btnUseOrientation);
+        btnUseGestures = (ToggleButton) findViewById(R.id.btnUseGestures);
+        btnUseMicrophone = (ToggleButton) findViewById(R.id.btnUseMicrophone);
+        btnMatchRoom = (ToggleButton) findViewById(R.id.btnMatchRoom);
         seekLightHue = (SeekBar) findViewById(R.id.seekLightHue);
         seekLightSaturation = (SeekBar) findViewById(R.id.seekLightSaturation);
         mUUID = (TextView) findViewById(R.id.uuidValue);
@@ -385,46 +605,64 @@ public class MainActivity extends AppCompatActivity {
              */
             @Override
             public void onClick(View v) {
-                if (mScanFlag == false) {
-                    scanLeDevice();
-
-                    Timer mTimer = new Timer();
-                    mTimer.schedule(new TimerTask() {
-
-                        @Override
-                        public void run() {
-                            if (mDevice != null) {
-                                mDeviceAddress = mDevice.getAddress();
-                                mBluetoothLeService.connect(mDeviceAddress);
-                                mScanFlag = true;
-                            } else {
-                                runOnUiThread(new Runnable() {
-                                    public void run() {
-                                        Toast toast = Toast
-                                                .makeText(
-                                                        MainActivity.this,
-                                                        "Could not find target device.",
-                                                        Toast.LENGTH_SHORT);
-                                        toast.setGravity(0, 0, Gravity.CENTER);
-                                        toast.show();
-                                    }
-                                });
-                            }
-                        }
-                    }, SCAN_PERIOD);
+                if (mBluetoothLeService == null) {
+                    return;
                 }
 
-                System.out.println(mConnState);
                 if (mConnState == false) {
-                    mBluetoothLeService.connect(mDeviceAddress);
+                    mBluetoothLeService.scanAndConnect(mTargetDeviceName);
                 } else {
                     mBluetoothLeService.disconnect();
-                    mBluetoothLeService.close();
                     onServiceDisconnect();
                 }
             }
         });
 
+        mConnectBtn.setOnLongClickListener(new View.OnLongClickListener() {
+            /**
+             * Connects to the nearest light, switching away from the connected one if it is
+             * not the nearest.
+             *
+             * @param v the current view
+             * @return  true, since the long click is consumed
+             */
+            @Override
+            public boolean onLongClick(View v) {
+                if (mBluetoothLeService != null) {
+                    mBluetoothLeService.switchToNearestLight();
+                }
+                return true;
+            }
+        });
+
+        btnRemoteControlEnabled.setOnLongClickListener(new View.OnLongClickListener() {
+            /**
+             * Saves the recent protocol traffic for offline replay.
+             *
+             * @param v the current view
+             * @return  true, since the long click is consumed
+             */
+            @Override
+            public boolean onLongClick(View v) {
+                dumpProtocolCapture();
+                return true;
+            }
+        });
+
+        findViewById(R.id.txtLightHue).setOnLongClickListener(new View.OnLongClickListener() {
+            /**
+             * Starts the demo effect on the light, or stops the effect that is playing.
+             *
+             * @param v the current view
+             * @return  true, since the long click is consumed
+             */
+            @Override
+            public boolean onLongClick(View v) {
+                toggleDemoEffect();
+                return true;
+            }
+        });
+
         btnRemoteControlEnabled.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             /**
              * Send remote control enabled status to client.
@@ -438,20 +676,27 @@ public class MainActivity extends AppCompatActivity {
                     seekLightHue.setEnabled(true);
                     seekLightSaturation.setEnabled(true);
                     btnUseAccelerometer.setEnabled(true);
+                    btnUseOrientation.setEnabled(true);
+                    btnUseMicrophone.setEnabled(true);
+                    btnMatchRoom.setEnabled(true);
                 } else {
                     seekLightHue.setEnabled(false);
                     seekLightSaturation.setEnabled(false);
                     btnUseAccelerometer.setEnabled(false);
                     btnUseAccelerometer.setChecked(false);
+                    btnUseOrientation.setEnabled(false);
+                    btnUseOrientation.setChecked(false);
+                    btnUseMicrophone.setEnabled(false);
+                    btnUseMicrophone.setChecked(false);
+                    btnMatchRoom.setEnabled(false);
+                    btnMatchRoom.setChecked(false);
                 }
 
-                byte buf[] = new byte[] {
-                        CMD_ENABLE_REMOTE_CONTROL,
+                mBluetoothLeService.onUserActivity();
+                mBluetoothLeService.sendCommand(
+                        LightProtocol.CMD_ENABLE_REMOTE_CONTROL,
                         (byte) (isChecked ? 0x01 : 0x00),
-                        (byte) 0x00 };
-
-                mCharacteristicTx.setValue(buf);
-                mBluetoothLeService.writeCharacteristic(mCharacteristicTx);
+                        (byte) 0x00);
             }
         });
 
@@ -469,15 +714,21 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
                 if (fromUser) {
+                    mBluetoothLeService.onUserActivity();
                     sendSetHueCommand(progress);
                 }
             }
 
             @Override
-            public void onStartTrackingTouch(SeekBar seekBar){}
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                mBluetoothLeService.onUserActivity();
+                dragSuppressedBaseline = hueEchoSuppressor.getSuppressedCount();
+            }
 
             @Override
-            public void onStopTrackingTouch(SeekBar seekBar) {}
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                logDragSavings("hue", hueEchoSuppressor);
+            }
         });
 
         // Configure the Hue seek bar
@@ -494,15 +745,49 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
                 if (fromUser) {
+                    mBluetoothLeService.onUserActivity();
                     sendSetSaturationCommand(progress);
                 }
             }
 
             @Override
-            public void onStartTrackingTouch(SeekBar seekBar){}
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                mBluetoothLeService.onUserActivity();
+                dragSuppressedBaseline = saturationEchoSuppressor.getSuppressedCount();
+            }
 
             @Override
-            public void onStopTrackingTouch(SeekBar seekBar) {}
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                logDragSavings("saturation", saturationEchoSuppressor);
+            }
+        });
+
+        btnUseAccelerometer.setOnLongClickListener(new View.OnLongClickListener() {
+            /**
+             * Starts or stops recording raw accelerometer samples for offline tuning.
+             *
+             * @param v the current view
+             * @return  true, since the long click is consumed
+             */
+            @Override
+            public boolean onLongClick(View v) {
+                toggleSensorRecording();
+                return true;
+            }
+        });
+
+        findViewById(R.id.txtUseAccelerometer).setOnLongClickListener(new View.OnLongClickListener() {
+            /**
+             * Shows or hides the live graphs of the motion signals.
+             *
+             * @param v the current view
+             * @return  true, since the long click is consumed
+             */
+            @Override
+            public boolean onLongClick(View v) {
+                toggleDebugOverlay();
+                return true;
+            }
         });
 
         btnUseAccelerometer.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
@@ -515,38 +800,151 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
                 if (isChecked) {
+                    btnUseOrientation.setChecked(false);
+                    btnUseMicrophone.setChecked(false);
+                    btnMatchRoom.setChecked(false);
                     seekLightHue.setEnabled(false);
                     seekLightSaturation.setEnabled(false);
-                    accelerometerProvider.onStart();
+                    mBluetoothLeService.setStreamActive(true);
+                    AccelerometerDataProvider provider = getAccelerometerProvider();
+                    updateMotionPredictionHorizon();
+                    provider.registerCallback(TAG, motionListener);
                 } else {
+                    mBluetoothLeService.setStreamActive(false);
+
                     if(btnRemoteControlEnabled.isChecked()) {
                         seekLightHue.setEnabled(true);
                         seekLightSaturation.setEnabled(true);
                     }
 
-                    accelerometerProvider.onStop();
+                    getAccelerometerProvider().unregisterCallback(TAG);
                 }
+
+                updateAccelerometerState();
             }
         });
 
-        // Verify Bluetooth LE supported
-        if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE)) {
-            Toast.makeText(this, "Ble not supported", Toast.LENGTH_SHORT)
-                    .show();
-            finish();
-        }
+        btnUseOrientation.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            /**
+             * Starts or stops driving hue from roll and saturation from pitch.
+             *
+             * @param buttonView a button view
+             * @param isChecked  flag representing status of button
+             */
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                if (isChecked) {
+                    btnUseAccelerometer.setChecked(false);
+                    btnUseMicrophone.setChecked(false);
+                    btnMatchRoom.setChecked(false);
+                    seekLightHue.setEnabled(false);
+                    seekLightSaturation.setEnabled(false);
+                    mBluetoothLeService.setStreamActive(true);
+                    getOrientationProvider().registerCallback(TAG, orientationListener);
+                    getOrientationProvider().onStart();
+                } else {
+                    mBluetoothLeService.setStreamActive(false);
 
-        final BluetoothManager mBluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
-        mBluetoothAdapter = mBluetoothManager.getAdapter();
-        if (mBluetoothAdapter == null) {
-            Toast.makeText(this, "Ble not supported", Toast.LENGTH_SHORT)
-                    .show();
-            finish();
-            return;
-        }
+                    if(btnRemoteControlEnabled.isChecked()) {
+                        seekLightHue.setEnabled(true);
+                        seekLightSaturation.setEnabled(true);
+                    }
 
-        Intent gattServiceIntent = new Intent(MainActivity.this, RBLService.class);
-        bindService(gattServiceIntent, mServiceConnection, BIND_AUTO_CREATE);
+                    getOrientationProvider().onStop();
+                    getOrientationProvider().unregisterCallback(TAG);
+                }
+            }
+        });
+
+        btnUseMicrophone.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            /**
+             * Starts or stops following the music: beats step the hue, loudness sets saturation.
+             *
+             * @param buttonView a button view
+             * @param isChecked  flag representing status of button
+             */
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                if (isChecked) {
+                    btnUseAccelerometer.setChecked(false);
+                    btnUseOrientation.setChecked(false);
+                    btnMatchRoom.setChecked(false);
+                    getAudioProvider().registerCallback(TAG, audioListener);
+                    if (!getAudioProvider().onStart()) {
+                        getAudioProvider().unregisterCallback(TAG);
+                        buttonView.setChecked(false);
+                        Toast.makeText(MainActivity.this, "Microphone unavailable", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+
+                    seekLightHue.setEnabled(false);
+                    seekLightSaturation.setEnabled(false);
+                    mBluetoothLeService.setStreamActive(true);
+                } else {
+                    mBluetoothLeService.setStreamActive(false);
+
+                    if(btnRemoteControlEnabled.isChecked()) {
+                        seekLightHue.setEnabled(true);
+                        seekLightSaturation.setEnabled(true);
+                    }
+
+                    getAudioProvider().onStop();
+                    getAudioProvider().unregisterCallback(TAG);
+                }
+            }
+        });
+
+        btnMatchRoom.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            /**
+             * Starts or stops matching the light to the dominant colour the camera sees.
+             *
+             * @param buttonView a button view
+             * @param isChecked  flag representing status of button
+             */
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                if (isChecked) {
+                    btnUseAccelerometer.setChecked(false);
+                    btnUseOrientation.setChecked(false);
+                    btnUseMicrophone.setChecked(false);
+                    seekLightHue.setEnabled(false);
+                    seekLightSaturation.setEnabled(false);
+                    mBluetoothLeService.setStreamActive(true);
+                    getCameraColorProvider().registerCallback(TAG, roomColorListener);
+                    getCameraColorProvider().onStart();
+                } else {
+                    mBluetoothLeService.setStreamActive(false);
+
+                    if(btnRemoteControlEnabled.isChecked()) {
+                        seekLightHue.setEnabled(true);
+                        seekLightSaturation.setEnabled(true);
+                    }
+
+                    getCameraColorProvider().onStop();
+                    getCameraColorProvider().unregisterCallback(TAG);
+                }
+            }
+        });
+
+        btnUseGestures.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            /**
+             * Starts or stops recognizing gestures.
+             *
+             * @param buttonView a button view
+             * @param isChecked  flag representing status of button
+             */
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                if (isChecked) {
+                    gestureRecognizer.reset();
+                    getAccelerometerProvider().registerSampleListener(TAG, gestureRecognizer);
+                } else {
+                    getAccelerometerProvider().unregisterSampleListener(TAG);
+                }
+
+                updateAccelerometerState();
+            }
+        });
     }
 
     /**
@@ -564,6 +962,11 @@ public class MainActivity extends AppCompatActivity {
 
         registerReceiver(mGattUpdateReceiver, makeGattUpdateIntentFilter());
 
+        if (mBluetoothLeService != null) {
+            mBluetoothLeService.setRssiPolling(true);
+            mBluetoothLeService.startCandidateScan(mTargetDeviceName);
+        }
+
     }
 
     /**
@@ -573,9 +976,19 @@ public class MainActivity extends AppCompatActivity {
     protected void onStop() {
         super.onStop();
 
-        flag = false;
+        if (mBluetoothLeService != null) {
+            mBluetoothLeService.setRssiPolling(false);
+            mBluetoothLeService.stopCandidateScan();
+        }
 
         unregisterReceiver(mGattUpdateReceiver);
+
+        Log.i(TAG, "UI frames: " + uiUpdateCoalescer.getStats().summary());
+        if (debugOverlay != null) {
+            Log.i(TAG, String.format(Locale.ENGLISH, "Debug overlay: %.3f ms per frame",
+                    debugOverlay.getAverageDrawMs()));
+        }
+        uiUpdateCoalescer.getStats().reset();
     }
 
     /**
@@ -585,7 +998,28 @@ public class MainActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
 
-        if (mServiceConnection != null)
+        if (uiUpdateCoalescer != null) {
+            uiUpdateCoalescer.cancel();
+        }
+
+        if (accelerometerProvider != null) {
+            accelerometerProvider.stopRecording();
+            accelerometerProvider.onStop();
+        }
+
+        if (orientationProvider != null) {
+            orientationProvider.onStop();
+        }
+
+        if (audioProvider != null) {
+            audioProvider.onStop();
+        }
+
+        if (cameraColorProvider != null) {
+            cameraColorProvider.onStop();
+        }
+
+        if (mServiceBound)
             unbindService(mServiceConnection);
     }
 
@@ -598,6 +1032,8 @@ public class MainActivity extends AppCompatActivity {
         intentFilter.addAction(RBLService.ACTION_GATT_SERVICES_DISCOVERED);
         intentFilter.addAction(RBLService.ACTION_DATA_AVAILABLE);
         intentFilter.addAction(RBLService.ACTION_GATT_RSSI);
+        intentFilter.addAction(RBLService.ACTION_DEVICE_NOT_FOUND);
+        intentFilter.addAction(RBLService.ACTION_NEARER_LIGHT);
 
         return intentFilter;
     }
@@ -619,18 +1055,271 @@ public class MainActivity extends AppCompatActivity {
         super.onActivityResult(requestCode, resultCode, data);
     }
 
+    /**
+     * Shows or hides the debug overlay, creating it on first use.
+     */
+    private void toggleDebugOverlay() {
+        if (debugOverlay == null) {
+            MetricsRegistry metrics = MetricsRegistry.getDefault();
+            debugOverlay = new DebugOverlayView(this, null);
+            debugOverlay.addTrace("magnitude",
+                    metrics.sampleRing("accel.magnitude", SampleRing.DEFAULT_CAPACITY),
+                    Color.argb(0xFF, 0x90, 0x90, 0x90));
+            debugOverlay.addTrace("filtered",
+                    metrics.sampleRing("accel.filtered", SampleRing.DEFAULT_CAPACITY),
+                    Color.argb(0xFF, 0x6C, 0x9D, 0xE6));
+            debugOverlay.addTrace("hue sent", hueTrace, Color.argb(0xFF, 0xE6, 0xB4, 0x3C));
+            debugOverlay.addTrace("write ms",
+                    metrics.sampleRing("ble.write.latency_ms", SampleRing.DEFAULT_CAPACITY),
+                    Color.argb(0xFF, 0x6C, 0xE6, 0x8A));
+
+            // Drawn over the bottom of the controls; it does not take touches
+            float density = getResources().getDisplayMetrics().density;
+            addContentView(debugOverlay, new FrameLayout.LayoutParams(
+                    FrameLayout.LayoutParams.MATCH_PARENT, (int) (240 * density), Gravity.BOTTOM));
+            debugOverlay.setShown(false);
+        }
+
+        debugOverlay.setShown(debugOverlay.getVisibility() != View.VISIBLE);
+    }
+
+    /**
+     * Gets the accelerometer provider, creating it on first use.
+     *
+     * @return the accelerometer provider
+     */
+    private AccelerometerDataProvider getAccelerometerProvider() {
+        if (accelerometerProvider == null) {
+            DecimatingFilter smoothing = new DecimatingFilter(
+                    new FixedPointMovingAverageFilter(50),
+                    DecimatingFilter.factorFor(1000f / 5, MOTION_HUE_RATE_HZ),
+                    8);
+            motionSmoothingDelayMs = ((50 - 1) / 2f + smoothing.getDelaySamples()) * 5;
+
+            // Never projects beyond what the raw motion reached, so reversals do not overshoot
+            motionPredictor = new PredictiveFilter(smoothing, 5, MOTION_MAX_HORIZON_MS);
+            motionPredictor.setOvershootLimit(0);
+
+            accelerometerProvider = new AccelerometerDataProvider(
+                    (SensorManager) getSystemService(Context.SENSOR_SERVICE),
+                    5,
+                    motionPredictor);
+        }
+
+        return accelerometerProvider;
+    }
+
+    /**
+     * Points motion prediction at the current lag: the smoothing delay plus the average write
+     * round trip so far. Called before motion mode starts, while the filter is idle.
+     */
+    private void updateMotionPredictionHorizon() {
+        Histogram writeLatency = MetricsRegistry.getDefault()
+                .histogram("ble.write.latency_us", Histogram.exponentialBounds(1000, 12));
+        long writes = writeLatency.getCount();
+        float writeLatencyMs = writes == 0 ? 0 : writeLatency.getSum() / (writes * 1000f);
+
+        motionPredictor.setHorizonMs(MOTION_PREDICTION_SHARE * (motionSmoothingDelayMs + writeLatencyMs));
+    }
+
+    /**
+     * Gets the orientation provider, creating it on first use.
+     *
+     * @return the orientation provider
+     */
+    private OrientationDataProvider getOrientationProvider() {
+        if (orientationProvider == null) {
+            orientationProvider = new OrientationDataProvider(
+                    (SensorManager) getSystemService(Context.SENSOR_SERVICE),
+                    5);
+            if (!orientationProvider.hasGyroscope()) {
+                Log.w(TAG, "No gyroscope; orientation uses the accelerometer only");
+            }
+        }
+
+        return orientationProvider;
+    }
+
+    /**
+     * Gets the audio provider, creating it on first use.
+     *
+     * @return the audio provider
+     */
+    private AudioDataProvider getAudioProvider() {
+        if (audioProvider == null) {
+            audioProvider = new AudioDataProvider(
+                    AudioDataProvider.DEFAULT_SAMPLE_RATE_HZ,
+                    AudioAnalyzer.DEFAULT_BLOCK_SIZE,
+                    AudioAnalyzer.DEFAULT_BAND_COUNT);
+        }
+
+        return audioProvider;
+    }
+
+    /**
+     * Gets the camera colour provider, creating it on first use.
+     *
+     * @return the camera colour provider
+     */
+    private CameraColorProvider getCameraColorProvider() {
+        if (cameraColorProvider == null) {
+            cameraColorProvider = new CameraColorProvider();
+        }
+
+        return cameraColorProvider;
+    }
+
+    /**
+     * Runs the accelerometer while motion mode or gestures need it.
+     */
+    private void updateAccelerometerState() {
+        boolean needed = btnUseAccelerometer.isChecked() || btnUseGestures.isChecked();
+        if (needed) {
+            getAccelerometerProvider().setStillSampleRateMs(
+                    btnUseGestures.isChecked() ? 0 : ACCELEROMETER_STILL_RATE_MS);
+        }
+        if (needed == accelerometerRunning) {
+            return;
+        }
+
+        accelerometerRunning = needed;
+        if (needed) {
+            getAccelerometerProvider().onStart();
+        } else {
+            getAccelerometerProvider().onStop();
+        }
+    }
+
+    /**
+     * Applies a recognized gesture to the light.
+     *
+     * Double tap toggles remote control; the other gestures only act while remote control is
+     * on and no other input (motion mode, orientation, microphone or camera) is driving the light.
+     *
+     * @param gesture one of the GestureRecognizer.GESTURE_* constants
+     */
+    private void onGestureRecognized(int gesture) {
+        if (mBluetoothLeService == null || !mConnState) {
+            return;
+        }
+
+        Log.d(TAG, "Gesture: " + GestureRecognizer.getName(gesture));
+
+        if (gesture == GestureRecognizer.GESTURE_DOUBLE_TAP) {
+            btnRemoteControlEnabled.toggle();
+            return;
+        }
+
+        if (!btnRemoteControlEnabled.isChecked() || btnUseOrientation.isChecked() || btnUseMicrophone.isChecked()
+                || btnMatchRoom.isChecked()) {
+            return;
+        }
+
+        mBluetoothLeService.onUserActivity();
+
+        switch (gesture) {
+            case GestureRecognizer.GESTURE_FLICK_RIGHT:
+                if (!btnUseAccelerometer.isChecked()) {
+                    sendSetHueCommand(nextHuePreset(currentHue, 1));
+                }
+                break;
+            case GestureRecognizer.GESTURE_FLICK_LEFT:
+                if (!btnUseAccelerometer.isChecked()) {
+                    sendSetHueCommand(nextHuePreset(currentHue, -1));
+                }
+                break;
+            case GestureRecognizer.GESTURE_TILT_UP:
+                sendSetSaturationCommand(Math.min(255, currentSaturation + TILT_SATURATION_STEP));
+                break;
+            case GestureRecognizer.GESTURE_TILT_DOWN:
+                sendSetSaturationCommand(Math.max(0, currentSaturation - TILT_SATURATION_STEP));
+                break;
+            case GestureRecognizer.GESTURE_SHAKE:
+                // Shake washes the colour out to white, or back to full colour
+                sendSetSaturationCommand(currentSaturation > 0 ? 0 : 255);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Finds the neighbouring hue preset.
+     *
+     * @param hue       the current hue
+     * @param direction 1 for the next preset, -1 for the previous one
+     * @return          the preset hue
+     */
+    private static int nextHuePreset(int hue, int direction) {
+        if (direction > 0) {
+            for (int preset : HUE_PRESETS) {
+                if (preset > hue) {
+                    return preset;
+                }
+            }
+            return HUE_PRESETS[0];
+        }
+
+        for (int i = HUE_PRESETS.length - 1; i >= 0; i--) {
+            if (HUE_PRESETS[i] < hue) {
+                return HUE_PRESETS[i];
+            }
+        }
+        return HUE_PRESETS[HUE_PRESETS.length - 1];
+    }
+
+    /**
+     * Marks the first frame of the activity in the startup trace once it has been drawn.
+     */
+    private void watchFirstFrame() {
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+
+                // Runs after the frame being prepared has been drawn
+                decorView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        markStartup(StartupTrace.MARK_FIRST_FRAME);
+                    }
+                });
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Records a startup step, and reports the trace once the app is controllable.
+     *
+     * @param mark one of the StartupTrace.MARK_* constants
+     */
+    private void markStartup(int mark) {
+        if (!startupTrace.mark(mark, SystemClock.elapsedRealtime())) {
+            return;
+        }
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        metrics.gauge("startup.first_frame_ms").set(startupTrace.getElapsedMs(StartupTrace.MARK_FIRST_FRAME));
+        metrics.gauge("startup.controllable_ms").set(startupTrace.getElapsedMs(StartupTrace.MARK_CONTROLLABLE));
+        Log.i(TAG, "Cold start: " + startupTrace.summary());
+    }
+
     /**
      * Sends the set hue command to client.
      *
      * @param hue the hue to set
      */
     private void sendSetHueCommand(int hue) {
-        byte[] hueBytes = wordToBytes(hue);
+        byte[] hueBytes = LightProtocol.wordToBytes(hue);
 
-        byte[] buf = new byte[]{CMD_SET_HUE, hueBytes[0], hueBytes[1]};
+        mBluetoothLeService.sendCommand(LightProtocol.CMD_SET_HUE, hueBytes[0], hueBytes[1]);
+        hueEchoSuppressor.recordWrite(hue, SystemClock.uptimeMillis());
+        hueTrace.add(hue);
 
-        mCharacteristicTx.setValue(buf);
-        mBluetoothLeService.writeCharacteristic(mCharacteristicTx);
+        // Echoes of this write are suppressed, so reflect it locally right away
+        updateCurrentHue(hue);
     }
 
     /**
@@ -639,129 +1328,94 @@ public class MainActivity extends AppCompatActivity {
      * @param saturation the saturation to set
      */
     private void sendSetSaturationCommand(int saturation) {
-        byte[] buf = new byte[]{CMD_SET_SATURATUION, (byte) (saturation & 0xFF), 0x00};
+        mBluetoothLeService.sendCommand(
+                LightProtocol.CMD_SET_SATURATION, (byte) (saturation & 0xFF), (byte) 0x00);
+        saturationEchoSuppressor.recordWrite(saturation, SystemClock.uptimeMillis());
 
-        mCharacteristicTx.setValue(buf);
-        mBluetoothLeService.writeCharacteristic(mCharacteristicTx);
+        // Echoes of this write are suppressed, so reflect it locally right away
+        updateCurrentSaturation(saturation);
     }
 
     /**
-     * Gets the RGB value from HSB.
-     *
-     * @param hue        the hue
-     * @param sat        the saturation
-     * @param brightness the brightness
-     * @return           an RGB value
+     * Uploads the demo effect, or stops the effect started by the last call.
      */
-    private static int getColorFromHSB(int hue, int sat, int brightness) {
-        int r = 0;
-        int g = 0;
-        int  b = 0;
-        int base;
-
-        if (sat == 0) {
-            r = brightness;
-            g = brightness;
-            b = brightness;
-        } else  {
-            base = (((255 - sat) * brightness) >> 8);
-
-            switch(hue / 60) {
-                case 0:
-                    r = brightness;
-                    g = ((((brightness - base) * hue) / 60) + base);
-                    b = base;
-                    break;
-
-                case 1:
-                    r = ((((brightness - base) * (60 - (hue % 60))) / 60) + base);
-                    g = brightness;
-                    b = base;
-                    break;
-
-                case 2:
-                    r = base;
-                    g = brightness;
-                    b = ((((brightness - base) * (hue % 60)) / 60) + base);
-                    break;
-
-                case 3:
-                    r = base;
-                    g = ((((brightness - base) * (60 - (hue % 60))) / 60) + base);
-                    b = brightness;
-                    break;
-
-                case 4:
-                    r = ((((brightness - base) * (hue % 60)) / 60) + base);
-                    g = base;
-                    b = brightness;
-                    break;
-
-                case 5:
-                    r = brightness;
-                    g = base;
-                    b = ((((brightness - base) * (60 - (hue % 60))) / 60) + base);
-                    break;
-            }
-        }
-
-        return (0xff) << 24 | (r & 0xff) << 16 | (g & 0xff) << 8 | (b & 0xff);
-    }
+    private void toggleDemoEffect() {
+        if (mBluetoothLeService == null || !mConnState || !btnRemoteControlEnabled.isChecked()) {
+            return;
+        }
 
-    /**
-     * Converts an upper and lower byte into a single 16-bit word.
-     *
-     * @param upper upper byte
-     * @param lower lower byte
-     * @return      a 16-bit word
-     */
-    private static int bytesToWord(byte upper, byte lower) {
-        return ((upper << 8) & 0x0000ff00) | (lower & 0x000000ff);
+        mBluetoothLeService.onUserActivity();
+        effectRequested = !effectRequested;
+        if (effectRequested) {
+            mBluetoothLeService.uploadEffect(EffectCompiler.compile(DEMO_EFFECT));
+        } else {
+            mBluetoothLeService.stopEffect();
+            Toast.makeText(this, "Effect stopped.", Toast.LENGTH_SHORT).show();
+        }
     }
 
     /**
-     * Converts a 16-bit word into upper and lower bytes.
-     * @param word a 16-bit word
-     * @return     array of bytes, ordered upper then lower
+     * Starts recording a sensor trace, or stops the recording in progress.
      */
-    private static byte[] wordToBytes(int word) {
-        return new byte[] { (byte) ((word >> 8) & 0xFF), (byte) (word & 0xFF)};
+    private void toggleSensorRecording() {
+        AccelerometerDataProvider provider = getAccelerometerProvider();
+        if (provider.isRecording()) {
+            long samples = provider.stopRecording();
+            Toast.makeText(this, "Recorded " + samples + " samples", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            directory = getFilesDir();
+        }
+
+        File file = new File(directory, "sensor-trace-" + System.currentTimeMillis() + ".bin");
+        try {
+            provider.startRecording(file);
+            Toast.makeText(this, "Recording to " + file.getName(), Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to start sensor trace", e);
+            Toast.makeText(this, "Unable to record sensor trace", Toast.LENGTH_SHORT).show();
+        }
     }
 
     /**
-     * Converts an identifier string to a UUID-formatted string.
-     * @param uuid identifier string
-     * @return     UUID-formatted string
+     * Writes the protocol capture held by the service to a file.
      */
-    private static String stringToUuidString(String uuid) {
-        StringBuffer newString = new StringBuffer();
-        newString.append(uuid.toUpperCase(Locale.ENGLISH).substring(0, 8));
-        newString.append("-");
-        newString.append(uuid.toUpperCase(Locale.ENGLISH).substring(8, 12));
-        newString.append("-");
-        newString.append(uuid.toUpperCase(Locale.ENGLISH).substring(12, 16));
-        newString.append("-");
-        newString.append(uuid.toUpperCase(Locale.ENGLISH).substring(16, 20));
-        newString.append("-");
-        newString.append(uuid.toUpperCase(Locale.ENGLISH).substring(20, 32));
-
-        return newString.toString();
+    private void dumpProtocolCapture() {
+        if (mBluetoothLeService == null) {
+            return;
+        }
+
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            directory = getFilesDir();
+        }
+
+        File file = new File(directory, "protocol-capture-" + System.currentTimeMillis() + ".bin");
+        try {
+            int frames = mBluetoothLeService.dumpProtocolCapture(file);
+            Toast.makeText(this, "Saved " + frames + " frames to " + file.getName(), Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save protocol capture", e);
+            Toast.makeText(this, "Unable to save protocol capture", Toast.LENGTH_SHORT).show();
+        }
     }
 
     /**
-     * Converts a byte array to hexadecimal.
+     * Logs how much UI work echo suppression saved during the drag that just ended.
      *
-     * @param bytes a byte array
-     * @return      a HEX string
+     * @param channel    the name of the dragged control
+     * @param suppressor the echo suppressor for that control
      */
-    private String bytesToHex(byte[] bytes) {
-        char[] hexChars = new char[bytes.length * 2];
-        int v;
-        for (int j = 0; j < bytes.length; j++) {
-            v = bytes[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
-        }
-        return new String(hexChars);
+    private void logDragSavings(String channel, EchoSuppressor suppressor) {
+        long suppressed = suppressor.getSuppressedCount() - dragSuppressedBaseline;
+
+        Log.i(TAG, String.format(Locale.ENGLISH,
+                "%s drag: %d notification(s) suppressed, %d UI update(s) saved",
+                channel,
+                suppressed,
+                suppressed * UI_UPDATES_PER_NOTIFICATION));
     }
-}
\ No newline at end of file
+}
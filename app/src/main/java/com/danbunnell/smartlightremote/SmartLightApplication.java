@@ -0,0 +1,42 @@
+package com.danbunnell.smartlightremote;
+
+import android.app.Application;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.danbunnell.smartlightremote.metrics.StartupTrace;
+
+/**
+ * Application entry point; holds the startup trace for the activity to complete.
+ */
+public class SmartLightApplication extends Application {
+
+    // The earliest timestamp available to app code on platforms without a process start time
+    private final long constructedMs = SystemClock.elapsedRealtime();
+
+    private StartupTrace startupTrace;
+
+    /**
+     * Called when the application is starting, before any activity or service is created.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        long processStartMs = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Process.getStartElapsedRealtime()
+                : this.constructedMs;
+        this.startupTrace = new StartupTrace(processStartMs);
+        this.startupTrace.mark(StartupTrace.MARK_APPLICATION_CREATED, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Gets the trace of this process's cold start.
+     *
+     * @return the startup trace
+     */
+    public StartupTrace getStartupTrace() {
+        return this.startupTrace;
+    }
+}
@@ -4,16 +4,25 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.util.Log;
 
 import com.danbunnell.smartlightremote.common.SignalFilter;
+import com.danbunnell.smartlightremote.metrics.Counter;
+import com.danbunnell.smartlightremote.metrics.Histogram;
+import com.danbunnell.smartlightremote.metrics.MetricsRegistry;
+import com.danbunnell.smartlightremote.metrics.SampleRing;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
 
 public class AccelerometerDataProvider implements SensorEventListener {
 
     private static final String TAG = "AccelerometerDataProvider";
 
+    private static final int RATE_FULL = 0;
+    private static final int RATE_STILL = 1;
+
     /**
      * manages sensors
      */
@@ -25,19 +34,65 @@ public class AccelerometerDataProvider implements SensorEventListener {
     private Sensor accelerometer;
 
     /**
-     * the registered callbacks
+     * filters samples and dispatches them to the registered callbacks
      */
-    private Map<String, AccelerometerListener> callbacks;
+    private AccelerometerPipeline pipeline;
 
     /**
-     * used to filter raw accelerometer data
+     * sensor sample rate in hertz (Hz)
      */
-    private SignalFilter filter;
+    private long sampleRateMs;
 
     /**
-     * sensor sample rate in hertz (Hz)
+     * sample rate while the phone is at rest, or 0 to always sample at the full rate
      */
-    private long sampleRateMs;
+    private long stillSampleRateMs;
+
+    /**
+     * decides when the rate can drop
+     */
+    private final StillnessDetector stillnessDetector = new StillnessDetector(new StillnessDetector.Listener() {
+        @Override
+        public void onStillnessChanged(boolean still, long timestampNanos) {
+            setRate(still ? RATE_STILL : RATE_FULL, timestampNanos);
+        }
+    });
+
+    private boolean started;
+    private int rate = RATE_FULL;
+    private long rateSinceNanos = -1;
+    private long lastTimestampNanos;
+    private final long[] timeAtRateNanos = new long[2];
+    private final long[] samplesAtRate = new long[2];
+
+    /**
+     * records raw samples while a recording is in progress
+     */
+    private SensorTraceWriter traceWriter;
+
+    /**
+     * counts samples received from the sensor
+     */
+    private final Counter samples = MetricsRegistry.getDefault().counter("accel.samples");
+
+    /**
+     * counts switches between the full and the resting sample rate
+     */
+    private final Counter rateChanges = MetricsRegistry.getDefault().counter("accel.rate_changes");
+
+    /**
+     * time taken to filter a sample and run the callbacks, in nanoseconds
+     */
+    private final Histogram dispatchNanos = MetricsRegistry.getDefault()
+            .histogram("accel.dispatch_ns", Histogram.exponentialBounds(1000, 12));
+
+    /**
+     * the magnitude of each sample before and after filtering, for the debug overlay
+     */
+    private final SampleRing magnitudeTrace = MetricsRegistry.getDefault()
+            .sampleRing("accel.magnitude", SampleRing.DEFAULT_CAPACITY);
+    private final SampleRing filteredTrace = MetricsRegistry.getDefault()
+            .sampleRing("accel.filtered", SampleRing.DEFAULT_CAPACITY);
 
     /**
      * Initializes a new instance of the {@link AccelerometerDataProvider} class.
@@ -49,9 +104,8 @@ public class AccelerometerDataProvider implements SensorEventListener {
     public AccelerometerDataProvider(SensorManager sensorManager, long sampleRateMs, SignalFilter filter) {
         this.sensorManager = sensorManager;
         this.accelerometer = this.sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        this.callbacks = new HashMap<>();
+        this.pipeline = new AccelerometerPipeline(filter);
         this.sampleRateMs = sampleRateMs;
-        this.filter = filter;
     }
 
     /**
@@ -61,7 +115,7 @@ public class AccelerometerDataProvider implements SensorEventListener {
      * @param callback a callback
      */
     public void registerCallback(String identifier, AccelerometerListener callback) {
-        this.callbacks.put(identifier, callback);
+        this.pipeline.registerCallback(identifier, callback);
     }
 
     /**
@@ -70,13 +124,52 @@ public class AccelerometerDataProvider implements SensorEventListener {
      * @param identifier the callback identifier
      */
     public void unregisterCallback(String identifier) {
-        this.callbacks.remove(identifier);
+        this.pipeline.unregisterCallback(identifier);
+    }
+
+    /**
+     * Registers a listener for raw samples.
+     *
+     * @param identifier an identifier for the listener
+     * @param listener   a listener
+     */
+    public void registerSampleListener(String identifier, AccelerometerSampleListener listener) {
+        this.pipeline.registerSampleListener(identifier, listener);
+    }
+
+    /**
+     * Unregisters a listener for raw samples.
+     *
+     * @param identifier the listener identifier
+     */
+    public void unregisterSampleListener(String identifier) {
+        this.pipeline.unregisterSampleListener(identifier);
+    }
+
+    /**
+     * Lowers the sample rate while the phone is at rest. Motion restores the full rate within
+     * a sample, but a gesture that starts from rest is seen at the resting rate until then, so
+     * leave this disabled while recognizing gestures.
+     *
+     * @param stillSampleRateMs the resting sample rate in milliseconds, or 0 to disable
+     */
+    public void setStillSampleRateMs(long stillSampleRateMs) {
+        this.stillSampleRateMs = stillSampleRateMs;
+
+        if (stillSampleRateMs == 0) {
+            this.stillnessDetector.reset();
+            this.setRate(RATE_FULL, this.lastTimestampNanos);
+        }
     }
 
     /**
      * Starts listening to the accelerometer.
      */
     public void onStart() {
+        this.started = true;
+        this.rate = RATE_FULL;
+        this.rateSinceNanos = -1;
+        this.stillnessDetector.reset();
         this.sensorManager.registerListener(this, this.accelerometer, this.convertMsToMicroseconds(this.sampleRateMs));
     }
 
@@ -85,6 +178,83 @@ public class AccelerometerDataProvider implements SensorEventListener {
      */
     public void onStop() {
         this.sensorManager.unregisterListener(this);
+
+        if (this.started) {
+            this.started = false;
+            if (this.rateSinceNanos >= 0) {
+                this.timeAtRateNanos[this.rate] += this.lastTimestampNanos - this.rateSinceNanos;
+            }
+            Log.i(TAG, "Sampling: " + this.summary());
+        }
+    }
+
+    /**
+     * Gets the time spent sampling at the full rate or the resting rate, excluding the
+     * current period.
+     *
+     * @param still true for the resting rate
+     * @return      the time in nanoseconds
+     */
+    public long getTimeAtRateNanos(boolean still) {
+        return this.timeAtRateNanos[still ? RATE_STILL : RATE_FULL];
+    }
+
+    /**
+     * Summarizes time and samples per rate for logging.
+     *
+     * @return a human-readable summary
+     */
+    public String summary() {
+        long total = this.timeAtRateNanos[RATE_FULL] + this.timeAtRateNanos[RATE_STILL];
+        return String.format(Locale.ENGLISH,
+                "full rate %.1f s (%.0f%%, %d samples), resting rate %.1f s (%.0f%%, %d samples)",
+                this.timeAtRateNanos[RATE_FULL] / 1e9,
+                total == 0 ? 0.0 : 100.0 * this.timeAtRateNanos[RATE_FULL] / total,
+                this.samplesAtRate[RATE_FULL],
+                this.timeAtRateNanos[RATE_STILL] / 1e9,
+                total == 0 ? 0.0 : 100.0 * this.timeAtRateNanos[RATE_STILL] / total,
+                this.samplesAtRate[RATE_STILL]);
+    }
+
+    /**
+     * Starts recording raw samples to a trace file, replacing any recording in progress.
+     *
+     * @param file the trace file to create
+     * @throws IOException if the file cannot be created
+     */
+    public void startRecording(File file) throws IOException {
+        this.stopRecording();
+        this.traceWriter = new SensorTraceWriter(file);
+    }
+
+    /**
+     * Stops recording and closes the trace file.
+     *
+     * @return the number of samples recorded
+     */
+    public long stopRecording() {
+        if (this.traceWriter == null) {
+            return 0;
+        }
+
+        long recordCount = this.traceWriter.getRecordCount();
+        try {
+            this.traceWriter.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to finish sensor trace", e);
+        }
+
+        this.traceWriter = null;
+        return recordCount;
+    }
+
+    /**
+     * Checks whether samples are being recorded.
+     *
+     * @return true while recording
+     */
+    public boolean isRecording() {
+        return this.traceWriter != null;
     }
 
     /**
@@ -94,32 +264,64 @@ public class AccelerometerDataProvider implements SensorEventListener {
      */
     @Override
     public void onSensorChanged(SensorEvent sensorEvent) {
-        float magnitude = this.getMagnitude(sensorEvent);
-        float filteredMagnitude = this.filter.filter(magnitude);
+        float[] values = sensorEvent.values;
+
+        if (this.traceWriter != null) {
+            try {
+                this.traceWriter.record(sensorEvent.timestamp, values[0], values[1], values[2]);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to record sensor trace", e);
+                this.stopRecording();
+            }
+        }
 
-        for(AccelerometerListener callback : callbacks.values()) {
-            callback.onAccelerometerData(magnitude, filteredMagnitude);
+        long start = System.nanoTime();
+        this.pipeline.onSample(sensorEvent.timestamp, values[0], values[1], values[2]);
+        this.dispatchNanos.record(System.nanoTime() - start);
+        this.samples.increment();
+        this.magnitudeTrace.add(this.pipeline.getLastMagnitude());
+        this.filteredTrace.add(this.pipeline.getLastFilteredMagnitude());
+
+        if (this.rateSinceNanos < 0) {
+            this.rateSinceNanos = sensorEvent.timestamp;
+        }
+        this.lastTimestampNanos = sensorEvent.timestamp;
+        this.samplesAtRate[this.rate]++;
+
+        if (this.stillSampleRateMs > 0) {
+            this.stillnessDetector.onSample(sensorEvent.timestamp, this.pipeline.getLastMagnitude());
         }
     }
 
     /**
-     * Called when the sensor accuracy changes.
+     * Re-registers the sensor at a new rate.
      *
-     * @param sensor the sensor whose accuracy changed
-     * @param i      the accuracy value
+     * @param rate           RATE_FULL or RATE_STILL
+     * @param timestampNanos the time of the sample that caused the change
      */
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int i) {
+    private void setRate(int rate, long timestampNanos) {
+        if (rate == this.rate || !this.started) {
+            return;
+        }
+
+        this.timeAtRateNanos[this.rate] += timestampNanos - this.rateSinceNanos;
+        this.rate = rate;
+        this.rateSinceNanos = timestampNanos;
+        this.rateChanges.increment();
+
+        long periodMs = rate == RATE_STILL ? this.stillSampleRateMs : this.sampleRateMs;
+        this.sensorManager.unregisterListener(this);
+        this.sensorManager.registerListener(this, this.accelerometer, this.convertMsToMicroseconds(periodMs));
     }
 
     /**
-     * Gets the magnitude of a sensor event.
+     * Called when the sensor accuracy changes.
      *
-     * @param sensorEvent the sensor event
-     * @return            a magnitude
+     * @param sensor the sensor whose accuracy changed
+     * @param i      the accuracy value
      */
-    private float getMagnitude(SensorEvent sensorEvent) {
-        return (float) Math.sqrt(Math.pow(sensorEvent.values[0], 2) + Math.pow(sensorEvent.values[1], 2) + Math.pow(sensorEvent.values[2], 2));
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int i) {
     }
 
     /**
@@ -131,4 +333,4 @@ public class AccelerometerDataProvider implements SensorEventListener {
     private int convertMsToMicroseconds(long ms) {
         return (int) ms * 1000;
     }
-}
\ No newline at end of file
+}
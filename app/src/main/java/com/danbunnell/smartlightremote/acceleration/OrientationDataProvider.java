@@ -0,0 +1,190 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.danbunnell.smartlightremote.metrics.Histogram;
+import com.danbunnell.smartlightremote.metrics.MetricsRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provides roll and pitch fused from the accelerometer and gyroscope.
+ *
+ * Sensor events are delivered to a background thread, so callbacks run off the UI thread and
+ * must hand any UI work back to it. Callbacks run once per accelerometer sample.
+ */
+public class OrientationDataProvider implements SensorEventListener {
+
+    private static final String TAG = "OrientationDataProvider";
+
+    /**
+     * manages sensors
+     */
+    private SensorManager sensorManager;
+
+    private Sensor accelerometer;
+
+    /**
+     * the gyroscope sensor, or null when the device has none
+     */
+    private Sensor gyroscope;
+
+    /**
+     * sensor sample rate in milliseconds
+     */
+    private long sampleRateMs;
+
+    /**
+     * fuses the samples; only touched on the sensor thread
+     */
+    private final ComplementaryOrientationFilter filter =
+            new ComplementaryOrientationFilter(ComplementaryOrientationFilter.DEFAULT_TIME_CONSTANT_S);
+
+    /**
+     * the registered callbacks, modified on the UI thread
+     */
+    private final Map<String, OrientationListener> callbacks = new HashMap<>();
+
+    /**
+     * snapshot of the callbacks read by the sensor thread
+     */
+    private volatile OrientationListener[] callbackArray = new OrientationListener[0];
+
+    /**
+     * receives sensor events while started
+     */
+    private HandlerThread sensorThread;
+
+    /**
+     * time taken to fuse a sample and run the callbacks, in nanoseconds
+     */
+    private final Histogram updateNanos = MetricsRegistry.getDefault()
+            .histogram("orientation.update_ns", Histogram.exponentialBounds(1000, 12));
+
+    /**
+     * Initializes a new instance of the {@link OrientationDataProvider} class.
+     *
+     * @param sensorManager the sensor manager
+     * @param sampleRateMs  the sample rate in milliseconds
+     */
+    public OrientationDataProvider(SensorManager sensorManager, long sampleRateMs) {
+        this.sensorManager = sensorManager;
+        this.accelerometer = this.sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        this.gyroscope = this.sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        this.sampleRateMs = sampleRateMs;
+    }
+
+    /**
+     * Registers a callback for the onOrientationData event.
+     *
+     * @param identifier an identifier for the callback
+     * @param callback   a callback
+     */
+    public void registerCallback(String identifier, OrientationListener callback) {
+        this.callbacks.put(identifier, callback);
+        this.callbackArray = this.callbacks.values().toArray(new OrientationListener[0]);
+    }
+
+    /**
+     * Unregisters a callback for the onOrientationData event.
+     *
+     * @param identifier the callback identifier
+     */
+    public void unregisterCallback(String identifier) {
+        this.callbacks.remove(identifier);
+        this.callbackArray = this.callbacks.values().toArray(new OrientationListener[0]);
+    }
+
+    /**
+     * Checks whether the gyroscope is available; without it, orientation comes from the
+     * accelerometer alone and responds more slowly.
+     *
+     * @return true if the device has a gyroscope
+     */
+    public boolean hasGyroscope() {
+        return this.gyroscope != null;
+    }
+
+    /**
+     * Starts listening to the sensors.
+     */
+    public void onStart() {
+        if (this.sensorThread != null) {
+            return;
+        }
+
+        this.sensorThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+        this.sensorThread.start();
+        final Handler handler = new Handler(this.sensorThread.getLooper());
+
+        // The filter belongs to the sensor thread, so it is reset there
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                filter.reset();
+            }
+        });
+
+        int periodUs = (int) this.sampleRateMs * 1000;
+        this.sensorManager.registerListener(this, this.accelerometer, periodUs, handler);
+        if (this.gyroscope != null) {
+            this.sensorManager.registerListener(this, this.gyroscope, periodUs, handler);
+        }
+    }
+
+    /**
+     * Stops listening to the sensors.
+     */
+    public void onStop() {
+        if (this.sensorThread == null) {
+            return;
+        }
+
+        this.sensorManager.unregisterListener(this);
+        this.sensorThread.quitSafely();
+        this.sensorThread = null;
+    }
+
+    /**
+     * Called on the sensor thread when a registered sensor changes value.
+     *
+     * @param sensorEvent Sensor event data
+     */
+    @Override
+    public void onSensorChanged(SensorEvent sensorEvent) {
+        float[] values = sensorEvent.values;
+
+        if (sensorEvent.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
+            this.filter.onGyroscope(sensorEvent.timestamp, values[0], values[1], values[2]);
+            return;
+        }
+
+        long start = System.nanoTime();
+        this.filter.onAccelerometer(sensorEvent.timestamp, values[0], values[1], values[2]);
+
+        float roll = this.filter.getRollDegrees();
+        float pitch = this.filter.getPitchDegrees();
+        for (OrientationListener callback : this.callbackArray) {
+            callback.onOrientationData(roll, pitch);
+        }
+
+        this.updateNanos.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Called when the sensor accuracy changes.
+     *
+     * @param sensor the sensor whose accuracy changed
+     * @param i      the accuracy value
+     */
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int i) {
+    }
+}
@@ -0,0 +1,268 @@
+package com.danbunnell.smartlightremote.ambient;
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.danbunnell.smartlightremote.metrics.Histogram;
+import com.danbunnell.smartlightremote.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provides the smoothed dominant colour of what the back camera sees.
+ *
+ * The camera is opened on a background thread, so preview frames, and the callbacks, arrive
+ * there and must hand any UI work back to the UI thread. Frames are NV21; every
+ * {@link #SAMPLE_STEP}-th pixel in each direction is converted to ARGB into a small
+ * preallocated buffer, which the {@link AmbientColorExtractor} then reads in full. Frames
+ * beyond {@link #MAX_FRAMES_PER_SECOND} are returned to the camera unprocessed.
+ */
+public class CameraColorProvider implements Camera.PreviewCallback {
+
+    private static final String TAG = "CameraColorProvider";
+
+    /**
+     * preview pixels per sample in each direction
+     */
+    public static final int SAMPLE_STEP = 8;
+
+    /**
+     * the light cannot usefully follow the room faster than this
+     */
+    public static final int MAX_FRAMES_PER_SECOND = 10;
+
+    private static final long MIN_FRAME_INTERVAL_NANOS = 1000000000L / MAX_FRAMES_PER_SECOND;
+
+    /**
+     * preview buffers cycled with the camera
+     */
+    private static final int PREVIEW_BUFFERS = 2;
+
+    private final AmbientColorExtractor extractor = new AmbientColorExtractor(1);
+    private final AmbientColorSmoother smoother = new AmbientColorSmoother(
+            AmbientColorSmoother.DEFAULT_TIME_CONSTANT_S,
+            AmbientColorSmoother.DEFAULT_HUE_DEADBAND,
+            AmbientColorSmoother.DEFAULT_SATURATION_DEADBAND);
+
+    /**
+     * the registered callbacks, modified on the UI thread
+     */
+    private final Map<String, AmbientColorListener> callbacks = new HashMap<>();
+
+    /**
+     * snapshot of the callbacks read by the camera thread
+     */
+    private volatile AmbientColorListener[] callbackArray = new AmbientColorListener[0];
+
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
+
+    // Owned by the camera thread
+    private Camera camera;
+    private SurfaceTexture texture;
+    private int previewWidth;
+    private int previewHeight;
+    private int[] samples;
+    private long lastFrameNanos;
+
+    /**
+     * time taken to sample, extract and smooth one frame, in nanoseconds
+     */
+    private final Histogram frameNanos = MetricsRegistry.getDefault()
+            .histogram("ambient.frame_ns", Histogram.exponentialBounds(10000, 12));
+
+    /**
+     * Registers a callback for the onAmbientColor event.
+     *
+     * @param identifier an identifier for the callback
+     * @param callback   a callback
+     */
+    public void registerCallback(String identifier, AmbientColorListener callback) {
+        this.callbacks.put(identifier, callback);
+        this.callbackArray = this.callbacks.values().toArray(new AmbientColorListener[0]);
+    }
+
+    /**
+     * Unregisters a callback for the onAmbientColor event.
+     *
+     * @param identifier the callback identifier
+     */
+    public void unregisterCallback(String identifier) {
+        this.callbacks.remove(identifier);
+        this.callbackArray = this.callbacks.values().toArray(new AmbientColorListener[0]);
+    }
+
+    /**
+     * Opens the camera and starts sampling; failures are reported through
+     * {@link AmbientColorListener#onCameraError}.
+     */
+    public void onStart() {
+        if (this.cameraThread != null) {
+            return;
+        }
+
+        this.cameraThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        this.cameraThread.start();
+        this.cameraHandler = new Handler(this.cameraThread.getLooper());
+        this.cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                openCamera();
+            }
+        });
+    }
+
+    /**
+     * Releases the camera and stops sampling.
+     */
+    public void onStop() {
+        if (this.cameraThread == null) {
+            return;
+        }
+
+        this.cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeCamera();
+            }
+        });
+        this.cameraThread.quitSafely();
+        this.cameraThread = null;
+        this.cameraHandler = null;
+    }
+
+    /**
+     * Called on the camera thread with each preview frame.
+     *
+     * @param data   the NV21 frame
+     * @param camera the camera
+     */
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        long start = System.nanoTime();
+        if (start - this.lastFrameNanos >= MIN_FRAME_INTERVAL_NANOS && data != null) {
+            this.lastFrameNanos = start;
+
+            int width = this.previewWidth / SAMPLE_STEP;
+            int height = this.previewHeight / SAMPLE_STEP;
+            sampleNv21(data, this.previewWidth, this.previewHeight, SAMPLE_STEP, this.samples);
+            this.extractor.extract(this.samples, width, height);
+
+            if (this.smoother.update(this.extractor.getHue(), this.extractor.getSaturation(), start / 1000000)) {
+                int hue = this.smoother.getHue();
+                int saturation = this.smoother.getSaturation();
+                for (AmbientColorListener callback : this.callbackArray) {
+                    callback.onAmbientColor(hue, saturation);
+                }
+            }
+
+            this.frameNanos.record(System.nanoTime() - start);
+        }
+
+        camera.addCallbackBuffer(data);
+    }
+
+    /**
+     * Converts every step-th pixel of an NV21 frame to ARGB.
+     *
+     * @param nv21   the frame
+     * @param width  the frame width
+     * @param height the frame height
+     * @param step   the sampling step in both directions
+     * @param argb   receives (width / step) x (height / step) pixels
+     */
+    static void sampleNv21(byte[] nv21, int width, int height, int step, int[] argb) {
+        int outWidth = width / step;
+        int outHeight = height / step;
+        int chroma = width * height;
+
+        for (int oy = 0; oy < outHeight; oy++) {
+            int y = oy * step;
+            int lumaRow = y * width;
+            int chromaRow = chroma + (y >> 1) * width;
+
+            for (int ox = 0; ox < outWidth; ox++) {
+                int x = ox * step;
+                int luma = Math.max(0, (nv21[lumaRow + x] & 0xFF) - 16);
+                int vu = chromaRow + (x & ~1);
+                int v = (nv21[vu] & 0xFF) - 128;
+                int u = (nv21[vu + 1] & 0xFF) - 128;
+
+                // BT.601 studio range to full-range RGB
+                int scaled = 298 * luma + 128;
+                int r = clamp((scaled + 409 * v) >> 8);
+                int g = clamp((scaled - 100 * u - 208 * v) >> 8);
+                int b = clamp((scaled + 516 * u) >> 8);
+                argb[oy * outWidth + ox] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    private static int clamp(int channel) {
+        return channel < 0 ? 0 : channel > 255 ? 255 : channel;
+    }
+
+    /**
+     * Opens the back camera and starts the preview. Runs on the camera thread.
+     */
+    private void openCamera() {
+        try {
+            this.camera = Camera.open();
+            if (this.camera == null) {
+                throw new RuntimeException("No back-facing camera");
+            }
+
+            Camera.Parameters parameters = this.camera.getParameters();
+            parameters.setPreviewFormat(ImageFormat.NV21);
+            this.camera.setParameters(parameters);
+
+            Camera.Size size = parameters.getPreviewSize();
+            this.previewWidth = size.width;
+            this.previewHeight = size.height;
+            this.samples = new int[(size.width / SAMPLE_STEP) * (size.height / SAMPLE_STEP)];
+
+            int bufferSize = size.width * size.height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+            for (int i = 0; i < PREVIEW_BUFFERS; i++) {
+                this.camera.addCallbackBuffer(new byte[bufferSize]);
+            }
+
+            // A preview needs a target even when nothing is displayed
+            this.texture = new SurfaceTexture(0);
+            this.camera.setPreviewTexture(this.texture);
+            this.camera.setPreviewCallbackWithBuffer(this);
+            this.smoother.reset();
+            this.lastFrameNanos = 0;
+            this.camera.startPreview();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Unable to open the camera", e);
+            this.closeCamera();
+            for (AmbientColorListener callback : this.callbackArray) {
+                callback.onCameraError();
+            }
+        }
+    }
+
+    /**
+     * Stops the preview and releases the camera. Runs on the camera thread.
+     */
+    private void closeCamera() {
+        if (this.camera != null) {
+            this.camera.setPreviewCallbackWithBuffer(null);
+            this.camera.stopPreview();
+            this.camera.release();
+            this.camera = null;
+        }
+
+        if (this.texture != null) {
+            this.texture.release();
+            this.texture = null;
+        }
+    }
+}
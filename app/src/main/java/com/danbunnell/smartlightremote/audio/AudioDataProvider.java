@@ -0,0 +1,201 @@
+package com.danbunnell.smartlightremote.audio;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Process;
+import android.util.Log;
+
+import com.danbunnell.smartlightremote.metrics.Counter;
+import com.danbunnell.smartlightremote.metrics.Histogram;
+import com.danbunnell.smartlightremote.metrics.MetricsRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provides band levels, loudness and beat onsets from the microphone.
+ *
+ * Audio is read in blocks on a dedicated thread at audio priority and analyzed there, so
+ * callbacks run off the UI thread and must hand any UI work back to it. Each block must be
+ * analyzed within its own duration (23 ms for 1024 samples at 44.1 kHz) or the recorder
+ * overruns; blocks that take longer are counted.
+ */
+public class AudioDataProvider {
+
+    private static final String TAG = "AudioDataProvider";
+
+    public static final int DEFAULT_SAMPLE_RATE_HZ = 44100;
+
+    /**
+     * recorder buffer, in blocks, that absorbs scheduling hiccups
+     */
+    private static final int BUFFER_BLOCKS = 4;
+
+    private final AudioAnalyzer analyzer;
+    private final long blockNanos;
+
+    /**
+     * the registered callbacks, modified on the UI thread
+     */
+    private final Map<String, AudioListener> callbacks = new HashMap<>();
+
+    /**
+     * snapshot of the callbacks read by the audio thread
+     */
+    private volatile AudioListener[] callbackArray = new AudioListener[0];
+
+    private AudioRecord recorder;
+    private Thread audioThread;
+    private volatile boolean running;
+
+    /**
+     * time taken to analyze a block and run the callbacks, in nanoseconds
+     */
+    private final Histogram blockNanosHistogram = MetricsRegistry.getDefault()
+            .histogram("audio.block_ns", Histogram.exponentialBounds(10000, 14));
+
+    /**
+     * blocks that took longer than their own duration
+     */
+    private final Counter lateBlocks = MetricsRegistry.getDefault().counter("audio.late_blocks");
+
+    /**
+     * Initializes a new instance of the {@link AudioDataProvider} class.
+     *
+     * @param sampleRateHz the sample rate
+     * @param blockSize    samples per analyzed block, a power of two
+     * @param bandCount    the number of bands
+     */
+    public AudioDataProvider(int sampleRateHz, int blockSize, int bandCount) {
+        this.analyzer = new AudioAnalyzer(blockSize, sampleRateHz, bandCount);
+        this.blockNanos = 1000000000L * blockSize / sampleRateHz;
+    }
+
+    /**
+     * Registers a callback for the onAudioData event.
+     *
+     * @param identifier an identifier for the callback
+     * @param callback   a callback
+     */
+    public void registerCallback(String identifier, AudioListener callback) {
+        this.callbacks.put(identifier, callback);
+        this.callbackArray = this.callbacks.values().toArray(new AudioListener[0]);
+    }
+
+    /**
+     * Unregisters a callback for the onAudioData event.
+     *
+     * @param identifier the callback identifier
+     */
+    public void unregisterCallback(String identifier) {
+        this.callbacks.remove(identifier);
+        this.callbackArray = this.callbacks.values().toArray(new AudioListener[0]);
+    }
+
+    /**
+     * Starts recording from the microphone.
+     *
+     * @return false if the microphone could not be opened
+     */
+    public boolean onStart() {
+        if (this.audioThread != null) {
+            return true;
+        }
+
+        int sampleRateHz = this.analyzer.getSampleRateHz();
+        int blockBytes = 2 * this.analyzer.getBlockSize();
+        int bufferBytes = Math.max(
+                AudioRecord.getMinBufferSize(sampleRateHz, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT),
+                BUFFER_BLOCKS * blockBytes);
+
+        final AudioRecord recorder = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRateHz,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferBytes);
+        if (recorder.getState() != AudioRecord.STATE_INITIALIZED) {
+            Log.e(TAG, "Unable to open the microphone");
+            recorder.release();
+            return false;
+        }
+
+        this.recorder = recorder;
+        this.running = true;
+        this.audioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                record(recorder);
+            }
+        }, TAG);
+        this.audioThread.start();
+        return true;
+    }
+
+    /**
+     * Stops recording, waiting for the audio thread to finish.
+     */
+    public void onStop() {
+        if (this.audioThread == null) {
+            return;
+        }
+
+        this.running = false;
+        try {
+            this.audioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.recorder.release();
+        this.recorder = null;
+        this.audioThread = null;
+        Log.i(TAG, this.analyzer.getBlocksProcessed() + " block(s), "
+                + this.analyzer.getOnsetCount() + " onset(s), " + this.lateBlocks.get() + " late block(s) in total");
+    }
+
+    /**
+     * Reads and analyzes blocks until stopped. Runs on the audio thread.
+     *
+     * @param recorder the opened recorder
+     */
+    private void record(AudioRecord recorder) {
+        int blockSize = this.analyzer.getBlockSize();
+        short[] block = new short[blockSize];
+        this.analyzer.reset();
+        recorder.startRecording();
+
+        try {
+            while (this.running) {
+                int filled = 0;
+                while (filled < blockSize && this.running) {
+                    int read = recorder.read(block, filled, blockSize - filled);
+                    if (read < 0) {
+                        Log.e(TAG, "Microphone read failed: " + read);
+                        return;
+                    }
+                    filled += read;
+                }
+
+                if (filled < blockSize) {
+                    return;
+                }
+
+                long start = System.nanoTime();
+                boolean onset = this.analyzer.process(block, 0);
+                float[] bands = this.analyzer.getBandLevelsDb();
+                float levelDb = this.analyzer.getLevelDb();
+                float centroid = this.analyzer.getCentroid();
+                for (AudioListener callback : this.callbackArray) {
+                    callback.onAudioData(bands, levelDb, centroid, onset);
+                }
+
+                long elapsed = System.nanoTime() - start;
+                this.blockNanosHistogram.record(elapsed);
+                if (elapsed > this.blockNanos) {
+                    this.lateBlocks.increment();
+                }
+            }
+        } finally {
+            recorder.stop();
+        }
+    }
+}
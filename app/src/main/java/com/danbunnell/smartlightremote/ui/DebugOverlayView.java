@@ -0,0 +1,191 @@
+package com.danbunnell.smartlightremote.ui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.danbunnell.smartlightremote.common.NumberStrings;
+import com.danbunnell.smartlightremote.metrics.Histogram;
+import com.danbunnell.smartlightremote.metrics.MetricsRegistry;
+import com.danbunnell.smartlightremote.metrics.SampleRing;
+
+/**
+ * Plots the latest samples of a few signals as scrolling graphs, one band each, with the
+ * latest value beside the name. Meant for tuning: e.g. the raw and filtered acceleration
+ * magnitude, the hue sent to the light and the write round trip, side by side.
+ *
+ * While shown, it redraws on every display frame. A frame copies each {@link SampleRing} into
+ * a preallocated array and draws it with a reused Path and Paint, so drawing allocates
+ * nothing and leaves the garbage collector alone. The view times its own frames, prints the
+ * average in the bottom corner and records it as {@code ui.overlay.draw_ns}, to show it does
+ * not disturb what it measures.
+ *
+ * Must be used from the UI thread.
+ */
+public class DebugOverlayView extends View {
+
+    private static final int MAX_TRACES = 4;
+    private static final float TEXT_SIZE_DP = 11;
+    private static final float PADDING_DP = 4;
+
+    /**
+     * weight of the latest frame in the displayed average draw time
+     */
+    private static final float DRAW_TIME_SMOOTHING = 0.05f;
+
+    private static final char[] DRAW_TIME_PREFIX = "overlay ".toCharArray();
+    private static final char[] DRAW_TIME_SUFFIX = " ms/frame".toCharArray();
+
+    private final SampleRing[] rings = new SampleRing[MAX_TRACES];
+    private final String[] labels = new String[MAX_TRACES];
+    private final float[][] samples = new float[MAX_TRACES][];
+    private final Paint[] tracePaints = new Paint[MAX_TRACES];
+    private int traceCount;
+
+    private final Path path = new Path();
+    private final Paint backgroundPaint = new Paint();
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final char[] text = new char[32];
+    private final float density;
+
+    private final Histogram drawNanos = MetricsRegistry.getDefault()
+            .histogram("ui.overlay.draw_ns", Histogram.exponentialBounds(10000, 12));
+    private float averageDrawMs;
+
+    /**
+     * Initializes a new instance of the {@link DebugOverlayView} class.
+     *
+     * @param context the context
+     * @param attrs   the layout attributes, or null when created in code
+     */
+    public DebugOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        this.density = context.getResources().getDisplayMetrics().density;
+
+        this.backgroundPaint.setColor(Color.argb(0xC0, 0x00, 0x00, 0x00));
+        this.backgroundPaint.setStyle(Paint.Style.FILL);
+        this.textPaint.setColor(Color.argb(0xFF, 0xFF, 0xFF, 0xFF));
+        this.textPaint.setTextSize(TEXT_SIZE_DP * this.density);
+    }
+
+    /**
+     * Adds a signal to plot below those added before.
+     *
+     * @param label the name shown with the signal
+     * @param ring  the signal's samples
+     * @param color the colour of its graph
+     */
+    public void addTrace(String label, SampleRing ring, int color) {
+        if (this.traceCount == MAX_TRACES) {
+            throw new IllegalStateException("At most " + MAX_TRACES + " traces can be shown");
+        }
+
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(color);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(1.5f * this.density);
+
+        this.rings[this.traceCount] = ring;
+        this.labels[this.traceCount] = label;
+        this.samples[this.traceCount] = new float[ring.getCapacity()];
+        this.tracePaints[this.traceCount] = paint;
+        this.traceCount++;
+    }
+
+    /**
+     * Shows or hides the overlay. Hidden, it costs nothing.
+     *
+     * @param shown whether to show it
+     */
+    public void setShown(boolean shown) {
+        setVisibility(shown ? VISIBLE : GONE);
+        if (shown) {
+            postInvalidateOnAnimation();
+        }
+    }
+
+    /**
+     * Gets the average time taken to draw a frame.
+     *
+     * @return the time in milliseconds
+     */
+    public float getAverageDrawMs() {
+        return this.averageDrawMs;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        long start = System.nanoTime();
+
+        float width = getWidth();
+        float height = getHeight();
+        float padding = PADDING_DP * this.density;
+        float textSize = TEXT_SIZE_DP * this.density;
+        canvas.drawRect(0, 0, width, height, this.backgroundPaint);
+
+        float bandHeight = height / Math.max(1, this.traceCount);
+        for (int i = 0; i < this.traceCount; i++) {
+            float top = i * bandHeight;
+            int count = this.rings[i].copyLatest(this.samples[i], this.samples[i].length);
+            if (count > 1) {
+                this.drawTrace(canvas, i, count, top + textSize + padding, top + bandHeight - padding, width);
+            }
+
+            canvas.drawText(this.labels[i], padding, top + textSize, this.textPaint);
+            if (count > 0) {
+                int length = NumberStrings.appendFixed(this.text, 0, this.samples[i][count - 1], 2);
+                canvas.drawText(this.text, 0, length, width / 2, top + textSize, this.textPaint);
+            }
+        }
+
+        int length = append(this.text, 0, DRAW_TIME_PREFIX);
+        length = NumberStrings.appendFixed(this.text, length, this.averageDrawMs, 3);
+        length = append(this.text, length, DRAW_TIME_SUFFIX);
+        canvas.drawText(this.text, 0, length, width / 2, height - padding, this.textPaint);
+
+        if (getVisibility() == VISIBLE) {
+            postInvalidateOnAnimation();
+        }
+
+        long nanos = System.nanoTime() - start;
+        this.drawNanos.record(nanos);
+        this.averageDrawMs += DRAW_TIME_SMOOTHING * (nanos / 1e6f - this.averageDrawMs);
+    }
+
+    /**
+     * Draws a trace scaled to fill a band, newest sample at the right edge.
+     */
+    private void drawTrace(Canvas canvas, int trace, int count, float top, float bottom, float width) {
+        float[] values = this.samples[trace];
+        float min = values[0];
+        float max = values[0];
+        for (int i = 1; i < count; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+
+        // A flat signal is drawn across the middle of the band
+        float range = max - min;
+        float scale = range > 1e-6f ? (bottom - top) / range : 0;
+        float offset = range > 1e-6f ? bottom : (top + bottom) / 2;
+        float step = width / (values.length - 1);
+        float x = width - (count - 1) * step;
+
+        this.path.rewind();
+        this.path.moveTo(x, offset - (values[0] - min) * scale);
+        for (int i = 1; i < count; i++) {
+            x += step;
+            this.path.lineTo(x, offset - (values[i] - min) * scale);
+        }
+        canvas.drawPath(this.path, this.tracePaints[trace]);
+    }
+
+    private static int append(char[] out, int offset, char[] chars) {
+        System.arraycopy(chars, 0, out, offset, chars.length);
+        return offset + chars.length;
+    }
+}
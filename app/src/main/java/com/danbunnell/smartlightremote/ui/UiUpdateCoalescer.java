@@ -0,0 +1,105 @@
+package com.danbunnell.smartlightremote.ui;
+
+import android.view.Choreographer;
+
+/**
+ * Collects state-to-view updates as dirty flags and applies them at most once per display
+ * frame, so redraw work follows the refresh rate rather than radio traffic.
+ *
+ * Must be used from the thread that owns the views.
+ */
+public class UiUpdateCoalescer implements Choreographer.FrameCallback {
+
+    /**
+     * A callback that copies the dirty parts of the model into the views
+     */
+    public interface Applier {
+        /**
+         * Called once per frame with every field marked dirty since the last frame.
+         *
+         * @param dirtyFields bit mask of dirty fields
+         */
+        void applyUpdates(int dirtyFields);
+    }
+
+    private final Choreographer choreographer;
+    private final Applier applier;
+    private final FrameTimeStats stats;
+
+    /**
+     * fields marked dirty since the last applied frame
+     */
+    private int dirtyFields;
+
+    /**
+     * whether a frame callback is pending
+     */
+    private boolean frameScheduled;
+
+    /**
+     * Initializes a new instance of the {@link UiUpdateCoalescer} class.
+     *
+     * @param applier the callback applying dirty fields to the views
+     */
+    public UiUpdateCoalescer(Applier applier) {
+        this.choreographer = Choreographer.getInstance();
+        this.applier = applier;
+        this.stats = new FrameTimeStats();
+    }
+
+    /**
+     * Marks fields dirty and schedules them for the next frame.
+     *
+     * @param fields bit mask of fields to refresh
+     */
+    public void markDirty(int fields) {
+        this.stats.onUpdateRequested();
+        this.dirtyFields |= fields;
+
+        if (!this.frameScheduled) {
+            this.frameScheduled = true;
+            this.choreographer.postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Drops pending updates, e.g. when the views are going away.
+     */
+    public void cancel() {
+        this.choreographer.removeFrameCallback(this);
+        this.frameScheduled = false;
+        this.dirtyFields = 0;
+    }
+
+    /**
+     * Gets the frame-time statistics.
+     *
+     * @return the statistics
+     */
+    public FrameTimeStats getStats() {
+        return this.stats;
+    }
+
+    /**
+     * Called by the choreographer when a frame begins. After applying updates it waits for one
+     * more frame, so the statistics can tell back-to-back frames from the first after a pause.
+     *
+     * @param frameTimeNanos the vsync time of the frame
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        int fields = this.dirtyFields;
+        this.dirtyFields = 0;
+
+        if (fields == 0) {
+            this.frameScheduled = false;
+            this.stats.onIdle();
+            return;
+        }
+
+        long start = System.nanoTime();
+        this.applier.applyUpdates(fields);
+        this.stats.onFrameApplied(frameTimeNanos, Integer.bitCount(fields), System.nanoTime() - start);
+        this.choreographer.postFrameCallback(this);
+    }
+}
@@ -0,0 +1,292 @@
+package com.danbunnell.smartlightremote.BLE;
+
+/**
+ * Ranks the lights heard while scanning by smoothed signal strength.
+ *
+ * Each advertisement updates its light's RSSI with an exponential average whose weight
+ * depends on the time since the previous one, so a light that advertises often does not
+ * settle faster than one that advertises rarely. Lights not heard for a while are evicted.
+ * When the table is full, a new light replaces a stale one, or the weakest one if it is
+ * stronger; otherwise it is ignored, since it is no candidate for the nearest.
+ *
+ * The entries live in preallocated parallel arrays, kept dense by moving the last entry into
+ * a removed one's place, so updating never allocates. The tag stored with each entry, such as
+ * the BluetoothDevice, is only referenced.
+ *
+ * Not thread-safe; RBLService confines it to its event loop.
+ *
+ * @param <T> the type of the tag stored with each light
+ */
+public class CandidateTable<T> {
+
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * time constant of the RSSI average; long enough to ride out fading, short enough to
+     * follow someone walking between rooms
+     */
+    public static final long DEFAULT_TIME_CONSTANT_MS = 3000;
+
+    /**
+     * a light not heard for this long is gone or out of range
+     */
+    public static final long DEFAULT_STALE_AFTER_MS = 20000;
+
+    private final int capacity;
+    private final float timeConstantMs;
+    private final long staleAfterMs;
+
+    private final long[] addresses;
+    private final float[] rssis;
+    private final long[] lastSeenMs;
+    private final int[] sightings;
+    private final Object[] tags;
+    private int size;
+
+    private long advertisements;
+    private long evictions;
+    private long ignored;
+
+    /**
+     * Initializes a new instance of the {@link CandidateTable} class.
+     *
+     * @param capacity       the maximum number of lights tracked
+     * @param timeConstantMs the time constant of the RSSI average
+     * @param staleAfterMs   the time after which an unheard light is evicted
+     */
+    public CandidateTable(int capacity, long timeConstantMs, long staleAfterMs) {
+        this.capacity = capacity;
+        this.timeConstantMs = timeConstantMs;
+        this.staleAfterMs = staleAfterMs;
+        this.addresses = new long[capacity];
+        this.rssis = new float[capacity];
+        this.lastSeenMs = new long[capacity];
+        this.sightings = new int[capacity];
+        this.tags = new Object[capacity];
+    }
+
+    /**
+     * Adds an advertisement.
+     *
+     * @param address the light's address, see {@link #parseAddress}
+     * @param rssi    the received signal strength in dBm
+     * @param nowMs   the current time in milliseconds
+     * @param tag     the tag to store with the light
+     * @return        the light's index, or -1 if the table is full of stronger lights
+     */
+    public int update(long address, int rssi, long nowMs, T tag) {
+        this.advertisements++;
+
+        int index = this.indexOf(address);
+        if (index >= 0) {
+            float elapsedMs = Math.max(0, nowMs - this.lastSeenMs[index]);
+            float alpha = elapsedMs / (this.timeConstantMs + elapsedMs);
+            this.rssis[index] += alpha * (rssi - this.rssis[index]);
+            this.lastSeenMs[index] = nowMs;
+            this.sightings[index]++;
+            this.tags[index] = tag;
+            return index;
+        }
+
+        if (this.size == this.capacity) {
+            index = this.victim(rssi, nowMs);
+            if (index < 0) {
+                this.ignored++;
+                return -1;
+            }
+            this.evictions++;
+        } else {
+            index = this.size++;
+        }
+
+        this.addresses[index] = address;
+        this.rssis[index] = rssi;
+        this.lastSeenMs[index] = nowMs;
+        this.sightings[index] = 1;
+        this.tags[index] = tag;
+        return index;
+    }
+
+    /**
+     * Removes lights that have not been heard for a while.
+     *
+     * @param nowMs the current time in milliseconds
+     * @return      the number of lights removed
+     */
+    public int evictStale(long nowMs) {
+        int removed = 0;
+        for (int i = this.size - 1; i >= 0; i--) {
+            if (nowMs - this.lastSeenMs[i] > this.staleAfterMs) {
+                this.remove(i);
+                removed++;
+            }
+        }
+
+        this.evictions += removed;
+        return removed;
+    }
+
+    /**
+     * Finds the light with the strongest smoothed signal among those heard recently.
+     *
+     * @param nowMs        the current time in milliseconds
+     * @param minSightings advertisements needed before a light's average is trusted
+     * @return             the light's index, or -1 if there is none
+     */
+    public int strongest(long nowMs, int minSightings) {
+        int best = -1;
+        for (int i = 0; i < this.size; i++) {
+            if (nowMs - this.lastSeenMs[i] <= this.staleAfterMs
+                    && this.sightings[i] >= minSightings
+                    && (best < 0 || this.rssis[i] > this.rssis[best])) {
+                best = i;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Finds a light by address.
+     *
+     * @param address the light's address
+     * @return        its index, or -1 if it is not in the table
+     */
+    public int indexOf(long address) {
+        for (int i = 0; i < this.size; i++) {
+            if (this.addresses[i] == address) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Removes all lights.
+     */
+    public void clear() {
+        for (int i = 0; i < this.size; i++) {
+            this.tags[i] = null;
+        }
+        this.size = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public long getAddress(int index) {
+        return this.addresses[index];
+    }
+
+    /**
+     * Gets a light's smoothed signal strength.
+     *
+     * @param index the light's index
+     * @return      the RSSI in dBm
+     */
+    public float getRssi(int index) {
+        return this.rssis[index];
+    }
+
+    public long getLastSeenMs(int index) {
+        return this.lastSeenMs[index];
+    }
+
+    public int getSightings(int index) {
+        return this.sightings[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T getTag(int index) {
+        return (T) this.tags[index];
+    }
+
+    public long getAdvertisementCount() {
+        return this.advertisements;
+    }
+
+    /**
+     * Gets the number of lights removed, as stale or to make room for a stronger one.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return this.evictions;
+    }
+
+    /**
+     * Gets the number of advertisements from new lights turned away by a full table.
+     *
+     * @return the ignored advertisement count
+     */
+    public long getIgnoredCount() {
+        return this.ignored;
+    }
+
+    /**
+     * Converts a Bluetooth address such as "C8:2B:96:0A:11:7F" to a number without allocating.
+     *
+     * @param address the address
+     * @return        the address as a 48-bit number, or -1 if it is malformed
+     */
+    public static long parseAddress(String address) {
+        if (address == null || address.length() != 17) {
+            return -1;
+        }
+
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    return -1;
+                }
+                continue;
+            }
+
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+
+        return value;
+    }
+
+    /**
+     * Picks the entry a new light may replace: the stalest stale one, else the weakest if the
+     * new light is stronger.
+     */
+    private int victim(int rssi, long nowMs) {
+        int stalest = -1;
+        int weakest = -1;
+        for (int i = 0; i < this.size; i++) {
+            if (nowMs - this.lastSeenMs[i] > this.staleAfterMs
+                    && (stalest < 0 || this.lastSeenMs[i] < this.lastSeenMs[stalest])) {
+                stalest = i;
+            }
+            if (weakest < 0 || this.rssis[i] < this.rssis[weakest]) {
+                weakest = i;
+            }
+        }
+
+        if (stalest >= 0) {
+            return stalest;
+        }
+
+        return rssi > this.rssis[weakest] ? weakest : -1;
+    }
+
+    private void remove(int index) {
+        int last = --this.size;
+        this.addresses[index] = this.addresses[last];
+        this.rssis[index] = this.rssis[last];
+        this.lastSeenMs[index] = this.lastSeenMs[last];
+        this.sightings[index] = this.sightings[last];
+        this.tags[index] = this.tags[last];
+        this.tags[last] = null;
+    }
+}
@@ -0,0 +1,213 @@
+package com.danbunnell.smartlightremote.BLE;
+
+import java.util.Locale;
+
+/**
+ * Chooses the connection priority from user activity.
+ *
+ * The link runs at high priority (short connection interval) while the user is interacting or
+ * a stream such as motion mode is active, drops to balanced after a short idle period and to
+ * low power after a long one. Write latency and time spent are tracked per priority so the
+ * trade-off can be measured in the field.
+ *
+ * Not thread-safe; RBLService confines it to its event loop.
+ */
+public class ConnectionPriorityManager {
+
+    /**
+     * Applies a priority to the link
+     */
+    public interface Listener {
+        /**
+         * Called when the desired connection priority changes.
+         *
+         * @param priority one of the PRIORITY_* constants
+         */
+        void onPriorityChanged(int priority);
+    }
+
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_BALANCED = 1;
+    public static final int PRIORITY_LOW_POWER = 2;
+
+    private static final String[] PRIORITY_NAMES = { "high", "balanced", "low power" };
+
+    private final Listener listener;
+    private final long balancedAfterMs;
+    private final long lowPowerAfterMs;
+
+    private boolean started;
+    private int priority = PRIORITY_BALANCED;
+    private long priorityStartMs;
+    private long lastActivityMs;
+    private boolean streamActive;
+
+    private final long[] timeInPriorityMs = new long[PRIORITY_NAMES.length];
+    private final long[] writes = new long[PRIORITY_NAMES.length];
+    private final long[] totalWriteLatencyNanos = new long[PRIORITY_NAMES.length];
+    private final long[] maxWriteLatencyNanos = new long[PRIORITY_NAMES.length];
+
+    /**
+     * Initializes a new instance of the {@link ConnectionPriorityManager} class.
+     *
+     * @param listener        applies priorities to the link
+     * @param balancedAfterMs idle time before dropping from high to balanced
+     * @param lowPowerAfterMs idle time before dropping to low power
+     */
+    public ConnectionPriorityManager(Listener listener, long balancedAfterMs, long lowPowerAfterMs) {
+        this.listener = listener;
+        this.balancedAfterMs = balancedAfterMs;
+        this.lowPowerAfterMs = lowPowerAfterMs;
+    }
+
+    /**
+     * Starts managing a newly established connection, at high priority straight away if a stream
+     * is still active from before a reconnect.
+     *
+     * @param nowMs the current time in milliseconds
+     * @return      milliseconds until {@link #evaluate} should run again, or -1
+     */
+    public long start(long nowMs) {
+        this.started = true;
+        this.priority = PRIORITY_BALANCED;
+        this.priorityStartMs = nowMs;
+        this.lastActivityMs = nowMs;
+        return this.evaluate(nowMs);
+    }
+
+    /**
+     * Stops managing the connection, e.g. after a disconnect. An active stream stays active, so
+     * its priority comes back with the next connection.
+     *
+     * @param nowMs the current time in milliseconds
+     * @return      false if the manager was not running
+     */
+    public boolean stop(long nowMs) {
+        if (!this.started) {
+            return false;
+        }
+
+        this.timeInPriorityMs[this.priority] += nowMs - this.priorityStartMs;
+        this.started = false;
+        return true;
+    }
+
+    /**
+     * Records user interaction, such as dragging a seek bar.
+     *
+     * @param nowMs the current time in milliseconds
+     * @return      milliseconds until {@link #evaluate} should run again, or -1
+     */
+    public long onUserActivity(long nowMs) {
+        this.lastActivityMs = nowMs;
+        return this.evaluate(nowMs);
+    }
+
+    /**
+     * Records the start or end of a continuous stream of commands, which may happen while there
+     * is no connection.
+     *
+     * @param active whether a stream is active
+     * @param nowMs  the current time in milliseconds
+     * @return       milliseconds until {@link #evaluate} should run again, or -1
+     */
+    public long setStreamActive(boolean active, long nowMs) {
+        this.streamActive = active;
+        this.lastActivityMs = nowMs;
+        return this.evaluate(nowMs);
+    }
+
+    /**
+     * Records the round-trip latency of a completed write.
+     *
+     * @param latencyNanos time from issuing the write to its completion
+     */
+    public void onWriteCompleted(long latencyNanos) {
+        this.writes[this.priority]++;
+        this.totalWriteLatencyNanos[this.priority] += latencyNanos;
+        this.maxWriteLatencyNanos[this.priority] = Math.max(this.maxWriteLatencyNanos[this.priority], latencyNanos);
+    }
+
+    /**
+     * Moves to the priority the current activity calls for.
+     *
+     * @param nowMs the current time in milliseconds
+     * @return      milliseconds until the priority could next change without new activity, or -1
+     */
+    public long evaluate(long nowMs) {
+        if (!this.started) {
+            return -1;
+        }
+
+        long idleMs = nowMs - this.lastActivityMs;
+        int target;
+        if (this.streamActive || idleMs < this.balancedAfterMs) {
+            target = PRIORITY_HIGH;
+        } else if (idleMs < this.lowPowerAfterMs) {
+            target = PRIORITY_BALANCED;
+        } else {
+            target = PRIORITY_LOW_POWER;
+        }
+
+        if (target != this.priority) {
+            this.timeInPriorityMs[this.priority] += nowMs - this.priorityStartMs;
+            this.priority = target;
+            this.priorityStartMs = nowMs;
+            this.listener.onPriorityChanged(target);
+        }
+
+        if (this.streamActive) {
+            return -1;
+        } else if (target == PRIORITY_HIGH) {
+            return this.balancedAfterMs - idleMs;
+        } else if (target == PRIORITY_BALANCED) {
+            return this.lowPowerAfterMs - idleMs;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gets the current priority.
+     *
+     * @return one of the PRIORITY_* constants
+     */
+    public int getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * Gets the total time spent at a priority, excluding the current period.
+     *
+     * @param priority one of the PRIORITY_* constants
+     * @return         the time in milliseconds
+     */
+    public long getTimeInPriorityMs(int priority) {
+        return this.timeInPriorityMs[priority];
+    }
+
+    /**
+     * Summarizes time and write latency per priority for logging.
+     *
+     * @return a human-readable summary
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+
+        for (int i = 0; i < PRIORITY_NAMES.length; i++) {
+            if (i > 0) {
+                summary.append("; ");
+            }
+
+            summary.append(String.format(Locale.ENGLISH,
+                    "%s: %.1f s, %d write(s), latency avg %.1f ms, max %.1f ms",
+                    PRIORITY_NAMES[i],
+                    this.timeInPriorityMs[i] / 1000.0,
+                    this.writes[i],
+                    this.writes[i] == 0 ? 0.0 : this.totalWriteLatencyNanos[i] / 1e6 / this.writes[i],
+                    this.maxWriteLatencyNanos[i] / 1e6));
+        }
+
+        return summary.toString();
+    }
+}
@@ -0,0 +1,180 @@
+package com.danbunnell.smartlightremote.BLE;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free ring buffer of the most recent frames sent to and received from
+ * the light, each with a nanosecond timestamp and direction.
+ *
+ * Writers take a sequence number with a single atomic increment, mark the slot as being written,
+ * fill it and publish it by stamping it with the sequence number, so recording never blocks and
+ * never allocates. Every field of a slot is stored with release ordering after the mark, and
+ * loaded by a dump with acquire ordering before it checks the stamp again, so a dump keeps a
+ * slot only if no writer touched it while it was copied. In the rare case that the ring wraps
+ * onto a slot another writer is still filling, the later frame is dropped rather than mixed in.
+ *
+ * A dump is a header ({@link #MAGIC}, {@link #VERSION}) followed by records of the timestamp,
+ * direction, captured length, original length and captured bytes, all big-endian.
+ */
+public class ProtocolCapture {
+
+    /**
+     * "SLPC"
+     */
+    public static final int MAGIC = 0x534C5043;
+
+    public static final short VERSION = 1;
+
+    public static final int DIRECTION_TX = 0;
+    public static final int DIRECTION_RX = 1;
+
+    /**
+     * bytes kept per frame; longer frames are truncated
+     */
+    public static final int MAX_CAPTURED_LENGTH = 32;
+
+    private static final long STAMP_WRITING = -1;
+    private static final long STAMP_EMPTY = -2;
+
+    private static final int WORDS_PER_SLOT = MAX_CAPTURED_LENGTH / 4;
+
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicLong collisions = new AtomicLong();
+    private final AtomicLongArray stamps;
+    private final AtomicLongArray timestamps;
+
+    // Direction in the top byte, original length below
+    private final AtomicIntegerArray headers;
+
+    // Captured bytes, packed big-endian four to a word
+    private final AtomicIntegerArray data;
+
+    /**
+     * Initializes a new instance of the {@link ProtocolCapture} class.
+     *
+     * @param capacity the number of frames kept, rounded up to a power of two
+     */
+    public ProtocolCapture(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.stamps = new AtomicLongArray(size);
+        this.timestamps = new AtomicLongArray(size);
+        this.headers = new AtomicIntegerArray(size);
+        this.data = new AtomicIntegerArray(size * WORDS_PER_SLOT);
+
+        for (int i = 0; i < size; i++) {
+            this.stamps.set(i, STAMP_EMPTY);
+        }
+    }
+
+    /**
+     * Records a frame. Safe to call from any thread.
+     *
+     * @param direction {@link #DIRECTION_TX} or {@link #DIRECTION_RX}
+     * @param frame     buffer holding the frame
+     * @param offset    offset of the frame
+     * @param length    length of the frame
+     */
+    public void record(int direction, byte[] frame, int offset, int length) {
+        long sequence = this.cursor.getAndIncrement();
+        int slot = (int) (sequence & this.mask);
+
+        long stamp = this.stamps.get(slot);
+        if (stamp == STAMP_WRITING || !this.stamps.compareAndSet(slot, stamp, STAMP_WRITING)) {
+            this.collisions.incrementAndGet();
+            return;
+        }
+
+        // Release stores, so none can be seen before the mark above
+        this.timestamps.lazySet(slot, System.nanoTime());
+        this.headers.lazySet(slot, direction << 24 | (length & 0xFFFFFF));
+        int captured = Math.min(length, MAX_CAPTURED_LENGTH);
+        int base = slot * WORDS_PER_SLOT;
+        for (int word = 0; word * 4 < captured; word++) {
+            int packed = 0;
+            for (int i = word * 4; i < word * 4 + 4; i++) {
+                packed = packed << 8 | (i < captured ? frame[offset + i] & 0xFF : 0);
+            }
+            this.data.lazySet(base + word, packed);
+        }
+        this.stamps.lazySet(slot, sequence);
+    }
+
+    /**
+     * Gets the number of frames recorded since creation, including overwritten ones.
+     *
+     * @return the recorded frame count
+     */
+    public long getRecordedCount() {
+        return this.cursor.get();
+    }
+
+    /**
+     * Gets the number of frames dropped because their slot was still being written.
+     *
+     * @return the dropped frame count
+     */
+    public long getCollisionCount() {
+        return this.collisions.get();
+    }
+
+    /**
+     * Writes the frames currently held, oldest first.
+     *
+     * @param out the stream to write to; not closed
+     * @return    the number of frames written
+     * @throws IOException if the stream cannot be written
+     */
+    public int dump(OutputStream out) throws IOException {
+        DataOutputStream stream = new DataOutputStream(out);
+        stream.writeInt(MAGIC);
+        stream.writeShort(VERSION);
+        stream.writeShort(MAX_CAPTURED_LENGTH);
+
+        byte[] copy = new byte[MAX_CAPTURED_LENGTH];
+        long end = this.cursor.get();
+        long start = Math.max(0, end - (this.mask + 1));
+        int written = 0;
+
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & this.mask);
+            if (this.stamps.get(slot) != sequence) {
+                continue;
+            }
+
+            // Acquire loads, so the check below cannot be done before them
+            long timestamp = this.timestamps.get(slot);
+            int header = this.headers.get(slot);
+            int direction = header >>> 24;
+            int length = header & 0xFFFFFF;
+            int captured = Math.min(length, MAX_CAPTURED_LENGTH);
+            int base = slot * WORDS_PER_SLOT;
+            for (int word = 0; word * 4 < captured; word++) {
+                int packed = this.data.get(base + word);
+                for (int i = 0; i < 4; i++) {
+                    copy[word * 4 + i] = (byte) (packed >>> (24 - 8 * i));
+                }
+            }
+
+            if (this.stamps.get(slot) != sequence) {
+                continue;
+            }
+
+            stream.writeLong(timestamp);
+            stream.writeByte(direction);
+            stream.writeByte(captured);
+            stream.writeShort(length);
+            stream.write(copy, 0, captured);
+            written++;
+        }
+
+        stream.flush();
+        return written;
+    }
+}
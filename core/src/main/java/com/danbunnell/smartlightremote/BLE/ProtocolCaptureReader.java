@@ -0,0 +1,100 @@
+package com.danbunnell.smartlightremote.BLE;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads frames back from a dump written by {@link ProtocolCapture}.
+ */
+public class ProtocolCaptureReader {
+
+    private final DataInputStream stream;
+    private final byte[] frame = new byte[ProtocolCapture.MAX_CAPTURED_LENGTH];
+
+    private long timestampNanos;
+    private int direction;
+    private int capturedLength;
+    private int length;
+
+    /**
+     * Initializes a new instance of the {@link ProtocolCaptureReader} class.
+     *
+     * @param in the dump; closed by {@link #close()}
+     * @throws IOException if the stream is not a capture dump
+     */
+    public ProtocolCaptureReader(InputStream in) throws IOException {
+        this.stream = new DataInputStream(new BufferedInputStream(in));
+
+        if (this.stream.readInt() != ProtocolCapture.MAGIC
+                || this.stream.readShort() != ProtocolCapture.VERSION
+                || this.stream.readShort() != ProtocolCapture.MAX_CAPTURED_LENGTH) {
+            throw new IOException("Not a protocol capture");
+        }
+    }
+
+    /**
+     * Advances to the next frame.
+     *
+     * @return false at the end of the dump
+     * @throws IOException if the dump cannot be read
+     */
+    public boolean next() throws IOException {
+        try {
+            this.timestampNanos = this.stream.readLong();
+        } catch (EOFException e) {
+            return false;
+        }
+
+        this.direction = this.stream.readUnsignedByte();
+        this.capturedLength = this.stream.readUnsignedByte();
+        this.length = this.stream.readUnsignedShort();
+        if (this.capturedLength > this.frame.length) {
+            throw new IOException("Corrupt capture record");
+        }
+
+        this.stream.readFully(this.frame, 0, this.capturedLength);
+        return true;
+    }
+
+    public long getTimestampNanos() {
+        return this.timestampNanos;
+    }
+
+    public int getDirection() {
+        return this.direction;
+    }
+
+    /**
+     * Gets the captured bytes of the frame, which may be truncated.
+     *
+     * @return a buffer holding {@link #getCapturedLength()} bytes; reused for every frame
+     */
+    public byte[] getFrame() {
+        return this.frame;
+    }
+
+    public int getCapturedLength() {
+        return this.capturedLength;
+    }
+
+    /**
+     * Gets the length of the frame as sent or received.
+     *
+     * @return the original frame length
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Closes the dump.
+     *
+     * @throws IOException if the stream cannot be closed
+     */
+    public void close() throws IOException {
+        this.stream.close();
+    }
+}
@@ -1,7 +1,7 @@
 package com.danbunnell.smartlightremote.acceleration;
 
 /**
- * A callback to register with the {@link AccelerometerDataProvider}
+ * A callback to register with an {@link AccelerometerPipeline}
  */
 public interface AccelerometerListener {
     /**
@@ -0,0 +1,159 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import com.danbunnell.smartlightremote.common.MultiRateFilter;
+import com.danbunnell.smartlightremote.common.SignalFilter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns raw accelerometer samples into filtered magnitudes for the registered callbacks.
+ *
+ * Has no Android dependencies, so live sensor data and replayed traces go through the same code.
+ */
+public class AccelerometerPipeline {
+
+    /**
+     * the registered callbacks
+     */
+    private Map<String, AccelerometerListener> callbacks;
+
+    /**
+     * the registered raw sample listeners
+     */
+    private Map<String, AccelerometerSampleListener> sampleListeners;
+
+    /**
+     * snapshots of the maps, rebuilt on registration so dispatch does not allocate iterators
+     */
+    private AccelerometerListener[] callbackArray = new AccelerometerListener[0];
+    private AccelerometerSampleListener[] sampleListenerArray = new AccelerometerSampleListener[0];
+
+    /**
+     * used to filter raw accelerometer data
+     */
+    private SignalFilter filter;
+
+    /**
+     * the filter, if it decimates, so callbacks only run when it has a new output
+     */
+    private MultiRateFilter multiRateFilter;
+
+    /**
+     * the magnitude of the last sample, before and after filtering
+     */
+    private float lastMagnitude;
+    private float lastFilteredMagnitude;
+
+    /**
+     * Initializes a new instance of the {@link AccelerometerPipeline} class.
+     *
+     * @param filter the signal filter
+     */
+    public AccelerometerPipeline(SignalFilter filter) {
+        this.callbacks = new HashMap<>();
+        this.sampleListeners = new HashMap<>();
+        this.filter = filter;
+        this.multiRateFilter = filter instanceof MultiRateFilter ? (MultiRateFilter) filter : null;
+    }
+
+    /**
+     * Registers a callback for the onAccelerometerData event.
+     *
+     * @param identifier an identifier for the callback
+     * @param callback a callback
+     */
+    public void registerCallback(String identifier, AccelerometerListener callback) {
+        this.callbacks.put(identifier, callback);
+        this.callbackArray = this.callbacks.values().toArray(new AccelerometerListener[0]);
+    }
+
+    /**
+     * Unregisters a callback for the onAccelerometerData event.
+     *
+     * @param identifier the callback identifier
+     */
+    public void unregisterCallback(String identifier) {
+        this.callbacks.remove(identifier);
+        this.callbackArray = this.callbacks.values().toArray(new AccelerometerListener[0]);
+    }
+
+    /**
+     * Registers a listener for raw samples, e.g. a {@link GestureRecognizer}.
+     *
+     * @param identifier an identifier for the listener
+     * @param listener   a listener
+     */
+    public void registerSampleListener(String identifier, AccelerometerSampleListener listener) {
+        this.sampleListeners.put(identifier, listener);
+        this.sampleListenerArray = this.sampleListeners.values().toArray(new AccelerometerSampleListener[0]);
+    }
+
+    /**
+     * Unregisters a listener for raw samples.
+     *
+     * @param identifier the listener identifier
+     */
+    public void unregisterSampleListener(String identifier) {
+        this.sampleListeners.remove(identifier);
+        this.sampleListenerArray = this.sampleListeners.values().toArray(new AccelerometerSampleListener[0]);
+    }
+
+    /**
+     * Processes one accelerometer sample.
+     *
+     * @param timestampNanos the sample time in nanoseconds
+     * @param x              acceleration along the x axis
+     * @param y              acceleration along the y axis
+     * @param z              acceleration along the z axis
+     */
+    public void onSample(long timestampNanos, float x, float y, float z) {
+        for (AccelerometerSampleListener listener : this.sampleListenerArray) {
+            listener.onAccelerometerSample(timestampNanos, x, y, z);
+        }
+
+        float magnitude = getMagnitude(x, y, z);
+        float filteredMagnitude = this.filter.filter(magnitude);
+        this.lastMagnitude = magnitude;
+        this.lastFilteredMagnitude = filteredMagnitude;
+
+        if (this.multiRateFilter != null && !this.multiRateFilter.isOutputReady()) {
+            return;
+        }
+
+        for(AccelerometerListener callback : this.callbackArray) {
+            callback.onAccelerometerData(magnitude, filteredMagnitude);
+        }
+    }
+
+    /**
+     * Gets the magnitude of the last sample.
+     *
+     * @return the unfiltered magnitude
+     */
+    public float getLastMagnitude() {
+        return this.lastMagnitude;
+    }
+
+    /**
+     * Gets the filter's output for the last sample, which a decimating filter only updates
+     * when it has a new output.
+     *
+     * @return the filtered magnitude
+     */
+    public float getLastFilteredMagnitude() {
+        return this.lastFilteredMagnitude;
+    }
+
+    /**
+     * Gets the magnitude of an acceleration vector.
+     *
+     * @param x acceleration along the x axis
+     * @param y acceleration along the y axis
+     * @param z acceleration along the z axis
+     * @return  a magnitude
+     */
+    public static float getMagnitude(float x, float y, float z) {
+        return (float) Math.sqrt(Math.pow(x, 2) + Math.pow(y, 2) + Math.pow(z, 2));
+    }
+}
@@ -0,0 +1,16 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+/**
+ * A callback for raw 3-axis samples, registered with an {@link AccelerometerPipeline}
+ */
+public interface AccelerometerSampleListener {
+    /**
+     * Called for every accelerometer sample.
+     *
+     * @param timestampNanos the sample time in nanoseconds
+     * @param x              acceleration along the x axis
+     * @param y              acceleration along the y axis
+     * @param z              acceleration along the z axis
+     */
+    void onAccelerometerSample(long timestampNanos, float x, float y, float z);
+}
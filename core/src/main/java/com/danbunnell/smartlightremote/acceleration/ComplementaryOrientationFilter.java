@@ -0,0 +1,124 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+/**
+ * Fuses accelerometer and gyroscope samples into roll and pitch with a complementary filter.
+ *
+ * The gyroscope is integrated for fast, smooth response, and the result is pulled towards the
+ * angles implied by gravity with a time constant long enough to reject hand motion but short
+ * enough to cancel gyroscope drift. Without gyroscope samples it degrades to a low-pass filter
+ * over the accelerometer angles.
+ *
+ * State is primitive fields only, so updates never allocate. Not thread-safe.
+ */
+public class ComplementaryOrientationFilter {
+
+    /**
+     * default time over which the accelerometer corrects the gyroscope
+     */
+    public static final float DEFAULT_TIME_CONSTANT_S = 0.5f;
+
+    /**
+     * largest sample gap that is integrated; longer gaps restart from the accelerometer
+     */
+    private static final long MAX_GAP_NANOS = 200000000L;
+
+    private final float timeConstantS;
+
+    private boolean initialized;
+    private float roll;
+    private float pitch;
+
+    private long lastGyroNanos = -1;
+    private long lastAccelerometerNanos = -1;
+
+    private long updates;
+
+    /**
+     * Initializes a new instance of the {@link ComplementaryOrientationFilter} class.
+     *
+     * @param timeConstantS the time over which the accelerometer corrects the gyroscope
+     */
+    public ComplementaryOrientationFilter(float timeConstantS) {
+        this.timeConstantS = timeConstantS;
+    }
+
+    /**
+     * Integrates a gyroscope sample.
+     *
+     * @param timestampNanos the sample time in nanoseconds
+     * @param x              angular rate about the x axis in rad/s
+     * @param y              angular rate about the y axis in rad/s
+     * @param z              angular rate about the z axis in rad/s
+     */
+    public void onGyroscope(long timestampNanos, float x, float y, float z) {
+        long gap = timestampNanos - this.lastGyroNanos;
+        this.lastGyroNanos = timestampNanos;
+        if (!this.initialized || gap <= 0 || gap > MAX_GAP_NANOS) {
+            return;
+        }
+
+        float dt = gap / 1e9f;
+        this.pitch += x * dt;
+        this.roll += y * dt;
+        this.updates++;
+    }
+
+    /**
+     * Corrects the integrated angles with an accelerometer sample.
+     *
+     * @param timestampNanos the sample time in nanoseconds
+     * @param x              acceleration along the x axis
+     * @param y              acceleration along the y axis
+     * @param z              acceleration along the z axis
+     */
+    public void onAccelerometer(long timestampNanos, float x, float y, float z) {
+        float accelerometerRoll = (float) Math.atan2(-x, Math.sqrt(y * y + z * z));
+        float accelerometerPitch = (float) Math.atan2(y, Math.sqrt(x * x + z * z));
+
+        long gap = timestampNanos - this.lastAccelerometerNanos;
+        this.lastAccelerometerNanos = timestampNanos;
+        this.updates++;
+
+        if (!this.initialized || gap <= 0 || gap > MAX_GAP_NANOS) {
+            this.roll = accelerometerRoll;
+            this.pitch = accelerometerPitch;
+            this.initialized = true;
+            return;
+        }
+
+        float dt = gap / 1e9f;
+        float weight = dt / (this.timeConstantS + dt);
+        this.roll += weight * (accelerometerRoll - this.roll);
+        this.pitch += weight * (accelerometerPitch - this.pitch);
+    }
+
+    /**
+     * Forgets the current orientation, e.g. when the sensors restart.
+     */
+    public void reset() {
+        this.initialized = false;
+        this.lastGyroNanos = -1;
+        this.lastAccelerometerNanos = -1;
+    }
+
+    public boolean isInitialized() {
+        return this.initialized;
+    }
+
+    public float getRollDegrees() {
+        return (float) Math.toDegrees(this.roll);
+    }
+
+    public float getPitchDegrees() {
+        return (float) Math.toDegrees(this.pitch);
+    }
+
+    /**
+     * Gets the number of samples applied.
+     *
+     * @return the update count
+     */
+    public long getUpdates() {
+        return this.updates;
+    }
+}
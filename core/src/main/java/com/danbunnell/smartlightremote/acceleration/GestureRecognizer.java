@@ -0,0 +1,283 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+/**
+ * Recognizes hand gestures in a stream of raw accelerometer samples.
+ *
+ * Gravity is separated from motion with a low-pass filter. Swings along the x axis are
+ * counted as alternating peaks of linear acceleration: one or two peaks followed by a pause
+ * are a flick, four or more within a second are a shake. Short spikes along the z axis are
+ * taps, and two in quick succession are a double tap. Tilts are read from the direction of
+ * gravity, with hysteresis so a held tilt fires once.
+ *
+ * Uses constant memory and never allocates. Not thread-safe.
+ */
+public class GestureRecognizer implements AccelerometerSampleListener {
+
+    /**
+     * Receives recognized gestures
+     */
+    public interface Listener {
+        /**
+         * Called when a gesture is recognized.
+         *
+         * @param gesture        one of the GESTURE_* constants
+         * @param timestampNanos the time of the sample that completed the gesture
+         */
+        void onGesture(int gesture, long timestampNanos);
+    }
+
+    public static final int GESTURE_SHAKE = 0;
+    public static final int GESTURE_FLICK_LEFT = 1;
+    public static final int GESTURE_FLICK_RIGHT = 2;
+    public static final int GESTURE_TILT_UP = 3;
+    public static final int GESTURE_TILT_DOWN = 4;
+    public static final int GESTURE_DOUBLE_TAP = 5;
+
+    public static final int GESTURE_COUNT = 6;
+
+    private static final String[] GESTURE_NAMES = {
+            "shake", "flick left", "flick right", "tilt up", "tilt down", "double tap" };
+
+    /**
+     * time constant separating gravity from hand motion
+     */
+    private static final float GRAVITY_TIME_CONSTANT_S = 0.25f;
+
+    /**
+     * linear acceleration along x that counts as a swing peak, in m/s^2
+     */
+    private static final float SWING_THRESHOLD = 8f;
+    private static final int SHAKE_PEAKS = 4;
+    private static final int FLICK_MAX_PEAKS = 2;
+    private static final long SHAKE_WINDOW_NANOS = 1000000000L;
+
+    /**
+     * stillness that ends a swing
+     */
+    private static final long SWING_QUIET_NANOS = 250000000L;
+
+    /**
+     * linear acceleration along z that counts as a tap, in m/s^2
+     */
+    private static final float TAP_THRESHOLD = 3f;
+    private static final long TAP_MAX_NANOS = 60000000L;
+    private static final long DOUBLE_TAP_MIN_GAP_NANOS = 80000000L;
+    private static final long DOUBLE_TAP_MAX_GAP_NANOS = 450000000L;
+
+    /**
+     * squared sines of the tilt angles (35 and 20 degrees) that enter and leave a tilt
+     */
+    private static final float TILT_ENTER_SIN_SQUARED = 0.329f;
+    private static final float TILT_EXIT_SIN_SQUARED = 0.117f;
+
+    /**
+     * time after a swing gesture during which the hand settling is ignored
+     */
+    private static final long COOLDOWN_NANOS = 300000000L;
+
+    private static final int TILT_NEUTRAL = 0;
+    private static final int TILT_HELD = 1;
+    private static final int TILT_UNKNOWN = 2;
+
+    private final Listener listener;
+
+    private boolean initialized;
+    private long lastTimestampNanos;
+    private float gravityX;
+    private float gravityY;
+    private float gravityZ;
+
+    // Swing tracking; -1 peaks means a shake fired and the swing must end first
+    private int swingPeaks;
+    private int lastPeakSign;
+    private int firstPeakSign;
+    private long firstPeakNanos;
+    private long lastSwingNanos;
+
+    private boolean tapActive;
+    private long tapStartNanos;
+    private long lastTapNanos = -1;
+
+    private int tiltState = TILT_UNKNOWN;
+    private long cooldownUntilNanos;
+
+    private long samplesProcessed;
+    private final long[] gestureCounts = new long[GESTURE_COUNT];
+
+    /**
+     * Initializes a new instance of the {@link GestureRecognizer} class.
+     *
+     * @param listener the receiver of recognized gestures
+     */
+    public GestureRecognizer(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Gets a display name for a gesture.
+     *
+     * @param gesture one of the GESTURE_* constants
+     * @return        the name
+     */
+    public static String getName(int gesture) {
+        return GESTURE_NAMES[gesture];
+    }
+
+    @Override
+    public void onAccelerometerSample(long timestampNanos, float x, float y, float z) {
+        this.samplesProcessed++;
+
+        if (!this.initialized) {
+            this.gravityX = x;
+            this.gravityY = y;
+            this.gravityZ = z;
+            this.lastTimestampNanos = timestampNanos;
+            this.initialized = true;
+            return;
+        }
+
+        float dt = Math.max(0, timestampNanos - this.lastTimestampNanos) / 1e9f;
+        this.lastTimestampNanos = timestampNanos;
+
+        float alpha = dt / (GRAVITY_TIME_CONSTANT_S + dt);
+        this.gravityX += alpha * (x - this.gravityX);
+        this.gravityY += alpha * (y - this.gravityY);
+        this.gravityZ += alpha * (z - this.gravityZ);
+
+        this.updateSwing(timestampNanos, x - this.gravityX);
+        this.updateTap(timestampNanos, z - this.gravityZ);
+        this.updateTilt(timestampNanos);
+    }
+
+    /**
+     * Forgets any gesture in progress, e.g. when the sensor restarts.
+     */
+    public void reset() {
+        this.initialized = false;
+        this.swingPeaks = 0;
+        this.lastPeakSign = 0;
+        this.tapActive = false;
+        this.lastTapNanos = -1;
+        this.tiltState = TILT_UNKNOWN;
+        this.cooldownUntilNanos = 0;
+    }
+
+    public long getSamplesProcessed() {
+        return this.samplesProcessed;
+    }
+
+    /**
+     * Gets how often a gesture has been recognized.
+     *
+     * @param gesture one of the GESTURE_* constants
+     * @return        the count
+     */
+    public long getGestureCount(int gesture) {
+        return this.gestureCounts[gesture];
+    }
+
+    /**
+     * Counts alternating peaks of acceleration along x.
+     *
+     * @param timestampNanos the sample time
+     * @param linearX        acceleration along x without gravity
+     */
+    private void updateSwing(long timestampNanos, float linearX) {
+        if (Math.abs(linearX) > SWING_THRESHOLD) {
+            this.lastSwingNanos = timestampNanos;
+            if (this.swingPeaks < 0 || timestampNanos < this.cooldownUntilNanos) {
+                return;
+            }
+
+            int sign = linearX > 0 ? 1 : -1;
+            if (sign == this.lastPeakSign) {
+                return;
+            }
+
+            if (this.swingPeaks == 0) {
+                this.firstPeakNanos = timestampNanos;
+                this.firstPeakSign = sign;
+            }
+
+            this.swingPeaks++;
+            this.lastPeakSign = sign;
+
+            if (this.swingPeaks >= SHAKE_PEAKS && timestampNanos - this.firstPeakNanos <= SHAKE_WINDOW_NANOS) {
+                this.swingPeaks = -1;
+                this.emit(GESTURE_SHAKE, timestampNanos);
+            }
+        } else if (this.swingPeaks != 0 && timestampNanos - this.lastSwingNanos > SWING_QUIET_NANOS) {
+            if (this.swingPeaks > 0 && this.swingPeaks <= FLICK_MAX_PEAKS) {
+                this.emit(this.firstPeakSign > 0 ? GESTURE_FLICK_RIGHT : GESTURE_FLICK_LEFT, timestampNanos);
+            }
+
+            this.swingPeaks = 0;
+            this.lastPeakSign = 0;
+            this.cooldownUntilNanos = timestampNanos + COOLDOWN_NANOS;
+        }
+    }
+
+    /**
+     * Detects short spikes along z while the device is otherwise still.
+     *
+     * @param timestampNanos the sample time
+     * @param linearZ        acceleration along z without gravity
+     */
+    private void updateTap(long timestampNanos, float linearZ) {
+        if (Math.abs(linearZ) > TAP_THRESHOLD) {
+            if (!this.tapActive) {
+                this.tapActive = true;
+                this.tapStartNanos = timestampNanos;
+            }
+            return;
+        }
+
+        if (!this.tapActive) {
+            return;
+        }
+
+        this.tapActive = false;
+        if (timestampNanos - this.tapStartNanos > TAP_MAX_NANOS
+                || this.swingPeaks != 0
+                || timestampNanos < this.cooldownUntilNanos) {
+            return;
+        }
+
+        long gap = timestampNanos - this.lastTapNanos;
+        if (this.lastTapNanos >= 0 && gap >= DOUBLE_TAP_MIN_GAP_NANOS && gap <= DOUBLE_TAP_MAX_GAP_NANOS) {
+            this.lastTapNanos = -1;
+            this.emit(GESTURE_DOUBLE_TAP, timestampNanos);
+        } else {
+            this.lastTapNanos = timestampNanos;
+        }
+    }
+
+    /**
+     * Tracks tilt of the top edge from the direction of gravity.
+     *
+     * @param timestampNanos the sample time
+     */
+    private void updateTilt(long timestampNanos) {
+        float norm = this.gravityX * this.gravityX + this.gravityY * this.gravityY + this.gravityZ * this.gravityZ;
+        if (norm < 1f) {
+            return;
+        }
+
+        float sinSquared = this.gravityY * this.gravityY / norm;
+
+        if (this.tiltState != TILT_NEUTRAL) {
+            // A tilt held from the start, or not yet released, must return to level first
+            if (sinSquared < TILT_EXIT_SIN_SQUARED) {
+                this.tiltState = TILT_NEUTRAL;
+            }
+        } else if (sinSquared > TILT_ENTER_SIN_SQUARED && this.swingPeaks == 0) {
+            this.tiltState = TILT_HELD;
+            this.emit(this.gravityY > 0 ? GESTURE_TILT_UP : GESTURE_TILT_DOWN, timestampNanos);
+        }
+    }
+
+    private void emit(int gesture, long timestampNanos) {
+        this.gestureCounts[gesture]++;
+        this.listener.onGesture(gesture, timestampNanos);
+    }
+}
@@ -0,0 +1,14 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+/**
+ * A callback for the onOrientationData event
+ */
+public interface OrientationListener {
+    /**
+     * Called when the fused orientation is updated.
+     *
+     * @param rollDegrees  rotation about the device's y axis, -90 to 90, right edge down is positive
+     * @param pitchDegrees rotation about the device's x axis, -90 to 90, top edge up is positive
+     */
+    void onOrientationData(float rollDegrees, float pitchDegrees);
+}
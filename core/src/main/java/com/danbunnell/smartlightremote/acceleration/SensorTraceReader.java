@@ -0,0 +1,118 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads samples back from a trace written by {@link SensorTraceWriter}.
+ *
+ * The current sample is exposed through getters rather than objects, so reading never allocates.
+ */
+public class SensorTraceReader {
+
+    private static final int BUFFER_RECORDS = 4096;
+
+    private final FileInputStream stream;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    private boolean endOfFile;
+    private long timestampNanos;
+    private float x;
+    private float y;
+    private float z;
+
+    /**
+     * Initializes a new instance of the {@link SensorTraceReader} class.
+     *
+     * @param file the trace file
+     * @throws IOException if the file cannot be read or is not a trace
+     */
+    public SensorTraceReader(File file) throws IOException {
+        this.stream = new FileInputStream(file);
+        this.channel = this.stream.getChannel();
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * SensorTraceWriter.RECORD_LENGTH);
+        this.buffer.limit(0);
+
+        try {
+            if (!this.fill(SensorTraceWriter.HEADER_LENGTH)
+                    || this.buffer.getInt() != SensorTraceWriter.MAGIC
+                    || this.buffer.getShort() != SensorTraceWriter.VERSION
+                    || this.buffer.getShort() != SensorTraceWriter.RECORD_LENGTH) {
+                throw new IOException("Not a sensor trace: " + file);
+            }
+        } catch (IOException e) {
+            this.stream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Advances to the next sample.
+     *
+     * @return false at the end of the trace
+     * @throws IOException if the trace cannot be read
+     */
+    public boolean next() throws IOException {
+        if (!this.fill(SensorTraceWriter.RECORD_LENGTH)) {
+            return false;
+        }
+
+        this.timestampNanos = this.buffer.getLong();
+        this.x = this.buffer.getFloat();
+        this.y = this.buffer.getFloat();
+        this.z = this.buffer.getFloat();
+        return true;
+    }
+
+    public long getTimestampNanos() {
+        return this.timestampNanos;
+    }
+
+    public float getX() {
+        return this.x;
+    }
+
+    public float getY() {
+        return this.y;
+    }
+
+    public float getZ() {
+        return this.z;
+    }
+
+    /**
+     * Closes the trace file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException {
+        this.stream.close();
+    }
+
+    /**
+     * Makes sure at least a number of bytes are buffered.
+     *
+     * @param length the number of bytes needed
+     * @return       false if the file ends first
+     * @throws IOException if the file cannot be read
+     */
+    private boolean fill(int length) throws IOException {
+        if (this.buffer.remaining() >= length) {
+            return true;
+        }
+
+        this.buffer.compact();
+        while (!this.endOfFile && this.buffer.position() < length) {
+            if (this.channel.read(this.buffer) < 0) {
+                this.endOfFile = true;
+            }
+        }
+        this.buffer.flip();
+
+        return this.buffer.remaining() >= length;
+    }
+}
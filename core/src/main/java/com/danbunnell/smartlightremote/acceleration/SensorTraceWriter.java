@@ -0,0 +1,209 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Appends raw accelerometer samples to a compact binary trace file.
+ *
+ * A trace is a header ({@link #MAGIC}, {@link #VERSION}) followed by fixed-size records of a
+ * timestamp in nanoseconds and the x, y and z values, all big-endian. Records are collected in
+ * a direct buffer, so recording costs a few stores per sample, and each full buffer is handed to
+ * a writer thread while the other one fills; the recording thread, usually the main looper,
+ * never waits on the disk unless the disk falls a whole buffer behind.
+ *
+ * Not thread-safe; one thread records, flushes and closes.
+ */
+public class SensorTraceWriter {
+
+    /**
+     * "SLTR"
+     */
+    public static final int MAGIC = 0x534C5452;
+
+    public static final short VERSION = 1;
+
+    public static final int HEADER_LENGTH = 8;
+
+    public static final int RECORD_LENGTH = 8 + 3 * 4;
+
+    private static final int BUFFER_RECORDS = 4096;
+
+    private final FileOutputStream stream;
+    private final FileChannel channel;
+
+    // Buffers waiting to be written, and written buffers ready to be filled again
+    private final BlockingQueue<ByteBuffer> fullBuffers = new ArrayBlockingQueue<>(2);
+    private final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(2);
+
+    /**
+     * empty buffer queued to stop the writer thread
+     */
+    private final ByteBuffer endOfTrace = ByteBuffer.allocate(0);
+
+    private final Thread writerThread;
+
+    /**
+     * the first error of the writer thread, reported on the recording thread
+     */
+    private volatile IOException writeFailure;
+
+    private ByteBuffer buffer;
+    private long recordCount;
+
+    /**
+     * Initializes a new instance of the {@link SensorTraceWriter} class, creating the trace file.
+     *
+     * @param file the trace file to create
+     * @throws IOException if the file cannot be created
+     */
+    public SensorTraceWriter(File file) throws IOException {
+        this.stream = new FileOutputStream(file, false);
+        this.channel = this.stream.getChannel();
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_LENGTH);
+        this.freeBuffers.add(ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_LENGTH));
+
+        this.buffer.putInt(MAGIC);
+        this.buffer.putShort(VERSION);
+        this.buffer.putShort((short) RECORD_LENGTH);
+
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBuffers();
+            }
+        }, "SensorTraceWriter");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Appends a sample.
+     *
+     * @param timestampNanos the sample time in nanoseconds
+     * @param x              acceleration along the x axis
+     * @param y              acceleration along the y axis
+     * @param z              acceleration along the z axis
+     * @throws IOException if an earlier buffer could not be written
+     */
+    public void record(long timestampNanos, float x, float y, float z) throws IOException {
+        if (this.buffer.remaining() < RECORD_LENGTH) {
+            this.handOff();
+        }
+
+        this.buffer.putLong(timestampNanos);
+        this.buffer.putFloat(x);
+        this.buffer.putFloat(y);
+        this.buffer.putFloat(z);
+        this.recordCount++;
+    }
+
+    /**
+     * Writes buffered samples to the file, waiting until they are written.
+     *
+     * @throws IOException if the samples cannot be written
+     */
+    public void flush() throws IOException {
+        this.handOff();
+
+        // Both buffers are free once the writer thread has written everything handed to it
+        try {
+            this.freeBuffers.put(this.awaitFreeBuffer());
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+        this.throwIfWriteFailed();
+    }
+
+    /**
+     * Flushes and closes the trace file, stopping the writer thread.
+     *
+     * @throws IOException if the samples cannot be written
+     */
+    public void close() throws IOException {
+        try {
+            this.handOff();
+        } finally {
+            try {
+                this.fullBuffers.put(this.endOfTrace);
+                this.writerThread.join();
+            } catch (InterruptedException e) {
+                throw interrupted(e);
+            } finally {
+                this.stream.close();
+            }
+        }
+        this.throwIfWriteFailed();
+    }
+
+    /**
+     * Gets the number of samples recorded.
+     *
+     * @return the record count
+     */
+    public long getRecordCount() {
+        return this.recordCount;
+    }
+
+    /**
+     * Queues the filled buffer for writing and continues in the other one, once it is written.
+     */
+    private void handOff() throws IOException {
+        this.throwIfWriteFailed();
+        try {
+            this.buffer.flip();
+            this.fullBuffers.put(this.buffer);
+            this.buffer = this.awaitFreeBuffer();
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+    }
+
+    private ByteBuffer awaitFreeBuffer() throws InterruptedException {
+        ByteBuffer free = this.freeBuffers.take();
+        free.clear();
+        return free;
+    }
+
+    /**
+     * Runs on the writer thread, writing buffers in the order they were filled. After an error
+     * it keeps returning buffers unwritten, so the recording thread never waits forever.
+     */
+    private void writeBuffers() {
+        try {
+            ByteBuffer full;
+            while ((full = this.fullBuffers.take()) != this.endOfTrace) {
+                try {
+                    while (this.writeFailure == null && full.hasRemaining()) {
+                        this.channel.write(full);
+                    }
+                } catch (IOException e) {
+                    this.writeFailure = e;
+                }
+                this.freeBuffers.put(full);
+            }
+        } catch (InterruptedException e) {
+            this.writeFailure = interrupted(e);
+        }
+    }
+
+    private void throwIfWriteFailed() throws IOException {
+        IOException failure = this.writeFailure;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static InterruptedIOException interrupted(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        InterruptedIOException exception = new InterruptedIOException("Interrupted while writing sensor trace");
+        exception.initCause(e);
+        return exception;
+    }
+}
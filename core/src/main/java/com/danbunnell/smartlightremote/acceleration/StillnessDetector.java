@@ -0,0 +1,131 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+/**
+ * Decides whether the phone is at rest from the variance of the acceleration magnitude.
+ *
+ * The mean and variance are tracked as exponentially weighted averages over time rather than
+ * samples, so the decision does not depend on the sampling rate. Becoming still needs the
+ * variance to stay low for a while; waking needs only a single sample that departs from the
+ * resting mean, so motion is caught within a sample even at a low rate.
+ *
+ * Not thread-safe.
+ */
+public class StillnessDetector {
+
+    /**
+     * Receives changes between still and moving
+     */
+    public interface Listener {
+        /**
+         * Called when the phone comes to rest or starts moving.
+         *
+         * @param still          true if the phone is now at rest
+         * @param timestampNanos the time of the sample that caused the change
+         */
+        void onStillnessChanged(boolean still, long timestampNanos);
+    }
+
+    /**
+     * time over which the mean and variance are averaged
+     */
+    private static final float TIME_CONSTANT_S = 0.25f;
+
+    /**
+     * variance below which the phone may be at rest, in (m/s^2)^2
+     */
+    private static final float STILL_VARIANCE = 0.02f;
+
+    /**
+     * variance above which the phone is moving, in (m/s^2)^2
+     */
+    private static final float MOVING_VARIANCE = 0.1f;
+
+    /**
+     * departure from the resting mean that wakes immediately, in m/s^2
+     */
+    private static final float WAKE_DEVIATION = 0.6f;
+
+    /**
+     * how long the variance must stay low before the phone counts as still
+     */
+    private static final long STILL_DWELL_NANOS = 1000000000L;
+
+    private final Listener listener;
+
+    private boolean initialized;
+    private boolean still;
+    private long lastTimestampNanos;
+    private long quietSinceNanos;
+    private float mean;
+    private float variance;
+
+    /**
+     * Initializes a new instance of the {@link StillnessDetector} class.
+     *
+     * @param listener the receiver of changes
+     */
+    public StillnessDetector(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Consumes the magnitude of one sample.
+     *
+     * @param timestampNanos the sample time in nanoseconds
+     * @param magnitude      the acceleration magnitude
+     */
+    public void onSample(long timestampNanos, float magnitude) {
+        if (!this.initialized) {
+            this.mean = magnitude;
+            this.variance = MOVING_VARIANCE;
+            this.lastTimestampNanos = timestampNanos;
+            this.quietSinceNanos = timestampNanos;
+            this.initialized = true;
+            return;
+        }
+
+        float dt = Math.max(0, timestampNanos - this.lastTimestampNanos) / 1e9f;
+        this.lastTimestampNanos = timestampNanos;
+
+        float deviation = magnitude - this.mean;
+
+        if (this.still) {
+            if (Math.abs(deviation) > WAKE_DEVIATION || this.variance > MOVING_VARIANCE) {
+                this.still = false;
+                this.quietSinceNanos = timestampNanos;
+                this.listener.onStillnessChanged(false, timestampNanos);
+            }
+        }
+
+        float alpha = dt / (TIME_CONSTANT_S + dt);
+        this.mean += alpha * deviation;
+        this.variance = (1 - alpha) * (this.variance + alpha * deviation * deviation);
+
+        if (this.still) {
+            return;
+        }
+
+        if (this.variance >= STILL_VARIANCE) {
+            this.quietSinceNanos = timestampNanos;
+        } else if (timestampNanos - this.quietSinceNanos >= STILL_DWELL_NANOS) {
+            this.still = true;
+            this.listener.onStillnessChanged(true, timestampNanos);
+        }
+    }
+
+    /**
+     * Forgets the signal history, e.g. when the sensor restarts. The phone counts as moving.
+     */
+    public void reset() {
+        this.initialized = false;
+        this.still = false;
+    }
+
+    public boolean isStill() {
+        return this.still;
+    }
+
+    public float getVariance() {
+        return this.variance;
+    }
+}
@@ -0,0 +1,55 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import java.io.IOException;
+
+/**
+ * Feeds a recorded trace through an {@link AccelerometerPipeline}, either at the pace it was
+ * recorded or as fast as possible.
+ */
+public class TraceReplayDriver {
+
+    private final AccelerometerPipeline pipeline;
+
+    /**
+     * Initializes a new instance of the {@link TraceReplayDriver} class.
+     *
+     * @param pipeline the pipeline receiving the samples
+     */
+    public TraceReplayDriver(AccelerometerPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Replays every sample of a trace.
+     *
+     * @param reader   the trace
+     * @param realTime true to keep the recorded spacing between samples, false to run flat out
+     * @return         the number of samples replayed
+     * @throws IOException          if the trace cannot be read
+     * @throws InterruptedException if interrupted while pacing the replay
+     */
+    public long replay(SensorTraceReader reader, boolean realTime) throws IOException, InterruptedException {
+        long samples = 0;
+        long firstTimestampNanos = 0;
+        long startNanos = System.nanoTime();
+
+        while (reader.next()) {
+            if (samples == 0) {
+                firstTimestampNanos = reader.getTimestampNanos();
+            }
+
+            if (realTime) {
+                long dueNanos = startNanos + (reader.getTimestampNanos() - firstTimestampNanos);
+                long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+                }
+            }
+
+            this.pipeline.onSample(reader.getTimestampNanos(), reader.getX(), reader.getY(), reader.getZ());
+            samples++;
+        }
+
+        return samples;
+    }
+}
@@ -0,0 +1,198 @@
+package com.danbunnell.smartlightremote.ambient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the dominant colour of an ARGB frame.
+ *
+ * The frame is sampled on a grid of every stride-th pixel into a {@link HueHistogram}. The
+ * dominant hue is the chroma-weighted mean of the heaviest run of three adjacent bins, so a
+ * colour that straddles a bin edge is not split. Its saturation is scaled down when the
+ * colour covers little of the frame, so a mostly grey room gives a pale light.
+ *
+ * Not thread-safe, though {@link #extract(int[], int, int, ExecutorService, int)} spreads one
+ * frame over several threads.
+ */
+public class AmbientColorExtractor {
+
+    public static final int DEFAULT_STRIDE = 8;
+
+    /**
+     * share of the lit pixels the dominant colour must cover for full saturation
+     */
+    private static final float FULL_COVERAGE = 0.3f;
+
+    private static final int WINDOW_BINS = 3;
+
+    private final int stride;
+    private final HueHistogram histogram = new HueHistogram();
+    private HueHistogram[] partials = new HueHistogram[0];
+
+    private int hue;
+    private int saturation;
+
+    /**
+     * Initializes a new instance of the {@link AmbientColorExtractor} class.
+     *
+     * @param stride the sampling step in both directions; 1 samples every pixel
+     */
+    public AmbientColorExtractor(int stride) {
+        if (stride < 1) {
+            throw new IllegalArgumentException("stride must be positive: " + stride);
+        }
+
+        this.stride = stride;
+    }
+
+    /**
+     * Extracts the dominant colour of a frame on the calling thread.
+     *
+     * @param pixels the frame, row-major ARGB
+     * @param width  the frame width
+     * @param height the frame height
+     * @return       false if the frame has no colourful pixels; the saturation is then 0
+     */
+    public boolean extract(int[] pixels, int width, int height) {
+        this.histogram.clear();
+        this.histogram.accumulate(pixels, width, 0, height, this.stride);
+        return this.resolve(this.histogram);
+    }
+
+    /**
+     * Extracts the dominant colour of a frame, sampling horizontal slices of it in parallel.
+     *
+     * The per-slice histograms are kept between calls; only the task list is allocated.
+     *
+     * @param pixels   the frame, row-major ARGB
+     * @param width    the frame width
+     * @param height   the frame height
+     * @param executor runs the slices
+     * @param slices   the number of slices, usually the number of cores
+     * @return         false if the frame has no colourful pixels; the saturation is then 0
+     * @throws InterruptedException if interrupted while waiting for the slices
+     */
+    public boolean extract(final int[] pixels, final int width, int height, ExecutorService executor, int slices)
+            throws InterruptedException {
+        if (this.partials.length != slices) {
+            this.partials = new HueHistogram[slices];
+            for (int i = 0; i < slices; i++) {
+                this.partials[i] = new HueHistogram();
+            }
+        }
+
+        // Slices start on sampled rows, so the grid matches the serial extraction
+        int sampledRows = (height + this.stride - 1) / this.stride;
+        List<Callable<Void>> tasks = new ArrayList<>(slices);
+        for (int i = 0; i < slices; i++) {
+            final HueHistogram partial = this.partials[i];
+            final int rowStart = Math.min(height, sampledRows * i / slices * this.stride);
+            final int rowEnd = Math.min(height, sampledRows * (i + 1) / slices * this.stride);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    partial.clear();
+                    partial.accumulate(pixels, width, rowStart, rowEnd, stride);
+                    return null;
+                }
+            });
+        }
+
+        this.histogram.clear();
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Slice failed", e.getCause());
+            }
+        }
+        for (HueHistogram partial : this.partials) {
+            this.histogram.add(partial);
+        }
+
+        return this.resolve(this.histogram);
+    }
+
+    public int getStride() {
+        return this.stride;
+    }
+
+    /**
+     * Gets the hue of the last frame; unchanged if that frame had no colour.
+     *
+     * @return the hue, 0-359
+     */
+    public int getHue() {
+        return this.hue;
+    }
+
+    /**
+     * Gets the saturation of the last frame.
+     *
+     * @return the saturation, 0-255
+     */
+    public int getSaturation() {
+        return this.saturation;
+    }
+
+    /**
+     * Picks the dominant colour from a filled histogram.
+     */
+    private boolean resolve(HueHistogram histogram) {
+        int bins = HueHistogram.BIN_COUNT;
+        int half = WINDOW_BINS / 2;
+
+        int peak = -1;
+        long peakWeight = 0;
+        for (int center = 0; center < bins; center++) {
+            long weight = 0;
+            for (int d = -half; d <= half; d++) {
+                weight += histogram.weight[(center + d + bins) % bins];
+            }
+            if (weight > peakWeight) {
+                peakWeight = weight;
+                peak = center;
+            }
+        }
+
+        int lit = histogram.samples - histogram.dark;
+        if (peak < 0 || lit == 0) {
+            this.saturation = 0;
+            return false;
+        }
+
+        // Mean hue of the window, measured from its centre so the window can wrap past 0
+        int centerHue = peak * HueHistogram.BIN_DEGREES + HueHistogram.BIN_DEGREES / 2;
+        double offsetSum = 0;
+        long saturationSum = 0;
+        int count = 0;
+        for (int d = -half; d <= half; d++) {
+            int bin = (peak + d + bins) % bins;
+            long weight = histogram.weight[bin];
+            if (weight == 0) {
+                continue;
+            }
+
+            double offset = (double) histogram.hueSum[bin] / weight - centerHue;
+            if (offset > 180) {
+                offset -= 360;
+            } else if (offset < -180) {
+                offset += 360;
+            }
+            offsetSum += offset * weight;
+            saturationSum += histogram.saturationSum[bin];
+            count += histogram.count[bin];
+        }
+
+        int hue = (int) Math.round(centerHue + offsetSum / peakWeight);
+        this.hue = (hue % 360 + 360) % 360;
+
+        float coverage = Math.min(1f, (float) count / lit / FULL_COVERAGE);
+        this.saturation = Math.round(coverage * saturationSum / peakWeight);
+        return true;
+    }
+}
@@ -0,0 +1,19 @@
+package com.danbunnell.smartlightremote.ambient;
+
+/**
+ * A callback for the onAmbientColor event
+ */
+public interface AmbientColorListener {
+    /**
+     * Called when the smoothed colour of the scene changes.
+     *
+     * @param hue        the hue, 0-359
+     * @param saturation the saturation, 0-255
+     */
+    void onAmbientColor(int hue, int saturation);
+
+    /**
+     * Called when the camera cannot be opened or fails while running.
+     */
+    void onCameraError();
+}
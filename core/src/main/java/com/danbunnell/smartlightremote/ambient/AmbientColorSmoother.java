@@ -0,0 +1,110 @@
+package com.danbunnell.smartlightremote.ambient;
+
+/**
+ * Smooths per-frame colours so the light follows the room without flickering.
+ *
+ * Hue is averaged as a direction on the colour wheel, so 350 and 10 average to 0 rather
+ * than 180, and saturation is averaged linearly; both with an exponential time constant
+ * driven by the frame timestamps. The output only moves when the smoothed colour has drifted
+ * past a dead band, which stops the last digit of the hue toggling on camera noise.
+ *
+ * Not thread-safe.
+ */
+public class AmbientColorSmoother {
+
+    public static final float DEFAULT_TIME_CONSTANT_S = 1.0f;
+    public static final int DEFAULT_HUE_DEADBAND = 4;
+    public static final int DEFAULT_SATURATION_DEADBAND = 6;
+
+    private final float timeConstantMs;
+    private final int hueDeadband;
+    private final int saturationDeadband;
+
+    private boolean started;
+    private long lastMs;
+    private double hueX;
+    private double hueY;
+    private double saturation;
+
+    private int outputHue;
+    private int outputSaturation;
+
+    /**
+     * Initializes a new instance of the {@link AmbientColorSmoother} class.
+     *
+     * @param timeConstantS      the smoothing time constant in seconds
+     * @param hueDeadband        hue change, in degrees, needed to move the output
+     * @param saturationDeadband saturation change needed to move the output
+     */
+    public AmbientColorSmoother(float timeConstantS, int hueDeadband, int saturationDeadband) {
+        this.timeConstantMs = timeConstantS * 1000;
+        this.hueDeadband = hueDeadband;
+        this.saturationDeadband = saturationDeadband;
+    }
+
+    /**
+     * Restarts from the next colour.
+     */
+    public void reset() {
+        this.started = false;
+    }
+
+    /**
+     * Adds the colour of a frame.
+     *
+     * @param hue        the frame's hue, 0-359; ignored when the saturation is 0
+     * @param saturation the frame's saturation, 0-255
+     * @param nowMs      the frame time in milliseconds
+     * @return           true if the output colour changed
+     */
+    public boolean update(int hue, int saturation, long nowMs) {
+        double radians = Math.toRadians(hue);
+
+        if (!this.started) {
+            this.started = true;
+            this.lastMs = nowMs;
+            this.hueX = Math.cos(radians);
+            this.hueY = Math.sin(radians);
+            this.saturation = saturation;
+            this.outputHue = hue;
+            this.outputSaturation = saturation;
+            return true;
+        }
+
+        long elapsedMs = Math.max(0, nowMs - this.lastMs);
+        this.lastMs = nowMs;
+        double alpha = 1 - Math.exp(-elapsedMs / this.timeConstantMs);
+
+        // A colourless frame says nothing about the hue
+        if (saturation > 0) {
+            this.hueX += alpha * (Math.cos(radians) - this.hueX);
+            this.hueY += alpha * (Math.sin(radians) - this.hueY);
+        }
+        this.saturation += alpha * (saturation - this.saturation);
+
+        int smoothedHue = (int) Math.round(Math.toDegrees(Math.atan2(this.hueY, this.hueX)));
+        smoothedHue = (smoothedHue + 360) % 360;
+        int smoothedSaturation = (int) Math.round(this.saturation);
+
+        boolean changed = false;
+        int hueDistance = Math.abs(smoothedHue - this.outputHue);
+        if (Math.min(hueDistance, 360 - hueDistance) >= this.hueDeadband) {
+            this.outputHue = smoothedHue;
+            changed = true;
+        }
+        if (Math.abs(smoothedSaturation - this.outputSaturation) >= this.saturationDeadband) {
+            this.outputSaturation = smoothedSaturation;
+            changed = true;
+        }
+
+        return changed;
+    }
+
+    public int getHue() {
+        return this.outputHue;
+    }
+
+    public int getSaturation() {
+        return this.outputSaturation;
+    }
+}
@@ -0,0 +1,138 @@
+package com.danbunnell.smartlightremote.ambient;
+
+/**
+ * Accumulates the colours of sampled ARGB pixels into a fixed number of hue bins.
+ *
+ * Each colourful pixel adds its chroma (max - min channel) to the bin of its hue, so vivid
+ * and bright colours outweigh faint ones. Dark and grey pixels are only counted, since their
+ * hue is noise. Memory is fixed regardless of frame size, and histograms of separate parts of
+ * a frame can be merged with {@link #add}, so a frame can be split across threads.
+ *
+ * Not thread-safe; use one histogram per thread.
+ */
+public class HueHistogram {
+
+    public static final int BIN_COUNT = 36;
+    public static final int BIN_DEGREES = 360 / BIN_COUNT;
+
+    /**
+     * pixels with no channel above this are dark
+     */
+    public static final int MIN_VALUE = 24;
+
+    /**
+     * pixels below this saturation (0-255) are grey
+     */
+    public static final int MIN_SATURATION = 24;
+
+    /**
+     * 2^24 / n rounded up, so that (x * RECIPROCAL[n]) >> 24 equals x / n for 0 &lt;= x &lt; 2^16;
+     * replaces the two divisions per pixel
+     */
+    private static final long[] RECIPROCAL = new long[256];
+
+    static {
+        for (int n = 1; n < RECIPROCAL.length; n++) {
+            RECIPROCAL[n] = ((1L << 24) + n - 1) / n;
+        }
+    }
+
+    final long[] weight = new long[BIN_COUNT];
+    final long[] hueSum = new long[BIN_COUNT];
+    final long[] saturationSum = new long[BIN_COUNT];
+    final int[] count = new int[BIN_COUNT];
+    int samples;
+    int dark;
+    int neutral;
+
+    /**
+     * Empties the histogram.
+     */
+    public void clear() {
+        for (int bin = 0; bin < BIN_COUNT; bin++) {
+            this.weight[bin] = 0;
+            this.hueSum[bin] = 0;
+            this.saturationSum[bin] = 0;
+            this.count[bin] = 0;
+        }
+        this.samples = 0;
+        this.dark = 0;
+        this.neutral = 0;
+    }
+
+    /**
+     * Adds every stride-th pixel of every stride-th row in a range of rows.
+     *
+     * @param pixels   the frame, row-major ARGB
+     * @param width    the frame width
+     * @param rowStart the first row, a multiple of the stride
+     * @param rowEnd   the row after the last
+     * @param stride   the sampling step in both directions
+     */
+    public void accumulate(int[] pixels, int width, int rowStart, int rowEnd, int stride) {
+        for (int y = rowStart; y < rowEnd; y += stride) {
+            int row = y * width;
+            for (int x = 0; x < width; x += stride) {
+                int pixel = pixels[row + x];
+                int r = (pixel >> 16) & 0xFF;
+                int g = (pixel >> 8) & 0xFF;
+                int b = pixel & 0xFF;
+                int max = Math.max(r, Math.max(g, b));
+                int min = Math.min(r, Math.min(g, b));
+
+                this.samples++;
+                if (max < MIN_VALUE) {
+                    this.dark++;
+                    continue;
+                }
+
+                int chroma = max - min;
+                long reciprocal = RECIPROCAL[chroma];
+                int saturation = (int) ((chroma * 255 * RECIPROCAL[max]) >> 24);
+                if (saturation < MIN_SATURATION) {
+                    this.neutral++;
+                    continue;
+                }
+
+                // Each sector spans 60 degrees from the hue of its largest channel
+                int hue;
+                if (max == r) {
+                    hue = g >= b
+                            ? (int) ((60 * (g - b) * reciprocal) >> 24)
+                            : 359 - (int) ((60 * (b - g) * reciprocal) >> 24);
+                } else if (max == g) {
+                    hue = 120 + (int) (((60 * (b - r) + 60 * chroma) * reciprocal) >> 24) - 60;
+                } else {
+                    hue = 240 + (int) (((60 * (r - g) + 60 * chroma) * reciprocal) >> 24) - 60;
+                }
+
+                int bin = hue / BIN_DEGREES;
+                this.weight[bin] += chroma;
+                this.hueSum[bin] += hue * chroma;
+                this.saturationSum[bin] += saturation * chroma;
+                this.count[bin]++;
+            }
+        }
+    }
+
+    /**
+     * Adds another histogram into this one.
+     *
+     * @param other the histogram to add
+     */
+    public void add(HueHistogram other) {
+        for (int bin = 0; bin < BIN_COUNT; bin++) {
+            this.weight[bin] += other.weight[bin];
+            this.hueSum[bin] += other.hueSum[bin];
+            this.saturationSum[bin] += other.saturationSum[bin];
+            this.count[bin] += other.count[bin];
+        }
+        this.samples += other.samples;
+        this.dark += other.dark;
+        this.neutral += other.neutral;
+    }
+
+    public int getSamples() {
+        return this.samples;
+    }
+}
@@ -0,0 +1,299 @@
+package com.danbunnell.smartlightremote.audio;
+
+/**
+ * Extracts band levels, loudness, spectral centroid and beat onsets from blocks of PCM audio.
+ *
+ * Each block is windowed (Hann), transformed with a {@link RealFft} and summed into
+ * logarithmically spaced bands. Onsets are detected from spectral flux, the summed rise of the
+ * band levels since the previous block, against a threshold that follows the recent flux so
+ * that loud passages do not trigger on every block. All buffers are allocated up front, so
+ * {@link #process} never allocates.
+ *
+ * Not thread-safe.
+ */
+public class AudioAnalyzer {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    public static final int DEFAULT_BAND_COUNT = 8;
+
+    /**
+     * level reported for silence, and the floor of every band level
+     */
+    public static final float SILENCE_DB = -90;
+
+    private static final float MIN_BAND_HZ = 40;
+    private static final float MAX_BAND_HZ = 16000;
+
+    /**
+     * time constant of the average flux that onsets are compared with
+     */
+    private static final double FLUX_TIME_CONSTANT_S = 1.0;
+
+    /**
+     * an onset needs this many times the average flux ...
+     */
+    private static final float ONSET_FLUX_RATIO = 2.0f;
+
+    /**
+     * ... plus this much, in dB summed over the bands
+     */
+    private static final float ONSET_MIN_FLUX_DB = 12;
+
+    /**
+     * band levels are raised to this before computing flux, so that leakage and noise in
+     * nearly empty bands do not swamp the rise of the bands that carry the music
+     */
+    private static final float FLUX_FLOOR_DB = -60;
+
+    /**
+     * onsets in quieter blocks are ignored as noise
+     */
+    private static final float ONSET_MIN_LEVEL_DB = -50;
+
+    /**
+     * shortest time between onsets; 100 ms allows sixteenth notes at 150 bpm
+     */
+    private static final double MIN_ONSET_INTERVAL_S = 0.1;
+
+    private static final float FULL_SCALE = 32768f;
+
+    private final int blockSize;
+    private final int sampleRateHz;
+    private final RealFft fft;
+    private final float[] window;
+    private final float[] spectrum;
+    private final float[] power;
+
+    /**
+     * first bin of each band; band i covers bins bandStart[i] to bandStart[i + 1] - 1
+     */
+    private final int[] bandStart;
+
+    /**
+     * scales summed bin power to mean-square sample value
+     */
+    private final float powerScale;
+
+    private final float fluxAlpha;
+    private final int minOnsetBlocks;
+
+    private final float[] bandLevelsDb;
+    private final float[] previousBandLevelsDb;
+    private float levelDb = SILENCE_DB;
+    private float centroid;
+    private float fluxMean;
+    private boolean onset;
+    private int blocksSinceOnset;
+    private boolean primed;
+
+    private long blocksProcessed;
+    private long onsetCount;
+
+    /**
+     * Initializes a new instance of the {@link AudioAnalyzer} class.
+     *
+     * @param blockSize    samples per block, a power of two
+     * @param sampleRateHz the sample rate
+     * @param bandCount    the number of bands
+     */
+    public AudioAnalyzer(int blockSize, int sampleRateHz, int bandCount) {
+        this.blockSize = blockSize;
+        this.sampleRateHz = sampleRateHz;
+        this.fft = new RealFft(blockSize);
+        this.spectrum = new float[blockSize];
+        this.power = new float[blockSize / 2 + 1];
+
+        this.window = new float[blockSize];
+        double windowPower = 0;
+        for (int i = 0; i < blockSize; i++) {
+            this.window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / blockSize));
+            windowPower += this.window[i] * this.window[i];
+        }
+
+        // Parseval: the one-sided bin powers sum to N/2 times the windowed energy
+        this.powerScale = (float) (1.0 / (windowPower * blockSize / 2.0));
+
+        this.bandStart = bandEdges(blockSize, sampleRateHz, bandCount);
+        this.bandLevelsDb = new float[bandCount];
+        this.previousBandLevelsDb = new float[bandCount];
+
+        double blockSeconds = (double) blockSize / sampleRateHz;
+        this.fluxAlpha = (float) (1 - Math.exp(-blockSeconds / FLUX_TIME_CONSTANT_S));
+        this.minOnsetBlocks = (int) Math.ceil(MIN_ONSET_INTERVAL_S / blockSeconds);
+        this.reset();
+    }
+
+    /**
+     * Forgets previous blocks, e.g. when the microphone restarts.
+     */
+    public void reset() {
+        for (int i = 0; i < this.bandLevelsDb.length; i++) {
+            this.bandLevelsDb[i] = SILENCE_DB;
+            this.previousBandLevelsDb[i] = SILENCE_DB;
+        }
+        this.levelDb = SILENCE_DB;
+        this.centroid = 0;
+        this.fluxMean = 0;
+        this.onset = false;
+        this.blocksSinceOnset = this.minOnsetBlocks;
+        this.primed = false;
+    }
+
+    /**
+     * Analyzes one block of 16-bit PCM samples.
+     *
+     * @param samples buffer holding the block
+     * @param offset  offset of the block; {@link #getBlockSize} samples are read
+     * @return        true if the block starts an onset
+     */
+    public boolean process(short[] samples, int offset) {
+        float[] spectrum = this.spectrum;
+        float sumSquares = 0;
+        for (int i = 0; i < this.blockSize; i++) {
+            float sample = samples[offset + i] / FULL_SCALE;
+            sumSquares += sample * sample;
+            spectrum[i] = sample * this.window[i];
+        }
+        this.levelDb = toDb(sumSquares / this.blockSize);
+
+        this.fft.forward(spectrum);
+        this.fft.power(spectrum, this.power);
+
+        float flux = 0;
+        float weighted = 0;
+        float total = 0;
+        int bandCount = this.bandLevelsDb.length;
+        for (int band = 0; band < bandCount; band++) {
+            float energy = 0;
+            for (int bin = this.bandStart[band]; bin < this.bandStart[band + 1]; bin++) {
+                energy += this.power[bin];
+            }
+            energy *= this.powerScale;
+
+            float bandDb = toDb(energy);
+            this.previousBandLevelsDb[band] = this.bandLevelsDb[band];
+            this.bandLevelsDb[band] = bandDb;
+            flux += Math.max(0f, Math.max(bandDb, FLUX_FLOOR_DB)
+                    - Math.max(this.previousBandLevelsDb[band], FLUX_FLOOR_DB));
+
+            weighted += band * energy;
+            total += energy;
+        }
+        this.centroid = total > 0 && bandCount > 1 ? weighted / total / (bandCount - 1) : 0;
+
+        // The first block has nothing to rise from
+        if (!this.primed) {
+            this.primed = true;
+            flux = 0;
+        }
+
+        this.onset = this.blocksSinceOnset >= this.minOnsetBlocks
+                && this.levelDb >= ONSET_MIN_LEVEL_DB
+                && flux > ONSET_FLUX_RATIO * this.fluxMean + ONSET_MIN_FLUX_DB;
+        this.fluxMean += this.fluxAlpha * (flux - this.fluxMean);
+
+        if (this.onset) {
+            this.blocksSinceOnset = 0;
+            this.onsetCount++;
+        } else {
+            this.blocksSinceOnset++;
+        }
+
+        this.blocksProcessed++;
+        return this.onset;
+    }
+
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    public int getSampleRateHz() {
+        return this.sampleRateHz;
+    }
+
+    public int getBandCount() {
+        return this.bandLevelsDb.length;
+    }
+
+    /**
+     * Gets the lowest frequency in a band.
+     *
+     * @param band the band index
+     * @return     the frequency in Hz
+     */
+    public float getBandStartHz(int band) {
+        return (float) this.bandStart[band] * this.sampleRateHz / this.blockSize;
+    }
+
+    /**
+     * Gets the band levels of the last block. The array is reused for every block.
+     *
+     * @return the level of each band in dB relative to a full-scale square wave
+     */
+    public float[] getBandLevelsDb() {
+        return this.bandLevelsDb;
+    }
+
+    /**
+     * Gets the RMS level of the last block.
+     *
+     * @return the level in dB relative to a full-scale square wave
+     */
+    public float getLevelDb() {
+        return this.levelDb;
+    }
+
+    /**
+     * Gets where the energy of the last block lies across the bands.
+     *
+     * @return 0 when all energy is in the lowest band, 1 when it is all in the highest
+     */
+    public float getCentroid() {
+        return this.centroid;
+    }
+
+    public boolean isOnset() {
+        return this.onset;
+    }
+
+    public long getBlocksProcessed() {
+        return this.blocksProcessed;
+    }
+
+    public long getOnsetCount() {
+        return this.onsetCount;
+    }
+
+    /**
+     * Converts a mean-square value to decibels, floored at {@link #SILENCE_DB}.
+     */
+    private static float toDb(float meanSquare) {
+        if (meanSquare <= 1e-9f) {
+            return SILENCE_DB;
+        }
+
+        return Math.max(SILENCE_DB, (float) (10 * Math.log10(meanSquare)));
+    }
+
+    /**
+     * Spaces band edges logarithmically, giving every band at least one bin.
+     */
+    private static int[] bandEdges(int blockSize, int sampleRateHz, int bandCount) {
+        float maxHz = Math.min(MAX_BAND_HZ, sampleRateHz / 2f);
+        int maxBin = blockSize / 2;
+        int[] edges = new int[bandCount + 1];
+
+        for (int i = 0; i <= bandCount; i++) {
+            double hz = MIN_BAND_HZ * Math.pow(maxHz / MIN_BAND_HZ, (double) i / bandCount);
+            int bin = (int) Math.round(hz * blockSize / sampleRateHz);
+            edges[i] = i == 0 ? Math.max(1, bin) : Math.max(edges[i - 1] + 1, bin);
+        }
+
+        if (edges[bandCount] > maxBin + 1) {
+            throw new IllegalArgumentException(
+                    "a block of " + blockSize + " samples is too short for " + bandCount + " bands");
+        }
+
+        return edges;
+    }
+}
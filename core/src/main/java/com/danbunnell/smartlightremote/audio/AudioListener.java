@@ -0,0 +1,16 @@
+package com.danbunnell.smartlightremote.audio;
+
+/**
+ * A callback for the onAudioData event
+ */
+public interface AudioListener {
+    /**
+     * Called when a block of audio has been analyzed.
+     *
+     * @param bandLevelsDb the level of each band in dB; only valid for the duration of the call
+     * @param levelDb      the overall level in dB
+     * @param centroid     where the energy lies across the bands, 0 (lowest) to 1 (highest)
+     * @param onset        whether the block starts a beat or other onset
+     */
+    void onAudioData(float[] bandLevelsDb, float levelDb, float centroid, boolean onset);
+}
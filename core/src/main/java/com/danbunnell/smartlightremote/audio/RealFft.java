@@ -0,0 +1,182 @@
+package com.danbunnell.smartlightremote.audio;
+
+/**
+ * In-place FFT of real input.
+ *
+ * The N real samples are transformed as N/2 complex values by an iterative radix-2 FFT and
+ * then split into the spectrum of the real signal, which takes about half the work of a
+ * complex FFT of size N. Twiddle factors and the bit-reversal permutation are computed once
+ * in the constructor, so {@link #forward} never allocates.
+ *
+ * Instances are immutable after construction, so one may be shared between threads.
+ */
+public class RealFft {
+
+    private final int size;
+    private final int half;
+
+    /**
+     * twiddle factors of the half-size complex FFT, exp(-2 pi i k / (N/2)) for k < N/4
+     */
+    private final float[] cos;
+    private final float[] sin;
+
+    /**
+     * factors of the split step, exp(-2 pi i k / N) for k <= N/4
+     */
+    private final float[] splitCos;
+    private final float[] splitSin;
+
+    /**
+     * index pairs swapped by the bit-reversal permutation, flattened
+     */
+    private final int[] swaps;
+
+    /**
+     * Initializes a new instance of the {@link RealFft} class.
+     *
+     * @param size the transform size, a power of two of at least 4
+     */
+    public RealFft(int size) {
+        if (size < 4 || (size & (size - 1)) != 0) {
+            throw new IllegalArgumentException("size must be a power of two of at least 4: " + size);
+        }
+
+        this.size = size;
+        this.half = size / 2;
+
+        int quarter = size / 4;
+        this.cos = new float[quarter];
+        this.sin = new float[quarter];
+        for (int k = 0; k < quarter; k++) {
+            double angle = -2 * Math.PI * k / this.half;
+            this.cos[k] = (float) Math.cos(angle);
+            this.sin[k] = (float) Math.sin(angle);
+        }
+
+        this.splitCos = new float[quarter + 1];
+        this.splitSin = new float[quarter + 1];
+        for (int k = 0; k <= quarter; k++) {
+            double angle = -2 * Math.PI * k / size;
+            this.splitCos[k] = (float) Math.cos(angle);
+            this.splitSin[k] = (float) Math.sin(angle);
+        }
+
+        int bits = Integer.numberOfTrailingZeros(this.half);
+        int count = 0;
+        int[] swaps = new int[this.half];
+        for (int i = 0; i < this.half; i++) {
+            int reversed = Integer.reverse(i) >>> (32 - bits);
+            if (bits > 0 && i < reversed) {
+                swaps[count++] = i;
+                swaps[count++] = reversed;
+            }
+        }
+        this.swaps = new int[count];
+        System.arraycopy(swaps, 0, this.swaps, 0, count);
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Transforms real samples into their spectrum, in place.
+     *
+     * On return, data[0] holds bin 0 (DC), data[1] holds bin N/2 (Nyquist), both of which are
+     * real, and data[2k], data[2k + 1] hold the real and imaginary parts of bin k for
+     * 0 &lt; k &lt; N/2.
+     *
+     * @param data the N samples, replaced by the spectrum
+     */
+    public void forward(float[] data) {
+        this.complexForward(data);
+
+        // Split the transform of the even/odd interleaving into the real spectrum
+        float re0 = data[0];
+        float im0 = data[1];
+        data[0] = re0 + im0;
+        data[1] = re0 - im0;
+
+        for (int k = 1; k <= this.half / 2; k++) {
+            int a = 2 * k;
+            int b = 2 * (this.half - k);
+
+            float aRe = data[a];
+            float aIm = data[a + 1];
+            float bRe = data[b];
+            float bIm = -data[b + 1];
+
+            // Even part (a + b) / 2, odd part -i (a - b) / 2
+            float evenRe = 0.5f * (aRe + bRe);
+            float evenIm = 0.5f * (aIm + bIm);
+            float oddRe = 0.5f * (aIm - bIm);
+            float oddIm = -0.5f * (aRe - bRe);
+
+            float wRe = this.splitCos[k];
+            float wIm = this.splitSin[k];
+            float tRe = wRe * oddRe - wIm * oddIm;
+            float tIm = wRe * oddIm + wIm * oddRe;
+
+            data[a] = evenRe + tRe;
+            data[a + 1] = evenIm + tIm;
+            data[b] = evenRe - tRe;
+            data[b + 1] = tIm - evenIm;
+        }
+    }
+
+    /**
+     * Computes the power of each bin from a spectrum produced by {@link #forward}.
+     *
+     * @param spectrum the spectrum
+     * @param power    receives N/2 + 1 bin powers
+     */
+    public void power(float[] spectrum, float[] power) {
+        power[0] = spectrum[0] * spectrum[0];
+        power[this.half] = spectrum[1] * spectrum[1];
+        for (int k = 1; k < this.half; k++) {
+            float re = spectrum[2 * k];
+            float im = spectrum[2 * k + 1];
+            power[k] = re * re + im * im;
+        }
+    }
+
+    /**
+     * Runs the complex FFT of size N/2 over interleaved real and imaginary parts.
+     */
+    private void complexForward(float[] data) {
+        int[] swaps = this.swaps;
+        for (int i = 0; i < swaps.length; i += 2) {
+            int a = 2 * swaps[i];
+            int b = 2 * swaps[i + 1];
+            float re = data[a];
+            float im = data[a + 1];
+            data[a] = data[b];
+            data[a + 1] = data[b + 1];
+            data[b] = re;
+            data[b + 1] = im;
+        }
+
+        for (int length = 2; length <= this.half; length <<= 1) {
+            int span = length / 2;
+            int stride = this.half / length;
+
+            for (int start = 0; start < this.half; start += length) {
+                for (int j = 0; j < span; j++) {
+                    float wRe = this.cos[j * stride];
+                    float wIm = this.sin[j * stride];
+
+                    int top = 2 * (start + j);
+                    int bottom = top + 2 * span;
+                    float bRe = data[bottom] * wRe - data[bottom + 1] * wIm;
+                    float bIm = data[bottom] * wIm + data[bottom + 1] * wRe;
+
+                    data[bottom] = data[top] - bRe;
+                    data[bottom + 1] = data[top + 1] - bIm;
+                    data[top] += bRe;
+                    data[top + 1] += bIm;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.danbunnell.smartlightremote.color;
+
+/**
+ * Converts the light's hue, saturation and brightness to the ARGB colours the screen shows
+ */
+public final class HsbColor {
+
+    private HsbColor() {
+    }
+
+    /**
+     * Gets the RGB value from HSB.
+     *
+     * @param hue        the hue, 0-359
+     * @param sat        the saturation, 0-255
+     * @param brightness the brightness, 0-255
+     * @return           an opaque ARGB value
+     */
+    public static int toArgb(int hue, int sat, int brightness) {
+        int r = 0;
+        int g = 0;
+        int  b = 0;
+        int base;
+
+        if (sat == 0) {
+            r = brightness;
+            g = brightness;
+            b = brightness;
+        } else  {
+            base = (((255 - sat) * brightness) >> 8);
+
+            switch(hue / 60) {
+                case 0:
+                    r = brightness;
+                    g = ((((brightness - base) * hue) / 60) + base);
+                    b = base;
+                    break;
+
+                case 1:
+                    r = ((((brightness - base) * (60 - (hue % 60))) / 60) + base);
+                    g = brightness;
+                    b = base;
+                    break;
+
+                case 2:
+                    r = base;
+                    g = brightness;
+                    b = ((((brightness - base) * (hue % 60)) / 60) + base);
+                    break;
+
+                case 3:
+                    r = base;
+                    g = ((((brightness - base) * (60 - (hue % 60))) / 60) + base);
+                    b = brightness;
+                    break;
+
+                case 4:
+                    r = ((((brightness - base) * (hue % 60)) / 60) + base);
+                    g = base;
+                    b = brightness;
+                    break;
+
+                case 5:
+                    r = brightness;
+                    g = base;
+                    b = ((((brightness - base) * (60 - (hue % 60))) / 60) + base);
+                    break;
+            }
+        }
+
+        return (0xff) << 24 | (r & 0xff) << 16 | (g & 0xff) << 8 | (b & 0xff);
+    }
+}
@@ -0,0 +1,154 @@
+package com.danbunnell.smartlightremote.color;
+
+/**
+ * Converts between the light's hue and saturation and the OKLab perceptual colour space, in
+ * which equal distances look like equal colour differences.
+ *
+ * The light has no brightness control, so only the chromaticity of a colour can be shown: a
+ * colour maps back to the hue and saturation of its RGB, whatever its lightness. Scaling a
+ * colour's linear RGB scales its OKLab coordinates alike, so the hue and saturation depend on
+ * the OKLCH hue angle and the ratio of chroma to lightness alone.
+ *
+ * Device colours are packed as {@code (hue << 8) | saturation}.
+ */
+public final class Oklab {
+
+    private static final float[] SRGB_TO_LINEAR = new float[256];
+
+    static {
+        for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+            double encoded = i / 255.0;
+            SRGB_TO_LINEAR[i] = (float) (encoded <= 0.04045
+                    ? encoded / 12.92
+                    : Math.pow((encoded + 0.055) / 1.055, 2.4));
+        }
+    }
+
+    private Oklab() {
+    }
+
+    /**
+     * Converts an ARGB colour to OKLab.
+     *
+     * @param argb the colour; alpha is ignored
+     * @param lab  receives L, a and b
+     */
+    public static void fromArgb(int argb, float[] lab) {
+        float r = SRGB_TO_LINEAR[(argb >> 16) & 0xFF];
+        float g = SRGB_TO_LINEAR[(argb >> 8) & 0xFF];
+        float b = SRGB_TO_LINEAR[argb & 0xFF];
+
+        float l = (float) Math.cbrt(0.4122214708f * r + 0.5363325363f * g + 0.0514459929f * b);
+        float m = (float) Math.cbrt(0.2119034982f * r + 0.6806995451f * g + 0.1073969566f * b);
+        float s = (float) Math.cbrt(0.0883024619f * r + 0.2817188376f * g + 0.6299787005f * b);
+
+        lab[0] = 0.2104542553f * l + 0.7936177850f * m - 0.0040720468f * s;
+        lab[1] = 1.9779984951f * l - 2.4285922050f * m + 0.4505937099f * s;
+        lab[2] = 0.0259040371f * l + 0.7827717662f * m - 0.8086757660f * s;
+    }
+
+    /**
+     * Converts a colour the light can show to OKLab.
+     *
+     * @param hue        the hue, 0-359
+     * @param saturation the saturation, 0-255
+     * @param lab        receives L, a and b
+     */
+    public static void fromDevice(int hue, int saturation, float[] lab) {
+        fromArgb(HsbColor.toArgb(hue, saturation, 255), lab);
+    }
+
+    /**
+     * Finds the hue and saturation that show the chromaticity of an OKLab colour. Colours
+     * outside the sRGB gamut are clipped to its edge.
+     *
+     * @param lightness the OKLab L, above 0
+     * @param a         the OKLab a
+     * @param b         the OKLab b
+     * @return          the device colour, packed
+     */
+    public static int toDevice(float lightness, float a, float b) {
+        float l = lightness + 0.3963377774f * a + 0.2158037573f * b;
+        float m = lightness - 0.1055613458f * a - 0.0638541728f * b;
+        float s = lightness - 0.0894841775f * a - 1.2914855480f * b;
+        l = l * l * l;
+        m = m * m * m;
+        s = s * s * s;
+
+        float red = Math.max(0, 4.0767416621f * l - 3.3077115913f * m + 0.2309699292f * s);
+        float green = Math.max(0, -1.2684380046f * l + 2.6097574011f * m - 0.3413193965f * s);
+        float blue = Math.max(0, -0.0041960863f * l - 0.7034186147f * m + 1.7076147010f * s);
+
+        // Full brightness, as the light shows it
+        float max = Math.max(red, Math.max(green, blue));
+        if (max <= 0) {
+            return 0;
+        }
+        red = linearToSrgb(red / max);
+        green = linearToSrgb(green / max);
+        blue = linearToSrgb(blue / max);
+
+        float min = Math.min(red, Math.min(green, blue));
+        float chroma = 1 - min;
+        if (chroma < 1e-4f) {
+            return 0;
+        }
+        // The inverse of HsbColor's base = (255 - saturation) * brightness / 256
+        int saturation = Math.max(0, Math.min(255, Math.round(255 - min * 256)));
+
+        float sector;
+        if (red >= green && red >= blue) {
+            sector = (green - blue) / chroma;
+            if (sector < 0) {
+                sector += 6;
+            }
+        } else if (green >= blue) {
+            sector = (blue - red) / chroma + 2;
+        } else {
+            sector = (red - green) / chroma + 4;
+        }
+        int hue = Math.round(sector * 60) % 360;
+
+        return (hue << 8) | saturation;
+    }
+
+    /**
+     * Gets the hue of a packed device colour.
+     *
+     * @param device the packed colour
+     * @return       the hue, 0-359
+     */
+    public static int hueOf(int device) {
+        return device >> 8;
+    }
+
+    /**
+     * Gets the saturation of a packed device colour.
+     *
+     * @param device the packed colour
+     * @return       the saturation, 0-255
+     */
+    public static int saturationOf(int device) {
+        return device & 0xFF;
+    }
+
+    /**
+     * Gets the distance between two OKLab colours; about 0.02 is just noticeable.
+     *
+     * @param first  the first colour
+     * @param second the second colour
+     * @return       the Euclidean distance
+     */
+    public static float distance(float[] first, float[] second) {
+        float dl = first[0] - second[0];
+        float da = first[1] - second[1];
+        float db = first[2] - second[2];
+        return (float) Math.sqrt(dl * dl + da * da + db * db);
+    }
+
+    private static float linearToSrgb(float linear) {
+        return linear <= 0.0031308f
+                ? 12.92f * linear
+                : (float) (1.055 * Math.pow(linear, 1 / 2.4) - 0.055);
+    }
+}
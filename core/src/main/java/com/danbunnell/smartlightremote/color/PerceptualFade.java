@@ -0,0 +1,289 @@
+package com.danbunnell.smartlightremote.color;
+
+/**
+ * Fades between two colours of the light through OKLab, where equal steps of progress look like
+ * equal changes of colour; stepping the light's own hue rushes through some regions and dawdles
+ * through others, so it needs more frames before each step is too small to see.
+ *
+ * A fade either runs straight through OKLab, passing paler colours between distant hues, or
+ * turns through OKLCH, changing chroma evenly while the hue angle turns the short way round.
+ * The straight path is the shorter of the two and usually needs the fewest frames.
+ *
+ * Each step looks the device colour up in a table indexed by the OKLCH hue angle and the ratio
+ * of chroma to lightness (see {@link Oklab}), so it costs a few divisions and square roots and
+ * ten table reads. The shared tables are built on first use; {@link #updateDirect} does the full
+ * conversion instead, for comparison.
+ *
+ * Allocation-free after construction. Not thread-safe; the tables are safe to share.
+ */
+public class PerceptualFade {
+
+    /**
+     * hue angle resolution of the table, about 0.7 degrees
+     */
+    static final int HUE_STEPS = 512;
+
+    /**
+     * chroma resolution of the table, from white to the edge of the gamut
+     */
+    static final int CHROMA_STEPS = 64;
+
+    /**
+     * chroma resolution of the table beyond the edge of the gamut, out to {@link #BEYOND_EDGE}
+     * times the edge's chroma
+     */
+    static final int BEYOND_STEPS = 32;
+
+    static final float BEYOND_EDGE = 4;
+
+    private static final int ROW = CHROMA_STEPS + BEYOND_STEPS + 1;
+
+    private static final float TWO_PI = (float) (2 * Math.PI);
+
+    private final float[] lab = new float[3];
+
+    private boolean turning;
+
+    // The straight path, in OKLab
+    private float fromLightness;
+    private float fromA;
+    private float fromB;
+    private float lightnessChange;
+    private float aChange;
+    private float bChange;
+
+    // The turning path, in OKLCH
+    private float fromChroma;
+    private float fromAngle;
+    private float chromaChange;
+    private float angleChange;
+
+    private float sampledHue;
+    private float sampledSaturation;
+
+    private int hue;
+    private int saturation;
+
+    /**
+     * Starts a fade.
+     *
+     * @param fromHue        the starting hue, 0-359
+     * @param fromSaturation the starting saturation, 0-255
+     * @param toHue          the final hue, 0-359
+     * @param toSaturation   the final saturation, 0-255
+     * @param turning        true to turn through OKLCH, false to run straight through OKLab
+     */
+    public void start(int fromHue, int fromSaturation, int toHue, int toSaturation, boolean turning) {
+        Oklab.fromDevice(fromHue, fromSaturation, this.lab);
+        float fromLightness = this.lab[0];
+        float fromA = this.lab[1];
+        float fromB = this.lab[2];
+        Oklab.fromDevice(toHue, toSaturation, this.lab);
+
+        this.turning = turning;
+        this.fromLightness = fromLightness;
+        this.fromA = fromA;
+        this.fromB = fromB;
+        this.lightnessChange = this.lab[0] - fromLightness;
+        this.aChange = this.lab[1] - fromA;
+        this.bChange = this.lab[2] - fromB;
+
+        float fromChroma = (float) Math.hypot(fromA, fromB);
+        float fromAngle = (float) Math.atan2(fromB, fromA);
+        float toChroma = (float) Math.hypot(this.lab[1], this.lab[2]);
+        float toAngle = (float) Math.atan2(this.lab[2], this.lab[1]);
+
+        // White has no hue; take the other end's so the fade only changes chroma
+        if (fromSaturation == 0) {
+            fromAngle = toAngle;
+        } else if (toSaturation == 0) {
+            toAngle = fromAngle;
+        }
+
+        float turn = toAngle - fromAngle;
+        if (turn > Math.PI) {
+            turn -= TWO_PI;
+        } else if (turn < -Math.PI) {
+            turn += TWO_PI;
+        }
+
+        this.fromChroma = fromChroma;
+        this.fromAngle = fromAngle;
+        this.chromaChange = toChroma - fromChroma;
+        this.angleChange = turn;
+        this.hue = fromHue;
+        this.saturation = fromSaturation;
+    }
+
+    /**
+     * Moves to a point of the fade.
+     *
+     * @param progress the fraction of the fade done, 0-1
+     */
+    public void update(float progress) {
+        float lightness = this.fromLightness + this.lightnessChange * progress;
+        float chroma;
+        float angle;
+        if (this.turning) {
+            chroma = this.fromChroma + this.chromaChange * progress;
+            angle = this.fromAngle + this.angleChange * progress;
+        } else {
+            float a = this.fromA + this.aChange * progress;
+            float b = this.fromB + this.bChange * progress;
+            chroma = (float) Math.sqrt(a * a + b * b);
+            angle = atan2(b, a);
+        }
+
+        // Interpolate between the two nearest hue angles; near the corners of the gamut the
+        // light's hue moves several degrees for each of them
+        float bin = angle * (HUE_STEPS / TWO_PI);
+        int lower = (int) Math.floor(bin);
+        float across = bin - lower;
+        float ratio = chroma / lightness;
+
+        this.sample(lower & (HUE_STEPS - 1), ratio);
+        float lowerHue = this.sampledHue;
+        float lowerSaturation = this.sampledSaturation;
+        this.sample((lower + 1) & (HUE_STEPS - 1), ratio);
+
+        this.hue = wrap(Math.round(lowerHue + shortWay(this.sampledHue - lowerHue) * across));
+        this.saturation = Math.round(lowerSaturation + (this.sampledSaturation - lowerSaturation) * across);
+    }
+
+    /**
+     * Moves to a point of the fade, converting the colour in full rather than looking it up.
+     *
+     * @param progress the fraction of the fade done, 0-1
+     */
+    public void updateDirect(float progress) {
+        float lightness = this.fromLightness + this.lightnessChange * progress;
+        float a;
+        float b;
+        if (this.turning) {
+            float chroma = this.fromChroma + this.chromaChange * progress;
+            float angle = this.fromAngle + this.angleChange * progress;
+            a = chroma * (float) Math.cos(angle);
+            b = chroma * (float) Math.sin(angle);
+        } else {
+            a = this.fromA + this.aChange * progress;
+            b = this.fromB + this.bChange * progress;
+        }
+
+        int device = Oklab.toDevice(lightness, a, b);
+        this.hue = Oklab.hueOf(device);
+        this.saturation = Oklab.saturationOf(device);
+    }
+
+    public int getHue() {
+        return this.hue;
+    }
+
+    public int getSaturation() {
+        return this.saturation;
+    }
+
+    /**
+     * Looks up the colour at a chroma ratio along one hue angle of the table, interpolating
+     * between the two nearest cells.
+     */
+    private void sample(int hueIndex, float ratio) {
+        float toEdge = ratio / Tables.EDGES[hueIndex];
+        float position = toEdge < 1
+                ? (1 - (float) Math.sqrt(1 - toEdge)) * CHROMA_STEPS
+                : CHROMA_STEPS + (toEdge - 1) * (BEYOND_STEPS / (BEYOND_EDGE - 1));
+        int chromaIndex = Math.min(ROW - 2, (int) position);
+        int index = hueIndex * ROW + chromaIndex;
+        float fraction = Math.min(1, position - chromaIndex);
+
+        int innerHue = Tables.HUES[index];
+        this.sampledHue = innerHue + shortWay(Tables.HUES[index + 1] - innerHue) * fraction;
+        int innerSaturation = Tables.SATURATIONS[index] & 0xFF;
+        int outerSaturation = Tables.SATURATIONS[index + 1] & 0xFF;
+        this.sampledSaturation = innerSaturation + (outerSaturation - innerSaturation) * fraction;
+    }
+
+    /**
+     * Approximates {@link Math#atan2} to within a quarter of a degree, well inside a table step,
+     * at a fraction of its cost.
+     */
+    private static float atan2(float y, float x) {
+        float absX = Math.abs(x);
+        float absY = Math.abs(y);
+        if (absX == 0 && absY == 0) {
+            return 0;
+        }
+
+        float ratio = Math.min(absX, absY) / Math.max(absX, absY);
+        float angle = ratio * ((float) (Math.PI / 4) + 0.273f * (1 - ratio));
+        if (absY > absX) {
+            angle = (float) (Math.PI / 2) - angle;
+        }
+        if (x < 0) {
+            angle = (float) Math.PI - angle;
+        }
+        return y < 0 ? -angle : angle;
+    }
+
+    private static float shortWay(float hueDelta) {
+        if (hueDelta > 180) {
+            return hueDelta - 360;
+        } else if (hueDelta < -180) {
+            return hueDelta + 360;
+        }
+        return hueDelta;
+    }
+
+    private static int wrap(int hue) {
+        return hue < 0 ? hue + 360 : hue % 360;
+    }
+
+    /**
+     * The device colour for each table cell, built on first use.
+     *
+     * Each hue angle has its own gamut edge, the chroma ratio at which the colour reaches full
+     * saturation; cyan gets there at a third of the chroma blue does. Within a hue, the cells
+     * crowd towards the edge, where saturation climbs steeply as the weakest channel nears zero
+     * under the sRGB curve: cell {@code j} sits at {@code 1 - (1 - j / CHROMA_STEPS)^2} of the
+     * way to the edge. Fades between colours inside the gamut can still pass beyond it, around
+     * cyan in particular, so further cells step on past the edge, where the colour clips channel
+     * by channel as {@link Oklab#toDevice} does.
+     */
+    private static final class Tables {
+
+        static final float[] EDGES = new float[HUE_STEPS];
+        static final short[] HUES = new short[HUE_STEPS * ROW];
+        static final byte[] SATURATIONS = new byte[HUE_STEPS * ROW];
+
+        static {
+            for (int i = 0; i < HUE_STEPS; i++) {
+                double angle = i * 2 * Math.PI / HUE_STEPS;
+                float cos = (float) Math.cos(angle);
+                float sin = (float) Math.sin(angle);
+
+                float inside = 0;
+                float outside = 1;
+                for (int step = 0; step < 24; step++) {
+                    float ratio = (inside + outside) / 2;
+                    if (Oklab.saturationOf(Oklab.toDevice(1, ratio * cos, ratio * sin)) < 255) {
+                        inside = ratio;
+                    } else {
+                        outside = ratio;
+                    }
+                }
+                EDGES[i] = outside;
+
+                for (int j = ROW - 1; j >= 0; j--) {
+                    float fromEdge = (float) (CHROMA_STEPS - j) / CHROMA_STEPS;
+                    float ratio = j <= CHROMA_STEPS
+                            ? (1 - fromEdge * fromEdge) * outside
+                            : (1 + (BEYOND_EDGE - 1) * (j - CHROMA_STEPS) / BEYOND_STEPS) * outside;
+                    int device = Oklab.toDevice(1, ratio * cos, ratio * sin);
+                    int cell = i * ROW + j;
+                    // White has no hue of its own; keep the one next to it
+                    HUES[cell] = j > 0 ? (short) Oklab.hueOf(device) : HUES[cell + 1];
+                    SATURATIONS[cell] = (byte) Oklab.saturationOf(device);
+                }
+            }
+        }
+    }
+}
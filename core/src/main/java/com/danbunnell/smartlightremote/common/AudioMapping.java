@@ -0,0 +1,52 @@
+package com.danbunnell.smartlightremote.common;
+
+/**
+ * Maps audio features onto the light's hue and saturation ranges
+ */
+public final class AudioMapping {
+
+    /**
+     * hue offset, either side of the beat hue, that the spectral centroid spans
+     */
+    public static final int HUE_SWING = 30;
+
+    /**
+     * levels at or below this are drawn as white
+     */
+    public static final float QUIET_DB = -60;
+
+    /**
+     * levels at or above this are drawn at full saturation
+     */
+    public static final float LOUD_DB = -15;
+
+    public static final int MAX_SATURATION = 255;
+
+    private AudioMapping() {
+    }
+
+    /**
+     * Offsets the hue chosen by the beat by the spectral centroid: bass-heavy passages lean
+     * one way around the wheel, bright ones the other.
+     *
+     * @param beatHue  the hue for the current beat, 0-359
+     * @param centroid the spectral centroid, 0-1
+     * @return         a hue, 0-359
+     */
+    public static int toHue(int beatHue, float centroid) {
+        float clamped = Math.max(0f, Math.min(1f, centroid));
+        int hue = beatHue + Math.round((clamped * 2f - 1f) * HUE_SWING);
+        return (hue % 360 + 360) % 360;
+    }
+
+    /**
+     * Maps loudness to a saturation, so that colour swells with the music.
+     *
+     * @param levelDb the level in dB
+     * @return        a saturation, 0-255
+     */
+    public static int toSaturation(float levelDb) {
+        float fraction = (levelDb - QUIET_DB) / (LOUD_DB - QUIET_DB);
+        return Math.round(Math.max(0f, Math.min(1f, fraction)) * MAX_SATURATION);
+    }
+}
@@ -0,0 +1,157 @@
+package com.danbunnell.smartlightremote.common;
+
+import java.util.Arrays;
+
+/**
+ * An anti-aliased decimator: a linear-phase low-pass FIR evaluated once per output.
+ *
+ * The taps are a Hamming-windowed sinc with its stopband starting at the output Nyquist
+ * frequency, so motion faster than the output rate can carry is removed rather than folded
+ * back as slow, spurious hue changes. Only every factor-th input is filtered, which is the
+ * polyphase decimator's cost of length / factor multiply-adds per input. History is kept twice
+ * over in one array so each output is a single contiguous dot product.
+ *
+ * Allocation-free after construction. Not thread-safe.
+ */
+public class DecimatingFilter implements MultiRateFilter {
+
+    private final SignalFilter upstream;
+    private final int factor;
+    private final float[] taps;
+    private final float[] history;
+
+    private boolean primed;
+    private int position;
+    private int phase;
+    private float output;
+    private boolean outputReady;
+
+    /**
+     * Initializes a new instance of the {@link DecimatingFilter} class.
+     *
+     * @param factor       the number of inputs per output
+     * @param tapsPerPhase filter length per output; longer filters reject aliases better but
+     *                     add delay
+     */
+    public DecimatingFilter(int factor, int tapsPerPhase) {
+        this(null, factor, tapsPerPhase);
+    }
+
+    /**
+     * Initializes a new instance of the {@link DecimatingFilter} class.
+     *
+     * @param upstream     a filter applied at the input rate first, or null
+     * @param factor       the number of inputs per output
+     * @param tapsPerPhase filter length per output; longer filters reject aliases better but
+     *                     add delay
+     */
+    public DecimatingFilter(SignalFilter upstream, int factor, int tapsPerPhase) {
+        if (factor < 1 || tapsPerPhase < 1) {
+            throw new IllegalArgumentException("factor and taps per phase must be positive");
+        }
+
+        this.upstream = upstream;
+        this.factor = factor;
+        this.taps = design(factor, factor * tapsPerPhase);
+        this.history = new float[2 * this.taps.length];
+    }
+
+    /**
+     * Chooses the decimation factor closest to a pair of rates.
+     *
+     * @param inputHz  the input sample rate
+     * @param outputHz the desired output rate
+     * @return         the factor, at least 1
+     */
+    public static int factorFor(float inputHz, float outputHz) {
+        return Math.max(1, Math.round(inputHz / outputHz));
+    }
+
+    /**
+     * Filters a signal
+     * @param vector the vector to filter
+     * @return       the latest output
+     */
+    @Override
+    public float filter(float vector) {
+        if (this.upstream != null) {
+            vector = this.upstream.filter(vector);
+        }
+
+        int length = this.taps.length;
+        if (!this.primed) {
+            // Start from a settled state rather than ramping up from zero
+            Arrays.fill(this.history, vector);
+            this.output = vector;
+            this.primed = true;
+        }
+
+        this.history[this.position] = vector;
+        this.history[this.position + length] = vector;
+        this.position = this.position + 1 == length ? 0 : this.position + 1;
+
+        if (++this.phase < this.factor) {
+            this.outputReady = false;
+            return this.output;
+        }
+
+        // The taps are symmetric, so the oldest-to-newest order needs no reversal
+        float sum = 0;
+        for (int i = 0, j = this.position; i < length; i++, j++) {
+            sum += this.taps[i] * this.history[j];
+        }
+
+        this.phase = 0;
+        this.output = sum;
+        this.outputReady = true;
+        return sum;
+    }
+
+    @Override
+    public boolean isOutputReady() {
+        return this.outputReady;
+    }
+
+    public int getFactor() {
+        return this.factor;
+    }
+
+    /**
+     * Gets the delay the filter adds, excluding any upstream filter.
+     *
+     * @return the delay in input samples
+     */
+    public float getDelaySamples() {
+        return (this.taps.length - 1) / 2f;
+    }
+
+    /**
+     * Designs a unity-gain low-pass whose transition band ends at the output Nyquist frequency.
+     *
+     * @param factor the decimation factor
+     * @param length the number of taps
+     * @return       the taps
+     */
+    private static float[] design(int factor, int length) {
+        float[] taps = new float[length];
+
+        // A Hamming window's transition band is about 3.3 / length wide
+        double cutoff = Math.max(0.5 / factor - 1.65 / length, 0.25 / factor);
+        double center = (length - 1) / 2.0;
+        double sum = 0;
+
+        for (int n = 0; n < length; n++) {
+            double x = n - center;
+            double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+            double window = length == 1 ? 1 : 0.54 - 0.46 * Math.cos(2 * Math.PI * n / (length - 1));
+            taps[n] = (float) (sinc * window);
+            sum += taps[n];
+        }
+
+        for (int n = 0; n < length; n++) {
+            taps[n] = (float) (taps[n] / sum);
+        }
+
+        return taps;
+    }
+}
@@ -0,0 +1,87 @@
+package com.danbunnell.smartlightremote.common;
+
+/**
+ * Q16.16 fixed-point arithmetic: 16 integer bits, sign included, and 16 fraction bits in an int.
+ *
+ * Results depend only on integer operations, so they are identical on every device.
+ */
+public final class FixedPoint {
+
+    public static final int FRACTION_BITS = 16;
+
+    public static final int ONE = 1 << FRACTION_BITS;
+
+    /**
+     * the largest value whose square fits in a long
+     */
+    private static final long MAX_LONG_ROOT = 3037000499L;
+
+    private FixedPoint() {
+    }
+
+    /**
+     * Converts a float, rounding to the nearest representable value.
+     *
+     * @param value a value within +/-32768
+     * @return      the Q16.16 value
+     */
+    public static int fromFloat(float value) {
+        return Math.round(value * ONE);
+    }
+
+    /**
+     * Converts to a float.
+     *
+     * @param value a Q16.16 value
+     * @return      the float value
+     */
+    public static float toFloat(int value) {
+        return value / (float) ONE;
+    }
+
+    /**
+     * Multiplies two values, truncating towards negative infinity.
+     *
+     * @param a a Q16.16 value
+     * @param b a Q16.16 value
+     * @return  the Q16.16 product
+     */
+    public static int multiply(int a, int b) {
+        return (int) (((long) a * b) >> FRACTION_BITS);
+    }
+
+    /**
+     * Gets the magnitude of a vector, rounded down.
+     *
+     * @param x a Q16.16 component
+     * @param y a Q16.16 component
+     * @param z a Q16.16 component
+     * @return  the Q16.16 magnitude
+     */
+    public static int magnitude(int x, int y, int z) {
+        // The squares are Q32.32, whose square root is Q16.16
+        return (int) sqrt((long) x * x + (long) y * y + (long) z * z);
+    }
+
+    /**
+     * Gets the integer square root of a non-negative value, rounded down.
+     *
+     * @param value a non-negative value
+     * @return      the largest integer whose square does not exceed the value
+     */
+    public static long sqrt(long value) {
+        // The hardware estimate is only a starting point; the integer checks make the result
+        // exact, so it does not depend on the device's floating point
+        long root = (long) Math.sqrt((double) value);
+
+        while (root * root > value) {
+            root--;
+        }
+
+        while (root < MAX_LONG_ROOT && (root + 1) * (root + 1) <= value) {
+            root++;
+        }
+
+        return root;
+    }
+}
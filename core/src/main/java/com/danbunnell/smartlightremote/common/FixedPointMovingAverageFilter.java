@@ -0,0 +1,53 @@
+package com.danbunnell.smartlightremote.common;
+
+/**
+ * A moving-average signal filtering strategy in Q16.16 fixed point.
+ *
+ * Matches {@link MovingAverageFilter}, including its start from an all-zero window, but keeps
+ * a running sum, so each sample costs the same whatever the window size. The average is
+ * rounded down, so the same inputs give the same outputs on every device.
+ */
+public class FixedPointMovingAverageFilter implements SignalFilter {
+    private final int windowSize;
+    private final int[] window;
+    private int nextIndex;
+    private long sum;
+
+    /**
+     * Initializes an instance of the {@link FixedPointMovingAverageFilter} class
+     *
+     * @param windowSize the number of samples averaged
+     */
+    public FixedPointMovingAverageFilter(int windowSize) {
+        this.windowSize = windowSize;
+        this.window = new int[windowSize];
+    }
+
+    /**
+     * Filters a signal
+     * @param vector the vector to filter
+     * @return       the filtered vector
+     */
+    @Override
+    public float filter(float vector) {
+        return FixedPoint.toFloat(this.filterFixed(FixedPoint.fromFloat(vector)));
+    }
+
+    /**
+     * Filters a fixed-point signal
+     * @param vector the Q16.16 vector to filter
+     * @return       the Q16.16 filtered vector
+     */
+    public int filterFixed(int vector) {
+        this.sum += vector - this.window[this.nextIndex];
+        this.window[this.nextIndex] = vector;
+        this.nextIndex = this.nextIndex + 1 == this.windowSize ? 0 : this.nextIndex + 1;
+
+        long average = this.sum / this.windowSize;
+        if (this.sum < 0 && average * this.windowSize != this.sum) {
+            average--;
+        }
+
+        return (int) average;
+    }
+}
@@ -0,0 +1,40 @@
+package com.danbunnell.smartlightremote.common;
+
+/**
+ * Maps filtered motion magnitudes onto the light's hue range
+ */
+public final class HueMapping {
+
+    /**
+     * magnitude that maps to the top of the hue range
+     */
+    public static final float MAX_MAGNITUDE = 30;
+
+    private static final int MAX_MAGNITUDE_FIXED = (int) MAX_MAGNITUDE << FixedPoint.FRACTION_BITS;
+
+    public static final int MAX_HUE = 359;
+
+    private HueMapping() {
+    }
+
+    /**
+     * Maps a magnitude to a hue, saturating at {@link #MAX_MAGNITUDE}.
+     *
+     * @param magnitude a filtered accelerometer magnitude
+     * @return          a hue, 0-359
+     */
+    public static int fromMagnitude(float magnitude) {
+        return (int) ((Math.min(MAX_MAGNITUDE, magnitude) / MAX_MAGNITUDE) * MAX_HUE);
+    }
+
+    /**
+     * Maps a Q16.16 magnitude to a hue with integer arithmetic only.
+     *
+     * @param magnitude a filtered accelerometer magnitude in Q16.16
+     * @return          a hue, 0-359
+     */
+    public static int fromMagnitudeFixed(int magnitude) {
+        long clamped = Math.max(0, Math.min(MAX_MAGNITUDE_FIXED, magnitude));
+        return (int) (clamped * MAX_HUE / MAX_MAGNITUDE_FIXED);
+    }
+}
@@ -0,0 +1,14 @@
+package com.danbunnell.smartlightremote.common;
+
+/**
+ * A signal filter that produces fewer outputs than it consumes inputs
+ */
+public interface MultiRateFilter extends SignalFilter {
+    /**
+     * Checks whether the last call to {@link #filter} produced a new output. Between outputs,
+     * filter returns the previous output.
+     *
+     * @return true if the last input completed an output
+     */
+    boolean isOutputReady();
+}
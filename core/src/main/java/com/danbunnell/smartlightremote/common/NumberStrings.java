@@ -0,0 +1,88 @@
+package com.danbunnell.smartlightremote.common;
+
+/**
+ * Cached decimal strings for the small integers shown in the UI
+ */
+public final class NumberStrings {
+
+    /**
+     * covers hue (0-359) and saturation (0-255)
+     */
+    private static final int CACHE_SIZE = 360;
+
+    private static final String[] CACHE = new String[CACHE_SIZE];
+
+    static {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            CACHE[i] = String.valueOf(i);
+        }
+    }
+
+    private NumberStrings() {
+    }
+
+    /**
+     * Gets the decimal string for a value, without allocating for cached values.
+     *
+     * @param value a value
+     * @return      its decimal representation
+     */
+    public static String valueOf(int value) {
+        if (value >= 0 && value < CACHE_SIZE) {
+            return CACHE[value];
+        }
+
+        return String.valueOf(value);
+    }
+
+    /**
+     * Writes a value with a fixed number of decimals into a buffer, without allocating.
+     *
+     * @param out      buffer receiving the characters
+     * @param offset   offset of the first character
+     * @param value    a value
+     * @param decimals the number of decimals
+     * @return         the offset after the last character written
+     */
+    public static int appendFixed(char[] out, int offset, float value, int decimals) {
+        if (value < 0) {
+            out[offset++] = '-';
+            value = -value;
+        }
+
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) {
+            scale *= 10;
+        }
+        long scaled = Math.round((double) value * scale);
+
+        offset = appendLong(out, offset, scaled / scale);
+        if (decimals > 0) {
+            out[offset++] = '.';
+            long fraction = scaled % scale;
+            for (int i = offset + decimals - 1; i >= offset; i--) {
+                out[i] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            offset += decimals;
+        }
+
+        return offset;
+    }
+
+    /**
+     * Writes the digits of a non-negative value.
+     */
+    private static int appendLong(char[] out, int offset, long value) {
+        int digits = 1;
+        for (long rest = value; rest >= 10; rest /= 10) {
+            digits++;
+        }
+
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + digits;
+    }
+}
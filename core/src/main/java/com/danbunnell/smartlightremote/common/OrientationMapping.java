@@ -0,0 +1,49 @@
+package com.danbunnell.smartlightremote.common;
+
+/**
+ * Maps device orientation onto the light's hue and saturation ranges
+ */
+public final class OrientationMapping {
+
+    /**
+     * roll, either side of level, that spans the hue range
+     */
+    public static final float MAX_ROLL_DEGREES = 90;
+
+    /**
+     * pitch, either side of level, that spans the saturation range
+     */
+    public static final float MAX_PITCH_DEGREES = 60;
+
+    public static final int MAX_SATURATION = 255;
+
+    private OrientationMapping() {
+    }
+
+    /**
+     * Maps roll to a hue, so that level is the middle of the range.
+     *
+     * @param rollDegrees the roll in degrees
+     * @return            a hue, 0-359
+     */
+    public static int toHue(float rollDegrees) {
+        return (int) (clamp(rollDegrees / MAX_ROLL_DEGREES) * HueMapping.MAX_HUE);
+    }
+
+    /**
+     * Maps pitch to a saturation; raising the top edge saturates the colour.
+     *
+     * @param pitchDegrees the pitch in degrees
+     * @return             a saturation, 0-255
+     */
+    public static int toSaturation(float pitchDegrees) {
+        return (int) (clamp(pitchDegrees / MAX_PITCH_DEGREES) * MAX_SATURATION);
+    }
+
+    /**
+     * Maps -1..1 to 0..1, saturating at both ends.
+     */
+    private static float clamp(float value) {
+        return Math.max(0f, Math.min(1f, (value + 1f) / 2f));
+    }
+}
@@ -0,0 +1,189 @@
+package com.danbunnell.smartlightremote.common;
+
+/**
+ * Makes up for the lag of the filters before it, and of the link after it, by projecting
+ * their output forward in time.
+ *
+ * An alpha-beta tracker follows the upstream filter's outputs, estimating the signal's level
+ * and rate of change, and each output is the level projected over the horizon at that rate.
+ * A smoothed signal's rate keeps pointing the old way for as long as the filters lag, so the
+ * projection overshoots whenever the motion turns. The raw inputs are ahead of the filtered
+ * signal and bound where it is heading, so the projection is held within the range of the raw
+ * inputs over the last horizon, widened by an overshoot allowance. The limit only ever takes
+ * lead away; it never moves the output beyond the tracked level.
+ *
+ * Allocation-free after construction. Not thread-safe.
+ */
+public class PredictiveFilter implements MultiRateFilter {
+
+    /**
+     * weight of each new upstream output in the level; the upstream filter has smoothed it
+     * already, so it can be high
+     */
+    public static final float DEFAULT_ALPHA = 0.5f;
+
+    /**
+     * weight of each new upstream output in the rate
+     */
+    public static final float DEFAULT_BETA = 0.1f;
+
+    private final SignalFilter upstream;
+    private final MultiRateFilter multiRateUpstream;
+    private final float inputPeriodMs;
+    private final float alpha;
+    private final float beta;
+
+    // The latest raw inputs, for the overshoot limit
+    private final float[] inputs;
+    private int inputPosition;
+    private int inputCount;
+
+    private float horizonMs;
+    private int envelopeLength;
+    private float overshootLimit = Float.POSITIVE_INFINITY;
+
+    private boolean primed;
+    private int inputsSinceUpdate;
+    private float level;
+    private float ratePerMs;
+    private float output;
+    private boolean outputReady;
+
+    /**
+     * Initializes a new instance of the {@link PredictiveFilter} class with the default gains.
+     *
+     * @param upstream      the filter whose output is projected, or null
+     * @param inputPeriodMs the time between inputs
+     * @param maxHorizonMs  the longest horizon that will be set
+     */
+    public PredictiveFilter(SignalFilter upstream, float inputPeriodMs, float maxHorizonMs) {
+        this(upstream, inputPeriodMs, maxHorizonMs, DEFAULT_ALPHA, DEFAULT_BETA);
+    }
+
+    /**
+     * Initializes a new instance of the {@link PredictiveFilter} class.
+     *
+     * @param upstream      the filter whose output is projected, or null
+     * @param inputPeriodMs the time between inputs
+     * @param maxHorizonMs  the longest horizon that will be set
+     * @param alpha         the tracker's level gain, between 0 and 1
+     * @param beta          the tracker's rate gain, between 0 and 1
+     */
+    public PredictiveFilter(SignalFilter upstream, float inputPeriodMs, float maxHorizonMs,
+                            float alpha, float beta) {
+        if (inputPeriodMs <= 0 || maxHorizonMs < 0) {
+            throw new IllegalArgumentException("input period must be positive and horizon not negative");
+        }
+
+        this.upstream = upstream;
+        this.multiRateUpstream = upstream instanceof MultiRateFilter ? (MultiRateFilter) upstream : null;
+        this.inputPeriodMs = inputPeriodMs;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.inputs = new float[Math.max(1, (int) Math.ceil(maxHorizonMs / inputPeriodMs))];
+    }
+
+    /**
+     * Sets how far ahead to project, e.g. the upstream filter's delay plus the measured link
+     * latency.
+     *
+     * @param horizonMs the horizon, clamped to the maximum given at construction; 0 disables
+     *                  prediction
+     */
+    public void setHorizonMs(float horizonMs) {
+        int length = Math.min(this.inputs.length, Math.max(1, Math.round(horizonMs / this.inputPeriodMs)));
+        this.horizonMs = Math.max(0, Math.min(horizonMs, this.inputs.length * this.inputPeriodMs));
+        this.envelopeLength = length;
+    }
+
+    public float getHorizonMs() {
+        return this.horizonMs;
+    }
+
+    /**
+     * Sets how far the projection may go beyond the raw inputs seen over the last horizon.
+     *
+     * @param overshootLimit the allowance in signal units, or infinity for no limit
+     */
+    public void setOvershootLimit(float overshootLimit) {
+        this.overshootLimit = overshootLimit;
+    }
+
+    public float getOvershootLimit() {
+        return this.overshootLimit;
+    }
+
+    /**
+     * Filters a signal
+     * @param vector the vector to filter
+     * @return       the latest output
+     */
+    @Override
+    public float filter(float vector) {
+        this.inputs[this.inputPosition] = vector;
+        this.inputPosition = this.inputPosition + 1 == this.inputs.length ? 0 : this.inputPosition + 1;
+        this.inputCount = Math.min(this.inputCount + 1, this.inputs.length);
+        this.inputsSinceUpdate++;
+
+        float filtered = this.upstream == null ? vector : this.upstream.filter(vector);
+        if (this.multiRateUpstream != null && !this.multiRateUpstream.isOutputReady()) {
+            this.outputReady = false;
+            return this.output;
+        }
+
+        float elapsedMs = this.inputsSinceUpdate * this.inputPeriodMs;
+        this.inputsSinceUpdate = 0;
+        if (!this.primed) {
+            this.level = filtered;
+            this.ratePerMs = 0;
+            this.primed = true;
+        } else {
+            float predicted = this.level + this.ratePerMs * elapsedMs;
+            float residual = filtered - predicted;
+            this.level = predicted + this.alpha * residual;
+            this.ratePerMs += this.beta * residual / elapsedMs;
+        }
+
+        this.output = this.limit(this.level + this.ratePerMs * this.horizonMs);
+        this.outputReady = true;
+        return this.output;
+    }
+
+    @Override
+    public boolean isOutputReady() {
+        return this.outputReady;
+    }
+
+    /**
+     * Gets the tracked level, before projection.
+     *
+     * @return the level
+     */
+    public float getLevel() {
+        return this.level;
+    }
+
+    /**
+     * Holds a projection within the raw inputs of the last horizon plus the allowance.
+     */
+    private float limit(float projected) {
+        if (this.overshootLimit == Float.POSITIVE_INFINITY) {
+            return projected;
+        }
+
+        int count = Math.min(this.inputCount, this.envelopeLength);
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = 0, j = this.inputPosition - 1; i < count; i++, j--) {
+            if (j < 0) {
+                j += this.inputs.length;
+            }
+            min = Math.min(min, this.inputs[j]);
+            max = Math.max(max, this.inputs[j]);
+        }
+
+        float low = Math.min(this.level, min - this.overshootLimit);
+        float high = Math.max(this.level, max + this.overshootLimit);
+        return Math.max(low, Math.min(high, projected));
+    }
+}
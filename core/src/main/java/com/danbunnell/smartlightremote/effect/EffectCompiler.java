@@ -0,0 +1,301 @@
+package com.danbunnell.smartlightremote.effect;
+
+import com.danbunnell.smartlightremote.color.PerceptualFade;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+
+/**
+ * Compiles effects into {@link EffectProgram} bytecode, either step by step or from source
+ * text such as:
+ *
+ * <pre>
+ * loop forever
+ *   fade 0 255 1000 in-out
+ *   hold 250
+ *   fade 240 200 1000 perceptual
+ * end
+ * </pre>
+ *
+ * Statements are {@code fade HUE SATURATION MS [linear|in|out|in-out|step] [perceptual]},
+ * {@code hold MS}, {@code loop COUNT|forever} and {@code end}; {@code #} starts a comment.
+ * A perceptual fade is compiled by {@link #perceptualKeyframe}.
+ */
+public class EffectCompiler {
+
+    private static final String[] EASING_NAMES = { "linear", "in", "out", "in-out", "step" };
+
+    /**
+     * most keyframes a perceptual fade is split into
+     */
+    private static final int PERCEPTUAL_SEGMENTS = 8;
+
+    /**
+     * shortest keyframe of a perceptual fade, so short fades are not split for nothing
+     */
+    private static final int MIN_SEGMENT_MS = 50;
+
+    private final ByteArrayOutputStream program = new ByteArrayOutputStream();
+    private int depth;
+
+    // The colour the light has when the next step starts, if known at compile time
+    private boolean colorKnown;
+    private int lastHue;
+    private int lastSaturation;
+    private PerceptualFade fade;
+
+    /**
+     * Initializes a new instance of the {@link EffectCompiler} class.
+     */
+    public EffectCompiler() {
+        this.program.write(EffectProgram.FORMAT_VERSION);
+    }
+
+    /**
+     * Compiles effect source text.
+     *
+     * @param source the source text
+     * @return       the program
+     * @throws IllegalArgumentException if the source is not a valid effect
+     */
+    public static byte[] compile(String source) {
+        EffectCompiler compiler = new EffectCompiler();
+        String[] lines = source.split("\n");
+
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+
+            String[] tokens = line.trim().toLowerCase(Locale.ENGLISH).split("\\s+");
+            if (tokens[0].isEmpty()) {
+                continue;
+            }
+
+            try {
+                compiler.statement(tokens);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+
+        return compiler.compile();
+    }
+
+    /**
+     * Moves to a colour.
+     *
+     * @param hue        the target hue, 0-359
+     * @param saturation the target saturation, 0-255
+     * @param durationMs the time the move takes
+     * @param easing     one of the EffectProgram.EASING_* constants
+     * @return           this compiler
+     */
+    public EffectCompiler keyframe(int hue, int saturation, int durationMs, int easing) {
+        checkRange("hue", hue, 359);
+        checkRange("saturation", saturation, 255);
+        checkRange("duration", durationMs, EffectProgram.MAX_DURATION_MS);
+        checkRange("easing", easing, EffectProgram.EASING_STEP);
+
+        this.program.write(EffectProgram.OP_KEYFRAME);
+        this.writeWord(hue);
+        this.program.write(saturation);
+        this.writeWord(durationMs);
+        this.program.write(easing);
+
+        this.colorKnown = true;
+        this.lastHue = hue;
+        this.lastSaturation = saturation;
+        return this;
+    }
+
+    /**
+     * Moves to a colour along a {@link PerceptualFade} turning through OKLCH, so the colour
+     * changes evenly instead of rushing through some hues, as a run of keyframes the light
+     * follows in turn. The easing is applied across the whole run.
+     *
+     * The starting colour has to be known at compile time, so at the start of the program or of
+     * a loop this compiles to a single keyframe, as does a step change.
+     *
+     * @param hue        the target hue, 0-359
+     * @param saturation the target saturation, 0-255
+     * @param durationMs the time the move takes
+     * @param easing     one of the EffectProgram.EASING_* constants
+     * @return           this compiler
+     */
+    public EffectCompiler perceptualKeyframe(int hue, int saturation, int durationMs, int easing) {
+        checkRange("hue", hue, 359);
+        checkRange("saturation", saturation, 255);
+        checkRange("duration", durationMs, EffectProgram.MAX_DURATION_MS);
+        checkRange("easing", easing, EffectProgram.EASING_STEP);
+
+        int segments = Math.min(PERCEPTUAL_SEGMENTS, durationMs / MIN_SEGMENT_MS);
+        if (!this.colorKnown || easing == EffectProgram.EASING_STEP || segments < 2) {
+            return this.keyframe(hue, saturation, durationMs, easing);
+        }
+
+        if (this.fade == null) {
+            this.fade = new PerceptualFade();
+        }
+        this.fade.start(this.lastHue, this.lastSaturation, hue, saturation, true);
+
+        int startMs = 0;
+        for (int i = 1; i < segments; i++) {
+            int endMs = durationMs * i / segments;
+            int progress = EffectInterpreter.ease(easing, i * EffectInterpreter.ONE / segments);
+            this.fade.update(progress / (float) EffectInterpreter.ONE);
+            this.keyframe(this.fade.getHue(), this.fade.getSaturation(), endMs - startMs,
+                    EffectProgram.EASING_LINEAR);
+            startMs = endMs;
+        }
+
+        return this.keyframe(hue, saturation, durationMs - startMs, EffectProgram.EASING_LINEAR);
+    }
+
+    /**
+     * Keeps the current colour.
+     *
+     * @param durationMs the time to hold
+     * @return           this compiler
+     */
+    public EffectCompiler hold(int durationMs) {
+        checkRange("duration", durationMs, EffectProgram.MAX_DURATION_MS);
+
+        this.program.write(EffectProgram.OP_HOLD);
+        this.writeWord(durationMs);
+        return this;
+    }
+
+    /**
+     * Starts a loop, ended by {@link #endLoop}.
+     *
+     * @param count the number of repetitions, 1-255, or 0 to repeat forever
+     * @return      this compiler
+     */
+    public EffectCompiler loop(int count) {
+        checkRange("loop count", count, 255);
+        if (this.depth == EffectProgram.MAX_LOOP_DEPTH) {
+            throw new IllegalStateException("loops nested deeper than " + EffectProgram.MAX_LOOP_DEPTH);
+        }
+
+        this.program.write(EffectProgram.OP_LOOP);
+        this.program.write(count);
+        this.depth++;
+
+        // Later iterations start from the colour the loop ends on
+        this.colorKnown = false;
+        return this;
+    }
+
+    /**
+     * Ends the innermost loop.
+     *
+     * @return this compiler
+     */
+    public EffectCompiler endLoop() {
+        if (this.depth == 0) {
+            throw new IllegalStateException("end without loop");
+        }
+
+        this.program.write(EffectProgram.OP_END_LOOP);
+        this.depth--;
+        this.colorKnown = false;
+        return this;
+    }
+
+    /**
+     * Finishes the program.
+     *
+     * @return the validated program
+     * @throws IllegalStateException if the program is incomplete or invalid
+     */
+    public byte[] compile() {
+        if (this.depth != 0) {
+            throw new IllegalStateException("unterminated loop");
+        }
+
+        ByteArrayOutputStream finished = new ByteArrayOutputStream();
+        finished.write(this.program.toByteArray(), 0, this.program.size());
+        finished.write(EffectProgram.OP_END);
+        byte[] bytes = finished.toByteArray();
+
+        String error = EffectProgram.validate(bytes, bytes.length);
+        if (error != null) {
+            throw new IllegalStateException(error);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Compiles one statement of source text.
+     */
+    private void statement(String[] tokens) {
+        String keyword = tokens[0];
+
+        boolean perceptual = tokens[tokens.length - 1].equals("perceptual");
+        int length = perceptual ? tokens.length - 1 : tokens.length;
+
+        if (keyword.equals("fade") && (length == 4 || length == 5)) {
+            int easing = EffectProgram.EASING_LINEAR;
+            if (length == 5) {
+                easing = easingFromName(tokens[4]);
+            }
+            if (perceptual) {
+                this.perceptualKeyframe(parse(tokens[1]), parse(tokens[2]), parse(tokens[3]), easing);
+            } else {
+                this.keyframe(parse(tokens[1]), parse(tokens[2]), parse(tokens[3]), easing);
+            }
+        } else if (keyword.equals("hold") && tokens.length == 2) {
+            this.hold(parse(tokens[1]));
+        } else if (keyword.equals("loop") && tokens.length == 2) {
+            this.loop(tokens[1].equals("forever") ? 0 : parse(tokens[1]));
+        } else if (keyword.equals("end") && tokens.length == 1) {
+            this.endLoop();
+        } else {
+            throw new IllegalArgumentException("cannot parse '" + joinTokens(tokens) + "'");
+        }
+    }
+
+    private void writeWord(int value) {
+        this.program.write(value >> 8);
+        this.program.write(value);
+    }
+
+    private static int easingFromName(String name) {
+        for (int i = 0; i < EASING_NAMES.length; i++) {
+            if (EASING_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException("unknown easing '" + name + "'");
+    }
+
+    private static int parse(String token) {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("expected a number, found '" + token + "'");
+        }
+    }
+
+    private static void checkRange(String name, int value, int max) {
+        if (value < 0 || value > max) {
+            throw new IllegalArgumentException(name + " " + value + " outside 0-" + max);
+        }
+    }
+
+    private static String joinTokens(String[] tokens) {
+        StringBuilder joined = new StringBuilder();
+        for (String token : tokens) {
+            if (joined.length() > 0) {
+                joined.append(' ');
+            }
+            joined.append(token);
+        }
+        return joined.toString();
+    }
+}
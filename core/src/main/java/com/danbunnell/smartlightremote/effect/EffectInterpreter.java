@@ -0,0 +1,216 @@
+package com.danbunnell.smartlightremote.effect;
+
+/**
+ * Plays {@link EffectProgram} bytecode. This is the reference for the firmware interpreter,
+ * so it uses integer arithmetic only and fixed-size state.
+ *
+ * Each step starts exactly when the previous one ends, so loops do not drift however
+ * irregularly {@link #update} is called. Hue moves the short way around the colour wheel.
+ *
+ * Not thread-safe.
+ */
+public class EffectInterpreter {
+
+    /**
+     * resolution of eased progress
+     */
+    static final int ONE = 1024;
+
+    /**
+     * instructions run per update before the program is considered stuck
+     */
+    private static final int MAX_INSTRUCTIONS_PER_UPDATE = 1024;
+
+    private final byte[] program = new byte[EffectProgram.MAX_PROGRAM_LENGTH];
+    private int programLength;
+
+    private final int[] loopStart = new int[EffectProgram.MAX_LOOP_DEPTH];
+    private final int[] loopRemaining = new int[EffectProgram.MAX_LOOP_DEPTH];
+    private int depth;
+    private int pc;
+    private boolean playing;
+
+    private int fromHue;
+    private int fromSaturation;
+    private int toHue;
+    private int toSaturation;
+    private int easing;
+    private long stepStartMs;
+    private int stepDurationMs;
+
+    private int hue;
+    private int saturation;
+
+    /**
+     * Loads and starts a program from the current colour.
+     *
+     * @param program    the program
+     * @param length     the program length
+     * @param hue        the current hue
+     * @param saturation the current saturation
+     * @param nowMs      the current time in milliseconds
+     * @return           null if the program is playing, otherwise the reason it was rejected
+     */
+    public String start(byte[] program, int length, int hue, int saturation, long nowMs) {
+        String error = EffectProgram.validate(program, length);
+        if (error != null) {
+            return error;
+        }
+
+        System.arraycopy(program, 0, this.program, 0, length);
+        this.programLength = length;
+        this.pc = 1;
+        this.depth = 0;
+        this.hue = this.toHue = hue;
+        this.saturation = this.toSaturation = saturation;
+        this.stepStartMs = nowMs;
+        this.stepDurationMs = 0;
+        this.playing = true;
+        this.update(nowMs);
+        return null;
+    }
+
+    /**
+     * Stops the program, keeping the current colour.
+     */
+    public void stop() {
+        this.playing = false;
+    }
+
+    /**
+     * Advances the program to a point in time.
+     *
+     * @param nowMs the current time in milliseconds
+     * @return      true while the program is playing
+     */
+    public boolean update(long nowMs) {
+        if (!this.playing) {
+            return false;
+        }
+
+        int instructions = 0;
+        while (nowMs >= this.stepStartMs + this.stepDurationMs) {
+            this.hue = this.toHue;
+            this.saturation = this.toSaturation;
+
+            if (!this.nextStep(this.stepStartMs + this.stepDurationMs) || ++instructions > MAX_INSTRUCTIONS_PER_UPDATE) {
+                this.playing = false;
+                return false;
+            }
+        }
+
+        int progress = (int) ((nowMs - this.stepStartMs) * ONE / this.stepDurationMs);
+        int eased = ease(this.easing, progress);
+        this.hue = interpolateHue(this.fromHue, this.toHue, eased);
+        this.saturation = this.fromSaturation + (this.toSaturation - this.fromSaturation) * eased / ONE;
+        return true;
+    }
+
+    public boolean isPlaying() {
+        return this.playing;
+    }
+
+    public int getHue() {
+        return this.hue;
+    }
+
+    public int getSaturation() {
+        return this.saturation;
+    }
+
+    /**
+     * Runs instructions up to the next step with a duration.
+     *
+     * @param startMs the time the step starts
+     * @return        false when the program has ended
+     */
+    private boolean nextStep(long startMs) {
+        while (this.pc < this.programLength) {
+            byte opcode = this.program[this.pc];
+            int at = this.pc;
+            this.pc += EffectProgram.instructionLength(opcode);
+
+            switch (opcode) {
+                case EffectProgram.OP_KEYFRAME:
+                    this.beginStep(startMs,
+                            EffectProgram.readWord(this.program, at + 1),
+                            this.program[at + 3] & 0xFF,
+                            EffectProgram.readWord(this.program, at + 4),
+                            this.program[at + 6]);
+                    return true;
+                case EffectProgram.OP_HOLD:
+                    this.beginStep(startMs, this.hue, this.saturation,
+                            EffectProgram.readWord(this.program, at + 1), EffectProgram.EASING_LINEAR);
+                    return true;
+                case EffectProgram.OP_LOOP:
+                    this.loopStart[this.depth] = this.pc;
+                    this.loopRemaining[this.depth] = this.program[at + 1] & 0xFF;
+                    this.depth++;
+                    break;
+                case EffectProgram.OP_END_LOOP:
+                    int loop = this.depth - 1;
+                    if (this.loopRemaining[loop] == 0 || --this.loopRemaining[loop] > 0) {
+                        this.pc = this.loopStart[loop];
+                    } else {
+                        this.depth--;
+                    }
+                    break;
+                default:
+                    return false;
+            }
+        }
+
+        return false;
+    }
+
+    private void beginStep(long startMs, int hue, int saturation, int durationMs, int easing) {
+        this.fromHue = this.hue;
+        this.fromSaturation = this.saturation;
+        this.toHue = hue;
+        this.toSaturation = saturation;
+        this.stepStartMs = startMs;
+        this.stepDurationMs = durationMs;
+        this.easing = easing;
+    }
+
+    /**
+     * Applies an easing curve.
+     *
+     * @param easing   one of the EffectProgram.EASING_* constants
+     * @param progress linear progress, 0-1024
+     * @return         eased progress, 0-1024
+     */
+    static int ease(int easing, int progress) {
+        int remaining = ONE - progress;
+
+        switch (easing) {
+            case EffectProgram.EASING_IN:
+                return progress * progress / ONE;
+            case EffectProgram.EASING_OUT:
+                return ONE - remaining * remaining / ONE;
+            case EffectProgram.EASING_IN_OUT:
+                return progress < ONE / 2
+                        ? 2 * progress * progress / ONE
+                        : ONE - 2 * remaining * remaining / ONE;
+            case EffectProgram.EASING_STEP:
+                return ONE;
+            default:
+                return progress;
+        }
+    }
+
+    /**
+     * Interpolates between hues the short way around the colour wheel.
+     */
+    private static int interpolateHue(int from, int to, int eased) {
+        int delta = to - from;
+        if (delta > 180) {
+            delta -= 360;
+        } else if (delta < -180) {
+            delta += 360;
+        }
+
+        int hue = from + delta * eased / ONE;
+        return hue < 0 ? hue + 360 : hue % 360;
+    }
+}
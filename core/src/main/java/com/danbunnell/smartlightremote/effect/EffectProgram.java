@@ -0,0 +1,163 @@
+package com.danbunnell.smartlightremote.effect;
+
+/**
+ * The bytecode of effect programs played by the light.
+ *
+ * A program is a format version byte followed by instructions and ends with {@link #OP_END}.
+ * Multi-byte values are big-endian.
+ *
+ * <pre>
+ * OP_KEYFRAME  hue(2) saturation(1) duration_ms(2) easing(1)   move to a colour
+ * OP_HOLD      duration_ms(2)                                  keep the colour
+ * OP_LOOP      count(1)                                        repeat until OP_END_LOOP; 0 is forever
+ * OP_END_LOOP
+ * OP_END
+ * </pre>
+ */
+public final class EffectProgram {
+
+    public static final byte FORMAT_VERSION = 1;
+
+    public static final byte OP_END = 0x00;
+    public static final byte OP_KEYFRAME = 0x01;
+    public static final byte OP_HOLD = 0x02;
+    public static final byte OP_LOOP = 0x03;
+    public static final byte OP_END_LOOP = 0x04;
+
+    public static final int EASING_LINEAR = 0;
+    public static final int EASING_IN = 1;
+    public static final int EASING_OUT = 2;
+    public static final int EASING_IN_OUT = 3;
+    public static final int EASING_STEP = 4;
+
+    /**
+     * largest program the light stores
+     */
+    public static final int MAX_PROGRAM_LENGTH = 512;
+
+    /**
+     * deepest loop nesting the light supports
+     */
+    public static final int MAX_LOOP_DEPTH = 4;
+
+    public static final int MAX_DURATION_MS = 0xFFFF;
+
+    private EffectProgram() {
+    }
+
+    /**
+     * Gets the length of an instruction.
+     *
+     * @param opcode the opcode
+     * @return       the length including the opcode, or -1 for an unknown opcode
+     */
+    public static int instructionLength(byte opcode) {
+        switch (opcode) {
+            case OP_END:
+            case OP_END_LOOP:
+                return 1;
+            case OP_LOOP:
+                return 2;
+            case OP_HOLD:
+                return 3;
+            case OP_KEYFRAME:
+                return 7;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Checks that a program is well formed: known version and opcodes, complete instructions,
+     * valid values, balanced loops within the nesting limit, and a duration in every loop
+     * that repeats forever.
+     *
+     * @param program the program
+     * @param length  the program length
+     * @return        null if the program is valid, otherwise the reason it is not
+     */
+    public static String validate(byte[] program, int length) {
+        if (length < 2 || length > MAX_PROGRAM_LENGTH) {
+            return "program length " + length + " outside 2-" + MAX_PROGRAM_LENGTH;
+        }
+        if (program[0] != FORMAT_VERSION) {
+            return "unsupported format version " + program[0];
+        }
+
+        // Per open loop: whether it repeats forever and whether its body takes any time
+        boolean[] forever = new boolean[MAX_LOOP_DEPTH];
+        boolean[] timed = new boolean[MAX_LOOP_DEPTH];
+        int depth = 0;
+        int pc = 1;
+
+        while (pc < length) {
+            byte opcode = program[pc];
+            int instructionLength = instructionLength(opcode);
+            if (instructionLength < 0) {
+                return "unknown opcode " + opcode + " at " + pc;
+            }
+            if (pc + instructionLength > length) {
+                return "truncated instruction at " + pc;
+            }
+
+            switch (opcode) {
+                case OP_END:
+                    if (depth != 0) {
+                        return "unterminated loop";
+                    }
+                    return pc + 1 == length ? null : "data after end";
+                case OP_KEYFRAME:
+                    if (readWord(program, pc + 1) > 359) {
+                        return "hue out of range at " + pc;
+                    }
+                    if ((program[pc + 6] & 0xFF) > EASING_STEP) {
+                        return "unknown easing at " + pc;
+                    }
+                    markTimed(timed, depth, readWord(program, pc + 4));
+                    break;
+                case OP_HOLD:
+                    markTimed(timed, depth, readWord(program, pc + 1));
+                    break;
+                case OP_LOOP:
+                    if (depth == MAX_LOOP_DEPTH) {
+                        return "loops nested deeper than " + MAX_LOOP_DEPTH;
+                    }
+                    forever[depth] = program[pc + 1] == 0;
+                    timed[depth] = false;
+                    depth++;
+                    break;
+                default:
+                    if (depth == 0) {
+                        return "end of loop without loop at " + pc;
+                    }
+                    depth--;
+                    if (forever[depth] && !timed[depth]) {
+                        return "endless loop without duration at " + pc;
+                    }
+                    break;
+            }
+
+            pc += instructionLength;
+        }
+
+        return "missing end";
+    }
+
+    /**
+     * Reads a big-endian 16-bit value.
+     */
+    static int readWord(byte[] program, int offset) {
+        return ((program[offset] & 0xFF) << 8) | (program[offset + 1] & 0xFF);
+    }
+
+    /**
+     * Records that the open loops contain a step with a duration.
+     */
+    private static void markTimed(boolean[] timed, int depth, int durationMs) {
+        if (durationMs > 0) {
+            for (int i = 0; i < depth; i++) {
+                timed[i] = true;
+            }
+        }
+    }
+}
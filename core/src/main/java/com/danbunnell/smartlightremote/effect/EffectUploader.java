@@ -0,0 +1,90 @@
+package com.danbunnell.smartlightremote.effect;
+
+import com.danbunnell.smartlightremote.protocol.CommandQueue;
+import com.danbunnell.smartlightremote.protocol.CommandSink;
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+
+import java.util.zip.CRC32;
+
+/**
+ * Splits a compiled effect into upload frames for the TX characteristic.
+ *
+ * The upload is {@link LightProtocol#CMD_EFFECT_BEGIN} with the program length and CRC-32,
+ * {@link LightProtocol#CMD_EFFECT_CHUNK} frames carrying their offset and a slice of the
+ * program, and {@link LightProtocol#CMD_EFFECT_COMMIT}. The light checks length and CRC on
+ * commit and reports the outcome with {@link LightProtocol#CMD_CLIENT_NOTIFY_EFFECT_STATUS};
+ * a lost or damaged chunk fails the check rather than playing a corrupt program.
+ */
+public final class EffectUploader {
+
+    /**
+     * bytes of each chunk frame taken by the command and offset
+     */
+    public static final int CHUNK_HEADER_LENGTH = 3;
+
+    /**
+     * program bytes per chunk; frames must fit a packed write at the default MTU
+     */
+    public static final int CHUNK_DATA_LENGTH = CommandQueue.MAX_FRAME_LENGTH - CHUNK_HEADER_LENGTH;
+
+    private EffectUploader() {
+    }
+
+    /**
+     * Sends the frames that upload and start a program.
+     *
+     * @param program the compiled program
+     * @param sink    receives the frames, in order
+     * @return        the number of frames sent, or -1 if the sink dropped one
+     */
+    public static int upload(byte[] program, CommandSink sink) {
+        byte[] frame = new byte[CommandQueue.MAX_FRAME_LENGTH];
+        long crc = checksum(program, program.length);
+
+        frame[0] = LightProtocol.CMD_EFFECT_BEGIN;
+        frame[1] = (byte) (program.length >> 8);
+        frame[2] = (byte) program.length;
+        frame[3] = (byte) (crc >> 24);
+        frame[4] = (byte) (crc >> 16);
+        frame[5] = (byte) (crc >> 8);
+        frame[6] = (byte) crc;
+        if (!sink.sendFrame(frame, 0, 7)) {
+            return -1;
+        }
+
+        int frames = 1;
+        for (int offset = 0; offset < program.length; offset += CHUNK_DATA_LENGTH) {
+            int length = Math.min(CHUNK_DATA_LENGTH, program.length - offset);
+            frame[0] = LightProtocol.CMD_EFFECT_CHUNK;
+            frame[1] = (byte) (offset >> 8);
+            frame[2] = (byte) offset;
+            System.arraycopy(program, offset, frame, CHUNK_HEADER_LENGTH, length);
+            if (!sink.sendFrame(frame, 0, CHUNK_HEADER_LENGTH + length)) {
+                return -1;
+            }
+            frames++;
+        }
+
+        frame[0] = LightProtocol.CMD_EFFECT_COMMIT;
+        frame[1] = 0x00;
+        frame[2] = 0x00;
+        if (!sink.sendFrame(frame, 0, LightProtocol.LEGACY_FRAME_LENGTH)) {
+            return -1;
+        }
+
+        return frames + 1;
+    }
+
+    /**
+     * Computes the CRC-32 that guards an upload.
+     *
+     * @param program buffer holding the program
+     * @param length  the program length
+     * @return        the CRC-32
+     */
+    public static long checksum(byte[] program, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(program, 0, length);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,118 @@
+package com.danbunnell.smartlightremote.lan;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Datagram format for lights reached through a Wi-Fi bridge.
+ *
+ * Every datagram starts with a 10-byte header: the magic "SL", a version, a type, a 16-bit
+ * session and a 32-bit sequence number, all big-endian. Command datagrams carry exactly what
+ * a BLE write would (one frame, or a packed write), so the bridge hands them to the light's
+ * existing parser. Notification datagrams carry a notification value.
+ *
+ * UDP may reorder datagrams, so each side keeps the newest sequence number it has accepted
+ * per session and drops anything older: a late hue update must not overwrite a newer one.
+ * The session moves forward whenever the client restarts, so a fresh client is not mistaken
+ * for a stale one, and datagrams still in flight from before the restart are dropped too.
+ */
+public final class LanProtocol {
+
+    public static final int DEFAULT_PORT = 4210;
+
+    public static final short MAGIC = 0x534C;
+    public static final byte VERSION = 1;
+
+    /**
+     * client to light: a BLE write payload
+     */
+    public static final byte TYPE_COMMANDS = 0x01;
+
+    /**
+     * light to client: acknowledges a command datagram by its sequence number
+     */
+    public static final byte TYPE_ACK = 0x02;
+
+    /**
+     * light to client: a notification value
+     */
+    public static final byte TYPE_NOTIFICATION = 0x03;
+
+    public static final int HEADER_LENGTH = 10;
+
+    /**
+     * stays below the 576-byte datagram every IPv4 host must accept, so nothing fragments
+     */
+    public static final int MAX_DATAGRAM_LENGTH = 512;
+
+    public static final int MAX_PAYLOAD_LENGTH = MAX_DATAGRAM_LENGTH - HEADER_LENGTH;
+
+    private LanProtocol() {
+    }
+
+    /**
+     * Writes a datagram header at the buffer's position.
+     *
+     * @param buffer   the datagram buffer
+     * @param type     one of the TYPE_* constants
+     * @param session  the sender's session
+     * @param sequence the datagram's sequence number
+     */
+    public static void writeHeader(ByteBuffer buffer, byte type, short session, int sequence) {
+        buffer.putShort(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(type);
+        buffer.putShort(session);
+        buffer.putInt(sequence);
+    }
+
+    /**
+     * Reads the type of a received datagram, leaving the buffer at the session.
+     *
+     * @param buffer the datagram, flipped for reading
+     * @return       the type, or -1 if the datagram is not in this format
+     */
+    public static int readType(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_LENGTH
+                || buffer.getShort() != MAGIC
+                || buffer.get() != VERSION) {
+            return -1;
+        }
+
+        return buffer.get();
+    }
+
+    /**
+     * Compares sequence numbers, allowing for wrap-around.
+     *
+     * @param sequence a received sequence number
+     * @param last     the newest sequence number accepted so far
+     * @return         true if the received number is newer
+     */
+    public static boolean isNewer(int sequence, int last) {
+        return sequence - last > 0;
+    }
+
+    /**
+     * Compares sessions, allowing for wrap-around.
+     *
+     * @param session a received session
+     * @param last    the session accepted so far
+     * @return        true if the received session is newer
+     */
+    public static boolean isNewerSession(short session, short last) {
+        return (short) (session - last) > 0;
+    }
+
+    /**
+     * Picks the session for a sender starting now: its start time in seconds, so sessions move
+     * forward across restarts, unless that is not newer than the session it used last.
+     *
+     * @param last  the session the sender used last
+     * @param nowMs the current wall clock time in milliseconds
+     * @return      the session to use
+     */
+    public static short nextSession(short last, long nowMs) {
+        short session = (short) (nowMs / 1000);
+        return isNewerSession(session, last) ? session : (short) (last + 1);
+    }
+}
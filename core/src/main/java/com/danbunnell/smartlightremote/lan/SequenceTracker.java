@@ -0,0 +1,80 @@
+package com.danbunnell.smartlightremote.lan;
+
+/**
+ * Drops datagrams that arrive after a newer one from the same sender.
+ *
+ * Only the newest sequence number of the current session is kept. A datagram from a newer
+ * session starts tracking afresh, so a restarted sender is heard immediately instead of being
+ * ignored until its sequence numbers catch up, while datagrams from older sessions are dropped.
+ * Sessions compare by wrap-around, so a sender restarting after a long time may look older;
+ * once {@link #STALE_SESSION_LIMIT} datagrams in a row arrive from the same older session, it is
+ * taken as the current one.
+ *
+ * Not thread-safe.
+ */
+public class SequenceTracker {
+
+    /**
+     * consecutive datagrams from one older session after which it is accepted; more than
+     * reordering leaves in flight after a restart
+     */
+    public static final int STALE_SESSION_LIMIT = 8;
+
+    private boolean started;
+    private short session;
+    private int lastSequence;
+
+    // The older session heard last, and how many datagrams in a row came from it
+    private short staleSession;
+    private int staleSessionRun;
+
+    private long acceptedCount;
+    private long staleCount;
+
+    /**
+     * Checks a received datagram and remembers its sequence number if it is the newest.
+     *
+     * @param session  the sender's session
+     * @param sequence the datagram's sequence number
+     * @return         false if the datagram is stale and should be dropped
+     */
+    public boolean accept(short session, int sequence) {
+        if (this.started && session == this.session) {
+            this.staleSessionRun = 0;
+            if (!LanProtocol.isNewer(sequence, this.lastSequence)) {
+                this.staleCount++;
+                return false;
+            }
+        } else if (this.started && !LanProtocol.isNewerSession(session, this.session)) {
+            this.staleSessionRun = session == this.staleSession ? this.staleSessionRun + 1 : 1;
+            this.staleSession = session;
+            if (this.staleSessionRun < STALE_SESSION_LIMIT) {
+                this.staleCount++;
+                return false;
+            }
+        }
+
+        this.staleSessionRun = 0;
+        this.started = true;
+        this.session = session;
+        this.lastSequence = sequence;
+        this.acceptedCount++;
+        return true;
+    }
+
+    /**
+     * Forgets the sender, e.g. when the link is closed.
+     */
+    public void reset() {
+        this.started = false;
+        this.staleSessionRun = 0;
+    }
+
+    public long getAcceptedCount() {
+        return this.acceptedCount;
+    }
+
+    public long getStaleCount() {
+        return this.staleCount;
+    }
+}
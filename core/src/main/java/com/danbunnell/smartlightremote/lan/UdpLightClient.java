@@ -0,0 +1,454 @@
+package com.danbunnell.smartlightremote.lan;
+
+import com.danbunnell.smartlightremote.metrics.Counter;
+import com.danbunnell.smartlightremote.metrics.Histogram;
+import com.danbunnell.smartlightremote.protocol.CommandQueue;
+import com.danbunnell.smartlightremote.protocol.CommandSink;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Sends commands to a light behind a Wi-Fi bridge over UDP.
+ *
+ * Commands wait in a {@link CommandQueue}, so a hue superseded before it went out is never
+ * sent. An I/O thread drains the queue into datagrams no more often than once per batch
+ * interval: the first command after a quiet spell goes out at once, and commands issued
+ * while the interval runs share the next datagram. The channel is non-blocking; if the
+ * socket buffer is full the datagram is kept and retried when the channel becomes writable.
+ *
+ * The bridge acknowledges each datagram by sequence number, which gives the round-trip time.
+ * Nothing is retransmitted: a lost hue is made obsolete by the next one, and callers that
+ * need delivery, such as effect uploads, confirm it through the light's notifications.
+ *
+ * {@link #send} and {@link #sendFrame} may be called from any thread; the listener is called
+ * on the I/O thread. An unexpected error, including one thrown by the listener, stops the I/O
+ * thread; from then on commands are refused and {@link #getFailure} tells why, until the client
+ * is restarted. Needs the INTERNET permission.
+ */
+public class UdpLightClient implements CommandSink {
+
+    /**
+     * Receives notifications from the light
+     */
+    public interface Listener {
+        /**
+         * Called on the I/O thread with a notification value.
+         *
+         * @param value  buffer holding the value; only valid for the duration of the call
+         * @param length the value length
+         */
+        void onNotification(byte[] value, int length);
+    }
+
+    public static final int DEFAULT_BATCH_INTERVAL_MS = 10;
+
+    private static final int QUEUE_CAPACITY = 256;
+
+    /**
+     * datagrams whose send time is remembered for matching acks; a power of two
+     */
+    private static final int SEND_TIME_SLOTS = 64;
+
+    /**
+     * the session of the client started last in this process
+     */
+    private static short lastSession = (short) (System.currentTimeMillis() / 1000 - 1);
+
+    private final InetSocketAddress address;
+    private final long batchIntervalNanos;
+
+    /**
+     * commands waiting for the I/O thread; guards itself
+     */
+    private final CommandQueue queue = new CommandQueue(QUEUE_CAPACITY);
+
+    private volatile boolean packedWrites;
+    private volatile Listener listener;
+    private volatile boolean running;
+    private volatile RuntimeException failure;
+
+    private Thread thread;
+    private volatile Selector selector;
+    private DatagramChannel channel;
+
+    // Owned by the I/O thread
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(LanProtocol.MAX_DATAGRAM_LENGTH);
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(LanProtocol.MAX_DATAGRAM_LENGTH);
+    private final byte[] payload = new byte[LanProtocol.MAX_PAYLOAD_LENGTH];
+    private final int[] sentSequences = new int[SEND_TIME_SLOTS];
+    private final long[] sentNanos = new long[SEND_TIME_SLOTS];
+    private final SequenceTracker notificationTracker = new SequenceTracker();
+    private short session;
+    private int nextSequence;
+    private boolean datagramPending;
+    private long lastFlushNanos;
+
+    private final Counter datagramsSent = new Counter();
+    private final Counter bytesSent = new Counter();
+    private final Counter acksReceived = new Counter();
+    private final Counter sendErrors = new Counter();
+
+    /**
+     * time from sending a datagram to receiving its ack, in nanoseconds
+     */
+    private final Histogram roundTripNanos = new Histogram(Histogram.exponentialBounds(10000, 14));
+
+    /**
+     * Initializes a new instance of the {@link UdpLightClient} class.
+     *
+     * @param address         the bridge's address
+     * @param batchIntervalMs the minimum time between datagrams
+     */
+    public UdpLightClient(InetSocketAddress address, int batchIntervalMs) {
+        this.address = address;
+        this.batchIntervalNanos = batchIntervalMs * 1000000L;
+    }
+
+    /**
+     * Sets the listener for notifications from the light.
+     *
+     * @param listener the listener, or null
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Enables packed payloads once the light has reported support for them. Until then each
+     * datagram carries a single frame.
+     *
+     * @param packedWrites whether the light accepts packed writes
+     */
+    public void setPackedWrites(boolean packedWrites) {
+        this.packedWrites = packedWrites;
+    }
+
+    /**
+     * Opens the channel and starts the I/O thread under a new session.
+     *
+     * @throws IOException if the channel cannot be opened
+     */
+    public synchronized void start() throws IOException {
+        if (this.running) {
+            return;
+        }
+
+        if (this.thread != null) {
+            // The I/O thread failed; release what it left open
+            this.thread = null;
+            this.closeQuietly();
+        }
+
+        this.channel = DatagramChannel.open();
+        try {
+            this.channel.configureBlocking(false);
+            this.channel.connect(this.address);
+            this.selector = Selector.open();
+            this.channel.register(this.selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            this.closeQuietly();
+            throw e;
+        }
+
+        this.session = newSession();
+        this.failure = null;
+        this.nextSequence = 1;
+        this.datagramPending = false;
+        this.lastFlushNanos = System.nanoTime() - this.batchIntervalNanos;
+        this.notificationTracker.reset();
+        synchronized (this.queue) {
+            this.queue.clear();
+        }
+
+        this.running = true;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "UdpLightClient");
+        this.thread.start();
+    }
+
+    /**
+     * Stops the I/O thread and closes the channel. Unsent commands are discarded.
+     *
+     * @throws InterruptedException if interrupted while waiting for the I/O thread
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (this.thread == null) {
+            return;
+        }
+
+        this.running = false;
+        this.selector.wakeup();
+        this.thread.join();
+        this.thread = null;
+        this.closeQuietly();
+    }
+
+    @Override
+    public boolean send(byte command, byte arg0, byte arg1) {
+        if (this.failure != null) {
+            return false;
+        }
+
+        boolean queued;
+        boolean wasEmpty;
+        synchronized (this.queue) {
+            wasEmpty = this.queue.size() == 0;
+            queued = this.queue.enqueueLatest(command, arg0, arg1);
+        }
+
+        this.wake(wasEmpty);
+        return queued;
+    }
+
+    @Override
+    public boolean sendFrame(byte[] frame, int offset, int length) {
+        if (this.failure != null) {
+            return false;
+        }
+
+        boolean queued;
+        boolean wasEmpty;
+        synchronized (this.queue) {
+            wasEmpty = this.queue.size() == 0;
+            queued = this.queue.enqueue(frame, offset, length);
+        }
+
+        this.wake(wasEmpty);
+        return queued;
+    }
+
+    /**
+     * Gets the number of state commands replaced by a newer one before they were sent.
+     *
+     * @return the coalesced command count
+     */
+    public long getCommandsCoalesced() {
+        synchronized (this.queue) {
+            return this.queue.getCoalescedCount();
+        }
+    }
+
+    /**
+     * Gets the error that stopped the I/O thread.
+     *
+     * @return the error, or null while the client works
+     */
+    public RuntimeException getFailure() {
+        return this.failure;
+    }
+
+    public long getDatagramsSent() {
+        return this.datagramsSent.get();
+    }
+
+    public long getBytesSent() {
+        return this.bytesSent.get();
+    }
+
+    public long getAcksReceived() {
+        return this.acksReceived.get();
+    }
+
+    /**
+     * Gets the number of datagrams that could not be sent or were refused by the host.
+     *
+     * @return the send error count
+     */
+    public long getSendErrors() {
+        return this.sendErrors.get();
+    }
+
+    /**
+     * Gets the number of notifications dropped because a newer one had arrived first.
+     *
+     * @return the stale notification count
+     */
+    public long getStaleNotifications() {
+        return this.notificationTracker.getStaleCount();
+    }
+
+    /**
+     * Gets the round-trip times of acknowledged datagrams.
+     *
+     * @return the round-trip histogram, in nanoseconds
+     */
+    public Histogram getRoundTripNanos() {
+        return this.roundTripNanos;
+    }
+
+    /**
+     * Wakes the I/O thread for the first command after the queue ran empty; later commands
+     * are picked up when the batch interval it is already waiting out expires.
+     */
+    private void wake(boolean wasEmpty) {
+        Selector selector = this.selector;
+        if (wasEmpty && selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private static synchronized short newSession() {
+        lastSession = LanProtocol.nextSession(lastSession, System.currentTimeMillis());
+        return lastSession;
+    }
+
+    /**
+     * Runs the I/O thread, stopping the client if anything unexpected is thrown.
+     */
+    private void loop() {
+        try {
+            this.serve();
+        } catch (RuntimeException e) {
+            this.failure = e;
+            this.running = false;
+        }
+    }
+
+    /**
+     * Flushes due batches and handles acks and notifications until stopped.
+     */
+    private void serve() {
+        SelectionKey key = this.channel.keyFor(this.selector);
+
+        while (this.running) {
+            long timeoutMs = 0;
+            try {
+                if (!this.datagramPending) {
+                    long dueNanos = this.lastFlushNanos + this.batchIntervalNanos - System.nanoTime();
+                    if (dueNanos <= 0) {
+                        this.flush();
+                        dueNanos = this.batchIntervalNanos;
+                    }
+                    if (!this.datagramPending && this.hasQueuedCommands()) {
+                        timeoutMs = Math.max(1, (dueNanos + 999999) / 1000000);
+                    }
+                }
+
+                key.interestOps(this.datagramPending
+                        ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                        : SelectionKey.OP_READ);
+                this.selector.select(timeoutMs);
+                this.selector.selectedKeys().clear();
+
+                if (key.isReadable()) {
+                    this.receive();
+                }
+                if (this.datagramPending && key.isWritable()) {
+                    this.write();
+                }
+            } catch (PortUnreachableException e) {
+                // Nothing is listening yet; the next datagram tries again
+                this.sendErrors.increment();
+            } catch (IOException e) {
+                this.sendErrors.increment();
+                this.datagramPending = false;
+            }
+        }
+    }
+
+    private boolean hasQueuedCommands() {
+        synchronized (this.queue) {
+            return this.queue.size() > 0;
+        }
+    }
+
+    /**
+     * Drains the queue into a datagram and sends it.
+     */
+    private void flush() throws IOException {
+        int length;
+        synchronized (this.queue) {
+            length = this.queue.drain(this.payload, this.payload.length, this.packedWrites);
+        }
+        if (length == 0) {
+            return;
+        }
+
+        int sequence = this.nextSequence++;
+        this.sendBuffer.clear();
+        LanProtocol.writeHeader(this.sendBuffer, LanProtocol.TYPE_COMMANDS, this.session, sequence);
+        this.sendBuffer.put(this.payload, 0, length);
+        this.sendBuffer.flip();
+
+        this.datagramPending = true;
+        this.lastFlushNanos = System.nanoTime();
+        this.write();
+    }
+
+    /**
+     * Writes the pending datagram, leaving it pending if the socket buffer is full.
+     */
+    private void write() throws IOException {
+        int sequence = this.sendBuffer.getInt(LanProtocol.HEADER_LENGTH - 4);
+        int slot = sequence & (SEND_TIME_SLOTS - 1);
+        this.sentSequences[slot] = sequence;
+        this.sentNanos[slot] = System.nanoTime();
+
+        int length = this.sendBuffer.remaining();
+        if (this.channel.write(this.sendBuffer) == 0) {
+            return;
+        }
+
+        this.datagramPending = false;
+        this.datagramsSent.increment();
+        this.bytesSent.add(length);
+    }
+
+    /**
+     * Reads every datagram waiting on the channel.
+     */
+    private void receive() throws IOException {
+        while (true) {
+            this.receiveBuffer.clear();
+            if (this.channel.read(this.receiveBuffer) == 0) {
+                return;
+            }
+            this.receiveBuffer.flip();
+
+            int type = LanProtocol.readType(this.receiveBuffer);
+            if (type < 0) {
+                continue;
+            }
+            short session = this.receiveBuffer.getShort();
+            int sequence = this.receiveBuffer.getInt();
+
+            if (type == LanProtocol.TYPE_ACK) {
+                int slot = sequence & (SEND_TIME_SLOTS - 1);
+                if (session == this.session && this.sentSequences[slot] == sequence && this.sentNanos[slot] != 0) {
+                    this.roundTripNanos.record(System.nanoTime() - this.sentNanos[slot]);
+                    this.sentNanos[slot] = 0;
+                    this.acksReceived.increment();
+                }
+            } else if (type == LanProtocol.TYPE_NOTIFICATION) {
+                Listener listener = this.listener;
+                if (this.notificationTracker.accept(session, sequence) && listener != null) {
+                    int length = this.receiveBuffer.remaining();
+                    this.receiveBuffer.get(this.payload, 0, length);
+                    listener.onNotification(this.payload, length);
+                }
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (this.selector != null) {
+                this.selector.close();
+            }
+            this.channel.close();
+        } catch (IOException e) {
+            // Closing; nothing left to report to
+        }
+        this.selector = null;
+    }
+}
@@ -0,0 +1,31 @@
+package com.danbunnell.smartlightremote.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonically increasing count. Safe to update from any thread.
+ */
+public class Counter {
+
+    private final AtomicLong value = new AtomicLong();
+
+    /**
+     * Adds one to the count.
+     */
+    public void increment() {
+        this.value.incrementAndGet();
+    }
+
+    /**
+     * Adds to the count.
+     *
+     * @param delta the amount to add
+     */
+    public void add(long delta) {
+        this.value.addAndGet(delta);
+    }
+
+    public long get() {
+        return this.value.get();
+    }
+}
@@ -0,0 +1,24 @@
+package com.danbunnell.smartlightremote.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latest value of a quantity, such as signal strength. Safe to update from any thread.
+ */
+public class Gauge {
+
+    private final AtomicLong value = new AtomicLong();
+
+    /**
+     * Sets the value.
+     *
+     * @param value the new value
+     */
+    public void set(long value) {
+        this.value.set(value);
+    }
+
+    public long get() {
+        return this.value.get();
+    }
+}
@@ -0,0 +1,117 @@
+package com.danbunnell.smartlightremote.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values into fixed buckets, along with their total and maximum. Safe to update from
+ * any thread; recording never allocates.
+ */
+public class Histogram {
+
+    private final long[] upperBounds;
+    private final AtomicLongArray buckets;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Initializes a new instance of the {@link Histogram} class.
+     *
+     * @param upperBounds inclusive upper bounds of the buckets, in ascending order; larger values
+     *                    go to an overflow bucket
+     */
+    public Histogram(long[] upperBounds) {
+        for (int i = 1; i < upperBounds.length; i++) {
+            if (upperBounds[i] <= upperBounds[i - 1]) {
+                throw new IllegalArgumentException("Bucket bounds must be ascending");
+            }
+        }
+
+        this.upperBounds = upperBounds.clone();
+        this.buckets = new AtomicLongArray(upperBounds.length + 1);
+    }
+
+    /**
+     * Creates bucket bounds that double from a starting value.
+     *
+     * @param first the upper bound of the first bucket
+     * @param count the number of bounds
+     * @return      the bounds
+     */
+    public static long[] exponentialBounds(long first, int count) {
+        long[] bounds = new long[count];
+        for (int i = 0; i < count; i++) {
+            bounds[i] = first << i;
+        }
+        return bounds;
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        int bucket = Arrays.binarySearch(this.upperBounds, value);
+        if (bucket < 0) {
+            bucket = -bucket - 1;
+        }
+
+        this.buckets.incrementAndGet(bucket);
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    /**
+     * Gets the largest value recorded.
+     *
+     * @return the maximum, or 0 if nothing was recorded
+     */
+    public long getMax() {
+        return this.count.get() == 0 ? 0 : this.max.get();
+    }
+
+    /**
+     * Gets the number of buckets, including the overflow bucket.
+     *
+     * @return the bucket count
+     */
+    public int getBucketCount() {
+        return this.buckets.length();
+    }
+
+    /**
+     * Gets the number of values in a bucket.
+     *
+     * @param bucket the bucket index; the last bucket holds values above every bound
+     * @return       the count
+     */
+    public long getBucket(int bucket) {
+        return this.buckets.get(bucket);
+    }
+
+    /**
+     * Gets the inclusive upper bound of a bucket.
+     *
+     * @param bucket the bucket index
+     * @return       the bound, or Long.MAX_VALUE for the overflow bucket
+     */
+    public long getUpperBound(int bucket) {
+        return bucket < this.upperBounds.length ? this.upperBounds[bucket] : Long.MAX_VALUE;
+    }
+}
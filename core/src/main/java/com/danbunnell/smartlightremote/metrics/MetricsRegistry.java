@@ -0,0 +1,149 @@
+package com.danbunnell.smartlightremote.metrics;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Named counters, gauges and histograms for operational monitoring.
+ *
+ * Metrics are created on first use and live for the lifetime of the registry; callers should
+ * look them up once and keep the reference, so that updates are a single atomic operation.
+ * The process-wide registry is shared by the activity and the Bluetooth service and is printed
+ * by {@code adb shell dumpsys activity service RBLService}. Sample rings are plotted by the
+ * debug overlay rather than printed.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+    private final ConcurrentMap<String, SampleRing> sampleRings = new ConcurrentHashMap<String, SampleRing>();
+
+    /**
+     * Gets the process-wide registry.
+     *
+     * @return the registry
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets a counter, creating it if needed.
+     *
+     * @param name the metric name
+     * @return     the counter
+     */
+    public Counter counter(String name) {
+        Counter counter = this.counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = this.counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Gets a gauge, creating it if needed.
+     *
+     * @param name the metric name
+     * @return     the gauge
+     */
+    public Gauge gauge(String name) {
+        Gauge gauge = this.gauges.get(name);
+        if (gauge == null) {
+            Gauge created = new Gauge();
+            gauge = this.gauges.putIfAbsent(name, created);
+            if (gauge == null) {
+                gauge = created;
+            }
+        }
+        return gauge;
+    }
+
+    /**
+     * Gets a histogram, creating it with the given buckets if needed.
+     *
+     * @param name        the metric name
+     * @param upperBounds bucket bounds used if the histogram does not exist yet
+     * @return            the histogram
+     */
+    public Histogram histogram(String name, long[] upperBounds) {
+        Histogram histogram = this.histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram(upperBounds);
+            histogram = this.histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Gets a sample ring, creating it with the given capacity if needed.
+     *
+     * @param name     the signal name
+     * @param capacity capacity used if the ring does not exist yet; a power of two
+     * @return         the sample ring
+     */
+    public SampleRing sampleRing(String name, int capacity) {
+        SampleRing ring = this.sampleRings.get(name);
+        if (ring == null) {
+            SampleRing created = new SampleRing(capacity);
+            ring = this.sampleRings.putIfAbsent(name, created);
+            if (ring == null) {
+                ring = created;
+            }
+        }
+        return ring;
+    }
+
+    /**
+     * Prints every metric, sorted by name, one per line.
+     *
+     * @param writer the writer to print to
+     * @param prefix indentation for each line
+     */
+    public void dump(PrintWriter writer, String prefix) {
+        for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(this.counters).entrySet()) {
+            writer.println(prefix + entry.getKey() + " = " + entry.getValue().get());
+        }
+
+        for (Map.Entry<String, Gauge> entry : new TreeMap<String, Gauge>(this.gauges).entrySet()) {
+            writer.println(prefix + entry.getKey() + " = " + entry.getValue().get());
+        }
+
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(this.histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            StringBuilder line = new StringBuilder();
+            line.append(prefix).append(entry.getKey())
+                    .append(": count ").append(histogram.getCount())
+                    .append(", sum ").append(histogram.getSum())
+                    .append(", max ").append(histogram.getMax())
+                    .append(" [");
+
+            for (int i = 0; i < histogram.getBucketCount(); i++) {
+                if (i > 0) {
+                    line.append(", ");
+                }
+
+                long bound = histogram.getUpperBound(i);
+                line.append(bound == Long.MAX_VALUE ? "inf" : "<=" + bound)
+                        .append(": ").append(histogram.getBucket(i));
+            }
+
+            writer.println(line.append(']'));
+        }
+
+        writer.flush();
+    }
+}
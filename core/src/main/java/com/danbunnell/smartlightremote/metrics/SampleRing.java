@@ -0,0 +1,101 @@
+package com.danbunnell.smartlightremote.metrics;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The latest values of a signal, kept for plotting live. Written by one thread and read by
+ * any; neither side allocates or locks.
+ *
+ * A reader copies the samples it wants, then checks how far the writer has moved on and drops
+ * any it may have overwritten meanwhile, so a slow reader gets fewer samples rather than a
+ * ring that has wrapped under it. Each sample is published with release ordering and read with
+ * acquire ordering, so a sample the reader sees is never newer than the count it checks
+ * afterwards; what it returns is always a run of consecutive samples.
+ */
+public class SampleRing {
+
+    /**
+     * a few seconds of sensor samples, or a few hundred radio writes
+     */
+    public static final int DEFAULT_CAPACITY = 512;
+
+    // Float bits, so each slot can be read and written with ordering. Twice the capacity, so
+    // the slot the writer is filling next is never one a reader is copying
+    private final AtomicIntegerArray values;
+    private final int capacity;
+    private final int mask;
+
+    /**
+     * samples written since creation; the single writer stores each sample before counting it
+     */
+    private volatile long written;
+
+    /**
+     * Initializes a new instance of the {@link SampleRing} class.
+     *
+     * @param capacity the number of samples kept; a power of two
+     */
+    public SampleRing(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+
+        this.values = new AtomicIntegerArray(2 * capacity);
+        this.capacity = capacity;
+        this.mask = 2 * capacity - 1;
+    }
+
+    /**
+     * Appends a sample, overwriting the oldest once the ring is full. Only one thread may
+     * write.
+     *
+     * @param value the sample
+     */
+    public void add(float value) {
+        long count = this.written;
+        this.values.lazySet((int) count & this.mask, Float.floatToRawIntBits(value));
+        this.written = count + 1;
+    }
+
+    /**
+     * Copies the latest samples, oldest first.
+     *
+     * @param out buffer receiving the samples
+     * @param max the most samples to copy
+     * @return    the number of samples copied
+     */
+    public int copyLatest(float[] out, int max) {
+        long end = this.written;
+        int count = (int) Math.min(Math.min(max, out.length), Math.min(end, this.capacity));
+        long start = end - count;
+        for (int i = 0; i < count; i++) {
+            out[i] = Float.intBitsToFloat(this.values.get((int) (start + i) & this.mask));
+        }
+
+        // The writer may have lapped the oldest samples while they were being copied. Every
+        // sample seen was stored before the count read here moved past it, except perhaps the
+        // one being written at that count, which may already have overwritten a slot
+        long overwritten = this.written + 1 - 2 * this.capacity - start;
+        if (overwritten > 0) {
+            int dropped = (int) Math.min(count, overwritten);
+            System.arraycopy(out, dropped, out, 0, count - dropped);
+            count -= dropped;
+        }
+
+        return count;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Gets the number of samples written since creation, which tells a reader whether there
+     * is anything new to plot.
+     *
+     * @return the sample count
+     */
+    public long getWrittenCount() {
+        return this.written;
+    }
+}
@@ -0,0 +1,98 @@
+package com.danbunnell.smartlightremote.metrics;
+
+import java.util.Locale;
+
+/**
+ * Timestamps of the steps of a cold start, relative to process start.
+ *
+ * The app becomes controllable once its first frame is on screen and the Bluetooth service is
+ * bound, so that tapping Connect does something; that mark is derived from the other two.
+ * Each mark is kept from its first occurrence only, so activity re-creation in a warm process
+ * does not disturb the trace.
+ *
+ * Not thread-safe; marks are made on the main thread.
+ */
+public class StartupTrace {
+
+    public static final int MARK_APPLICATION_CREATED = 0;
+    public static final int MARK_ACTIVITY_CREATED = 1;
+    public static final int MARK_CONTENT_VIEW_SET = 2;
+    public static final int MARK_SERVICE_BOUND = 3;
+    public static final int MARK_FIRST_FRAME = 4;
+    public static final int MARK_CONTROLLABLE = 5;
+
+    private static final String[] MARK_NAMES = {
+            "application", "activity", "content view", "service bound", "first frame", "controllable" };
+
+    private final long processStartMs;
+    private final long[] marks = new long[MARK_NAMES.length];
+
+    /**
+     * Initializes a new instance of the {@link StartupTrace} class.
+     *
+     * @param processStartMs the process start time, on the clock used for marks
+     */
+    public StartupTrace(long processStartMs) {
+        this.processStartMs = processStartMs;
+        for (int i = 0; i < this.marks.length; i++) {
+            this.marks[i] = -1;
+        }
+    }
+
+    /**
+     * Records a step, unless it was recorded before.
+     *
+     * @param mark  one of the MARK_* constants
+     * @param nowMs the current time, on the clock used for the process start time
+     * @return      true if the app became controllable with this step
+     */
+    public boolean mark(int mark, long nowMs) {
+        if (this.marks[mark] >= 0) {
+            return false;
+        }
+
+        this.marks[mark] = nowMs - this.processStartMs;
+
+        if (this.marks[MARK_CONTROLLABLE] < 0
+                && this.marks[MARK_FIRST_FRAME] >= 0
+                && this.marks[MARK_SERVICE_BOUND] >= 0) {
+            this.marks[MARK_CONTROLLABLE] = nowMs - this.processStartMs;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the time from process start to a step.
+     *
+     * @param mark one of the MARK_* constants
+     * @return     the time in milliseconds, or -1 if the step has not happened
+     */
+    public long getElapsedMs(int mark) {
+        return this.marks[mark];
+    }
+
+    /**
+     * Lists every step reached, for logging.
+     *
+     * @return a human-readable summary
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+
+        for (int i = 0; i < MARK_NAMES.length; i++) {
+            if (this.marks[i] < 0) {
+                continue;
+            }
+
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+
+            summary.append(String.format(Locale.ENGLISH, "%s %d ms", MARK_NAMES[i], this.marks[i]));
+        }
+
+        return summary.toString();
+    }
+}
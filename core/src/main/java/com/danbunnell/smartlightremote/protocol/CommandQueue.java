@@ -0,0 +1,307 @@
+package com.danbunnell.smartlightremote.protocol;
+
+/**
+ * A bounded queue of command frames waiting to be written to the light.
+ *
+ * State commands are coalesced: a newer hue replaces a hue still waiting in the queue, since
+ * only the latest value matters. Other frames, such as effect keyframes, are kept in order, and
+ * a coalesced command moves behind any that were queued after the one it replaces, so it never
+ * overtakes a frame issued before it. Frames already handed out by {@link #peek} are never
+ * changed. Frames are stored in a preallocated buffer so queueing never allocates.
+ *
+ * Not thread-safe.
+ */
+public class CommandQueue {
+
+    /**
+     * longest frame the queue accepts; fits in a packed write at the default MTU
+     */
+    public static final int MAX_FRAME_LENGTH = LightProtocol.maxWriteLength(LightProtocol.DEFAULT_MTU) - 2;
+
+    private final int capacity;
+    private final byte[] frames;
+    private final int[] lengths;
+    private final boolean[] coalescable;
+
+    private int head;
+    private int count;
+    private int peekedFrames;
+
+    private long enqueuedCount;
+    private long coalescedCount;
+    private long droppedCount;
+
+    /**
+     * Initializes a new instance of the {@link CommandQueue} class.
+     *
+     * @param capacity the maximum number of queued frames
+     */
+    public CommandQueue(int capacity) {
+        this.capacity = capacity;
+        this.frames = new byte[capacity * MAX_FRAME_LENGTH];
+        this.lengths = new int[capacity];
+        this.coalescable = new boolean[capacity];
+    }
+
+    /**
+     * Queues a 3-byte state command, replacing a queued command of the same type that has not
+     * been peeked.
+     *
+     * @param command the command byte
+     * @param arg0    the first argument byte
+     * @param arg1    the second argument byte
+     * @return        false if the queue is full
+     */
+    public boolean enqueueLatest(byte command, byte arg0, byte arg1) {
+        int match = this.findCoalescable(command);
+        if (match >= 0) {
+            this.coalescedCount++;
+            if (!this.hasOrderedFrameAfter(match)) {
+                int offset = ((this.head + match) % this.capacity) * MAX_FRAME_LENGTH;
+                this.frames[offset + 1] = arg0;
+                this.frames[offset + 2] = arg1;
+                return true;
+            }
+
+            this.remove(match);
+        } else if (!this.reserve()) {
+            return false;
+        }
+
+        int slot = (this.head + this.count) % this.capacity;
+        int offset = slot * MAX_FRAME_LENGTH;
+        this.frames[offset] = command;
+        this.frames[offset + 1] = arg0;
+        this.frames[offset + 2] = arg1;
+        this.lengths[slot] = LightProtocol.LEGACY_FRAME_LENGTH;
+        this.coalescable[slot] = true;
+        this.count++;
+
+        return true;
+    }
+
+    /**
+     * Queues a frame that must be delivered in order and never coalesced.
+     *
+     * @param frame  buffer holding the frame
+     * @param offset offset of the frame in the buffer
+     * @param length length of the frame
+     * @return       false if the queue is full
+     */
+    public boolean enqueue(byte[] frame, int offset, int length) {
+        if (length < 1 || length > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Frame length out of range: " + length);
+        }
+
+        if (!this.reserve()) {
+            return false;
+        }
+
+        int slot = (this.head + this.count) % this.capacity;
+        System.arraycopy(frame, offset, this.frames, slot * MAX_FRAME_LENGTH, length);
+        this.lengths[slot] = length;
+        this.coalescable[slot] = false;
+        this.count++;
+
+        return true;
+    }
+
+    /**
+     * Removes frames from the queue and encodes them as the payload of a single write.
+     *
+     * @param out       buffer receiving the payload
+     * @param maxLength maximum payload length
+     * @param packed    whether the light accepts packed writes
+     * @return          the payload length, or 0 if the queue is empty
+     * @see #peek
+     */
+    public int drain(byte[] out, int maxLength, boolean packed) {
+        int length = this.peek(out, maxLength, packed);
+        this.removePeeked();
+        return length;
+    }
+
+    /**
+     * Encodes frames from the head of the queue as the payload of a single write, leaving them
+     * queued until {@link #removePeeked} is called, so they are not lost if the write cannot
+     * be started.
+     *
+     * In legacy mode one frame is written as-is. In packed mode as many frames as fit are
+     * written with length prefixes, except that a lone 3-byte frame is still written as-is
+     * since both kinds of firmware understand it.
+     *
+     * @param out       buffer receiving the payload
+     * @param maxLength maximum payload length
+     * @param packed    whether the light accepts packed writes
+     * @return          the payload length, or 0 if the queue is empty
+     */
+    public int peek(byte[] out, int maxLength, boolean packed) {
+        this.peekedFrames = 0;
+
+        if (!packed) {
+            if (this.count == 0) {
+                return 0;
+            }
+
+            int length = this.lengths[this.head];
+            System.arraycopy(this.frames, this.head * MAX_FRAME_LENGTH, out, 0, length);
+            this.peekedFrames = 1;
+            return length;
+        }
+
+        int length = 1;
+        int packedFrames = 0;
+        while (packedFrames < this.count) {
+            int slot = (this.head + packedFrames) % this.capacity;
+            int frameLength = this.lengths[slot];
+            if (length + 1 + frameLength > maxLength) {
+                break;
+            }
+
+            out[length] = (byte) frameLength;
+            System.arraycopy(this.frames, slot * MAX_FRAME_LENGTH, out, length + 1, frameLength);
+            length += 1 + frameLength;
+            packedFrames++;
+        }
+
+        if (packedFrames == 0) {
+            return 0;
+        }
+
+        this.peekedFrames = packedFrames;
+        if (packedFrames == 1 && out[1] == LightProtocol.LEGACY_FRAME_LENGTH) {
+            System.arraycopy(out, 2, out, 0, LightProtocol.LEGACY_FRAME_LENGTH);
+            return LightProtocol.LEGACY_FRAME_LENGTH;
+        }
+
+        out[0] = LightProtocol.PACKED_WRITE_MARKER;
+        return length;
+    }
+
+    /**
+     * Removes the frames encoded by the last call to {@link #peek}.
+     */
+    public void removePeeked() {
+        for (int i = 0; i < this.peekedFrames; i++) {
+            this.pop();
+        }
+        this.peekedFrames = 0;
+    }
+
+    /**
+     * Discards all queued frames.
+     */
+    public void clear() {
+        this.head = 0;
+        this.count = 0;
+        this.peekedFrames = 0;
+    }
+
+    /**
+     * Gets the number of queued frames.
+     *
+     * @return the queued frame count
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Gets the number of frames accepted into the queue, including coalesced ones.
+     *
+     * @return the enqueued frame count
+     */
+    public long getEnqueuedCount() {
+        return this.enqueuedCount + this.coalescedCount;
+    }
+
+    /**
+     * Gets the number of state commands that replaced a queued command.
+     *
+     * @return the coalesced command count
+     */
+    public long getCoalescedCount() {
+        return this.coalescedCount;
+    }
+
+    /**
+     * Gets the number of frames rejected because the queue was full.
+     *
+     * @return the dropped frame count
+     */
+    public long getDroppedCount() {
+        return this.droppedCount;
+    }
+
+    /**
+     * Checks for room for one more frame.
+     *
+     * @return false if the queue is full
+     */
+    private boolean reserve() {
+        if (this.count == this.capacity) {
+            this.droppedCount++;
+            return false;
+        }
+
+        this.enqueuedCount++;
+        return true;
+    }
+
+    /**
+     * Finds a queued state command that a new one may replace.
+     *
+     * @param command the command byte
+     * @return        the position in the queue, or -1 if there is none
+     */
+    private int findCoalescable(byte command) {
+        for (int i = this.peekedFrames; i < this.count; i++) {
+            int slot = (this.head + i) % this.capacity;
+            if (this.coalescable[slot] && this.frames[slot * MAX_FRAME_LENGTH] == command) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Checks whether a frame that must stay in order is queued behind a position.
+     *
+     * @param position the position in the queue
+     * @return         true if an ordered frame follows
+     */
+    private boolean hasOrderedFrameAfter(int position) {
+        for (int i = position + 1; i < this.count; i++) {
+            if (!this.coalescable[(this.head + i) % this.capacity]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes a frame from the middle of the queue, moving the frames behind it forward.
+     *
+     * @param position the position in the queue
+     */
+    private void remove(int position) {
+        for (int i = position; i < this.count - 1; i++) {
+            int slot = (this.head + i) % this.capacity;
+            int next = (slot + 1) % this.capacity;
+            System.arraycopy(this.frames, next * MAX_FRAME_LENGTH, this.frames, slot * MAX_FRAME_LENGTH, this.lengths[next]);
+            this.lengths[slot] = this.lengths[next];
+            this.coalescable[slot] = this.coalescable[next];
+        }
+        this.count--;
+    }
+
+    /**
+     * Removes the frame at the head of the queue.
+     */
+    private void pop() {
+        this.head = (this.head + 1) % this.capacity;
+        this.count--;
+    }
+}
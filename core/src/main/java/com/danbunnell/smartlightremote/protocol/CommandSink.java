@@ -0,0 +1,26 @@
+package com.danbunnell.smartlightremote.protocol;
+
+/**
+ * Accepts command frames for a light, whatever link carries them
+ */
+public interface CommandSink {
+    /**
+     * Sends a 3-byte state command, superseding one of the same type that has not gone out yet.
+     *
+     * @param command the command byte
+     * @param arg0    the first argument byte
+     * @param arg1    the second argument byte
+     * @return        false if the command was dropped
+     */
+    boolean send(byte command, byte arg0, byte arg1);
+
+    /**
+     * Sends a frame that must be delivered in order.
+     *
+     * @param frame  buffer holding the frame; only valid for the duration of the call
+     * @param offset offset of the frame in the buffer
+     * @param length length of the frame
+     * @return       false if the frame was dropped
+     */
+    boolean sendFrame(byte[] frame, int offset, int length);
+}
@@ -0,0 +1,237 @@
+package com.danbunnell.smartlightremote.protocol;
+
+/**
+ * Recognizes notifications that merely echo values this client wrote to the light.
+ *
+ * Every outgoing write is tracked with a sequence number until the light acknowledges it by
+ * notifying the same value. The light applies writes in order, so acknowledging a write also
+ * retires every older one. Retired writes are still remembered until they time out, so a late
+ * echo of an earlier write, e.g. after two quick writes, is not taken for a change made on the
+ * device. Only notifications that match no recent write, while nothing is in flight, are
+ * reported as genuine device-originated changes.
+ */
+public class EchoSuppressor {
+
+    /**
+     * the notification is a device-originated change and should be applied
+     */
+    public static final int ACCEPTED = 0;
+
+    /**
+     * the notification echoes the most recent write and carries nothing new
+     */
+    public static final int ECHO = 1;
+
+    /**
+     * the notification is older than a write still in flight and would move the UI backwards
+     */
+    public static final int STALE = 2;
+
+    /**
+     * values of the recent writes, oldest first starting at {@link #head}
+     */
+    private final int[] values;
+
+    /**
+     * send times of the recent writes in milliseconds
+     */
+    private final long[] sentAtMs;
+
+    /**
+     * sequence numbers of the recent writes
+     */
+    private final int[] sequences;
+
+    /**
+     * how long a write is remembered, acknowledged or not
+     */
+    private final long timeoutMs;
+
+    /**
+     * index of the oldest recent write
+     */
+    private int head;
+
+    /**
+     * number of recent writes, retired ones first
+     */
+    private int count;
+
+    /**
+     * number of the newest recent writes that are still in flight
+     */
+    private int inFlight;
+
+    /**
+     * sequence number handed to the next write
+     */
+    private int nextSequence;
+
+    /**
+     * sequence number of the newest acknowledged write
+     */
+    private int lastAcknowledgedSequence;
+
+    private long acceptedCount;
+    private long echoCount;
+    private long staleCount;
+
+    /**
+     * Initializes a new instance of the {@link EchoSuppressor} class.
+     *
+     * @param capacity  the maximum number of writes tracked at once
+     * @param timeoutMs how long a write is remembered, acknowledged or not
+     */
+    public EchoSuppressor(int capacity, long timeoutMs) {
+        this.values = new int[capacity];
+        this.sentAtMs = new long[capacity];
+        this.sequences = new int[capacity];
+        this.timeoutMs = timeoutMs;
+        this.lastAcknowledgedSequence = -1;
+    }
+
+    /**
+     * Records a value written to the light.
+     *
+     * @param value the value written
+     * @param nowMs the current time in milliseconds
+     * @return      the sequence number assigned to the write
+     */
+    public int recordWrite(int value, long nowMs) {
+        if (this.count == this.values.length) {
+            // Oldest write is the least likely to still be echoed; give up on it
+            this.dropOldest();
+        }
+
+        int index = (this.head + this.count) % this.values.length;
+        int sequence = this.nextSequence++;
+        this.values[index] = value;
+        this.sentAtMs[index] = nowMs;
+        this.sequences[index] = sequence;
+        this.count++;
+        this.inFlight++;
+
+        return sequence;
+    }
+
+    /**
+     * Classifies a value notified by the light.
+     *
+     * @param value the notified value
+     * @param nowMs the current time in milliseconds
+     * @return      {@link #ACCEPTED}, {@link #ECHO} or {@link #STALE}
+     */
+    public int onNotification(int value, long nowMs) {
+        this.expire(nowMs);
+
+        int retired = this.count - this.inFlight;
+        for (int i = retired; i < this.count; i++) {
+            int index = (this.head + i) % this.values.length;
+            if (this.values[index] == value) {
+                this.lastAcknowledgedSequence = this.sequences[index];
+                this.inFlight = this.count - i - 1;
+
+                if (this.inFlight == 0) {
+                    this.echoCount++;
+                    return ECHO;
+                }
+
+                this.staleCount++;
+                return STALE;
+            }
+        }
+
+        // A late echo of a write that a newer acknowledgement already retired
+        for (int i = retired - 1; i >= 0; i--) {
+            if (this.values[(this.head + i) % this.values.length] == value) {
+                if (this.inFlight == 0 && i == this.count - 1) {
+                    this.echoCount++;
+                    return ECHO;
+                }
+
+                this.staleCount++;
+                return STALE;
+            }
+        }
+
+        if (this.inFlight > 0) {
+            // Writes still in flight will overwrite whatever the light reports now
+            this.staleCount++;
+            return STALE;
+        }
+
+        this.acceptedCount++;
+        return ACCEPTED;
+    }
+
+    /**
+     * Forgets all recent writes, e.g. after a disconnect.
+     */
+    public void reset() {
+        this.head = 0;
+        this.count = 0;
+        this.inFlight = 0;
+    }
+
+    /**
+     * Gets the number of writes not yet acknowledged.
+     *
+     * @return the in-flight write count
+     */
+    public int getInFlightCount() {
+        return this.inFlight;
+    }
+
+    /**
+     * Gets the sequence number of the newest write the light has acknowledged.
+     *
+     * @return a sequence number, or -1 if nothing has been acknowledged
+     */
+    public int getLastAcknowledgedSequence() {
+        return this.lastAcknowledgedSequence;
+    }
+
+    /**
+     * Gets the number of notifications reported as genuine changes.
+     *
+     * @return the accepted notification count
+     */
+    public long getAcceptedCount() {
+        return this.acceptedCount;
+    }
+
+    /**
+     * Gets the number of notifications dropped as echoes or stale values.
+     *
+     * @return the suppressed notification count
+     */
+    public long getSuppressedCount() {
+        return this.echoCount + this.staleCount;
+    }
+
+    /**
+     * Gets the number of notifications dropped as stale values.
+     *
+     * @return the stale notification count
+     */
+    public long getStaleCount() {
+        return this.staleCount;
+    }
+
+    /**
+     * Forgets writes sent longer ago than the timeout, acknowledged or not.
+     *
+     * @param nowMs the current time in milliseconds
+     */
+    private void expire(long nowMs) {
+        while (this.count > 0 && nowMs - this.sentAtMs[this.head] > this.timeoutMs) {
+            this.dropOldest();
+        }
+    }
+
+    private void dropOldest() {
+        this.head = (this.head + 1) % this.values.length;
+        this.count--;
+        this.inFlight = Math.min(this.inFlight, this.count);
+    }
+}
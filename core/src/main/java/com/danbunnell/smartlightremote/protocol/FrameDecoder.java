@@ -0,0 +1,259 @@
+package com.danbunnell.smartlightremote.protocol;
+
+/**
+ * Incrementally decodes the notification stream from the light into typed events.
+ *
+ * Notifications may carry any number of frames, and a frame may be split across
+ * notifications; partial frames are kept until the rest arrives. Frames that are complete
+ * within a notification are decoded in place, and partial ones are assembled in a
+ * preallocated buffer, so decoding never allocates. Frames go either to a {@link Listener} as
+ * typed events, or as they are to a {@link FrameListener}, e.g. to be passed on elsewhere and
+ * interpreted there with {@link #decodeFrame}.
+ *
+ * Not thread-safe.
+ */
+public class FrameDecoder {
+
+    /**
+     * Receives decoded frames. Buffers passed to callbacks are only valid during the call.
+     */
+    public interface Listener {
+        /**
+         * Called when the light reports its hue.
+         *
+         * @param hue the hue, 0-359
+         */
+        void onHue(int hue);
+
+        /**
+         * Called when the light reports its saturation.
+         *
+         * @param saturation the saturation, 0-255
+         */
+        void onSaturation(int saturation);
+
+        /**
+         * Called when the light reports its capabilities.
+         *
+         * @param capabilities bit mask of LightProtocol.CAPABILITY_* flags
+         */
+        void onCapabilities(int capabilities);
+
+        /**
+         * Called when the light reports the outcome of an effect upload.
+         *
+         * @param status one of the LightProtocol.EFFECT_STATUS_* values
+         */
+        void onEffectStatus(int status);
+
+        /**
+         * Called for frames without a typed callback.
+         *
+         * @param command the command byte
+         * @param frame   buffer holding the frame, starting with the command byte
+         * @param offset  offset of the frame
+         * @param length  length of the frame
+         */
+        void onUnknownFrame(byte command, byte[] frame, int offset, int length);
+    }
+
+    /**
+     * Receives complete frames without interpreting them. Buffers passed to callbacks are only
+     * valid during the call.
+     */
+    public interface FrameListener {
+        /**
+         * Called for every complete frame.
+         *
+         * @param frame  buffer holding the frame, starting with the command byte
+         * @param offset offset of the frame
+         * @param length length of the frame
+         */
+        void onFrame(byte[] frame, int offset, int length);
+    }
+
+    private static final int STATE_FRAME_START = 0;
+    private static final int STATE_EXTENDED_LENGTH = 1;
+    private static final int STATE_FRAME_BODY = 2;
+
+    private static final int MAX_FRAME_LENGTH = 255;
+
+    private final Listener listener;
+    private final FrameListener frameListener;
+    private final byte[] partial = new byte[MAX_FRAME_LENGTH];
+
+    private int state = STATE_FRAME_START;
+    private int expectedLength;
+    private int partialLength;
+
+    private long framesDecoded;
+    private long malformedFrames;
+
+    /**
+     * Initializes a new instance of the {@link FrameDecoder} class.
+     *
+     * @param listener the receiver of decoded frames
+     */
+    public FrameDecoder(Listener listener) {
+        this.listener = listener;
+        this.frameListener = null;
+    }
+
+    /**
+     * Initializes a new instance of the {@link FrameDecoder} class that only splits the stream
+     * into frames.
+     *
+     * @param frameListener the receiver of complete frames
+     */
+    public FrameDecoder(FrameListener frameListener) {
+        this.listener = null;
+        this.frameListener = frameListener;
+    }
+
+    /**
+     * Consumes the payload of a notification.
+     *
+     * @param data   buffer holding the payload
+     * @param offset offset of the payload
+     * @param length length of the payload
+     */
+    public void decode(byte[] data, int offset, int length) {
+        int position = offset;
+        int end = offset + length;
+
+        while (position < end) {
+            if (this.state == STATE_FRAME_START) {
+                // Fast path: whole frames inside the notification are dispatched in place
+                if (data[position] != LightProtocol.EXTENDED_FRAME_MARKER) {
+                    if (end - position >= LightProtocol.LEGACY_FRAME_LENGTH) {
+                        this.dispatch(data, position, LightProtocol.LEGACY_FRAME_LENGTH);
+                        position += LightProtocol.LEGACY_FRAME_LENGTH;
+                    } else {
+                        this.expectedLength = LightProtocol.LEGACY_FRAME_LENGTH;
+                        this.partialLength = 0;
+                        this.state = STATE_FRAME_BODY;
+                    }
+                    continue;
+                }
+
+                if (end - position >= 2) {
+                    int frameLength = data[position + 1] & 0xFF;
+                    if (frameLength == 0) {
+                        this.malformedFrames++;
+                        position += 2;
+                        continue;
+                    }
+
+                    if (end - position - 2 >= frameLength) {
+                        this.dispatch(data, position + 2, frameLength);
+                        position += 2 + frameLength;
+                        continue;
+                    }
+                }
+
+                this.state = STATE_EXTENDED_LENGTH;
+                position++;
+            } else if (this.state == STATE_EXTENDED_LENGTH) {
+                this.expectedLength = data[position++] & 0xFF;
+                this.partialLength = 0;
+                if (this.expectedLength == 0) {
+                    this.malformedFrames++;
+                    this.state = STATE_FRAME_START;
+                } else {
+                    this.state = STATE_FRAME_BODY;
+                }
+            } else {
+                int count = Math.min(end - position, this.expectedLength - this.partialLength);
+                System.arraycopy(data, position, this.partial, this.partialLength, count);
+                this.partialLength += count;
+                position += count;
+
+                if (this.partialLength == this.expectedLength) {
+                    this.state = STATE_FRAME_START;
+                    this.dispatch(this.partial, 0, this.expectedLength);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers one complete frame, already split off the stream without its extended header,
+     * to the listener.
+     *
+     * @param frame  buffer holding the frame, starting with the command byte
+     * @param offset offset of the frame
+     * @param length length of the frame
+     */
+    public void decodeFrame(byte[] frame, int offset, int length) {
+        if (length == 0) {
+            this.malformedFrames++;
+            return;
+        }
+
+        this.dispatch(frame, offset, length);
+    }
+
+    /**
+     * Discards any partial frame, e.g. after a disconnect.
+     */
+    public void reset() {
+        this.state = STATE_FRAME_START;
+        this.partialLength = 0;
+    }
+
+    /**
+     * Gets the number of complete frames decoded.
+     *
+     * @return the decoded frame count
+     */
+    public long getFramesDecoded() {
+        return this.framesDecoded;
+    }
+
+    /**
+     * Gets the number of frames discarded as malformed.
+     *
+     * @return the malformed frame count
+     */
+    public long getMalformedFrames() {
+        return this.malformedFrames;
+    }
+
+    /**
+     * Delivers a complete frame to the listener.
+     *
+     * @param frame  buffer holding the frame
+     * @param offset offset of the frame
+     * @param length length of the frame
+     */
+    private void dispatch(byte[] frame, int offset, int length) {
+        this.framesDecoded++;
+        if (this.frameListener != null) {
+            this.frameListener.onFrame(frame, offset, length);
+            return;
+        }
+
+        byte command = frame[offset];
+
+        if (length >= LightProtocol.LEGACY_FRAME_LENGTH) {
+            switch (command) {
+                case LightProtocol.CMD_CLIENT_NOTIFY_HUE:
+                    this.listener.onHue(LightProtocol.bytesToWord(frame[offset + 1], frame[offset + 2]));
+                    return;
+                case LightProtocol.CMD_CLIENT_NOTIFY_SATURATION:
+                    this.listener.onSaturation(frame[offset + 1] & 0xFF);
+                    return;
+                case LightProtocol.CMD_CLIENT_NOTIFY_CAPABILITIES:
+                    this.listener.onCapabilities(frame[offset + 1] & 0xFF);
+                    return;
+                case LightProtocol.CMD_CLIENT_NOTIFY_EFFECT_STATUS:
+                    this.listener.onEffectStatus(frame[offset + 1] & 0xFF);
+                    return;
+                default:
+                    break;
+            }
+        }
+
+        this.listener.onUnknownFrame(command, frame, offset, length);
+    }
+}
@@ -0,0 +1,116 @@
+package com.danbunnell.smartlightremote.protocol;
+
+/**
+ * Command and framing constants shared with the 'smart-lite' firmware.
+ *
+ * Every command is a frame starting with a command byte. Legacy firmware only understands
+ * 3-byte frames, one per write. Firmware that reports {@link #CAPABILITY_PACKED_WRITES} also
+ * accepts packed writes: {@link #PACKED_WRITE_MARKER} followed by any number of frames, each
+ * prefixed with its length in bytes.
+ *
+ * Notifications form a byte stream that may batch several frames into one notification or
+ * split a frame across notifications. Notify frames are 3 bytes, unless they start with
+ * {@link #EXTENDED_FRAME_MARKER}, in which case the next byte gives the length of the frame
+ * that follows.
+ */
+public final class LightProtocol {
+
+    // Notifications sent by the light
+    public final static byte CMD_CLIENT_NOTIFY_HUE = 0x01;
+    public final static byte CMD_CLIENT_NOTIFY_SATURATION = 0x02;
+    public final static byte CMD_CLIENT_NOTIFY_CAPABILITIES = 0x03;
+    public final static byte CMD_CLIENT_NOTIFY_EFFECT_STATUS = 0x04;
+    public final static byte CMD_CLIENT_NOTIFY_TIME_SYNC = 0x05;
+
+    // Commands sent to the light
+    public final static byte CMD_ENABLE_REMOTE_CONTROL = 0x01;
+    public final static byte CMD_SET_HUE = 0x02;
+    public final static byte CMD_SET_SATURATION = 0x03;
+    public final static byte CMD_QUERY_CAPABILITIES = 0x04;
+
+    // Effect upload, see effect.EffectUploader; these frames are longer than 3 bytes and are
+    // only sent to lights reporting CAPABILITY_EFFECTS
+    public final static byte CMD_EFFECT_BEGIN = 0x05;
+    public final static byte CMD_EFFECT_CHUNK = 0x06;
+    public final static byte CMD_EFFECT_COMMIT = 0x07;
+    public final static byte CMD_EFFECT_STOP = 0x08;
+
+    // Clock synchronization, see sync.ClockSync; only sent to lights reporting CAPABILITY_CLOCK
+    public final static byte CMD_TIME_SYNC_REQUEST = 0x09;
+    public final static byte CMD_AT = 0x0A;
+
+    // Capability flags reported by CMD_CLIENT_NOTIFY_CAPABILITIES
+    public final static int CAPABILITY_PACKED_WRITES = 0x01;
+    public final static int CAPABILITY_EFFECTS = 0x02;
+    public final static int CAPABILITY_CLOCK = 0x04;
+
+    // Status reported by CMD_CLIENT_NOTIFY_EFFECT_STATUS after a commit
+    public final static int EFFECT_STATUS_PLAYING = 0;
+    public final static int EFFECT_STATUS_BAD_CHECKSUM = 1;
+    public final static int EFFECT_STATUS_BAD_PROGRAM = 2;
+    public final static int EFFECT_STATUS_TOO_LARGE = 3;
+
+    /**
+     * length of every frame understood by legacy firmware
+     */
+    public final static int LEGACY_FRAME_LENGTH = 3;
+
+    /**
+     * first byte of a packed write; legacy firmware ignores it as an unknown command
+     */
+    public final static byte PACKED_WRITE_MARKER = (byte) 0xFF;
+
+    /**
+     * first byte of a variable-length frame in the notification stream
+     */
+    public final static byte EXTENDED_FRAME_MARKER = (byte) 0xFF;
+
+    /**
+     * ATT MTU every connection starts with
+     */
+    public final static int DEFAULT_MTU = 23;
+
+    /**
+     * ATT MTU requested where the platform supports negotiation
+     */
+    public final static int PREFERRED_MTU = 247;
+
+    /**
+     * bytes of each ATT packet taken by the opcode and handle
+     */
+    public final static int ATT_HEADER_LENGTH = 3;
+
+    private LightProtocol() {
+    }
+
+    /**
+     * Gets the largest write payload for an ATT MTU.
+     *
+     * @param mtu the negotiated ATT MTU
+     * @return    the maximum characteristic value length
+     */
+    public static int maxWriteLength(int mtu) {
+        return mtu - ATT_HEADER_LENGTH;
+    }
+
+    /**
+     * Converts an upper and lower byte into a single 16-bit word.
+     *
+     * @param upper upper byte
+     * @param lower lower byte
+     * @return      a 16-bit word
+     */
+    public static int bytesToWord(byte upper, byte lower) {
+        return ((upper << 8) & 0x0000ff00) | (lower & 0x000000ff);
+    }
+
+    /**
+     * Converts a 16-bit word into upper and lower bytes.
+     *
+     * @param word a 16-bit word
+     * @return     array of bytes, ordered upper then lower
+     */
+    public static byte[] wordToBytes(int word) {
+        return new byte[] { (byte) ((word >> 8) & 0xFF), (byte) (word & 0xFF)};
+    }
+}
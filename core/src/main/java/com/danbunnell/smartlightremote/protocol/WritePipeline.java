@@ -0,0 +1,215 @@
+package com.danbunnell.smartlightremote.protocol;
+
+/**
+ * Feeds queued commands to a transport one write at a time.
+ *
+ * Only one write may be outstanding on a GATT connection, so commands issued while a write is
+ * in flight wait in a {@link CommandQueue}. When the write completes, everything that queued
+ * up in the meantime goes out in the next write, packed into one payload where the light
+ * supports it. Commands stay queued until the transport accepts a write, so a write refused
+ * while another operation holds the link is not lost; call {@link #retry} once it completes.
+ *
+ * Not thread-safe; RBLService confines it to its event loop.
+ */
+public class WritePipeline implements CommandSink {
+
+    /**
+     * A link that can carry one write at a time
+     */
+    public interface Transport {
+        /**
+         * Starts a write. Completion must be reported through {@link WritePipeline#onWriteComplete}.
+         *
+         * @param payload buffer holding the payload; only valid for the duration of the call
+         * @param length  the payload length
+         * @return        false if the write could not be started; the payload stays queued
+         */
+        boolean write(byte[] payload, int length);
+    }
+
+    private static final int QUEUE_CAPACITY = 64;
+
+    private final Transport transport;
+    private final CommandQueue queue;
+    private final byte[] payload;
+
+    private int mtu;
+    private boolean packedWrites;
+    private boolean writeInFlight;
+
+    private long writesIssued;
+    private long writesRefused;
+    private long writesFailed;
+    private long bytesWritten;
+
+    /**
+     * Initializes a new instance of the {@link WritePipeline} class.
+     *
+     * @param transport the link carrying the writes
+     */
+    public WritePipeline(Transport transport) {
+        this.transport = transport;
+        this.queue = new CommandQueue(QUEUE_CAPACITY);
+        this.payload = new byte[LightProtocol.maxWriteLength(LightProtocol.PREFERRED_MTU)];
+        this.mtu = LightProtocol.DEFAULT_MTU;
+    }
+
+    @Override
+    public boolean send(byte command, byte arg0, byte arg1) {
+        boolean queued = this.queue.enqueueLatest(command, arg0, arg1);
+        this.pump();
+        return queued;
+    }
+
+    @Override
+    public boolean sendFrame(byte[] frame, int offset, int length) {
+        boolean queued = this.queue.enqueue(frame, offset, length);
+        this.pump();
+        return queued;
+    }
+
+    /**
+     * Called when the transport finishes a write.
+     *
+     * @param success whether the write succeeded
+     */
+    public void onWriteComplete(boolean success) {
+        if (!success) {
+            this.writesFailed++;
+        }
+
+        this.writeInFlight = false;
+        this.pump();
+    }
+
+    /**
+     * Tries again to start a write the transport refused, e.g. once the GATT operation that
+     * held the link has completed.
+     */
+    public void retry() {
+        this.pump();
+    }
+
+    /**
+     * Sets the negotiated ATT MTU.
+     *
+     * @param mtu the ATT MTU
+     */
+    public void setMtu(int mtu) {
+        this.mtu = Math.max(LightProtocol.DEFAULT_MTU, Math.min(mtu, LightProtocol.PREFERRED_MTU));
+    }
+
+    /**
+     * Enables packed writes once the light has reported support for them.
+     *
+     * @param packedWrites whether the light accepts packed writes
+     */
+    public void setPackedWrites(boolean packedWrites) {
+        this.packedWrites = packedWrites;
+    }
+
+    /**
+     * Discards queued commands and returns to legacy writes, e.g. after a disconnect.
+     */
+    public void reset() {
+        this.queue.clear();
+        this.writeInFlight = false;
+        this.packedWrites = false;
+        this.mtu = LightProtocol.DEFAULT_MTU;
+    }
+
+    /**
+     * Gets the negotiated ATT MTU.
+     *
+     * @return the ATT MTU
+     */
+    public int getMtu() {
+        return this.mtu;
+    }
+
+    /**
+     * Gets whether writes are packed.
+     *
+     * @return true if the light accepts packed writes
+     */
+    public boolean isPackedWrites() {
+        return this.packedWrites;
+    }
+
+    /**
+     * Gets the queue of commands waiting to be written.
+     *
+     * @return the command queue
+     */
+    public CommandQueue getQueue() {
+        return this.queue;
+    }
+
+    /**
+     * Gets the number of state commands replaced by a newer one before they were written.
+     *
+     * @return the coalesced command count
+     */
+    public long getCommandsCoalesced() {
+        return this.queue.getCoalescedCount();
+    }
+
+    /**
+     * Gets the number of writes started.
+     *
+     * @return the issued write count
+     */
+    public long getWritesIssued() {
+        return this.writesIssued;
+    }
+
+    /**
+     * Gets the number of times the transport refused to start a write, leaving it queued.
+     *
+     * @return the refused write count
+     */
+    public long getWritesRefused() {
+        return this.writesRefused;
+    }
+
+    /**
+     * Gets the number of writes that completed with an error.
+     *
+     * @return the failed write count
+     */
+    public long getWritesFailed() {
+        return this.writesFailed;
+    }
+
+    /**
+     * Gets the number of payload bytes written.
+     *
+     * @return the written byte count
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    /**
+     * Starts the next write if the link is idle and commands are waiting.
+     */
+    private void pump() {
+        while (!this.writeInFlight && this.queue.size() > 0) {
+            int length = this.queue.peek(
+                    this.payload, LightProtocol.maxWriteLength(this.mtu), this.packedWrites);
+            if (length == 0) {
+                return;
+            }
+
+            if (!this.transport.write(this.payload, length)) {
+                this.writesRefused++;
+                return;
+            }
+
+            this.queue.removePeeked();
+            this.writeInFlight = true;
+            this.writesIssued++;
+            this.bytesWritten += length;
+        }
+    }
+}
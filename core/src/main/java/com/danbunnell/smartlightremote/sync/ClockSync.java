@@ -0,0 +1,211 @@
+package com.danbunnell.smartlightremote.sync;
+
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+
+/**
+ * Runs the clock synchronization exchange with one light and schedules commands on its clock.
+ *
+ * A request is {@link LightProtocol#CMD_TIME_SYNC_REQUEST} with a one-byte sequence number,
+ * padded to 3 bytes. The light answers with an extended
+ * {@link LightProtocol#CMD_CLIENT_NOTIFY_TIME_SYNC} frame echoing the sequence number and
+ * carrying the times, in microseconds on its own clock, at which it received the request and
+ * sent the reply. A timed command is {@link LightProtocol#CMD_AT}, the time on the light's
+ * clock at which to act, and a 3-byte command; the light holds it until then, or applies it
+ * at once if the time has passed.
+ *
+ * The light's clock is 32 bits wide and wraps every 71 minutes; times are unwrapped against
+ * the previous reply, which is why the exchange must keep running while commands are timed.
+ *
+ * Not thread-safe.
+ */
+public class ClockSync {
+
+    public static final int REQUEST_LENGTH = 3;
+
+    /**
+     * length of the reply frame, after the extended frame header
+     */
+    public static final int REPLY_LENGTH = 10;
+
+    public static final int TIMED_COMMAND_LENGTH = 8;
+
+    /**
+     * interval between requests until the estimate has settled
+     */
+    public static final long FAST_INTERVAL_MS = 250;
+
+    /**
+     * interval between requests once it has; a few bytes a second keeps the window recent
+     */
+    public static final long SLOW_INTERVAL_MS = 1000;
+
+    /**
+     * replies further apart than this cannot be unwrapped reliably
+     */
+    private static final long MAX_REPLY_GAP_US = 30 * 60 * 1000000L;
+
+    /**
+     * requests that may be awaiting a reply; a power of two
+     */
+    private static final int PENDING_SLOTS = 8;
+
+    private final ClockSyncEstimator estimator;
+    private final int[] pendingSequences = new int[PENDING_SLOTS];
+    private final long[] pendingUs = new long[PENDING_SLOTS];
+    private int nextSequence;
+
+    private boolean lightTimeKnown;
+    private long lastLightUs;
+    private long lastReplyUs;
+
+    private long repliesMatched;
+    private long repliesUnmatched;
+
+    /**
+     * Initializes a new instance of the {@link ClockSync} class.
+     *
+     * @param estimator receives the completed exchanges
+     */
+    public ClockSync(ClockSyncEstimator estimator) {
+        this.estimator = estimator;
+        this.reset();
+    }
+
+    /**
+     * Forgets the light's clock, e.g. after a disconnect.
+     */
+    public void reset() {
+        this.estimator.reset();
+        this.lightTimeKnown = false;
+        for (int i = 0; i < PENDING_SLOTS; i++) {
+            this.pendingSequences[i] = -1;
+        }
+    }
+
+    /**
+     * Encodes the next request and remembers when it was sent.
+     *
+     * @param out    buffer receiving the frame
+     * @param offset offset of the frame in the buffer
+     * @param nowUs  the local time
+     * @return       the frame length
+     */
+    public int buildRequest(byte[] out, int offset, long nowUs) {
+        int sequence = this.nextSequence;
+        this.nextSequence = (this.nextSequence + 1) & 0xFF;
+
+        int slot = sequence & (PENDING_SLOTS - 1);
+        this.pendingSequences[slot] = sequence;
+        this.pendingUs[slot] = nowUs;
+
+        out[offset] = LightProtocol.CMD_TIME_SYNC_REQUEST;
+        out[offset + 1] = (byte) sequence;
+        out[offset + 2] = 0x00;
+        return REQUEST_LENGTH;
+    }
+
+    /**
+     * Completes an exchange with the light's reply.
+     *
+     * @param frame  buffer holding the reply frame, starting with the command byte
+     * @param offset offset of the frame
+     * @param length length of the frame
+     * @param nowUs  the local time the reply arrived
+     * @return       false if the frame is not a reply to an outstanding request
+     */
+    public boolean onReply(byte[] frame, int offset, int length, long nowUs) {
+        if (length < REPLY_LENGTH || frame[offset] != LightProtocol.CMD_CLIENT_NOTIFY_TIME_SYNC) {
+            return false;
+        }
+
+        int sequence = frame[offset + 1] & 0xFF;
+        int slot = sequence & (PENDING_SLOTS - 1);
+        if (this.pendingSequences[slot] != sequence) {
+            this.repliesUnmatched++;
+            return false;
+        }
+        this.pendingSequences[slot] = -1;
+
+        if (this.lightTimeKnown && nowUs - this.lastReplyUs > MAX_REPLY_GAP_US) {
+            this.estimator.reset();
+            this.lightTimeKnown = false;
+        }
+
+        int received = readInt(frame, offset + 2);
+        int sent = readInt(frame, offset + 6);
+        long t2 = this.lightTimeKnown
+                ? this.lastLightUs + (received - (int) this.lastLightUs)
+                : received & 0xFFFFFFFFL;
+        long t3 = t2 + (sent - received);
+
+        this.lightTimeKnown = true;
+        this.lastLightUs = t3;
+        this.lastReplyUs = nowUs;
+        this.repliesMatched++;
+        this.estimator.addSample(this.pendingUs[slot], t2, t3, nowUs);
+        return true;
+    }
+
+    /**
+     * Encodes a command for the light to apply at a local time.
+     *
+     * @param out     buffer receiving the frame
+     * @param offset  offset of the frame in the buffer
+     * @param localUs when to apply the command, in local time
+     * @param command the command byte
+     * @param arg0    the first argument byte
+     * @param arg1    the second argument byte
+     * @return        the frame length, or -1 if the light's clock is not known yet
+     */
+    public int buildTimedCommand(byte[] out, int offset, long localUs, byte command, byte arg0, byte arg1) {
+        if (!this.estimator.isSynchronized()) {
+            return -1;
+        }
+
+        int lightUs = (int) this.estimator.toLightUs(localUs);
+        out[offset] = LightProtocol.CMD_AT;
+        out[offset + 1] = (byte) (lightUs >> 24);
+        out[offset + 2] = (byte) (lightUs >> 16);
+        out[offset + 3] = (byte) (lightUs >> 8);
+        out[offset + 4] = (byte) lightUs;
+        out[offset + 5] = command;
+        out[offset + 6] = arg0;
+        out[offset + 7] = arg1;
+        return TIMED_COMMAND_LENGTH;
+    }
+
+    /**
+     * Gets the delay before the next request should be sent.
+     *
+     * @return the delay in milliseconds
+     */
+    public long getRequestIntervalMs() {
+        return this.estimator.getSampleCount() < ClockSyncEstimator.DEFAULT_WINDOW / 4
+                ? FAST_INTERVAL_MS
+                : SLOW_INTERVAL_MS;
+    }
+
+    public ClockSyncEstimator getEstimator() {
+        return this.estimator;
+    }
+
+    public long getRepliesMatched() {
+        return this.repliesMatched;
+    }
+
+    /**
+     * Gets the number of replies to requests that were not outstanding, e.g. duplicates.
+     *
+     * @return the unmatched reply count
+     */
+    public long getRepliesUnmatched() {
+        return this.repliesUnmatched;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24
+                | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8
+                | (data[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,223 @@
+package com.danbunnell.smartlightremote.sync;
+
+/**
+ * Estimates the offset and drift of a light's clock from NTP-style timestamp exchanges.
+ *
+ * Each exchange gives four timestamps: the request leaving the phone (t1), reaching the light
+ * (t2), the reply leaving the light (t3) and reaching the phone (t4). The light's offset is
+ * ((t2 - t1) + (t3 - t4)) / 2, which is exact when both directions take equally long, and
+ * off by at most half the round trip (t4 - t1) - (t3 - t2) otherwise.
+ *
+ * On BLE the delay of each direction depends on where the exchange falls between connection
+ * events, so most round trips are lopsided and the short ones are the most trustworthy. Like
+ * NTP's clock filter, the estimate favours them: a line is fitted through the offsets of the
+ * window, weighted by the inverse square of each round trip, so the slope tracks the crystal's
+ * drift and the estimate stays valid between exchanges. Discarding the longer round trips
+ * outright, as NTP does, was less accurate here, since it leaves too few points for the slope.
+ *
+ * Times are in microseconds. Local times come from a monotonic clock, and light times are
+ * unwrapped to 64 bits by the caller. Not thread-safe; adding a sample never allocates.
+ */
+public class ClockSyncEstimator {
+
+    public static final int DEFAULT_WINDOW = 128;
+
+    /**
+     * samples needed before the estimate is used
+     */
+    public static final int MIN_SAMPLES = 4;
+
+    /**
+     * span of the window needed before the slope is fitted; over shorter spans timing noise
+     * would swamp a drift of tens of parts per million
+     */
+    private static final long MIN_DRIFT_SPAN_US = 10000000L;
+
+    /**
+     * drifts beyond this are treated as noise; crystals are within 100 ppm, RC oscillators
+     * within a few thousand
+     */
+    private static final double MAX_DRIFT = 5000e-6;
+
+    private final int window;
+
+    // Ring of the latest samples
+    private final long[] localUs;
+    private final long[] offsetUs;
+    private final long[] delayUs;
+    private int head;
+    private int count;
+
+    private long referenceUs;
+    private double offsetAtReference;
+    private double drift;
+    private long uncertaintyUs;
+
+    /**
+     * Initializes a new instance of the {@link ClockSyncEstimator} class.
+     *
+     * @param window the number of latest exchanges considered
+     */
+    public ClockSyncEstimator(int window) {
+        if (window < MIN_SAMPLES) {
+            throw new IllegalArgumentException("window must be at least " + MIN_SAMPLES + ": " + window);
+        }
+
+        this.window = window;
+        this.localUs = new long[window];
+        this.offsetUs = new long[window];
+        this.delayUs = new long[window];
+    }
+
+    /**
+     * Adds a completed exchange and updates the estimate.
+     *
+     * @param t1 the request leaving the phone, local time
+     * @param t2 the request reaching the light, light time
+     * @param t3 the reply leaving the light, light time
+     * @param t4 the reply reaching the phone, local time
+     */
+    public void addSample(long t1, long t2, long t3, long t4) {
+        long delay = (t4 - t1) - (t3 - t2);
+        if (delay < 0) {
+            // Only possible if a timestamp is wrong
+            return;
+        }
+
+        int slot = (this.head + this.count) % this.window;
+        if (this.count == this.window) {
+            this.head = (this.head + 1) % this.window;
+        } else {
+            this.count++;
+        }
+
+        this.localUs[slot] = t1 + (t4 - t1) / 2;
+        this.offsetUs[slot] = ((t2 - t1) + (t3 - t4)) / 2;
+        this.delayUs[slot] = delay;
+
+        this.fit();
+    }
+
+    /**
+     * Forgets all samples, e.g. after reconnecting to a light whose clock may have restarted.
+     */
+    public void reset() {
+        this.head = 0;
+        this.count = 0;
+        this.drift = 0;
+    }
+
+    /**
+     * Gets whether enough exchanges have been made to convert times.
+     *
+     * @return true if the estimate is usable
+     */
+    public boolean isSynchronized() {
+        return this.count >= MIN_SAMPLES;
+    }
+
+    /**
+     * Converts a local time to the light's clock.
+     *
+     * @param local the local time
+     * @return      the light's time at that instant
+     */
+    public long toLightUs(long local) {
+        return local + Math.round(this.offsetAtReference + this.drift * (local - this.referenceUs));
+    }
+
+    /**
+     * Converts a time on the light's clock to local time.
+     *
+     * @param light the light's time
+     * @return      the local time at that instant
+     */
+    public long toLocalUs(long light) {
+        // Solves light = local + offset + drift * (local - reference) for local
+        return this.referenceUs
+                + Math.round((light - this.referenceUs - this.offsetAtReference) / (1 + this.drift));
+    }
+
+    /**
+     * Gets the light's offset at a local time.
+     *
+     * @param local the local time
+     * @return      light time minus local time
+     */
+    public long getOffsetUs(long local) {
+        return this.toLightUs(local) - local;
+    }
+
+    /**
+     * Gets how much faster the light's clock runs than the local one.
+     *
+     * @return the drift in parts per million
+     */
+    public double getDriftPpm() {
+        return this.drift * 1e6;
+    }
+
+    /**
+     * Gets the error bound of the best exchange in the window: half its round trip.
+     *
+     * @return the bound in microseconds
+     */
+    public long getUncertaintyUs() {
+        return this.uncertaintyUs;
+    }
+
+    public int getSampleCount() {
+        return this.count;
+    }
+
+    /**
+     * Fits the offset line through the samples in the window.
+     */
+    private void fit() {
+        long reference = this.localUs[this.slot(this.count - 1)];
+        double weightSum = 0;
+        double meanX = 0;
+        double meanY = 0;
+        long minDelay = Long.MAX_VALUE;
+        for (int i = 0; i < this.count; i++) {
+            int slot = this.slot(i);
+            double weight = this.weight(slot);
+            weightSum += weight;
+            meanX += weight * (this.localUs[slot] - reference);
+            meanY += weight * this.offsetUs[slot];
+            minDelay = Math.min(minDelay, this.delayUs[slot]);
+        }
+        meanX /= weightSum;
+        meanY /= weightSum;
+
+        double slope = this.drift;
+        if (reference - this.localUs[this.head] >= MIN_DRIFT_SPAN_US) {
+            double sxy = 0;
+            double sxx = 0;
+            for (int i = 0; i < this.count; i++) {
+                int slot = this.slot(i);
+                double weight = this.weight(slot);
+                double dx = this.localUs[slot] - reference - meanX;
+                sxy += weight * dx * (this.offsetUs[slot] - meanY);
+                sxx += weight * dx * dx;
+            }
+            slope = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, sxy / sxx));
+        }
+
+        // The line passes through the weighted mean; re-anchor it at the newest sample
+        this.drift = slope;
+        this.referenceUs = reference;
+        this.offsetAtReference = meanY - slope * meanX;
+        this.uncertaintyUs = minDelay / 2;
+    }
+
+    private double weight(int slot) {
+        // Round trips below a millisecond are not meaningfully better than a millisecond
+        double delay = Math.max(1000, this.delayUs[slot]);
+        return 1 / (delay * delay);
+    }
+
+    private int slot(int index) {
+        return (this.head + index) % this.window;
+    }
+}
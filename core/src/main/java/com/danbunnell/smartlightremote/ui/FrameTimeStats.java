@@ -0,0 +1,120 @@
+package com.danbunnell.smartlightremote.ui;
+
+import java.util.Locale;
+
+/**
+ * Statistics on how UI updates map onto display frames.
+ *
+ * Frame intervals are only counted between frames that follow each other during a burst of
+ * updates; {@link #onIdle} ends a burst, so a pause between updates is not taken for a slow
+ * frame.
+ */
+public class FrameTimeStats {
+
+    /**
+     * frames further apart than this missed at least one vsync at 60 Hz
+     */
+    private static final long JANK_THRESHOLD_NANOS = 17000000L;
+
+    private long updateRequests;
+    private long framesApplied;
+    private long fieldsApplied;
+    private long totalApplyNanos;
+    private long maxApplyNanos;
+    private long lastFrameTimeNanos;
+    private long totalFrameIntervalNanos;
+    private long frameIntervals;
+    private long jankyFrameIntervals;
+
+    /**
+     * Records a request to update the UI.
+     */
+    public void onUpdateRequested() {
+        this.updateRequests++;
+    }
+
+    /**
+     * Records a batch of updates applied in a frame.
+     *
+     * @param frameTimeNanos the vsync time of the frame
+     * @param fieldCount     the number of fields applied
+     * @param applyNanos     how long applying the batch took
+     */
+    public void onFrameApplied(long frameTimeNanos, int fieldCount, long applyNanos) {
+        this.framesApplied++;
+        this.fieldsApplied += fieldCount;
+        this.totalApplyNanos += applyNanos;
+        this.maxApplyNanos = Math.max(this.maxApplyNanos, applyNanos);
+
+        if (this.lastFrameTimeNanos != 0) {
+            long interval = frameTimeNanos - this.lastFrameTimeNanos;
+            this.totalFrameIntervalNanos += interval;
+            this.frameIntervals++;
+            if (interval > JANK_THRESHOLD_NANOS) {
+                this.jankyFrameIntervals++;
+            }
+        }
+
+        this.lastFrameTimeNanos = frameTimeNanos;
+    }
+
+    /**
+     * Records a frame that found nothing to apply; the next applied frame starts a new burst.
+     */
+    public void onIdle() {
+        this.lastFrameTimeNanos = 0;
+    }
+
+    /**
+     * Clears all statistics.
+     */
+    public void reset() {
+        this.updateRequests = 0;
+        this.framesApplied = 0;
+        this.fieldsApplied = 0;
+        this.totalApplyNanos = 0;
+        this.maxApplyNanos = 0;
+        this.lastFrameTimeNanos = 0;
+        this.totalFrameIntervalNanos = 0;
+        this.frameIntervals = 0;
+        this.jankyFrameIntervals = 0;
+    }
+
+    /**
+     * Gets the number of update requests.
+     *
+     * @return the update request count
+     */
+    public long getUpdateRequests() {
+        return this.updateRequests;
+    }
+
+    /**
+     * Gets the number of frames that applied updates.
+     *
+     * @return the applied frame count
+     */
+    public long getFramesApplied() {
+        return this.framesApplied;
+    }
+
+    /**
+     * Summarizes the statistics for logging.
+     *
+     * @return a human-readable summary
+     */
+    public String summary() {
+        return String.format(Locale.ENGLISH,
+                "%d update request(s) coalesced into %d frame(s) (%.1f per frame), %d field(s) applied; "
+                        + "apply avg %.3f ms, max %.3f ms; frame interval avg %.2f ms, %d over %d ms",
+                this.updateRequests,
+                this.framesApplied,
+                this.framesApplied == 0 ? 0.0 : (double) this.updateRequests / this.framesApplied,
+                this.fieldsApplied,
+                this.framesApplied == 0 ? 0.0 : this.totalApplyNanos / 1e6 / this.framesApplied,
+                this.maxApplyNanos / 1e6,
+                this.frameIntervals == 0 ? 0.0 : this.totalFrameIntervalNanos / 1e6 / this.frameIntervals,
+                this.jankyFrameIntervals,
+                JANK_THRESHOLD_NANOS / 1000000L);
+    }
+}
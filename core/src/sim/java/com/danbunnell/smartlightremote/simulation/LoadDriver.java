@@ -0,0 +1,352 @@
+package com.danbunnell.smartlightremote.simulation;
+
+import com.danbunnell.smartlightremote.acceleration.AccelerometerListener;
+import com.danbunnell.smartlightremote.acceleration.AccelerometerPipeline;
+import com.danbunnell.smartlightremote.common.DecimatingFilter;
+import com.danbunnell.smartlightremote.common.FixedPointMovingAverageFilter;
+import com.danbunnell.smartlightremote.common.HueMapping;
+import com.danbunnell.smartlightremote.common.PredictiveFilter;
+import com.danbunnell.smartlightremote.metrics.Histogram;
+import com.danbunnell.smartlightremote.protocol.EchoSuppressor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Pushes synthetic user workloads through the send path without a device: seek bar drags from
+ * a UI thread and motion mode from a sensor thread, each submitting commands to a
+ * {@link SimulatedEventLoop}, whose write pipeline feeds a {@link SimulatedLight} over a
+ * {@link SimulatedLink}.
+ *
+ * Prints the offered and carried command rates, dispatch and end-to-end latency percentiles,
+ * whether the light ended up on the last values sent, and how much the producers and the loop
+ * allocated per second and per command.
+ *
+ * Usage: LoadDriver [--workload seek|motion|both] [--seconds n] [--speed x]
+ *                   [--interval-us n] [--unpacked]
+ *
+ * --speed multiplies the touch and sensor event rates, to find where the pipeline saturates.
+ */
+public class LoadDriver {
+
+    private static final float TOUCH_EVENT_HZ = 60;
+    private static final float SENSOR_HZ = 200;
+
+    // Motion mode's filters, as MainActivity builds them
+    private static final int MOTION_WINDOW = 50;
+    private static final float MOTION_HUE_RATE_HZ = 40;
+    private static final int MOTION_TAPS_PER_PHASE = 8;
+
+    // As MainActivity tracks echoes
+    private static final int ECHO_TRACKING_CAPACITY = 8;
+    private static final long ECHO_TIMEOUT_MS = 1000;
+
+    private final String workload;
+    private final int seconds;
+    private final float speed;
+    private final long connectionIntervalMicros;
+    private final boolean packed;
+
+    private final SimulatedEventLoop loop;
+    private final long[] commandsSubmitted = new long[2];
+    private final long[] bytesAllocated = new long[2];
+
+    /**
+     * Initializes a new instance of the {@link LoadDriver} class.
+     *
+     * @param workload                 seek, motion or both
+     * @param seconds                  how long to drive the workload
+     * @param speed                    the event rate multiplier
+     * @param connectionIntervalMicros the connection interval of the simulated link
+     * @param packed                   whether the light accepts packed writes
+     */
+    public LoadDriver(String workload, int seconds, float speed, long connectionIntervalMicros, boolean packed) {
+        this.workload = workload;
+        this.seconds = seconds;
+        this.speed = speed;
+        this.connectionIntervalMicros = connectionIntervalMicros;
+        this.packed = packed;
+        this.loop = new SimulatedEventLoop(connectionIntervalMicros, packed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String workload = "both";
+        int seconds = 10;
+        float speed = 1;
+        long connectionIntervalMicros = 7500;
+        boolean packed = true;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--unpacked".equals(arg)) {
+                packed = false;
+            } else if (i + 1 < args.length && "--workload".equals(arg)) {
+                workload = args[++i];
+            } else if (i + 1 < args.length && "--seconds".equals(arg)) {
+                seconds = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && "--speed".equals(arg)) {
+                speed = Float.parseFloat(args[++i]);
+            } else if (i + 1 < args.length && "--interval-us".equals(arg)) {
+                connectionIntervalMicros = Long.parseLong(args[++i]);
+            } else {
+                usage("Unknown argument: " + arg);
+                return;
+            }
+        }
+
+        if (!"seek".equals(workload) && !"motion".equals(workload) && !"both".equals(workload)) {
+            usage("Unknown workload: " + workload);
+            return;
+        }
+        if (seconds <= 0 || speed <= 0 || connectionIntervalMicros <= 0) {
+            usage("Seconds, speed and interval must be positive");
+            return;
+        }
+
+        new LoadDriver(workload, seconds, speed, connectionIntervalMicros, packed).run();
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: LoadDriver [--workload seek|motion|both] [--seconds n] [--speed x] "
+                + "[--interval-us n] [--unpacked]");
+        System.exit(2);
+    }
+
+    /**
+     * Drives the workload, waits for the light to catch up and prints the report.
+     */
+    public void run() throws Exception {
+        final long durationNanos = this.seconds * 1000000000L;
+        boolean allocationMeasurable = isAllocationMeasurable();
+        Thread[] producers = new Thread[2];
+        if (!"motion".equals(this.workload)) {
+            producers[0] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    driveSeekBars(durationNanos);
+                }
+            }, "ui");
+        }
+        if (!"seek".equals(this.workload)) {
+            producers[1] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    driveMotion(durationNanos);
+                }
+            }, "sensor");
+        }
+
+        Callable<Long> loopAllocation = new Callable<Long>() {
+            @Override
+            public Long call() {
+                return allocatedBytes();
+            }
+        };
+        long loopBytesBefore = this.loop.call(loopAllocation);
+        long startNanos = System.nanoTime();
+        for (Thread producer : producers) {
+            if (producer != null) {
+                producer.start();
+            }
+        }
+        for (Thread producer : producers) {
+            if (producer != null) {
+                producer.join();
+            }
+        }
+        long loopBytes = this.loop.call(loopAllocation) - loopBytesBefore;
+        SimulatedEventLoop.Result result = this.loop.drainAndStop();
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+        long submitted = this.commandsSubmitted[0] + this.commandsSubmitted[1];
+        long producerBytes = this.bytesAllocated[0] + this.bytesAllocated[1];
+        Histogram dispatch = this.loop.getDispatchLatencyMicros();
+        Histogram endToEnd = this.loop.getEndToEndLatencyMicros();
+
+        System.out.println(String.format(Locale.ENGLISH,
+                "workload %s for %d s at %.1fx, %.2f ms connection interval, %s writes",
+                this.workload, this.seconds, this.speed, this.connectionIntervalMicros / 1000.0,
+                this.packed ? "packed" : "single-command"));
+        System.out.println(String.format(Locale.ENGLISH,
+                "throughput: %d commands (%.0f/s offered: %d seek, %d motion), %d writes (%.0f/s), "
+                        + "%d rejected by the light",
+                submitted, submitted / elapsedSeconds, this.commandsSubmitted[0], this.commandsSubmitted[1],
+                result.writes, result.writes / elapsedSeconds, result.commandsRejected));
+        System.out.println(String.format(Locale.ENGLISH,
+                "dispatch:   p50 <= %d us, p90 <= %d us, p99 <= %d us, max %d us",
+                SimulatedEventLoop.percentile(dispatch, 0.5),
+                SimulatedEventLoop.percentile(dispatch, 0.9),
+                SimulatedEventLoop.percentile(dispatch, 0.99),
+                dispatch.getMax()));
+        System.out.println(String.format(Locale.ENGLISH,
+                "end-to-end: p50 <= %.1f ms, p90 <= %.1f ms, p99 <= %.1f ms, max %.1f ms",
+                SimulatedEventLoop.percentile(endToEnd, 0.5) / 1000.0,
+                SimulatedEventLoop.percentile(endToEnd, 0.9) / 1000.0,
+                SimulatedEventLoop.percentile(endToEnd, 0.99) / 1000.0,
+                endToEnd.getMax() / 1000.0));
+        System.out.println(String.format(Locale.ENGLISH,
+                "final state: light hue %d, saturation %d; last sent %d, %d (%s)",
+                result.lightHue, result.lightSaturation, result.lastHueSent, result.lastSaturationSent,
+                result.lightHue == result.lastHueSent
+                        && (result.lastSaturationSent < 0 || result.lightSaturation == result.lastSaturationSent)
+                        ? "converged" : "DIVERGED"));
+        if (!allocationMeasurable) {
+            System.out.println("allocation: not measurable on this JVM");
+        } else {
+            System.out.println(String.format(Locale.ENGLISH,
+                    "allocation: %.1f KB/s (%.1f bytes/command); producers %d bytes, loop %d bytes",
+                    (producerBytes + loopBytes) / 1024.0 / elapsedSeconds,
+                    submitted == 0 ? 0.0 : (double) (producerBytes + loopBytes) / submitted,
+                    producerBytes, loopBytes));
+        }
+    }
+
+    /**
+     * Drags the hue seek bar back and forth, then the saturation seek bar, as the UI thread
+     * would report each touch move.
+     */
+    private void driveSeekBars(long durationNanos) {
+        EchoSuppressor hueEchoes = new EchoSuppressor(ECHO_TRACKING_CAPACITY, ECHO_TIMEOUT_MS);
+        EchoSuppressor saturationEchoes = new EchoSuppressor(ECHO_TRACKING_CAPACITY, ECHO_TIMEOUT_MS);
+        long bytesBefore = allocatedBytes();
+        long periodNanos = (long) (1e9 / (TOUCH_EVENT_HZ * this.speed));
+        long start = System.nanoTime();
+        long next = start;
+        long commands = 0;
+
+        while (next - start < durationNanos) {
+            // 1.5 s across the bar and back; hue for 4 s, then saturation for 2 s
+            double t = (next - start) / 1e9;
+            double sweep = Math.abs(((t / 1.5) % 2) - 1);
+            long nowMs = (next - start) / 1000000L;
+            if ((long) (t / 2) % 3 == 2) {
+                int saturation = (int) Math.round(sweep * 255);
+                saturationEchoes.recordWrite(saturation, nowMs);
+                this.loop.sendSaturation(saturation);
+            } else {
+                int hue = (int) Math.round(sweep * HueMapping.MAX_HUE);
+                hueEchoes.recordWrite(hue, nowMs);
+                this.loop.sendHue(hue);
+            }
+            commands++;
+
+            next += periodNanos;
+            if (!sleepUntil(next)) {
+                break;
+            }
+        }
+
+        this.commandsSubmitted[0] = commands;
+        this.bytesAllocated[0] = allocatedBytes() - bytesBefore;
+    }
+
+    /**
+     * Waves the phone around in motion mode: synthetic samples through the accelerometer
+     * pipeline and motion filters, and a hue for every filtered output.
+     */
+    private void driveMotion(long durationNanos) {
+        final EchoSuppressor hueEchoes = new EchoSuppressor(ECHO_TRACKING_CAPACITY, ECHO_TIMEOUT_MS);
+        final long[] commands = new long[1];
+        final long[] nowMs = new long[1];
+
+        float sensorPeriodMs = 1000f / SENSOR_HZ;
+        DecimatingFilter smoothing = new DecimatingFilter(
+                new FixedPointMovingAverageFilter(MOTION_WINDOW),
+                DecimatingFilter.factorFor(SENSOR_HZ, MOTION_HUE_RATE_HZ),
+                MOTION_TAPS_PER_PHASE);
+        PredictiveFilter predictor = new PredictiveFilter(smoothing, sensorPeriodMs, 500);
+        predictor.setOvershootLimit(0);
+        predictor.setHorizonMs(0.5f * ((MOTION_WINDOW - 1) / 2f + smoothing.getDelaySamples()) * sensorPeriodMs);
+
+        AccelerometerPipeline pipeline = new AccelerometerPipeline(predictor);
+        pipeline.registerCallback("driver", new AccelerometerListener() {
+            @Override
+            public void onAccelerometerData(float magnitude, float filteredMagnitude) {
+                int hue = HueMapping.fromMagnitude(filteredMagnitude);
+                hueEchoes.recordWrite(hue, nowMs[0]);
+                loop.sendHue(hue);
+                commands[0]++;
+            }
+        });
+
+        Random random = new Random(1);
+        long bytesBefore = allocatedBytes();
+        long periodNanos = (long) (1e9 / (SENSOR_HZ * this.speed));
+        long start = System.nanoTime();
+        long next = start;
+        long samples = 0;
+
+        while (next - start < durationNanos) {
+            // Sensor time, which runs faster than the wall clock when sped up; 4 s rest, 4 s waving
+            double t = samples / SENSOR_HZ;
+            double amplitude = ((long) t / 4) % 2 == 1 ? 4 + 8 * ((t % 4) / 4) : 0;
+            double wave = amplitude * Math.sin(2 * Math.PI * 1.5 * t);
+            nowMs[0] = (next - start) / 1000000L;
+            pipeline.onSample((long) (t * 1e9),
+                    (float) (wave + random.nextGaussian() * 0.05),
+                    (float) (0.5 * wave + random.nextGaussian() * 0.05),
+                    (float) (9.81 + random.nextGaussian() * 0.05));
+            samples++;
+
+            next += periodNanos;
+            if (!sleepUntil(next)) {
+                break;
+            }
+        }
+
+        this.commandsSubmitted[1] = commands[0];
+        this.bytesAllocated[1] = allocatedBytes() - bytesBefore;
+    }
+
+    /**
+     * Sleeps until a System.nanoTime() deadline, if it is still ahead.
+     *
+     * @return false if interrupted
+     */
+    private static boolean sleepUntil(long deadlineNanos) {
+        long sleepNanos = deadlineNanos - System.nanoTime();
+        if (sleepNanos > 0) {
+            try {
+                Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks whether the JVM reports the bytes each thread allocates.
+     *
+     * @return true if {@link #allocatedBytes} is meaningful
+     */
+    private static boolean isAllocationMeasurable() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+        return allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Gets the bytes allocated by this thread so far, where the JVM reports it.
+     *
+     * @return the allocated bytes, or 0 if unavailable; see {@link #isAllocationMeasurable}
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return Math.max(0, ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId()));
+        }
+
+        return 0;
+    }
+}
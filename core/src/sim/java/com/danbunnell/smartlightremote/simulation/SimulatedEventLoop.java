@@ -0,0 +1,214 @@
+package com.danbunnell.smartlightremote.simulation;
+
+import com.danbunnell.smartlightremote.common.HueMapping;
+import com.danbunnell.smartlightremote.metrics.Histogram;
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+import com.danbunnell.smartlightremote.protocol.WritePipeline;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threading model of RBLService on the JVM: a single thread owns the write pipeline, the
+ * link and the light, and every other thread submits operations to it.
+ *
+ * Link time follows the wall clock, so latencies include real scheduling delays. Submitted
+ * commands are timed from submission to dispatch on the loop, and from submission to the light
+ * reporting the value.
+ */
+public class SimulatedEventLoop {
+
+    private static final long TICK_MICROS = 500;
+
+    private final ScheduledExecutorService loop = Executors.newSingleThreadScheduledExecutor();
+    private final long startNanos = System.nanoTime();
+
+    // Owned by the loop
+    private final SimulatedLight light;
+    private final SimulatedLink link;
+    private final WritePipeline pipeline;
+    private final long[] hueSubmittedNanos = new long[HueMapping.MAX_HUE + 1];
+    private int lastHueSent = -1;
+    private int lastSaturationSent = -1;
+    private long commandsDispatched;
+
+    private final Histogram dispatchLatencyMicros = new Histogram(Histogram.exponentialBounds(10, 16));
+    private final Histogram endToEndLatencyMicros = new Histogram(Histogram.exponentialBounds(1000, 12));
+
+    /**
+     * Initializes a new instance of the {@link SimulatedEventLoop} class.
+     *
+     * @param connectionIntervalMicros the connection interval of the link
+     * @param packed                   whether the light accepts packed writes
+     */
+    public SimulatedEventLoop(long connectionIntervalMicros, boolean packed) {
+        this.light = new SimulatedLight(packed);
+        this.link = new SimulatedLink(this.light, connectionIntervalMicros);
+        this.pipeline = new WritePipeline(this.link);
+        this.link.setPipeline(this.pipeline);
+        this.pipeline.setPackedWrites(packed);
+
+        this.light.setNotificationListener(new SimulatedLight.NotificationListener() {
+            @Override
+            public void onNotification(byte[] value, int length) {
+                if (value[0] == LightProtocol.CMD_CLIENT_NOTIFY_HUE) {
+                    int hue = LightProtocol.bytesToWord(value[1], value[2]);
+                    endToEndLatencyMicros.record((System.nanoTime() - hueSubmittedNanos[hue]) / 1000);
+                }
+            }
+        });
+
+        this.loop.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                link.advanceTo((System.nanoTime() - startNanos) / 1000);
+            }
+        }, TICK_MICROS, TICK_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Submits a hue command from any thread.
+     *
+     * @param hue the hue
+     */
+    public void sendHue(final int hue) {
+        final long submittedNanos = System.nanoTime();
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                dispatched(submittedNanos);
+                hueSubmittedNanos[hue] = submittedNanos;
+                lastHueSent = hue;
+                pipeline.send(LightProtocol.CMD_SET_HUE, (byte) (hue >> 8), (byte) hue);
+            }
+        });
+    }
+
+    /**
+     * Submits a saturation command from any thread.
+     *
+     * @param saturation the saturation
+     */
+    public void sendSaturation(final int saturation) {
+        final long submittedNanos = System.nanoTime();
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                dispatched(submittedNanos);
+                lastSaturationSent = saturation;
+                pipeline.send(LightProtocol.CMD_SET_SATURATION, (byte) saturation, (byte) 0x00);
+            }
+        });
+    }
+
+    /**
+     * Runs a task on the loop and waits for its result, e.g. to read state the loop owns.
+     *
+     * @param task the task
+     * @return     its result
+     */
+    public <T> T call(Callable<T> task) throws InterruptedException, ExecutionException {
+        return this.loop.submit(task).get();
+    }
+
+    /**
+     * Waits until every submitted command has been written, then stops the loop.
+     *
+     * @return the final state, as seen from the loop
+     */
+    public Result drainAndStop() throws InterruptedException, ExecutionException {
+        while (true) {
+            Result result = this.loop.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    if (pipeline.getQueue().size() > 0 || link.isWritePending()) {
+                        return null;
+                    }
+
+                    return new Result(light.getHue(), light.getSaturation(), lastHueSent, lastSaturationSent,
+                            commandsDispatched, light.getCommandsRejected(), link.getWrites());
+                }
+            }).get();
+
+            if (result != null) {
+                this.loop.shutdown();
+                this.loop.awaitTermination(1, TimeUnit.SECONDS);
+                return result;
+            }
+
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Gets the time from submitting a command to the loop running it, in microseconds.
+     * Read after {@link #drainAndStop()}.
+     *
+     * @return the dispatch latency histogram
+     */
+    public Histogram getDispatchLatencyMicros() {
+        return this.dispatchLatencyMicros;
+    }
+
+    /**
+     * Gets the time from submitting a hue to the light reporting it, in microseconds.
+     * Read after {@link #drainAndStop()}.
+     *
+     * @return the end-to-end latency histogram
+     */
+    public Histogram getEndToEndLatencyMicros() {
+        return this.endToEndLatencyMicros;
+    }
+
+    /**
+     * Finds the bucket bound below which a fraction of the recorded values fall.
+     *
+     * @param histogram the histogram
+     * @param fraction  the fraction, e.g. 0.99
+     * @return          the upper bound of the bucket holding that percentile
+     */
+    public static long percentile(Histogram histogram, double fraction) {
+        long target = (long) Math.ceil(histogram.getCount() * fraction);
+        long seen = 0;
+        for (int i = 0; i < histogram.getBucketCount(); i++) {
+            seen += histogram.getBucket(i);
+            if (seen >= target) {
+                return Math.min(histogram.getUpperBound(i), histogram.getMax());
+            }
+        }
+
+        return histogram.getMax();
+    }
+
+    private void dispatched(long submittedNanos) {
+        this.commandsDispatched++;
+        this.dispatchLatencyMicros.record((System.nanoTime() - submittedNanos) / 1000);
+    }
+
+    /**
+     * State at the end of a run
+     */
+    public static class Result {
+        public final int lightHue;
+        public final int lightSaturation;
+        public final int lastHueSent;
+        public final int lastSaturationSent;
+        public final long commandsDispatched;
+        public final long commandsRejected;
+        public final long writes;
+
+        Result(int lightHue, int lightSaturation, int lastHueSent, int lastSaturationSent,
+               long commandsDispatched, long commandsRejected, long writes) {
+            this.lightHue = lightHue;
+            this.lightSaturation = lightSaturation;
+            this.lastHueSent = lastHueSent;
+            this.lastSaturationSent = lastSaturationSent;
+            this.commandsDispatched = commandsDispatched;
+            this.commandsRejected = commandsRejected;
+            this.writes = writes;
+        }
+    }
+}
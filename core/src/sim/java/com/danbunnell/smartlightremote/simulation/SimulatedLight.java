@@ -0,0 +1,266 @@
+package com.danbunnell.smartlightremote.simulation;
+
+import com.danbunnell.smartlightremote.effect.EffectInterpreter;
+import com.danbunnell.smartlightremote.effect.EffectProgram;
+import com.danbunnell.smartlightremote.effect.EffectUploader;
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+
+/**
+ * A stand-in for the 'smart-lite' firmware that applies written commands to its own state.
+ */
+public class SimulatedLight {
+
+    /**
+     * Receives notifications the light would send on the RX characteristic
+     */
+    public interface NotificationListener {
+        /**
+         * Called when the light notifies a value.
+         *
+         * @param value  buffer holding the value; only valid for the duration of the call
+         * @param length the value length
+         */
+        void onNotification(byte[] value, int length);
+    }
+
+    private final boolean supportsPackedWrites;
+    private final boolean supportsEffects;
+    private final byte[] notification = new byte[LightProtocol.LEGACY_FRAME_LENGTH];
+    private NotificationListener listener;
+
+    private int hue;
+    private int saturation = 255;
+    private boolean remoteControlEnabled;
+
+    // Effect upload and playback
+    private final EffectInterpreter effect = new EffectInterpreter();
+    private final byte[] upload = new byte[EffectProgram.MAX_PROGRAM_LENGTH];
+    private int uploadLength = -1;
+    private long uploadChecksum;
+    private long nowMs;
+
+    private long writesReceived;
+    private long bytesReceived;
+    private long commandsApplied;
+    private long commandsRejected;
+
+    /**
+     * Initializes a new instance of the {@link SimulatedLight} class.
+     *
+     * @param supportsPackedWrites whether to emulate firmware that accepts packed writes
+     */
+    public SimulatedLight(boolean supportsPackedWrites) {
+        this(supportsPackedWrites, false);
+    }
+
+    /**
+     * Initializes a new instance of the {@link SimulatedLight} class.
+     *
+     * @param supportsPackedWrites whether to emulate firmware that accepts packed writes
+     * @param supportsEffects      whether to emulate firmware that plays uploaded effects;
+     *                             effect frames need packed writes
+     */
+    public SimulatedLight(boolean supportsPackedWrites, boolean supportsEffects) {
+        this.supportsPackedWrites = supportsPackedWrites;
+        this.supportsEffects = supportsEffects;
+    }
+
+    /**
+     * Advances the light's clock, playing any effect up to that time.
+     *
+     * @param nowMs the simulated time in milliseconds
+     */
+    public void advanceTo(long nowMs) {
+        this.nowMs = nowMs;
+        if (this.effect.update(nowMs)) {
+            this.hue = this.effect.getHue();
+            this.saturation = this.effect.getSaturation();
+        }
+    }
+
+    public boolean isPlayingEffect() {
+        return this.effect.isPlaying();
+    }
+
+    /**
+     * Sets the receiver of notifications.
+     *
+     * @param listener the listener, or null
+     */
+    public void setNotificationListener(NotificationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Handles a write to the TX characteristic.
+     *
+     * @param value  buffer holding the written value
+     * @param length the value length
+     */
+    public void onWrite(byte[] value, int length) {
+        this.writesReceived++;
+        this.bytesReceived += length;
+
+        if (this.supportsPackedWrites && length > 0 && value[0] == LightProtocol.PACKED_WRITE_MARKER) {
+            int offset = 1;
+            while (offset < length) {
+                int frameLength = value[offset] & 0xFF;
+                if (frameLength == 0 || offset + 1 + frameLength > length) {
+                    this.commandsRejected++;
+                    return;
+                }
+
+                this.applyCommand(value, offset + 1, frameLength);
+                offset += 1 + frameLength;
+            }
+        } else {
+            this.applyCommand(value, 0, length);
+        }
+    }
+
+    public int getHue() {
+        return this.hue;
+    }
+
+    public int getSaturation() {
+        return this.saturation;
+    }
+
+    public boolean isRemoteControlEnabled() {
+        return this.remoteControlEnabled;
+    }
+
+    public long getWritesReceived() {
+        return this.writesReceived;
+    }
+
+    public long getBytesReceived() {
+        return this.bytesReceived;
+    }
+
+    public long getCommandsApplied() {
+        return this.commandsApplied;
+    }
+
+    public long getCommandsRejected() {
+        return this.commandsRejected;
+    }
+
+    /**
+     * Applies a single command frame.
+     *
+     * @param frame  buffer holding the frame
+     * @param offset offset of the frame
+     * @param length length of the frame
+     */
+    private void applyCommand(byte[] frame, int offset, int length) {
+        if (length < LightProtocol.LEGACY_FRAME_LENGTH) {
+            this.commandsRejected++;
+            return;
+        }
+
+        if (this.supportsEffects && this.applyEffectCommand(frame, offset, length)) {
+            this.commandsApplied++;
+            return;
+        }
+
+        byte arg0 = frame[offset + 1];
+        byte arg1 = frame[offset + 2];
+
+        switch (frame[offset]) {
+            case LightProtocol.CMD_ENABLE_REMOTE_CONTROL:
+                this.remoteControlEnabled = arg0 != 0;
+                break;
+            case LightProtocol.CMD_SET_HUE:
+                this.effect.stop();
+                this.hue = LightProtocol.bytesToWord(arg0, arg1);
+                this.notify(LightProtocol.CMD_CLIENT_NOTIFY_HUE, (byte) (this.hue >> 8), (byte) this.hue);
+                break;
+            case LightProtocol.CMD_SET_SATURATION:
+                this.effect.stop();
+                this.saturation = arg0 & 0xFF;
+                this.notify(LightProtocol.CMD_CLIENT_NOTIFY_SATURATION, arg0, (byte) 0x00);
+                break;
+            case LightProtocol.CMD_QUERY_CAPABILITIES:
+                if (this.supportsPackedWrites) {
+                    int capabilities = LightProtocol.CAPABILITY_PACKED_WRITES
+                            | (this.supportsEffects ? LightProtocol.CAPABILITY_EFFECTS : 0);
+                    this.notify(LightProtocol.CMD_CLIENT_NOTIFY_CAPABILITIES, (byte) capabilities, (byte) 0x00);
+                }
+                break;
+            default:
+                this.commandsRejected++;
+                return;
+        }
+
+        this.commandsApplied++;
+    }
+
+    /**
+     * Applies an effect upload or stop frame.
+     *
+     * @return false if the frame is not an effect command
+     */
+    private boolean applyEffectCommand(byte[] frame, int offset, int length) {
+        switch (frame[offset]) {
+            case LightProtocol.CMD_EFFECT_BEGIN:
+                if (length < 7) {
+                    return false;
+                }
+                this.uploadLength = LightProtocol.bytesToWord(frame[offset + 1], frame[offset + 2]);
+                this.uploadChecksum = ((frame[offset + 3] & 0xFFL) << 24) | ((frame[offset + 4] & 0xFFL) << 16)
+                        | ((frame[offset + 5] & 0xFFL) << 8) | (frame[offset + 6] & 0xFFL);
+                return true;
+            case LightProtocol.CMD_EFFECT_CHUNK:
+                int chunkOffset = LightProtocol.bytesToWord(frame[offset + 1], frame[offset + 2]);
+                int chunkLength = length - EffectUploader.CHUNK_HEADER_LENGTH;
+                if (chunkOffset + chunkLength <= this.upload.length) {
+                    System.arraycopy(frame, offset + EffectUploader.CHUNK_HEADER_LENGTH,
+                            this.upload, chunkOffset, chunkLength);
+                }
+                return true;
+            case LightProtocol.CMD_EFFECT_COMMIT:
+                this.notify(LightProtocol.CMD_CLIENT_NOTIFY_EFFECT_STATUS, (byte) this.commitEffect(), (byte) 0x00);
+                this.uploadLength = -1;
+                return true;
+            case LightProtocol.CMD_EFFECT_STOP:
+                this.effect.stop();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Verifies the uploaded program and starts it.
+     *
+     * @return one of the LightProtocol.EFFECT_STATUS_* values
+     */
+    private int commitEffect() {
+        if (this.uploadLength < 0 || this.uploadLength > this.upload.length) {
+            return LightProtocol.EFFECT_STATUS_TOO_LARGE;
+        }
+        if (EffectUploader.checksum(this.upload, this.uploadLength) != this.uploadChecksum) {
+            return LightProtocol.EFFECT_STATUS_BAD_CHECKSUM;
+        }
+        if (this.effect.start(this.upload, this.uploadLength, this.hue, this.saturation, this.nowMs) != null) {
+            return LightProtocol.EFFECT_STATUS_BAD_PROGRAM;
+        }
+
+        return LightProtocol.EFFECT_STATUS_PLAYING;
+    }
+
+    /**
+     * Sends a 3-byte notification.
+     */
+    private void notify(byte command, byte arg0, byte arg1) {
+        if (this.listener == null) {
+            return;
+        }
+
+        this.notification[0] = command;
+        this.notification[1] = arg0;
+        this.notification[2] = arg1;
+        this.listener.onNotification(this.notification, this.notification.length);
+    }
+}
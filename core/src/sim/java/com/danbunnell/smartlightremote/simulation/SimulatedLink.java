@@ -0,0 +1,129 @@
+package com.danbunnell.smartlightremote.simulation;
+
+import com.danbunnell.smartlightremote.protocol.WritePipeline;
+
+/**
+ * A BLE link that carries one write per connection event to a {@link SimulatedLight}, and
+ * accounts for the bytes the radio actually puts on the air.
+ */
+public class SimulatedLink implements WritePipeline.Transport {
+
+    /**
+     * preamble, access address, link-layer header and CRC of every link-layer packet
+     */
+    public static final int LINK_LAYER_OVERHEAD = 10;
+
+    /**
+     * largest link-layer payload without data length extension
+     */
+    public static final int LINK_LAYER_MAX_PAYLOAD = 27;
+
+    /**
+     * L2CAP header plus ATT opcode and handle of a write request
+     */
+    public static final int WRITE_REQUEST_OVERHEAD = 4 + 3;
+
+    /**
+     * bytes on air for the write response (L2CAP header, ATT opcode, link-layer framing)
+     */
+    public static final int WRITE_RESPONSE_BYTES = 4 + 1 + LINK_LAYER_OVERHEAD;
+
+    private final SimulatedLight light;
+    private final long connectionIntervalMicros;
+    private final byte[] pending = new byte[512];
+
+    private WritePipeline pipeline;
+    private int pendingLength = -1;
+    private long nextEventMicros;
+
+    private long writes;
+    private long payloadBytes;
+    private long airBytes;
+    private long connectionEvents;
+
+    /**
+     * Initializes a new instance of the {@link SimulatedLink} class.
+     *
+     * @param light                    the light at the other end
+     * @param connectionIntervalMicros the connection interval in microseconds
+     */
+    public SimulatedLink(SimulatedLight light, long connectionIntervalMicros) {
+        this.light = light;
+        this.connectionIntervalMicros = connectionIntervalMicros;
+    }
+
+    /**
+     * Sets the pipeline notified when writes complete.
+     *
+     * @param pipeline the write pipeline
+     */
+    public void setPipeline(WritePipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    @Override
+    public boolean write(byte[] payload, int length) {
+        if (this.pendingLength >= 0) {
+            return false;
+        }
+
+        System.arraycopy(payload, 0, this.pending, 0, length);
+        this.pendingLength = length;
+        return true;
+    }
+
+    /**
+     * Advances simulated time, delivering the pending write at each connection event.
+     *
+     * @param nowMicros the current simulated time in microseconds
+     */
+    public void advanceTo(long nowMicros) {
+        while (this.nextEventMicros <= nowMicros) {
+            this.nextEventMicros += this.connectionIntervalMicros;
+            this.connectionEvents++;
+
+            if (this.pendingLength < 0) {
+                continue;
+            }
+
+            int length = this.pendingLength;
+            int l2capLength = length + WRITE_REQUEST_OVERHEAD;
+            int packets = (l2capLength + LINK_LAYER_MAX_PAYLOAD - 1) / LINK_LAYER_MAX_PAYLOAD;
+
+            this.writes++;
+            this.payloadBytes += length;
+            this.airBytes += l2capLength + packets * LINK_LAYER_OVERHEAD + WRITE_RESPONSE_BYTES;
+
+            this.pendingLength = -1;
+            this.light.onWrite(this.pending, length);
+            if (this.pipeline != null) {
+                this.pipeline.onWriteComplete(true);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a write is waiting for the next connection event.
+     *
+     * @return true while a write is pending
+     */
+    public boolean isWritePending() {
+        return this.pendingLength >= 0;
+    }
+
+    public long getWrites() {
+        return this.writes;
+    }
+
+    public long getPayloadBytes() {
+        return this.payloadBytes;
+    }
+
+    public long getAirBytes() {
+        return this.airBytes;
+    }
+
+    public long getConnectionEvents() {
+        return this.connectionEvents;
+    }
+}
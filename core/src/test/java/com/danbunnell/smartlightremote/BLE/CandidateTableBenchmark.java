@@ -0,0 +1,119 @@
+package com.danbunnell.smartlightremote.BLE;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Feeds the candidate table the advertisements of a busy building, checks that it settles on
+ * the nearest light, and measures the time per advertisement and whether updating allocates.
+ *
+ * Lights stand at random distances and advertise every 100 ms with log-distance path loss and
+ * Gaussian fading; each round runs 60 simulated seconds. More lights than the table holds are
+ * in range, and a third of them drop out halfway through, so eviction and replacement run too.
+ */
+public class CandidateTableBenchmark {
+
+    private static final int[] LIGHT_COUNTS = { 5, 20, 50, 100 };
+    private static final long ADVERTISING_INTERVAL_MS = 100;
+    private static final long DURATION_MS = 60000;
+    private static final double FADING_DB = 6;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        for (int lights : LIGHT_COUNTS) {
+            for (int round = 0; round < ROUNDS; round++) {
+                run(lights, round);
+            }
+        }
+    }
+
+    private static void run(int lights, long seed) {
+        Random random = new Random(seed);
+        long[] addresses = new long[lights];
+        double[] meanRssi = new double[lights];
+        String[] tags = new String[lights];
+        int nearest = 0;
+        for (int i = 0; i < lights; i++) {
+            addresses[i] = 0xC82B96000000L + i;
+            double distanceM = 1 + random.nextDouble() * 20;
+            meanRssi[i] = -59 - 10 * 2.2 * Math.log10(distanceM);
+            tags[i] = "light " + i;
+            if (meanRssi[i] > meanRssi[nearest]) {
+                nearest = i;
+            }
+        }
+
+        // Precompute the advertisements so the loop measures the table alone
+        int perLight = (int) (DURATION_MS / ADVERTISING_INTERVAL_MS);
+        int count = lights * perLight;
+        int[] light = new int[count];
+        int[] rssi = new int[count];
+        long[] timeMs = new long[count];
+        int n = 0;
+        for (int tick = 0; tick < perLight; tick++) {
+            for (int i = 0; i < lights; i++) {
+                if (tick > perLight / 2 && i % 3 == 1 && i != nearest) {
+                    continue;
+                }
+                light[n] = i;
+                rssi[n] = (int) Math.round(meanRssi[i] + random.nextGaussian() * FADING_DB);
+                timeMs[n] = tick * ADVERTISING_INTERVAL_MS + random.nextInt((int) ADVERTISING_INTERVAL_MS);
+                n++;
+            }
+        }
+
+        CandidateTable<String> table = new CandidateTable<>(
+                CandidateTable.DEFAULT_CAPACITY,
+                CandidateTable.DEFAULT_TIME_CONSTANT_MS,
+                CandidateTable.DEFAULT_STALE_AFTER_MS);
+
+        // Reading the counter allocates; measure that so it can be subtracted
+        long calibration = allocatedBytes();
+        calibration = allocatedBytes() - calibration;
+        long allocatedBefore = allocatedBytes();
+
+        long start = System.nanoTime();
+        long lastEvictionMs = 0;
+        for (int i = 0; i < n; i++) {
+            table.update(addresses[light[i]], rssi[i], timeMs[i], tags[light[i]]);
+            if (timeMs[i] - lastEvictionMs >= 5000) {
+                table.evictStale(timeMs[i]);
+                lastEvictionMs = timeMs[i];
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        long allocated = allocatedBytes() - allocatedBefore - calibration;
+        int strongest = table.strongest(DURATION_MS, 2);
+
+        System.out.println(String.format(Locale.ENGLISH,
+                "%3d lights, %5.0f ads/s: %6.1f ns per ad, %d ignored, %d evicted; picked %s (%.1f dBm), "
+                        + "nearest %s (%.1f dBm); %s",
+                lights,
+                lights * 1000.0 / ADVERTISING_INTERVAL_MS,
+                (double) nanos / n,
+                table.getIgnoredCount(),
+                table.getEvictionCount(),
+                strongest < 0 ? "none" : table.getTag(strongest),
+                strongest < 0 ? Double.NaN : table.getRssi(strongest),
+                tags[nearest],
+                meanRssi[nearest],
+                allocated < 0 ? "allocation not measurable" : allocated + " byte(s) allocated"));
+    }
+
+    /**
+     * Gets the bytes allocated by this thread so far, where the JVM reports it.
+     *
+     * @return the allocated bytes, or a large negative value if unavailable
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return Long.MIN_VALUE / 2;
+    }
+}
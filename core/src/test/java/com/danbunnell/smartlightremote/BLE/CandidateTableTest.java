@@ -0,0 +1,85 @@
+package com.danbunnell.smartlightremote.BLE;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CandidateTableTest {
+
+    private final CandidateTable<String> table = new CandidateTable<>(4, 2000, 10000);
+
+    @Test
+    public void strongest_followsAverageNotLatestAdvertisement() {
+        Random random = new Random(7);
+        for (int t = 0; t < 20000; t += 100) {
+            // The nearer light is 6 dB stronger on average, but either can win a single reading
+            table.update(1, -60 + (int) (random.nextGaussian() * 6), t, "near");
+            table.update(2, -66 + (int) (random.nextGaussian() * 6), t + 50, "far");
+        }
+
+        int strongest = table.strongest(20000, 2);
+        assertEquals("near", table.getTag(strongest));
+        assertEquals(-60, table.getRssi(strongest), 3);
+    }
+
+    @Test
+    public void strongest_needsSightingsAndIgnoresStaleLights() {
+        table.update(1, -70, 0, "heard twice");
+        table.update(1, -70, 100, "heard twice");
+        table.update(2, -40, 100, "heard once");
+
+        assertEquals("heard twice", table.getTag(table.strongest(100, 2)));
+        assertEquals("heard once", table.getTag(table.strongest(100, 1)));
+        assertEquals(-1, table.strongest(20000, 1));
+    }
+
+    @Test
+    public void evictStale_removesOnlyStaleLights() {
+        table.update(1, -50, 0, "a");
+        table.update(2, -50, 8000, "b");
+        table.update(3, -50, 1000, "c");
+
+        assertEquals(2, table.evictStale(12000));
+        assertEquals(1, table.size());
+        assertEquals(0, table.indexOf(2));
+        assertEquals(-1, table.indexOf(1));
+    }
+
+    @Test
+    public void fullTable_replacesWeakestOnlyForStrongerLight() {
+        for (int i = 0; i < 4; i++) {
+            table.update(i, -50 - i, 0, "light " + i);
+        }
+
+        assertEquals(-1, table.update(10, -80, 100, "weaker"));
+        assertEquals(1, table.getIgnoredCount());
+
+        table.update(11, -45, 100, "stronger");
+        assertEquals(4, table.size());
+        assertEquals(-1, table.indexOf(3));
+        assertEquals("stronger", table.getTag(table.strongest(100, 1)));
+    }
+
+    @Test
+    public void fullTable_replacesStaleLightFirst() {
+        for (int i = 0; i < 4; i++) {
+            table.update(i, i == 0 ? -90 : -40, i == 2 ? 0 : 9000, "light " + i);
+        }
+
+        table.update(10, -80, 15000, "new");
+        assertEquals(-1, table.indexOf(2));
+        assertTrue(table.indexOf(0) >= 0);
+    }
+
+    @Test
+    public void parseAddress_readsColonSeparatedHex() {
+        assertEquals(0xC82B960A117FL, CandidateTable.parseAddress("C8:2B:96:0A:11:7F"));
+        assertEquals(0xC82B960A117FL, CandidateTable.parseAddress("c8:2b:96:0a:11:7f"));
+        assertEquals(-1, CandidateTable.parseAddress("C8:2B:96:0A:11"));
+        assertEquals(-1, CandidateTable.parseAddress("C8-2B-96-0A-11-7F"));
+        assertEquals(-1, CandidateTable.parseAddress("G8:2B:96:0A:11:7F"));
+        assertEquals(-1, CandidateTable.parseAddress(null));
+    }
+}
@@ -0,0 +1,87 @@
+package com.danbunnell.smartlightremote.BLE;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConnectionPriorityManagerTest {
+    private final List<Integer> changes = new ArrayList<>();
+    private ConnectionPriorityManager manager;
+
+    @Before
+    public void setUp() {
+        changes.clear();
+        manager = new ConnectionPriorityManager(new ConnectionPriorityManager.Listener() {
+            @Override
+            public void onPriorityChanged(int priority) {
+                changes.add(priority);
+            }
+        }, 2000, 30000);
+    }
+
+    @Test
+    public void newConnection_startsHighThenDecays() {
+        assertEquals(2000, manager.start(0));
+        assertEquals(ConnectionPriorityManager.PRIORITY_HIGH, manager.getPriority());
+
+        assertEquals(28000, manager.evaluate(2000));
+        assertEquals(ConnectionPriorityManager.PRIORITY_BALANCED, manager.getPriority());
+
+        assertEquals(-1, manager.evaluate(30000));
+        assertEquals(ConnectionPriorityManager.PRIORITY_LOW_POWER, manager.getPriority());
+        assertEquals(3, changes.size());
+    }
+
+    @Test
+    public void userActivity_restoresHighPriority() {
+        manager.start(0);
+        manager.evaluate(40000);
+
+        assertEquals(2000, manager.onUserActivity(41000));
+        assertEquals(ConnectionPriorityManager.PRIORITY_HIGH, manager.getPriority());
+    }
+
+    @Test
+    public void activeStream_holdsHighPriority() {
+        manager.start(0);
+        assertEquals(-1, manager.setStreamActive(true, 100));
+
+        assertEquals(-1, manager.evaluate(60000));
+        assertEquals(ConnectionPriorityManager.PRIORITY_HIGH, manager.getPriority());
+
+        assertEquals(2000, manager.setStreamActive(false, 60000));
+        manager.evaluate(62000);
+        assertEquals(ConnectionPriorityManager.PRIORITY_BALANCED, manager.getPriority());
+    }
+
+    @Test
+    public void activeStream_survivesReconnect() {
+        manager.start(0);
+        manager.setStreamActive(true, 100);
+        assertTrue(manager.stop(5000));
+
+        changes.clear();
+        assertEquals(-1, manager.start(8000));
+        assertEquals(ConnectionPriorityManager.PRIORITY_HIGH, manager.getPriority());
+        assertEquals(1, changes.size());
+
+        manager.stop(9000);
+        manager.setStreamActive(false, 9500);
+        assertEquals(2000, manager.start(10000));
+    }
+
+    @Test
+    public void stop_accountsTimeInCurrentPriority() {
+        manager.start(0);
+        manager.evaluate(2000);
+
+        assertTrue(manager.stop(5000));
+        assertFalse(manager.stop(6000));
+        assertEquals(2000, manager.getTimeInPriorityMs(ConnectionPriorityManager.PRIORITY_HIGH));
+        assertEquals(3000, manager.getTimeInPriorityMs(ConnectionPriorityManager.PRIORITY_BALANCED));
+    }
+}
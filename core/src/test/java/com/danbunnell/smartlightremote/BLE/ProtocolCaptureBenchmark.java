@@ -0,0 +1,71 @@
+package com.danbunnell.smartlightremote.BLE;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+
+/**
+ * Measures the cost of recording a frame, from one thread and from several at once.
+ *
+ * Run from the IDE; the target is well under a microsecond per frame.
+ */
+public class ProtocolCaptureBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int FRAMES_PER_THREAD = 5000000;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            run(1);
+            run(4);
+        }
+
+        ProtocolCapture capture = new ProtocolCapture(1024);
+        byte[] frame = new byte[] { 2, 0, 45 };
+        for (int i = 0; i < 1024; i++) {
+            capture.record(ProtocolCapture.DIRECTION_TX, frame, 0, frame.length);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        int frames = capture.dump(out);
+        System.out.println(String.format(Locale.ENGLISH,
+                "dump: %d frames, %d bytes in %.2f ms",
+                frames, out.size(), (System.nanoTime() - start) / 1e6));
+    }
+
+    /**
+     * Records frames from a number of threads and prints the cost per frame.
+     *
+     * @param threadCount the number of recording threads
+     */
+    private static void run(int threadCount) throws InterruptedException {
+        final ProtocolCapture capture = new ProtocolCapture(1024);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] frame = new byte[] { (byte) 0xFF, 3, 2, 0, 45, 3, 3, (byte) 200, 0 };
+                    for (int i = 0; i < FRAMES_PER_THREAD; i++) {
+                        frame[4] = (byte) i;
+                        capture.record(ProtocolCapture.DIRECTION_TX, frame, 0, frame.length);
+                    }
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(String.format(Locale.ENGLISH,
+                "%d thread(s): %d frames in %.1f ms, %.1f ns/frame per thread",
+                threadCount, capture.getRecordedCount(), elapsed / 1e6,
+                (double) elapsed / FRAMES_PER_THREAD));
+    }
+}
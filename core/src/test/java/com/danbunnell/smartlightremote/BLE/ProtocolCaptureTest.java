@@ -0,0 +1,104 @@
+package com.danbunnell.smartlightremote.BLE;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ProtocolCaptureTest {
+    @Test
+    public void recordedFrames_readBackInOrder() throws IOException {
+        ProtocolCapture capture = new ProtocolCapture(16);
+        capture.record(ProtocolCapture.DIRECTION_TX, new byte[] { 9, 2, 0, 45 }, 1, 3);
+        capture.record(ProtocolCapture.DIRECTION_RX, new byte[] { 1, 0, 45 }, 0, 3);
+
+        ProtocolCaptureReader reader = read(capture, 2);
+        assertTrue(reader.next());
+        assertEquals(ProtocolCapture.DIRECTION_TX, reader.getDirection());
+        assertEquals(3, reader.getLength());
+        assertEquals(2, reader.getFrame()[0]);
+        assertEquals(45, reader.getFrame()[2]);
+        long txTimestamp = reader.getTimestampNanos();
+
+        assertTrue(reader.next());
+        assertEquals(ProtocolCapture.DIRECTION_RX, reader.getDirection());
+        assertTrue(reader.getTimestampNanos() >= txTimestamp);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void fullRing_keepsNewestFrames() throws IOException {
+        ProtocolCapture capture = new ProtocolCapture(8);
+        for (int i = 0; i < 20; i++) {
+            capture.record(ProtocolCapture.DIRECTION_TX, new byte[] { (byte) i }, 0, 1);
+        }
+
+        ProtocolCaptureReader reader = read(capture, 8);
+        for (int i = 12; i < 20; i++) {
+            assertTrue(reader.next());
+            assertEquals(i, reader.getFrame()[0]);
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void longFrames_areTruncated() throws IOException {
+        ProtocolCapture capture = new ProtocolCapture(4);
+        capture.record(ProtocolCapture.DIRECTION_TX, new byte[100], 0, 100);
+
+        ProtocolCaptureReader reader = read(capture, 1);
+        assertTrue(reader.next());
+        assertEquals(100, reader.getLength());
+        assertEquals(ProtocolCapture.MAX_CAPTURED_LENGTH, reader.getCapturedLength());
+    }
+
+    @Test
+    public void concurrentWriters_neverProduceTornFrames() throws Exception {
+        final ProtocolCapture capture = new ProtocolCapture(64);
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final byte value = (byte) (t + 1);
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] frame = new byte[] { value, value, value, value };
+                    for (int i = 0; i < 200000; i++) {
+                        capture.record(ProtocolCapture.DIRECTION_TX, frame, 0, frame.length);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+
+        for (int round = 0; round < 50; round++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            capture.dump(out);
+
+            ProtocolCaptureReader reader = new ProtocolCaptureReader(new ByteArrayInputStream(out.toByteArray()));
+            while (reader.next()) {
+                byte[] frame = reader.getFrame();
+                assertEquals(4, reader.getLength());
+                assertEquals(frame[0], frame[1]);
+                assertEquals(frame[0], frame[2]);
+                assertEquals(frame[0], frame[3]);
+            }
+        }
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(800000, capture.getRecordedCount());
+    }
+
+    /**
+     * Dumps a capture and opens the dump for reading.
+     */
+    private static ProtocolCaptureReader read(ProtocolCapture capture, int expectedFrames) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(expectedFrames, capture.dump(out));
+        return new ProtocolCaptureReader(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
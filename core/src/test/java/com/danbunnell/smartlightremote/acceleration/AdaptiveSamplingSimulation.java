@@ -0,0 +1,157 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import com.danbunnell.smartlightremote.common.HueMapping;
+import com.danbunnell.smartlightremote.common.MovingAverageFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Replays a sensor trace as the adaptive provider would see it: every sample at the full rate,
+ * and only those a resting-rate registration would deliver while still. Reports time and
+ * samples per rate, the processing time saved, and how long motion can go unnoticed.
+ *
+ * Run from the IDE with the trace file as the only argument; a synthetic trace is used otherwise.
+ */
+public class AdaptiveSamplingSimulation {
+
+    private static final long STILL_PERIOD_NANOS = 100000000L;
+    private static final int ROUNDS = 5;
+
+    /**
+     * Replay state shared with the detector callback
+     */
+    private static class Replay implements StillnessDetector.Listener {
+        boolean still;
+        long rateSinceNanos;
+        final long[] timeAtRateNanos = new long[2];
+        final long[] samplesAtRate = new long[2];
+        int wakes;
+        long lastDeliveredNanos;
+        long maxWakeDelayNanos;
+
+        @Override
+        public void onStillnessChanged(boolean still, long timestampNanos) {
+            this.timeAtRateNanos[this.still ? 1 : 0] += timestampNanos - this.rateSinceNanos;
+            this.rateSinceNanos = timestampNanos;
+            this.still = still;
+
+            if (!still) {
+                this.wakes++;
+                // Motion may have started just after the previous delivered sample
+                this.maxWakeDelayNanos = Math.max(this.maxWakeDelayNanos, timestampNanos - this.lastDeliveredNanos);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File trace = SyntheticTraces.fromArgs(args);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long fullNanos = replayFullRate(trace);
+            Replay replay = new Replay();
+            long adaptiveNanos = replayAdaptive(trace, replay);
+
+            long total = replay.timeAtRateNanos[0] + replay.timeAtRateNanos[1];
+            long samples = replay.samplesAtRate[0] + replay.samplesAtRate[1];
+            System.out.println(String.format(Locale.ENGLISH,
+                    "full rate %.0f%% of %.1f s (%d samples), resting rate %.0f%% (%d samples); "
+                            + "%.0f%% fewer samples, processing %.1f ms -> %.1f ms, %d wake(s), "
+                            + "motion unnoticed for at most %.0f ms",
+                    100.0 * replay.timeAtRateNanos[0] / total, total / 1e9, replay.samplesAtRate[0],
+                    100.0 * replay.timeAtRateNanos[1] / total, replay.samplesAtRate[1],
+                    100.0 - 100.0 * samples / countSamples(trace),
+                    fullNanos / 1e6, adaptiveNanos / 1e6,
+                    replay.wakes, replay.maxWakeDelayNanos / 1e6));
+        }
+    }
+
+    /**
+     * Times the motion-mode pipeline over every sample.
+     */
+    private static long replayFullRate(File trace) throws IOException {
+        AccelerometerPipeline pipeline = createPipeline();
+        SensorTraceReader reader = new SensorTraceReader(trace);
+        long elapsed = 0;
+
+        try {
+            while (reader.next()) {
+                long start = System.nanoTime();
+                pipeline.onSample(reader.getTimestampNanos(), reader.getX(), reader.getY(), reader.getZ());
+                elapsed += System.nanoTime() - start;
+            }
+        } finally {
+            reader.close();
+        }
+
+        return elapsed;
+    }
+
+    /**
+     * Times the pipeline and detector over the samples an adaptive registration delivers.
+     */
+    private static long replayAdaptive(File trace, Replay replay) throws IOException {
+        AccelerometerPipeline pipeline = createPipeline();
+        StillnessDetector detector = new StillnessDetector(replay);
+        SensorTraceReader reader = new SensorTraceReader(trace);
+        long elapsed = 0;
+        long last = 0;
+        boolean first = true;
+
+        try {
+            while (reader.next()) {
+                long timestamp = reader.getTimestampNanos();
+                if (first) {
+                    replay.rateSinceNanos = timestamp;
+                    replay.lastDeliveredNanos = timestamp;
+                    first = false;
+                } else if (replay.still && timestamp - replay.lastDeliveredNanos < STILL_PERIOD_NANOS) {
+                    continue;
+                }
+
+                replay.samplesAtRate[replay.still ? 1 : 0]++;
+
+                long start = System.nanoTime();
+                float x = reader.getX();
+                float y = reader.getY();
+                float z = reader.getZ();
+                pipeline.onSample(timestamp, x, y, z);
+                detector.onSample(timestamp, AccelerometerPipeline.getMagnitude(x, y, z));
+                elapsed += System.nanoTime() - start;
+
+                replay.lastDeliveredNanos = timestamp;
+                last = timestamp;
+            }
+        } finally {
+            reader.close();
+        }
+
+        replay.timeAtRateNanos[replay.still ? 1 : 0] += last - replay.rateSinceNanos;
+        return elapsed;
+    }
+
+    private static long countSamples(File trace) throws IOException {
+        SensorTraceReader reader = new SensorTraceReader(trace);
+        long count = 0;
+        try {
+            while (reader.next()) {
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    private static AccelerometerPipeline createPipeline() {
+        AccelerometerPipeline pipeline = new AccelerometerPipeline(new MovingAverageFilter(50));
+        pipeline.registerCallback("simulation", new AccelerometerListener() {
+            @Override
+            public void onAccelerometerData(float magnitude, float filteredMagnitude) {
+                HueMapping.fromMagnitude(filteredMagnitude);
+            }
+        });
+        return pipeline;
+    }
+}
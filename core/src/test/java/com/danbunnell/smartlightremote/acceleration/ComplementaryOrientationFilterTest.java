@@ -0,0 +1,79 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import com.danbunnell.smartlightremote.common.OrientationMapping;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ComplementaryOrientationFilterTest {
+
+    private static final long PERIOD = 5000000L;
+    private static final float G = SyntheticTraces.GRAVITY;
+
+    private final ComplementaryOrientationFilter filter = new ComplementaryOrientationFilter(0.5f);
+
+    @Test
+    public void restingFlat_isLevel() {
+        for (int i = 0; i < 200; i++) {
+            this.filter.onGyroscope(i * PERIOD, 0, 0, 0);
+            this.filter.onAccelerometer(i * PERIOD, 0, 0, G);
+        }
+
+        assertEquals(0, this.filter.getRollDegrees(), 0.01);
+        assertEquals(0, this.filter.getPitchDegrees(), 0.01);
+        assertEquals(OrientationMapping.MAX_SATURATION / 2, OrientationMapping.toSaturation(this.filter.getPitchDegrees()));
+    }
+
+    @Test
+    public void staticTilt_isReadFromGravity() {
+        double pitch = Math.toRadians(30);
+        for (int i = 0; i < 200; i++) {
+            this.filter.onAccelerometer(i * PERIOD, 0, (float) (G * Math.sin(pitch)), (float) (G * Math.cos(pitch)));
+        }
+
+        assertEquals(30, this.filter.getPitchDegrees(), 0.1);
+        assertEquals(0, this.filter.getRollDegrees(), 0.1);
+    }
+
+    @Test
+    public void gyroscope_tracksRotationBeforeAccelerometerCatchesUp() {
+        this.filter.onAccelerometer(0, 0, 0, G);
+
+        // Roll 45 degrees in 100 ms while a hand jolt hides it from the accelerometer
+        float rate = (float) Math.toRadians(450);
+        for (int i = 1; i <= 20; i++) {
+            this.filter.onGyroscope(i * PERIOD, 0, rate, 0);
+            this.filter.onAccelerometer(i * PERIOD, 0, 0, G);
+        }
+
+        assertTrue(this.filter.getRollDegrees() > 35);
+    }
+
+    @Test
+    public void handJitter_isRejected() {
+        java.util.Random random = new java.util.Random(1);
+        float maxPitch = 0;
+        for (int i = 0; i < 400; i++) {
+            this.filter.onGyroscope(i * PERIOD, 0, 0, 0);
+            this.filter.onAccelerometer(i * PERIOD,
+                    (float) (random.nextGaussian() * 3),
+                    (float) (random.nextGaussian() * 3),
+                    G);
+            if (i > 100) {
+                maxPitch = Math.max(maxPitch, Math.abs(this.filter.getPitchDegrees()));
+            }
+        }
+
+        assertTrue("max pitch " + maxPitch, maxPitch < 5);
+    }
+
+    @Test
+    public void longGap_restartsFromAccelerometer() {
+        this.filter.onAccelerometer(0, 0, 0, G);
+        this.filter.onAccelerometer(PERIOD, 0, 0, G);
+        this.filter.onAccelerometer(2000000000L, -G, 0, 0);
+
+        assertEquals(90, this.filter.getRollDegrees(), 0.1);
+    }
+}
@@ -0,0 +1,174 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import com.danbunnell.smartlightremote.common.DecimatingFilter;
+import com.danbunnell.smartlightremote.common.MovingAverageFilter;
+import com.danbunnell.smartlightremote.common.SignalFilter;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Compares ways of bringing motion-mode hue from the sensor rate down to the radio rate:
+ * picking a sample every output period, and the anti-aliased {@link DecimatingFilter}.
+ *
+ * Reports output interval jitter, the leakage of a 37 Hz vibration added to the trace (it
+ * aliases to 3 Hz at a 40 Hz output), and the cost per input sample.
+ *
+ * Run from the IDE with the trace file as the only argument; a synthetic trace is used otherwise.
+ */
+public class DecimationEvaluation {
+
+    private static final float OUTPUT_HZ = 40;
+    private static final double VIBRATION_HZ = 37;
+    private static final double VIBRATION_AMPLITUDE = 1.0;
+    private static final int TAPS_PER_PHASE = 8;
+    private static final int ROUNDS = 5;
+
+    /**
+     * Creates the filter under evaluation.
+     */
+    private interface FilterFactory {
+        SignalFilter create();
+    }
+
+    public static void main(String[] args) throws Exception {
+        File trace = SyntheticTraces.fromArgs(args);
+
+        int count = 0;
+        SensorTraceReader reader = new SensorTraceReader(trace);
+        try {
+            while (reader.next()) {
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+
+        long[] timestamps = new long[count];
+        float[] clean = new float[count];
+        float[] vibrating = new float[count];
+        reader = new SensorTraceReader(trace);
+        try {
+            for (int i = 0; reader.next(); i++) {
+                timestamps[i] = reader.getTimestampNanos();
+                clean[i] = AccelerometerPipeline.getMagnitude(reader.getX(), reader.getY(), reader.getZ());
+                vibrating[i] = clean[i] + (float) (VIBRATION_AMPLITUDE
+                        * Math.sin(2 * Math.PI * VIBRATION_HZ * (timestamps[i] - timestamps[0]) / 1e9));
+            }
+        } finally {
+            reader.close();
+        }
+
+        double inputHz = (count - 1) / ((timestamps[count - 1] - timestamps[0]) / 1e9);
+        final int factor = DecimatingFilter.factorFor((float) inputHz, OUTPUT_HZ);
+        System.out.println(String.format(Locale.ENGLISH,
+                "%d samples at %.1f Hz, decimating by %d to %.1f Hz", count, inputHz, factor, inputHz / factor));
+
+        evaluate("raw, pick every period    ", timestamps, clean, vibrating, new FilterFactory() {
+            @Override
+            public SignalFilter create() {
+                return null;
+            }
+        });
+        evaluate("raw, decimating FIR       ", timestamps, clean, vibrating, new FilterFactory() {
+            @Override
+            public SignalFilter create() {
+                return new DecimatingFilter(factor, TAPS_PER_PHASE);
+            }
+        });
+        evaluate("moving average, pick      ", timestamps, clean, vibrating, new FilterFactory() {
+            @Override
+            public SignalFilter create() {
+                return new MovingAverageFilter(50);
+            }
+        });
+        evaluate("moving average + FIR      ", timestamps, clean, vibrating, new FilterFactory() {
+            @Override
+            public SignalFilter create() {
+                return new DecimatingFilter(new MovingAverageFilter(50), factor, TAPS_PER_PHASE);
+            }
+        });
+
+        for (int round = 0; round < ROUNDS; round++) {
+            DecimatingFilter filter = new DecimatingFilter(factor, TAPS_PER_PHASE);
+            float sink = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                sink += filter.filter(vibrating[i]);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format(Locale.ENGLISH,
+                    "decimating FIR alone: %.1f ns/input sample (%.0f)", (double) elapsed / count, sink));
+        }
+    }
+
+    /**
+     * Runs one reduction strategy over the clean and vibrating signals.
+     */
+    private static void evaluate(String label, long[] timestamps, float[] clean, float[] vibrating,
+                                 FilterFactory factory) {
+        long periodNanos = (long) (1e9 / OUTPUT_HZ);
+        float[] cleanOut = new float[clean.length];
+        float[] vibratingOut = new float[clean.length];
+        long[] outputTimes = new long[clean.length];
+
+        int outputs = run(factory.create(), timestamps, clean, periodNanos, cleanOut, outputTimes);
+        run(factory.create(), timestamps, vibrating, periodNanos, vibratingOut, outputTimes);
+
+        // Leakage is what the vibration adds to the output; the filters are linear
+        double leakage = 0;
+        for (int i = outputs / 10; i < outputs; i++) {
+            double difference = vibratingOut[i] - cleanOut[i];
+            leakage += difference * difference;
+        }
+        leakage = Math.sqrt(leakage / (outputs - outputs / 10));
+
+        double mean = 0;
+        double max = 0;
+        for (int i = 1; i < outputs; i++) {
+            double interval = (outputTimes[i] - outputTimes[i - 1]) / 1e6;
+            mean += interval;
+            max = Math.max(max, interval);
+        }
+        mean /= outputs - 1;
+        double variance = 0;
+        for (int i = 1; i < outputs; i++) {
+            double deviation = (outputTimes[i] - outputTimes[i - 1]) / 1e6 - mean;
+            variance += deviation * deviation;
+        }
+
+        System.out.println(String.format(Locale.ENGLISH,
+                "%s %6d outputs, interval %.2f ms +/- %.2f ms (max %.2f ms), "
+                        + "vibration leakage %.4f m/s^2 (%.1f dB, %.2f hue steps)",
+                label, outputs, mean, Math.sqrt(variance / (outputs - 1)), max,
+                leakage, 20 * Math.log10(leakage / (VIBRATION_AMPLITUDE / Math.sqrt(2))),
+                leakage * 359 / 30));
+    }
+
+    /**
+     * Reduces a signal to the output rate, either through a multi-rate filter or by picking the
+     * latest value once per output period.
+     */
+    private static int run(SignalFilter filter, long[] timestamps, float[] input, long periodNanos,
+                           float[] output, long[] outputTimes) {
+        int outputs = 0;
+        long lastOutput = Long.MIN_VALUE;
+        DecimatingFilter decimator = filter instanceof DecimatingFilter ? (DecimatingFilter) filter : null;
+
+        for (int i = 0; i < input.length; i++) {
+            float value = filter == null ? input[i] : filter.filter(input[i]);
+
+            boolean emit = decimator != null
+                    ? decimator.isOutputReady()
+                    : lastOutput == Long.MIN_VALUE || timestamps[i] - lastOutput >= periodNanos;
+            if (emit) {
+                output[outputs] = value;
+                outputTimes[outputs] = timestamps[i];
+                outputs++;
+                lastOutput = timestamps[i];
+            }
+        }
+
+        return outputs;
+    }
+}
@@ -0,0 +1,89 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import com.danbunnell.smartlightremote.common.FixedPoint;
+import com.danbunnell.smartlightremote.common.FixedPointMovingAverageFilter;
+import com.danbunnell.smartlightremote.common.HueMapping;
+import com.danbunnell.smartlightremote.common.MovingAverageFilter;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Compares the float and Q16.16 fixed-point motion-mode paths (magnitude, 50-sample moving
+ * average, hue mapping) for speed and for agreement of the resulting hues.
+ *
+ * Run from the IDE with the trace file as the only argument; a synthetic trace is used otherwise.
+ */
+public class FixedPointBenchmark {
+
+    private static final int WINDOW = 50;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        File trace = SyntheticTraces.fromArgs(args);
+
+        int count = 0;
+        SensorTraceReader reader = new SensorTraceReader(trace);
+        try {
+            while (reader.next()) {
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+
+        float[] values = new float[3 * count];
+        reader = new SensorTraceReader(trace);
+        try {
+            for (int i = 0; reader.next(); i++) {
+                values[3 * i] = reader.getX();
+                values[3 * i + 1] = reader.getY();
+                values[3 * i + 2] = reader.getZ();
+            }
+        } finally {
+            reader.close();
+        }
+
+        int[] floatHues = new int[count];
+        int[] fixedHues = new int[count];
+
+        for (int round = 0; round < ROUNDS; round++) {
+            MovingAverageFilter floatFilter = new MovingAverageFilter(WINDOW);
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                float magnitude = AccelerometerPipeline.getMagnitude(values[3 * i], values[3 * i + 1], values[3 * i + 2]);
+                floatHues[i] = HueMapping.fromMagnitude(floatFilter.filter(magnitude));
+            }
+            long floatNanos = System.nanoTime() - start;
+
+            FixedPointMovingAverageFilter fixedFilter = new FixedPointMovingAverageFilter(WINDOW);
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                int magnitude = FixedPoint.magnitude(
+                        FixedPoint.fromFloat(values[3 * i]),
+                        FixedPoint.fromFloat(values[3 * i + 1]),
+                        FixedPoint.fromFloat(values[3 * i + 2]));
+                fixedHues[i] = HueMapping.fromMagnitudeFixed(fixedFilter.filterFixed(magnitude));
+            }
+            long fixedNanos = System.nanoTime() - start;
+
+            int mismatches = 0;
+            int maxError = 0;
+            long checksum = 0;
+            for (int i = 0; i < count; i++) {
+                int error = Math.abs(floatHues[i] - fixedHues[i]);
+                if (error != 0) {
+                    mismatches++;
+                }
+                maxError = Math.max(maxError, error);
+                checksum = checksum * 31 + fixedHues[i];
+            }
+
+            System.out.println(String.format(Locale.ENGLISH,
+                    "%d samples: float %.1f ns/sample, fixed %.1f ns/sample; "
+                            + "%d hue(s) differ (%.3f%%), max error %d; fixed checksum %016x",
+                    count, (double) floatNanos / count, (double) fixedNanos / count,
+                    mismatches, 100.0 * mismatches / count, maxError, checksum));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures the accuracy and per-sample cost of the {@link GestureRecognizer}.
+ *
+ * Without arguments, runs a labeled synthetic gesture sequence and reports precision and
+ * recall per gesture, then counts false detections on the waving trace used by the motion-mode
+ * tools. With a recorded trace as the only argument, lists the gestures found in it.
+ */
+public class GestureEvaluation {
+
+    private static final int GESTURES = 600;
+    private static final long MATCH_SLACK_NANOS = 600000000L;
+    private static final int TIMING_ROUNDS = 5;
+
+    private static final int MAX_DETECTIONS = 10000;
+
+    /**
+     * Collects detections into preallocated arrays
+     */
+    private static class Detections implements GestureRecognizer.Listener {
+        final int[] gestures = new int[MAX_DETECTIONS];
+        final long[] timestamps = new long[MAX_DETECTIONS];
+        int count;
+
+        @Override
+        public void onGesture(int gesture, long timestampNanos) {
+            if (this.count < MAX_DETECTIONS) {
+                this.gestures[this.count] = gesture;
+                this.timestamps[this.count] = timestampNanos;
+                this.count++;
+            }
+        }
+    }
+
+    /**
+     * Buffers samples so the recognizer can be timed without the generator
+     */
+    private static class SampleBuffer implements AccelerometerSampleListener {
+        long[] timestamps = new long[1024];
+        float[] values = new float[3 * 1024];
+        int count;
+
+        @Override
+        public void onAccelerometerSample(long timestampNanos, float x, float y, float z) {
+            if (this.count == this.timestamps.length) {
+                long[] timestamps = new long[this.count * 2];
+                float[] values = new float[this.count * 6];
+                System.arraycopy(this.timestamps, 0, timestamps, 0, this.count);
+                System.arraycopy(this.values, 0, values, 0, this.count * 3);
+                this.timestamps = timestamps;
+                this.values = values;
+            }
+
+            this.timestamps[this.count] = timestampNanos;
+            this.values[3 * this.count] = x;
+            this.values[3 * this.count + 1] = y;
+            this.values[3 * this.count + 2] = z;
+            this.count++;
+        }
+
+        void replay(AccelerometerSampleListener listener) {
+            for (int i = 0; i < this.count; i++) {
+                listener.onAccelerometerSample(this.timestamps[i],
+                        this.values[3 * i], this.values[3 * i + 1], this.values[3 * i + 2]);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            listRecorded(new File(args[0]));
+            return;
+        }
+
+        SampleBuffer samples = new SampleBuffer();
+        List<SyntheticGestures.Label> labels = SyntheticGestures.generate(samples, GESTURES, 1);
+
+        Detections detections = new Detections();
+        samples.replay(new GestureRecognizer(detections));
+        reportAccuracy(labels, detections);
+
+        for (int round = 0; round < TIMING_ROUNDS; round++) {
+            GestureRecognizer recognizer = new GestureRecognizer(new Detections());
+            long start = System.nanoTime();
+            samples.replay(recognizer);
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format(Locale.ENGLISH, "%d samples: %.1f ns/sample",
+                    samples.count, (double) elapsed / samples.count));
+        }
+
+        File waving = File.createTempFile("synthetic-trace", ".bin");
+        waving.deleteOnExit();
+        SyntheticTraces.writeRestAndMotion(waving, 60, 1);
+        Detections falseDetections = replay(waving);
+        System.out.println(String.format(Locale.ENGLISH,
+                "waving trace (no gestures): %d detection(s) in 60 s", falseDetections.count));
+    }
+
+    /**
+     * Matches detections to labels and prints precision and recall per gesture.
+     */
+    private static void reportAccuracy(List<SyntheticGestures.Label> labels, Detections detections) {
+        int[] performed = new int[GestureRecognizer.GESTURE_COUNT];
+        int[] detected = new int[GestureRecognizer.GESTURE_COUNT];
+        int[] matched = new int[GestureRecognizer.GESTURE_COUNT];
+        boolean[] used = new boolean[detections.count];
+
+        for (int i = 0; i < detections.count; i++) {
+            detected[detections.gestures[i]]++;
+        }
+
+        // Detections and labels are both in time order, so a single cursor suffices
+        int cursor = 0;
+        for (SyntheticGestures.Label label : labels) {
+            performed[label.gesture]++;
+
+            while (cursor < detections.count && detections.timestamps[cursor] < label.startNanos) {
+                cursor++;
+            }
+
+            for (int i = cursor; i < detections.count
+                    && detections.timestamps[i] <= label.endNanos + MATCH_SLACK_NANOS; i++) {
+                if (!used[i] && detections.gestures[i] == label.gesture) {
+                    used[i] = true;
+                    matched[label.gesture]++;
+                    break;
+                }
+            }
+        }
+
+        for (int gesture = 0; gesture < GestureRecognizer.GESTURE_COUNT; gesture++) {
+            System.out.println(String.format(Locale.ENGLISH,
+                    "%-12s %4d performed, %4d detected, precision %5.1f%%, recall %5.1f%%",
+                    GestureRecognizer.getName(gesture), performed[gesture], detected[gesture],
+                    detected[gesture] == 0 ? 0.0 : 100.0 * matched[gesture] / detected[gesture],
+                    performed[gesture] == 0 ? 0.0 : 100.0 * matched[gesture] / performed[gesture]));
+        }
+    }
+
+    /**
+     * Prints the gestures found in a recorded trace.
+     */
+    private static void listRecorded(File trace) throws IOException {
+        Detections detections = replay(trace);
+        long first = -1;
+
+        SensorTraceReader reader = new SensorTraceReader(trace);
+        try {
+            if (reader.next()) {
+                first = reader.getTimestampNanos();
+            }
+        } finally {
+            reader.close();
+        }
+
+        for (int i = 0; i < detections.count; i++) {
+            System.out.println(String.format(Locale.ENGLISH, "%8.3f s  %s",
+                    (detections.timestamps[i] - first) / 1e9,
+                    GestureRecognizer.getName(detections.gestures[i])));
+        }
+        System.out.println(detections.count + " gesture(s)");
+    }
+
+    private static Detections replay(File trace) throws IOException {
+        Detections detections = new Detections();
+        GestureRecognizer recognizer = new GestureRecognizer(detections);
+
+        SensorTraceReader reader = new SensorTraceReader(trace);
+        try {
+            while (reader.next()) {
+                recognizer.onAccelerometerSample(reader.getTimestampNanos(),
+                        reader.getX(), reader.getY(), reader.getZ());
+            }
+        } finally {
+            reader.close();
+        }
+
+        return detections;
+    }
+}
@@ -0,0 +1,64 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GestureRecognizerTest {
+
+    private final List<Integer> gestures = new ArrayList<>();
+
+    private final GestureRecognizer recognizer = new GestureRecognizer(new GestureRecognizer.Listener() {
+        @Override
+        public void onGesture(int gesture, long timestampNanos) {
+            gestures.add(gesture);
+        }
+    });
+
+    @Test
+    public void eachGesture_isRecognizedOnce() {
+        for (int gesture = 0; gesture < GestureRecognizer.GESTURE_COUNT; gesture++) {
+            for (long seed = 0; seed < 5; seed++) {
+                this.gestures.clear();
+                this.recognizer.reset();
+                SyntheticGestures.generateOne(this.recognizer, gesture, seed);
+
+                assertEquals(GestureRecognizer.getName(gesture) + ", seed " + seed, 1, this.gestures.size());
+                assertEquals(GestureRecognizer.getName(gesture), gesture, (int) this.gestures.get(0));
+            }
+        }
+    }
+
+    @Test
+    public void heldTilt_atStart_isNotReported() {
+        for (int i = 0; i < 400; i++) {
+            this.recognizer.onAccelerometerSample(i * 5000000L, 0, 8f, 5f);
+        }
+
+        assertTrue(this.gestures.isEmpty());
+    }
+
+    @Test
+    public void singleTap_isNotReported() {
+        for (int i = 0; i < 400; i++) {
+            float z = i >= 200 && i < 203 ? 2f : SyntheticTraces.GRAVITY;
+            this.recognizer.onAccelerometerSample(i * 5000000L, 0, 0, z);
+        }
+
+        assertTrue(this.gestures.isEmpty());
+    }
+
+    @Test
+    public void slowWaving_isNotReported() {
+        for (int i = 0; i < 2000; i++) {
+            double t = i * 0.005;
+            this.recognizer.onAccelerometerSample(i * 5000000L,
+                    (float) (4 * Math.sin(2 * Math.PI * 1.5 * t)), 0, SyntheticTraces.GRAVITY);
+        }
+
+        assertTrue(this.gestures.isEmpty());
+    }
+}
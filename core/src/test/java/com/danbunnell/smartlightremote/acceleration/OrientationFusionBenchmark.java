@@ -0,0 +1,78 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import com.danbunnell.smartlightremote.common.OrientationMapping;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the cost of a fused orientation update at 200 Hz, and compares the accuracy of the
+ * fused angles with the accelerometer alone while the phone is turned and jostled in a hand.
+ *
+ * Run from the IDE; prints one line per round.
+ */
+public class OrientationFusionBenchmark {
+
+    private static final long PERIOD_NANOS = 5000000L;
+    private static final int SAMPLES = 200 * 600;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        // Precompute ten minutes of 200 Hz motion so only the filter is timed
+        float[] accelerometer = new float[3 * SAMPLES];
+        float[] gyroscope = new float[3 * SAMPLES];
+        float[] trueRoll = new float[SAMPLES];
+        Random random = new Random(1);
+
+        for (int i = 0; i < SAMPLES; i++) {
+            double t = i * PERIOD_NANOS / 1e9;
+            double roll = Math.toRadians(60) * Math.sin(2 * Math.PI * 0.2 * t);
+            double rollRate = Math.toRadians(60) * 2 * Math.PI * 0.2 * Math.cos(2 * Math.PI * 0.2 * t);
+            double jolt = 4 * Math.sin(2 * Math.PI * 3 * t);
+
+            trueRoll[i] = (float) Math.toDegrees(roll);
+            accelerometer[3 * i] = (float) (-SyntheticTraces.GRAVITY * Math.sin(roll) + jolt + random.nextGaussian() * 0.2);
+            accelerometer[3 * i + 1] = (float) (random.nextGaussian() * 0.2);
+            accelerometer[3 * i + 2] = (float) (SyntheticTraces.GRAVITY * Math.cos(roll) + random.nextGaussian() * 0.2);
+            gyroscope[3 * i + 1] = (float) (rollRate + 0.01 + random.nextGaussian() * 0.02);
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            ComplementaryOrientationFilter fused = new ComplementaryOrientationFilter(
+                    ComplementaryOrientationFilter.DEFAULT_TIME_CONSTANT_S);
+            ComplementaryOrientationFilter accelerometerOnly = new ComplementaryOrientationFilter(
+                    ComplementaryOrientationFilter.DEFAULT_TIME_CONSTANT_S);
+            int hueSum = 0;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < SAMPLES; i++) {
+                long timestamp = i * PERIOD_NANOS;
+                fused.onGyroscope(timestamp, gyroscope[3 * i], gyroscope[3 * i + 1], gyroscope[3 * i + 2]);
+                fused.onAccelerometer(timestamp, accelerometer[3 * i], accelerometer[3 * i + 1], accelerometer[3 * i + 2]);
+                hueSum += OrientationMapping.toHue(fused.getRollDegrees());
+            }
+            long elapsed = System.nanoTime() - start;
+
+            double fusedError = 0;
+            double accelerometerError = 0;
+            fused.reset();
+            for (int i = 0; i < SAMPLES; i++) {
+                long timestamp = i * PERIOD_NANOS;
+                fused.onGyroscope(timestamp, gyroscope[3 * i], gyroscope[3 * i + 1], gyroscope[3 * i + 2]);
+                fused.onAccelerometer(timestamp, accelerometer[3 * i], accelerometer[3 * i + 1], accelerometer[3 * i + 2]);
+                accelerometerOnly.onAccelerometer(timestamp, accelerometer[3 * i], accelerometer[3 * i + 1], accelerometer[3 * i + 2]);
+
+                double error = fused.getRollDegrees() - trueRoll[i];
+                fusedError += error * error;
+                error = accelerometerOnly.getRollDegrees() - trueRoll[i];
+                accelerometerError += error * error;
+            }
+
+            System.out.println(String.format(Locale.ENGLISH,
+                    "%d updates at 200 Hz: %.0f ns/update (%.4f%% of the 5 ms period); "
+                            + "roll RMS error fused %.2f deg, accelerometer only %.2f deg (hue checksum %d)",
+                    SAMPLES, (double) elapsed / SAMPLES, 100.0 * elapsed / SAMPLES / PERIOD_NANOS,
+                    Math.sqrt(fusedError / SAMPLES), Math.sqrt(accelerometerError / SAMPLES), hueSum));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import com.danbunnell.smartlightremote.common.DecimatingFilter;
+import com.danbunnell.smartlightremote.common.FixedPointMovingAverageFilter;
+import com.danbunnell.smartlightremote.common.HueMapping;
+import com.danbunnell.smartlightremote.common.MultiRateFilter;
+import com.danbunnell.smartlightremote.common.PredictiveFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures how far motion-mode hue trails the motion, with and without the
+ * {@link PredictiveFilter}, and how much the prediction overshoots.
+ *
+ * The reference is the hue the smoothing would give with no delay at all: the same filters'
+ * output, shifted back by their delay. The light is modelled as showing each output a fixed
+ * link latency after it leaves the filter. Reported per configuration, over the samples where
+ * the phone moves: the lag (the shift that best lines the light up with the reference), the RMS
+ * error at no shift, and the overshoot (how far the light goes beyond the reference's range
+ * over the preceding 300 ms and following 100 ms), all in hue steps.
+ *
+ * Prediction pays off for slow, deliberate motion and hurts on fast waving, whose ripple no
+ * projection can follow; predicting half the lag, with no allowance beyond the raw inputs, keeps
+ * the waving as it was while cutting the lag of slow motion.
+ *
+ * Run from the IDE with the trace file as the only argument; two synthetic traces, fast waving
+ * and slow swings, are used otherwise.
+ */
+public class PredictionEvaluation {
+
+    private static final float SAMPLE_PERIOD_MS = 5;
+    private static final int WINDOW = 50;
+    private static final float OUTPUT_HZ = 40;
+    private static final int TAPS_PER_PHASE = 8;
+    private static final float LINK_LATENCY_MS = 30;
+    private static final int OVERSHOOT_BEFORE = 60;
+    private static final int OVERSHOOT_AFTER = 20;
+    private static final int MAX_SHIFT = 100;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            evaluateTrace(args[0], new File(args[0]));
+            return;
+        }
+
+        File file = File.createTempFile("synthetic-trace", ".bin");
+        file.deleteOnExit();
+        evaluateTrace("waving", SyntheticTraces.writeRestAndMotion(file, 60, 1));
+        evaluateTrace("slow swings", SyntheticTraces.writeSlowSwings(file, 60, 1));
+    }
+
+    /**
+     * Runs every configuration over one trace.
+     */
+    private static void evaluateTrace(String name, File trace) throws IOException {
+        int count = 0;
+        SensorTraceReader reader = new SensorTraceReader(trace);
+        try {
+            while (reader.next()) {
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+
+        float[] raw = new float[count];
+        reader = new SensorTraceReader(trace);
+        try {
+            for (int i = 0; reader.next(); i++) {
+                raw[i] = AccelerometerPipeline.getMagnitude(reader.getX(), reader.getY(), reader.getZ());
+            }
+        } finally {
+            reader.close();
+        }
+
+        // The filters with their delay taken out; the best any causal filter could do
+        int factor = DecimatingFilter.factorFor(1000f / SAMPLE_PERIOD_MS, OUTPUT_HZ);
+        DecimatingFilter upstream = newUpstream(factor);
+        int delay = Math.round((WINDOW - 1) / 2f + upstream.getDelaySamples());
+        float[] filtered = new float[count];
+        for (int i = 0; i < count; i++) {
+            filtered[i] = upstream.filter(raw[i]);
+        }
+        float[] reference = new float[count];
+        for (int i = 0; i < count; i++) {
+            reference[i] = hue(filtered[Math.min(count - 1, i + delay)]);
+        }
+
+        boolean[] moving = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            float min = reference[i];
+            float max = reference[i];
+            for (int j = Math.max(0, i - WINDOW); j < Math.min(count, i + WINDOW); j++) {
+                min = Math.min(min, reference[j]);
+                max = Math.max(max, reference[j]);
+            }
+            moving[i] = max - min > 2;
+        }
+
+        float delayMs = delay * SAMPLE_PERIOD_MS;
+        float compensateMs = delayMs + LINK_LATENCY_MS;
+        System.out.println(String.format(Locale.ENGLISH,
+                "%s: %d samples, filter delay %.1f ms, link latency %.0f ms", name, count, delayMs, LINK_LATENCY_MS));
+
+        evaluate("filtered only            ", raw, reference, moving, newUpstream(factor));
+        float[] fractions = { 0.25f, 0.5f, 0.75f, 1f };
+        float[] limits = { Float.POSITIVE_INFINITY, 0.25f, 0f };
+        for (float fraction : fractions) {
+            for (float limit : limits) {
+                PredictiveFilter filter = new PredictiveFilter(newUpstream(factor), SAMPLE_PERIOD_MS, compensateMs);
+                filter.setHorizonMs(fraction * compensateMs);
+                filter.setOvershootLimit(limit);
+                evaluate(String.format(Locale.ENGLISH, "horizon %3.0f ms, limit %-4s",
+                        filter.getHorizonMs(), limit == Float.POSITIVE_INFINITY ? "none" : Float.toString(limit)),
+                        raw, reference, moving, filter);
+            }
+        }
+    }
+
+    private static DecimatingFilter newUpstream(int factor) {
+        return new DecimatingFilter(new FixedPointMovingAverageFilter(WINDOW), factor, TAPS_PER_PHASE);
+    }
+
+    private static float hue(float magnitude) {
+        return Math.min(HueMapping.MAX_MAGNITUDE, magnitude) / HueMapping.MAX_MAGNITUDE * HueMapping.MAX_HUE;
+    }
+
+    /**
+     * Runs one configuration over the trace and prints its lag, error and overshoot.
+     */
+    private static void evaluate(String label, float[] raw, float[] reference, boolean[] moving,
+                                 MultiRateFilter filter) {
+        int count = raw.length;
+        int latency = Math.round(LINK_LATENCY_MS / SAMPLE_PERIOD_MS);
+
+        // What the light shows: each output, held, from a link latency after it was produced
+        float[] shown = new float[count];
+        float current = Float.NaN;
+        float[] produced = new float[count];
+        for (int i = 0; i < count; i++) {
+            float value = filter.filter(raw[i]);
+            if (filter.isOutputReady()) {
+                current = hue(value);
+            }
+            produced[i] = current;
+        }
+        for (int i = 0; i < count; i++) {
+            shown[i] = i < latency || Float.isNaN(produced[i - latency])
+                    ? reference[i] : produced[i - latency];
+        }
+
+        int bestShift = 0;
+        double bestError = Double.MAX_VALUE;
+        double unshiftedError = 0;
+        for (int shift = 0; shift <= MAX_SHIFT; shift++) {
+            double error = 0;
+            int n = 0;
+            for (int i = MAX_SHIFT; i < count; i++) {
+                if (moving[i]) {
+                    double difference = shown[i] - reference[i - shift];
+                    error += difference * difference;
+                    n++;
+                }
+            }
+            error = Math.sqrt(error / n);
+            if (shift == 0) {
+                unshiftedError = error;
+            }
+            if (error < bestError) {
+                bestError = error;
+                bestShift = shift;
+            }
+        }
+
+        float[] overshoot = new float[count];
+        int n = 0;
+        for (int i = OVERSHOOT_BEFORE; i < count - OVERSHOOT_AFTER; i++) {
+            if (!moving[i]) {
+                continue;
+            }
+            float min = reference[i];
+            float max = reference[i];
+            for (int j = i - OVERSHOOT_BEFORE; j <= i + OVERSHOOT_AFTER; j++) {
+                min = Math.min(min, reference[j]);
+                max = Math.max(max, reference[j]);
+            }
+            overshoot[n++] = Math.max(0, Math.max(shown[i] - max, min - shown[i]));
+        }
+        Arrays.sort(overshoot, 0, n);
+
+        System.out.println(String.format(Locale.ENGLISH,
+                "%s lag %4.0f ms, RMS error %5.2f (%5.2f at best shift), "
+                        + "overshoot p99 %5.2f max %5.2f hue steps",
+                label, bestShift * SAMPLE_PERIOD_MS, unshiftedError, bestError,
+                overshoot[(int) (n * 0.99)], overshoot[n - 1]));
+    }
+}
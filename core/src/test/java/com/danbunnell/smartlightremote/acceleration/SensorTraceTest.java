@@ -0,0 +1,98 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import com.danbunnell.smartlightremote.common.MovingAverageFilter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class SensorTraceTest {
+    @Test
+    public void recordedSamples_readBackExactly() throws IOException {
+        File file = File.createTempFile("trace", ".bin");
+        file.deleteOnExit();
+
+        SensorTraceWriter writer = new SensorTraceWriter(file);
+        for (int i = 0; i < 10000; i++) {
+            writer.record(i * 5000000L, i, -i, i * 0.5f);
+        }
+        writer.close();
+
+        assertEquals(SensorTraceWriter.HEADER_LENGTH + 10000L * SensorTraceWriter.RECORD_LENGTH, file.length());
+
+        SensorTraceReader reader = new SensorTraceReader(file);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(reader.next());
+            assertEquals(i * 5000000L, reader.getTimestampNanos());
+            assertEquals(i, reader.getX(), 0);
+            assertEquals(-i, reader.getY(), 0);
+            assertEquals(i * 0.5f, reader.getZ(), 0);
+        }
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void flush_writesBufferedSamplesBeforeReturning() throws IOException {
+        File file = File.createTempFile("trace", ".bin");
+        file.deleteOnExit();
+
+        SensorTraceWriter writer = new SensorTraceWriter(file);
+        for (int i = 0; i < 5000; i++) {
+            writer.record(i, i, i, i);
+        }
+        writer.flush();
+        assertEquals(SensorTraceWriter.HEADER_LENGTH + 5000L * SensorTraceWriter.RECORD_LENGTH, file.length());
+
+        writer.record(5000, 0, 0, 0);
+        writer.close();
+        assertEquals(SensorTraceWriter.HEADER_LENGTH + 5001L * SensorTraceWriter.RECORD_LENGTH, file.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFiles_areRejected() throws IOException {
+        File file = File.createTempFile("not-a-trace", ".bin");
+        file.deleteOnExit();
+
+        FileOutputStream stream = new FileOutputStream(file);
+        stream.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        stream.close();
+
+        new SensorTraceReader(file);
+    }
+
+    @Test
+    public void replay_isDeterministic() throws Exception {
+        File file = SyntheticTraces.writeRestAndMotion(File.createTempFile("trace", ".bin"), 10, 7);
+        file.deleteOnExit();
+
+        assertEquals(replayChecksum(file), replayChecksum(file), 0);
+    }
+
+    /**
+     * Replays a trace through a fresh pipeline and sums the filtered output.
+     */
+    private static double replayChecksum(File file) throws Exception {
+        final double[] sum = new double[1];
+        AccelerometerPipeline pipeline = new AccelerometerPipeline(new MovingAverageFilter(50));
+        pipeline.registerCallback("test", new AccelerometerListener() {
+            @Override
+            public void onAccelerometerData(float magnitude, float filteredMagnitude) {
+                sum[0] += filteredMagnitude;
+            }
+        });
+
+        SensorTraceReader reader = new SensorTraceReader(file);
+        try {
+            assertEquals(2000, new TraceReplayDriver(pipeline).replay(reader, false));
+        } finally {
+            reader.close();
+        }
+
+        return sum[0];
+    }
+}
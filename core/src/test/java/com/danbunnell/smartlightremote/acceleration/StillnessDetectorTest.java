@@ -0,0 +1,67 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StillnessDetectorTest {
+
+    private static final long PERIOD = 5000000L;
+
+    private int changes;
+
+    private final StillnessDetector detector = new StillnessDetector(new StillnessDetector.Listener() {
+        @Override
+        public void onStillnessChanged(boolean still, long timestampNanos) {
+            changes++;
+        }
+    });
+
+    private final Random random = new Random(1);
+    private long now;
+
+    private void rest(double seconds, long period) {
+        for (long end = this.now + (long) (seconds * 1e9); this.now < end; this.now += period) {
+            this.detector.onSample(this.now, (float) (SyntheticTraces.GRAVITY + this.random.nextGaussian() * 0.05));
+        }
+    }
+
+    @Test
+    public void rest_becomesStillAfterDwell() {
+        this.rest(0.5, PERIOD);
+        assertFalse(this.detector.isStill());
+
+        this.rest(2, PERIOD);
+        assertTrue(this.detector.isStill());
+        assertEquals(1, this.changes);
+    }
+
+    @Test
+    public void motion_wakesOnFirstSample_atLowRate() {
+        this.rest(5, PERIOD);
+        assertTrue(this.detector.isStill());
+
+        this.rest(2, 100000000L);
+        assertTrue(this.detector.isStill());
+
+        this.detector.onSample(this.now, SyntheticTraces.GRAVITY + 2f);
+        assertFalse(this.detector.isStill());
+        assertEquals(2, this.changes);
+    }
+
+    @Test
+    public void slowDrift_doesNotFlap() {
+        this.rest(5, PERIOD);
+
+        // A gentle sway below the wake threshold keeps the low rate
+        for (int i = 0; i < 2000; i++) {
+            this.now += PERIOD;
+            this.detector.onSample(this.now, (float) (SyntheticTraces.GRAVITY + 0.1 * Math.sin(i * 0.01)));
+        }
+
+        assertTrue(this.detector.isStill());
+        assertEquals(1, this.changes);
+    }
+}
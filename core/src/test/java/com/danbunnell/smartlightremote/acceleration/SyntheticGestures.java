@@ -0,0 +1,182 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates labeled gesture sequences for evaluating the {@link GestureRecognizer}.
+ *
+ * Each gesture is performed with randomized amplitude and timing between stretches of the
+ * phone held in a hand, with sensor noise and tremor throughout.
+ */
+public final class SyntheticGestures {
+
+    /**
+     * A gesture performed in the sequence
+     */
+    public static final class Label {
+        public final int gesture;
+        public final long startNanos;
+        public final long endNanos;
+
+        Label(int gesture, long startNanos, long endNanos) {
+            this.gesture = gesture;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+    }
+
+    private static final float GRAVITY = SyntheticTraces.GRAVITY;
+    private static final long PERIOD = SyntheticTraces.SAMPLE_PERIOD_NANOS;
+
+    private final Random random;
+    private final AccelerometerSampleListener sink;
+    private final List<Label> labels = new ArrayList<>();
+    private long now;
+
+    private SyntheticGestures(AccelerometerSampleListener sink, long seed) {
+        this.sink = sink;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generates a sequence of random gestures.
+     *
+     * @param sink  receives the samples
+     * @param count the number of gestures
+     * @param seed  the random seed
+     * @return      the performed gestures in order
+     */
+    public static List<Label> generate(AccelerometerSampleListener sink, int count, long seed) {
+        SyntheticGestures generator = new SyntheticGestures(sink, seed);
+        generator.hold(1.0);
+
+        for (int i = 0; i < count; i++) {
+            generator.perform(generator.random.nextInt(GestureRecognizer.GESTURE_COUNT));
+            generator.hold(0.8 + generator.random.nextDouble());
+        }
+
+        return generator.labels;
+    }
+
+    /**
+     * Generates a single gesture between two rests.
+     *
+     * @param sink    receives the samples
+     * @param gesture one of the GestureRecognizer.GESTURE_* constants
+     * @param seed    the random seed
+     */
+    public static void generateOne(AccelerometerSampleListener sink, int gesture, long seed) {
+        SyntheticGestures generator = new SyntheticGestures(sink, seed);
+        generator.hold(1.0);
+        generator.perform(gesture);
+        generator.hold(1.0);
+    }
+
+    private void perform(int gesture) {
+        long start = this.now;
+
+        switch (gesture) {
+            case GestureRecognizer.GESTURE_SHAKE:
+                this.shake();
+                break;
+            case GestureRecognizer.GESTURE_FLICK_LEFT:
+                this.flick(-1);
+                break;
+            case GestureRecognizer.GESTURE_FLICK_RIGHT:
+                this.flick(1);
+                break;
+            case GestureRecognizer.GESTURE_TILT_UP:
+                this.tilt(1);
+                break;
+            case GestureRecognizer.GESTURE_TILT_DOWN:
+                this.tilt(-1);
+                break;
+            default:
+                this.doubleTap();
+                break;
+        }
+
+        this.labels.add(new Label(gesture, start, this.now));
+    }
+
+    private void hold(double seconds) {
+        long samples = (long) (seconds * 1e9 / PERIOD);
+        for (long i = 0; i < samples; i++) {
+            this.emit(0, 0, 0, 0);
+        }
+    }
+
+    private void shake() {
+        double frequency = 4 + 2 * this.random.nextDouble();
+        double amplitude = 12 + 8 * this.random.nextDouble();
+        long samples = (long) ((0.7 + 0.3 * this.random.nextDouble()) * 1e9 / PERIOD);
+
+        for (long i = 0; i < samples; i++) {
+            double t = i * PERIOD / 1e9;
+            this.emit(amplitude * Math.sin(2 * Math.PI * frequency * t), 0, 0.2 * amplitude * Math.sin(4 * Math.PI * frequency * t), 0);
+        }
+    }
+
+    private void flick(int direction) {
+        double amplitude = 12 + 8 * this.random.nextDouble();
+        double accelerate = 0.07 + 0.03 * this.random.nextDouble();
+        double brake = 0.09 + 0.04 * this.random.nextDouble();
+
+        this.pulse(direction * amplitude, accelerate);
+        this.pulse(-direction * amplitude * 0.8, brake);
+    }
+
+    private void pulse(double amplitude, double seconds) {
+        long samples = (long) (seconds * 1e9 / PERIOD);
+        for (long i = 0; i < samples; i++) {
+            this.emit(amplitude * Math.sin(Math.PI * i / samples), 0, 0, 0);
+        }
+    }
+
+    private void tilt(int direction) {
+        double angle = Math.toRadians(45 + 15 * this.random.nextDouble()) * direction;
+        long ramp = (long) (0.4e9 / PERIOD);
+        long held = (long) ((0.5 + 0.5 * this.random.nextDouble()) * 1e9 / PERIOD);
+
+        for (long i = 0; i < ramp; i++) {
+            this.emit(0, 0, 0, angle * i / ramp);
+        }
+        for (long i = 0; i < held; i++) {
+            this.emit(0, 0, 0, angle);
+        }
+        for (long i = ramp; i > 0; i--) {
+            this.emit(0, 0, 0, angle * i / ramp);
+        }
+    }
+
+    private void doubleTap() {
+        long gap = (long) ((0.15 + 0.15 * this.random.nextDouble()) * 1e9 / PERIOD);
+        this.tap();
+        for (long i = 0; i < gap; i++) {
+            this.emit(0, 0, 0, 0);
+        }
+        this.tap();
+    }
+
+    private void tap() {
+        double amplitude = 6 + 4 * this.random.nextDouble();
+        int samples = 3 + this.random.nextInt(2);
+        for (int i = 0; i < samples; i++) {
+            this.emit(0, 0, -amplitude * Math.sin(Math.PI * (i + 1) / (samples + 1)), 0);
+        }
+    }
+
+    /**
+     * Emits one sample of the phone held screen up, pitched by an angle about the x axis.
+     */
+    private void emit(double linearX, double linearY, double linearZ, double pitch) {
+        double tremor = 0.15;
+        this.sink.onAccelerometerSample(this.now,
+                (float) (linearX + this.random.nextGaussian() * tremor),
+                (float) (linearY + GRAVITY * Math.sin(pitch) + this.random.nextGaussian() * tremor),
+                (float) (linearZ + GRAVITY * Math.cos(pitch) + this.random.nextGaussian() * tremor));
+        this.now += PERIOD;
+    }
+}
@@ -0,0 +1,108 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates sensor traces for tools and tests when no recorded trace is at hand.
+ */
+public final class SyntheticTraces {
+
+    public static final float GRAVITY = 9.81f;
+
+    /**
+     * sensor period of motion mode (5 ms)
+     */
+    public static final long SAMPLE_PERIOD_NANOS = 5000000L;
+
+    private SyntheticTraces() {
+    }
+
+    /**
+     * Writes a trace that alternates between the phone resting and being waved around.
+     *
+     * @param file    the trace file to create
+     * @param seconds the trace duration
+     * @param seed    the random seed
+     * @return        the trace file
+     * @throws IOException if the trace cannot be written
+     */
+    public static File writeRestAndMotion(File file, int seconds, long seed) throws IOException {
+        Random random = new Random(seed);
+        SensorTraceWriter writer = new SensorTraceWriter(file);
+
+        try {
+            long samples = seconds * 1000000000L / SAMPLE_PERIOD_NANOS;
+            for (long i = 0; i < samples; i++) {
+                double t = i * SAMPLE_PERIOD_NANOS / 1e9;
+                // 4 s at rest, then 4 s of waving at 1.5 Hz with growing amplitude
+                boolean moving = ((long) t / 4) % 2 == 1;
+                double amplitude = moving ? 4 + 8 * ((t % 4) / 4) : 0;
+                double wave = amplitude * Math.sin(2 * Math.PI * 1.5 * t);
+
+                writer.record(i * SAMPLE_PERIOD_NANOS,
+                        (float) (wave + random.nextGaussian() * 0.05),
+                        (float) (0.5 * wave + random.nextGaussian() * 0.05),
+                        (float) (GRAVITY + random.nextGaussian() * 0.05));
+            }
+        } finally {
+            writer.close();
+        }
+
+        return file;
+    }
+
+    /**
+     * Writes a trace of slow, deliberate motion: the phone at rest, then lifted and lowered
+     * smoothly, slowly enough that the smoothing keeps the motion rather than averaging it away.
+     *
+     * @param file    the trace file to create
+     * @param seconds the trace duration
+     * @param seed    the random seed
+     * @return        the trace file
+     * @throws IOException if the trace cannot be written
+     */
+    public static File writeSlowSwings(File file, int seconds, long seed) throws IOException {
+        Random random = new Random(seed);
+        SensorTraceWriter writer = new SensorTraceWriter(file);
+
+        try {
+            long samples = seconds * 1000000000L / SAMPLE_PERIOD_NANOS;
+            for (long i = 0; i < samples; i++) {
+                double t = i * SAMPLE_PERIOD_NANOS / 1e9;
+                // 3 s at rest, then two and a half swings at 0.4 Hz, eased in and out
+                double phase = t % 9 - 3;
+                double lift = phase > 0 && phase < 6.25
+                        ? 6 * Math.sin(Math.PI * phase / 6.25) * Math.sin(2 * Math.PI * 0.4 * phase)
+                        : 0;
+
+                writer.record(i * SAMPLE_PERIOD_NANOS,
+                        (float) (random.nextGaussian() * 0.05),
+                        (float) (random.nextGaussian() * 0.05),
+                        (float) (GRAVITY + lift + random.nextGaussian() * 0.05));
+            }
+        } finally {
+            writer.close();
+        }
+
+        return file;
+    }
+
+    /**
+     * Opens the trace named on the command line, or a synthetic one if none was given.
+     *
+     * @param args the command-line arguments
+     * @return     the trace file
+     * @throws IOException if the synthetic trace cannot be written
+     */
+    public static File fromArgs(String[] args) throws IOException {
+        if (args.length > 0) {
+            return new File(args[0]);
+        }
+
+        File file = File.createTempFile("synthetic-trace", ".bin");
+        file.deleteOnExit();
+        return writeRestAndMotion(file, 60, 1);
+    }
+}
@@ -0,0 +1,54 @@
+package com.danbunnell.smartlightremote.acceleration;
+
+import com.danbunnell.smartlightremote.common.HueMapping;
+import com.danbunnell.smartlightremote.common.MovingAverageFilter;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Replays a sensor trace through the motion-mode pipeline as fast as possible and reports
+ * throughput and the resulting hue stream.
+ *
+ * Run from the IDE with the trace file as the only argument; a synthetic trace is used otherwise.
+ */
+public class TraceReplayBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        File trace = SyntheticTraces.fromArgs(args);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final int[] hueChanges = new int[1];
+            final int[] lastHue = new int[] { -1 };
+
+            AccelerometerPipeline pipeline = new AccelerometerPipeline(new MovingAverageFilter(50));
+            pipeline.registerCallback("benchmark", new AccelerometerListener() {
+                @Override
+                public void onAccelerometerData(float magnitude, float filteredMagnitude) {
+                    int hue = HueMapping.fromMagnitude(filteredMagnitude);
+                    if (hue != lastHue[0]) {
+                        hueChanges[0]++;
+                        lastHue[0] = hue;
+                    }
+                }
+            });
+
+            SensorTraceReader reader = new SensorTraceReader(trace);
+            long start = System.nanoTime();
+            long samples;
+            try {
+                samples = new TraceReplayDriver(pipeline).replay(reader, false);
+            } finally {
+                reader.close();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            System.out.println(String.format(Locale.ENGLISH,
+                    "%d samples in %.1f ms: %.2f M samples/s, %.0f ns/sample, %d hue changes",
+                    samples, elapsed / 1e6, samples / (elapsed / 1e9) / 1e6,
+                    (double) elapsed / samples, hueChanges[0]));
+        }
+    }
+}
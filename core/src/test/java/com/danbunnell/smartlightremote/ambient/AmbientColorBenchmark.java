@@ -0,0 +1,129 @@
+package com.danbunnell.smartlightremote.ambient;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures dominant-colour extraction on 1080p ARGB frames, single-threaded and spread over
+ * all cores, at several sampling strides.
+ *
+ * Run from the IDE; prints frames per second and the colour found per configuration.
+ */
+public class AmbientColorBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int FRAMES = 8;
+    private static final int ROUNDS = 5;
+    private static final int[] STRIDES = { 1, 2, 4, 8 };
+
+    public static void main(String[] args) throws Exception {
+        int[][] frames = new int[FRAMES][];
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = room(i);
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(cores);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                System.out.println("round " + (round + 1) + ", " + cores + " core(s)");
+                for (int stride : STRIDES) {
+                    run(frames, stride, executor, cores);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Extracts every frame serially and in parallel at one stride.
+     */
+    private static void run(int[][] frames, int stride, ExecutorService executor, int cores) throws Exception {
+        AmbientColorExtractor extractor = new AmbientColorExtractor(stride);
+        int repeats = 4 * stride * stride;
+
+        long start = System.nanoTime();
+        long checksum = 0;
+        for (int r = 0; r < repeats; r++) {
+            for (int[] frame : frames) {
+                extractor.extract(frame, WIDTH, HEIGHT);
+                checksum += extractor.getHue() * 256 + extractor.getSaturation();
+            }
+        }
+        double serialFps = repeats * frames.length / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        for (int r = 0; r < repeats; r++) {
+            for (int[] frame : frames) {
+                extractor.extract(frame, WIDTH, HEIGHT, executor, cores);
+                checksum -= extractor.getHue() * 256 + extractor.getSaturation();
+            }
+        }
+        double parallelFps = repeats * frames.length / ((System.nanoTime() - start) / 1e9);
+
+        System.out.println(String.format(Locale.ENGLISH,
+                "  stride %d: %8.1f fps serial, %8.1f fps parallel; last frame hue %3d sat %3d%s",
+                stride, serialFps, parallelFps, extractor.getHue(), extractor.getSaturation(),
+                checksum == 0 ? "" : " (serial and parallel disagree)"));
+    }
+
+    /**
+     * Draws a room: a tinted wall gradient, a grey floor, a coloured object and sensor noise.
+     */
+    private static int[] room(int seed) {
+        Random random = new Random(seed);
+        int wallHue = random.nextInt(360);
+        int objectHue = random.nextInt(360);
+        int[] frame = new int[WIDTH * HEIGHT];
+
+        int objectLeft = random.nextInt(WIDTH / 2);
+        int objectTop = random.nextInt(HEIGHT / 2);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int colour;
+                if (x >= objectLeft && x < objectLeft + WIDTH / 4 && y >= objectTop && y < objectTop + HEIGHT / 4) {
+                    colour = hsv(objectHue, 230, 220);
+                } else if (y < HEIGHT * 2 / 3) {
+                    colour = hsv(wallHue, 60 + 80 * y / HEIGHT, 120 + 100 * x / WIDTH);
+                } else {
+                    colour = hsv(0, 0, 90);
+                }
+
+                int noise = random.nextInt(9) - 4;
+                frame[y * WIDTH + x] = 0xFF000000
+                        | clamp(((colour >> 16) & 0xFF) + noise) << 16
+                        | clamp(((colour >> 8) & 0xFF) + noise) << 8
+                        | clamp((colour & 0xFF) + noise);
+            }
+        }
+
+        return frame;
+    }
+
+    private static int hsv(int hue, int saturation, int value) {
+        int chroma = value * saturation / 255;
+        int sector = hue / 60;
+        int rising = chroma * (hue % 60) / 60;
+        int min = value - chroma;
+        int r;
+        int g;
+        int b;
+        switch (sector) {
+            case 0: r = value; g = min + rising; b = min; break;
+            case 1: r = value - rising; g = value; b = min; break;
+            case 2: r = min; g = value; b = min + rising; break;
+            case 3: r = min; g = value - rising; b = value; break;
+            case 4: r = min + rising; g = min; b = value; break;
+            default: r = value; g = min; b = value - rising; break;
+        }
+        return (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(int channel) {
+        return Math.max(0, Math.min(255, channel));
+    }
+}
@@ -0,0 +1,106 @@
+package com.danbunnell.smartlightremote.ambient;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class AmbientColorExtractorTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private static int rgb(int r, int g, int b) {
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    @Test
+    public void solidColour_isFound() {
+        int[] frame = new int[WIDTH * HEIGHT];
+        Arrays.fill(frame, rgb(0, 0, 255));
+
+        AmbientColorExtractor extractor = new AmbientColorExtractor(4);
+        assertTrue(extractor.extract(frame, WIDTH, HEIGHT));
+        assertEquals(240, extractor.getHue());
+        assertEquals(255, extractor.getSaturation());
+    }
+
+    @Test
+    public void redsEitherSideOfZero_averageAcrossTheWrap() {
+        int[] frame = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < frame.length; i++) {
+            // Alternating hues of about 355 and 5 degrees
+            frame[i] = i % 2 == 0 ? rgb(255, 0, 21) : rgb(255, 21, 0);
+        }
+
+        AmbientColorExtractor extractor = new AmbientColorExtractor(1);
+        extractor.extract(frame, WIDTH, HEIGHT);
+        int hue = extractor.getHue();
+        assertTrue("hue " + hue, hue <= 1 || hue >= 359);
+    }
+
+    @Test
+    public void smallPatchInGreyRoom_isPale() {
+        int[] frame = new int[WIDTH * HEIGHT];
+        Arrays.fill(frame, rgb(128, 128, 128));
+        for (int y = 0; y < HEIGHT / 4; y++) {
+            for (int x = 0; x < WIDTH / 4; x++) {
+                frame[y * WIDTH + x] = rgb(0, 200, 0);
+            }
+        }
+
+        AmbientColorExtractor extractor = new AmbientColorExtractor(2);
+        assertTrue(extractor.extract(frame, WIDTH, HEIGHT));
+        assertEquals(120, extractor.getHue());
+        assertTrue("saturation " + extractor.getSaturation(), extractor.getSaturation() < 64);
+
+        Arrays.fill(frame, rgb(10, 10, 10));
+        assertFalse(extractor.extract(frame, WIDTH, HEIGHT));
+        assertEquals(0, extractor.getSaturation());
+    }
+
+    @Test
+    public void parallelExtraction_matchesSerial() throws Exception {
+        Random random = new Random(1);
+        int[] frame = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+
+        AmbientColorExtractor serial = new AmbientColorExtractor(3);
+        AmbientColorExtractor parallel = new AmbientColorExtractor(3);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            serial.extract(frame, WIDTH, HEIGHT);
+            parallel.extract(frame, WIDTH, HEIGHT, executor, 5);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(serial.getHue(), parallel.getHue());
+        assertEquals(serial.getSaturation(), parallel.getSaturation());
+    }
+
+    @Test
+    public void smoother_ignoresNoiseAndFollowsChanges() {
+        AmbientColorSmoother smoother = new AmbientColorSmoother(1.0f, 4, 6);
+        assertTrue(smoother.update(350, 200, 0));
+
+        // Frame-to-frame noise around the same colour leaves the output alone
+        Random random = new Random(2);
+        for (long now = 100; now <= 5000; now += 100) {
+            assertFalse(smoother.update(348 + random.nextInt(5), 198 + random.nextInt(5), now));
+        }
+
+        // A new colour is reached within a few time constants, the short way round
+        for (long now = 5100; now <= 10000; now += 100) {
+            smoother.update(20, 100, now);
+        }
+        assertEquals(20, smoother.getHue(), 4);
+        assertEquals(100, smoother.getSaturation(), 6);
+    }
+}
@@ -0,0 +1,96 @@
+package com.danbunnell.smartlightremote.audio;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures the time to analyze one block of audio against the block's own duration, and
+ * checks that analysis does not allocate.
+ *
+ * Run from the IDE with a 16-bit PCM WAV file as the only argument; a synthetic beat is used
+ * otherwise.
+ */
+public class AudioAnalyzerBenchmark {
+
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        File file = SyntheticAudio.fromArgs(args);
+        WavFile wav = WavFile.read(file);
+
+        int blockSize = AudioAnalyzer.DEFAULT_BLOCK_SIZE;
+        int blocks = wav.samples.length / blockSize;
+        double budgetNanos = 1e9 * blockSize / wav.sampleRateHz;
+        System.out.println(String.format(Locale.ENGLISH,
+                "%s: %d blocks of %d samples at %d Hz, budget %.2f ms per block",
+                file.getName(), blocks, blockSize, wav.sampleRateHz, budgetNanos / 1e6));
+
+        AudioAnalyzer analyzer = new AudioAnalyzer(blockSize, wav.sampleRateHz, AudioAnalyzer.DEFAULT_BAND_COUNT);
+        RealFft fft = new RealFft(blockSize);
+        float[] fftInput = new float[blockSize];
+        float[] fftData = new float[blockSize];
+        for (int i = 0; i < blockSize; i++) {
+            fftInput[i] = wav.samples[i] / 32768f;
+        }
+        long[] blockNanos = new long[blocks];
+
+        for (int round = 0; round < ROUNDS; round++) {
+            analyzer.reset();
+
+            // Reading the counter allocates; measure that so it can be subtracted
+            long calibration = allocatedBytes();
+            calibration = allocatedBytes() - calibration;
+            long allocatedBefore = allocatedBytes();
+
+            for (int i = 0; i < blocks; i++) {
+                long start = System.nanoTime();
+                analyzer.process(wav.samples, i * blockSize);
+                blockNanos[i] = System.nanoTime() - start;
+            }
+
+            long allocated = allocatedBytes() - allocatedBefore - calibration;
+
+            long fftStart = System.nanoTime();
+            for (int i = 0; i < blocks; i++) {
+                System.arraycopy(fftInput, 0, fftData, 0, blockSize);
+                fft.forward(fftData);
+            }
+            long fftNanos = System.nanoTime() - fftStart;
+
+            Arrays.sort(blockNanos);
+            long total = 0;
+            for (long nanos : blockNanos) {
+                total += nanos;
+            }
+            double mean = (double) total / blocks;
+
+            System.out.println(String.format(Locale.ENGLISH,
+                    "block: mean %.1f us (%.2f%% of budget), p99 %.1f us, max %.1f us; FFT alone %.1f us; "
+                            + "%d onset(s); %s",
+                    mean / 1e3,
+                    100 * mean / budgetNanos,
+                    blockNanos[(int) (blocks * 0.99)] / 1e3,
+                    blockNanos[blocks - 1] / 1e3,
+                    (double) fftNanos / blocks / 1e3,
+                    analyzer.getOnsetCount() / (round + 1),
+                    allocated < 0 ? "allocation not measurable" : allocated + " byte(s) allocated"));
+        }
+    }
+
+    /**
+     * Gets the bytes allocated by this thread so far, where the JVM reports it.
+     *
+     * @return the allocated bytes, or a large negative value if unavailable
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return Long.MIN_VALUE / 2;
+    }
+}
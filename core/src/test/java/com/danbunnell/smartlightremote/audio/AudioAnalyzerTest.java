@@ -0,0 +1,92 @@
+package com.danbunnell.smartlightremote.audio;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class AudioAnalyzerTest {
+
+    private static final int BLOCK = AudioAnalyzer.DEFAULT_BLOCK_SIZE;
+
+    private static AudioAnalyzer newAnalyzer() {
+        return new AudioAnalyzer(BLOCK, SyntheticAudio.SAMPLE_RATE_HZ, AudioAnalyzer.DEFAULT_BAND_COUNT);
+    }
+
+    @Test
+    public void tone_landsInItsBand() {
+        AudioAnalyzer analyzer = newAnalyzer();
+        short[] samples = SyntheticAudio.tone(0.5, 1000, 0.5);
+        analyzer.process(samples, 0);
+
+        int band = 0;
+        while (band + 1 < analyzer.getBandCount() && analyzer.getBandStartHz(band + 1) <= 1000) {
+            band++;
+        }
+
+        float[] levels = analyzer.getBandLevelsDb();
+        for (int i = 0; i < levels.length; i++) {
+            if (i != band) {
+                assertTrue("band " + i + " at " + levels[i] + " dB", levels[i] < levels[band] - 20);
+            }
+        }
+
+        // A sine of amplitude 0.5 has an RMS level of -9 dB
+        assertEquals(-9.0, analyzer.getLevelDb(), 0.1);
+        assertEquals(-9.0, levels[band], 1.0);
+    }
+
+    @Test
+    public void steadyTone_hasNoOnsets() {
+        AudioAnalyzer analyzer = newAnalyzer();
+        short[] samples = SyntheticAudio.tone(5, 440, 0.5);
+
+        for (int offset = 0; offset + BLOCK <= samples.length; offset += BLOCK) {
+            analyzer.process(samples, offset);
+        }
+
+        assertEquals(0, analyzer.getOnsetCount());
+    }
+
+    @Test
+    public void beat_readFromWav_hasOneOnsetPerDrumHit() throws Exception {
+        File file = File.createTempFile("beat", ".wav");
+        try {
+            WavFile.write(file, SyntheticAudio.beat(10, 120, 1), SyntheticAudio.SAMPLE_RATE_HZ);
+            WavFile wav = WavFile.read(file);
+            assertEquals(SyntheticAudio.SAMPLE_RATE_HZ, wav.sampleRateHz);
+
+            AudioAnalyzer analyzer = newAnalyzer();
+            // Kicks fall on the beat and hi-hats halfway between, every 0.25 s in all
+            double hitSeconds = 0.25;
+            double blockSeconds = (double) BLOCK / wav.sampleRateHz;
+            int onTime = 0;
+
+            for (int offset = 0; offset + BLOCK <= wav.samples.length; offset += BLOCK) {
+                if (analyzer.process(wav.samples, offset)) {
+                    // The hit must fall within the block that reported it, or just before
+                    double start = (double) offset / wav.sampleRateHz;
+                    double sinceHit = (start + blockSeconds) % hitSeconds;
+                    if (sinceHit <= 2 * blockSeconds) {
+                        onTime++;
+                    }
+                }
+            }
+
+            assertEquals(40, analyzer.getOnsetCount(), 1);
+            assertEquals(analyzer.getOnsetCount(), onTime);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void silence_isFloored() {
+        AudioAnalyzer analyzer = newAnalyzer();
+        analyzer.process(new short[BLOCK], 0);
+
+        assertEquals(AudioAnalyzer.SILENCE_DB, analyzer.getLevelDb(), 0);
+        assertFalse(analyzer.isOnset());
+    }
+}
@@ -0,0 +1,66 @@
+package com.danbunnell.smartlightremote.audio;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RealFftTest {
+    @Test
+    public void forward_matchesDirectDft() {
+        for (int size = 4; size <= 256; size *= 2) {
+            Random random = new Random(size);
+            float[] input = new float[size];
+            for (int i = 0; i < size; i++) {
+                input[i] = (float) random.nextGaussian();
+            }
+
+            float[] data = input.clone();
+            new RealFft(size).forward(data);
+
+            for (int k = 0; k <= size / 2; k++) {
+                double re = 0;
+                double im = 0;
+                for (int n = 0; n < size; n++) {
+                    double angle = -2 * Math.PI * k * n / size;
+                    re += input[n] * Math.cos(angle);
+                    im += input[n] * Math.sin(angle);
+                }
+
+                double actualRe = k == 0 ? data[0] : k == size / 2 ? data[1] : data[2 * k];
+                double actualIm = k == 0 || k == size / 2 ? 0 : data[2 * k + 1];
+                assertEquals("size " + size + " bin " + k + " re", re, actualRe, 1e-3 * size);
+                assertEquals("size " + size + " bin " + k + " im", im, actualIm, 1e-3 * size);
+            }
+        }
+    }
+
+    @Test
+    public void sine_peaksInItsBin() {
+        int size = 1024;
+        float[] data = new float[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (float) Math.sin(2 * Math.PI * 37 * i / size);
+        }
+
+        RealFft fft = new RealFft(size);
+        float[] power = new float[size / 2 + 1];
+        fft.forward(data);
+        fft.power(data, power);
+
+        int peak = 0;
+        for (int k = 1; k < power.length; k++) {
+            if (power[k] > power[peak]) {
+                peak = k;
+            }
+        }
+        assertEquals(37, peak);
+        assertEquals((size / 2) * (size / 2), power[37], 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizeNotPowerOfTwo_isRejected() {
+        new RealFft(1000);
+    }
+}
@@ -0,0 +1,92 @@
+package com.danbunnell.smartlightremote.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates music-like audio for tools and tests when no recording is at hand.
+ */
+public final class SyntheticAudio {
+
+    public static final int SAMPLE_RATE_HZ = 44100;
+
+    private SyntheticAudio() {
+    }
+
+    /**
+     * Generates a beat: a kick drum on every beat and a hi-hat between beats, over a
+     * sustained chord and background noise.
+     *
+     * @param seconds the duration
+     * @param bpm     the tempo in beats per minute
+     * @param seed    the random seed
+     * @return        16-bit samples at {@link #SAMPLE_RATE_HZ}
+     */
+    public static short[] beat(double seconds, double bpm, long seed) {
+        Random random = new Random(seed);
+        int count = (int) (seconds * SAMPLE_RATE_HZ);
+        double beatSeconds = 60 / bpm;
+        short[] samples = new short[count];
+
+        for (int i = 0; i < count; i++) {
+            double t = (double) i / SAMPLE_RATE_HZ;
+            double sinceBeat = t % beatSeconds;
+            double sinceOffBeat = (t + beatSeconds / 2) % beatSeconds;
+
+            // Kick: a 150 Hz to 50 Hz sweep with a fast decay
+            double kickPhase = 2 * Math.PI * (50 * sinceBeat + 100 * 0.03 * (1 - Math.exp(-sinceBeat / 0.03)));
+            double kick = 0.8 * Math.exp(-sinceBeat / 0.12) * Math.sin(kickPhase);
+
+            double hat = 0.08 * Math.exp(-sinceOffBeat / 0.02) * random.nextGaussian();
+
+            double chord = 0.05 * (Math.sin(2 * Math.PI * 220 * t)
+                    + Math.sin(2 * Math.PI * 277.2 * t)
+                    + Math.sin(2 * Math.PI * 329.6 * t));
+
+            double noise = 0.003 * random.nextGaussian();
+            samples[i] = toSample(kick + hat + chord + noise);
+        }
+
+        return samples;
+    }
+
+    /**
+     * Generates a steady sine tone.
+     *
+     * @param seconds   the duration
+     * @param hz        the frequency
+     * @param amplitude the amplitude, 0-1 of full scale
+     * @return          16-bit samples at {@link #SAMPLE_RATE_HZ}
+     */
+    public static short[] tone(double seconds, double hz, double amplitude) {
+        int count = (int) (seconds * SAMPLE_RATE_HZ);
+        short[] samples = new short[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = toSample(amplitude * Math.sin(2 * Math.PI * hz * i / SAMPLE_RATE_HZ));
+        }
+        return samples;
+    }
+
+    /**
+     * Opens the WAV file named on the command line, or a synthetic beat if none was given.
+     *
+     * @param args the command-line arguments
+     * @return     the WAV file
+     * @throws IOException if the synthetic beat cannot be written
+     */
+    public static File fromArgs(String[] args) throws IOException {
+        if (args.length > 0) {
+            return new File(args[0]);
+        }
+
+        File file = File.createTempFile("synthetic-beat", ".wav");
+        file.deleteOnExit();
+        WavFile.write(file, beat(60, 120, 1), SAMPLE_RATE_HZ);
+        return file;
+    }
+
+    private static short toSample(double value) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value * 32767)));
+    }
+}
@@ -0,0 +1,142 @@
+package com.danbunnell.smartlightremote.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Reads and writes 16-bit PCM WAV files, so the audio pipeline can be run on recordings.
+ *
+ * Multi-channel files are mixed down to mono when read.
+ */
+public final class WavFile {
+
+    private static final int FORMAT_PCM = 1;
+
+    public final short[] samples;
+    public final int sampleRateHz;
+
+    private WavFile(short[] samples, int sampleRateHz) {
+        this.samples = samples;
+        this.sampleRateHz = sampleRateHz;
+    }
+
+    /**
+     * Reads a WAV file.
+     *
+     * @param file the file
+     * @return     the samples, mixed down to mono, and the sample rate
+     * @throws IOException if the file cannot be read or is not 16-bit PCM
+     */
+    public static WavFile read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (readTag(in) != 0x46464952 /* RIFF */) {
+                throw new IOException(file + " is not a RIFF file");
+            }
+            readInt(in);
+            if (readTag(in) != 0x45564157 /* WAVE */) {
+                throw new IOException(file + " is not a WAVE file");
+            }
+
+            int channels = 0;
+            int sampleRateHz = 0;
+            while (true) {
+                int tag = readTag(in);
+                int length = readInt(in);
+
+                if (tag == 0x20746d66 /* fmt  */) {
+                    int format = readShort(in);
+                    channels = readShort(in);
+                    sampleRateHz = readInt(in);
+                    in.skipBytes(6);
+                    int bits = readShort(in);
+                    in.skipBytes(length - 16);
+                    if (format != FORMAT_PCM || bits != 16) {
+                        throw new IOException(file + " is not 16-bit PCM");
+                    }
+                } else if (tag == 0x61746164 /* data */) {
+                    if (channels == 0) {
+                        throw new IOException(file + " has no format chunk before its data");
+                    }
+
+                    int frames = length / (2 * channels);
+                    short[] samples = new short[frames];
+                    for (int i = 0; i < frames; i++) {
+                        int sum = 0;
+                        for (int c = 0; c < channels; c++) {
+                            sum += (short) readShort(in);
+                        }
+                        samples[i] = (short) (sum / channels);
+                    }
+                    return new WavFile(samples, sampleRateHz);
+                } else {
+                    in.skipBytes(length + (length & 1));
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException(file + " ends before its audio data", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes mono samples as a WAV file.
+     *
+     * @param file         the file to create
+     * @param samples      the samples
+     * @param sampleRateHz the sample rate
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, short[] samples, int sampleRateHz) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            int dataLength = 2 * samples.length;
+            out.writeInt(0x52494646); // "RIFF"
+            writeInt(out, 36 + dataLength);
+            out.writeInt(0x57415645); // "WAVE"
+            out.writeInt(0x666d7420); // "fmt "
+            writeInt(out, 16);
+            writeShort(out, FORMAT_PCM);
+            writeShort(out, 1);
+            writeInt(out, sampleRateHz);
+            writeInt(out, 2 * sampleRateHz);
+            writeShort(out, 2);
+            writeShort(out, 16);
+            out.writeInt(0x64617461); // "data"
+            writeInt(out, dataLength);
+            for (short sample : samples) {
+                writeShort(out, sample);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int readTag(DataInputStream in) throws IOException {
+        return readInt(in);
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static int readShort(DataInputStream in) throws IOException {
+        return Short.reverseBytes(in.readShort()) & 0xFFFF;
+    }
+
+    private static void writeInt(DataOutputStream out, int value) throws IOException {
+        out.writeInt(Integer.reverseBytes(value));
+    }
+
+    private static void writeShort(DataOutputStream out, int value) throws IOException {
+        out.writeShort(Short.reverseBytes((short) value));
+    }
+}
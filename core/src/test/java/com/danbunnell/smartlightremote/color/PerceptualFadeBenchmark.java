@@ -0,0 +1,197 @@
+package com.danbunnell.smartlightremote.color;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Measures perceptual fades: the time to build the lookup tables, the time and allocation of a
+ * fade step through the tables and through the full conversion, how far the tables stray from
+ * the full conversion, and how many frames a fade needs before no step is noticeable, stepping
+ * the light's hue and saturation linearly as the effect interpreter does, turning through OKLCH
+ * and running straight through OKLab.
+ */
+public class PerceptualFadeBenchmark {
+
+    private static final int STEPS = 10000000;
+    private static final int ROUNDS = 5;
+    private static final int MAX_FRAMES = 1000;
+
+    /**
+     * OKLab distance of a just noticeable difference
+     */
+    private static final float NOTICEABLE = 0.02f;
+
+    private static final int[][] FADES = {
+            { 0, 255, 120, 255 },
+            { 120, 255, 240, 255 },
+            { 240, 255, 0, 255 },
+            { 30, 255, 60, 255 },
+            { 200, 255, 20, 255 },
+            { 0, 0, 0, 255 },
+            { 240, 40, 240, 255 },
+            { 60, 255, 300, 100 },
+    };
+
+    public static void main(String[] args) {
+        long start = System.nanoTime();
+        PerceptualFade fade = new PerceptualFade();
+        fade.start(0, 255, 120, 255, true);
+        fade.update(0.5f);
+        System.out.println(String.format(Locale.ENGLISH, "tables built in %.1f ms",
+                (System.nanoTime() - start) / 1e6));
+
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("round " + (round + 1));
+            time(fade, true, false);
+            time(fade, true, true);
+            time(fade, false, false);
+            time(fade, false, true);
+        }
+
+        accuracy(fade, true);
+        accuracy(fade, false);
+
+        System.out.println(String.format(Locale.ENGLISH,
+                "frames for steps under %.2f: device-linear, turning, straight", NOTICEABLE));
+        int[] totals = new int[3];
+        for (int[] ends : FADES) {
+            int linear = framesNeeded(null, ends);
+            fade.start(ends[0], ends[1], ends[2], ends[3], true);
+            int turning = framesNeeded(fade, ends);
+            fade.start(ends[0], ends[1], ends[2], ends[3], false);
+            int straight = framesNeeded(fade, ends);
+            totals[0] += linear;
+            totals[1] += turning;
+            totals[2] += straight;
+            System.out.println(String.format(Locale.ENGLISH, "  %3d/%3d -> %3d/%3d: %4d, %4d, %4d",
+                    ends[0], ends[1], ends[2], ends[3], linear, turning, straight));
+        }
+        System.out.println(String.format(Locale.ENGLISH, "  total:             %4d, %4d, %4d",
+                totals[0], totals[1], totals[2]));
+    }
+
+    private static void time(PerceptualFade fade, boolean turning, boolean direct) {
+        // Reading the counter allocates; measure that so it can be subtracted
+        long calibration = allocatedBytes();
+        calibration = allocatedBytes() - calibration;
+        long allocatedBefore = allocatedBytes();
+
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < STEPS; i++) {
+            if ((i & 1023) == 0) {
+                fade.start(i % 360, 255, (i / 7) % 360, 128 + (i & 127), turning);
+            }
+            float progress = (i & 1023) / 1023f;
+            if (direct) {
+                fade.updateDirect(progress);
+            } else {
+                fade.update(progress);
+            }
+            checksum += fade.getHue() + fade.getSaturation();
+        }
+        double nanos = (double) (System.nanoTime() - start) / STEPS;
+        long allocated = allocatedBytes() - allocatedBefore - calibration;
+
+        System.out.println(String.format(Locale.ENGLISH, "  %s, %s: %6.1f ns per step, %s (checksum %d)",
+                turning ? "turning" : "straight", direct ? "direct" : "tables", nanos,
+                allocated < 0 ? "allocation not measurable" : allocated + " byte(s) allocated", checksum));
+    }
+
+    /**
+     * Compares the tables with the full conversion over many fades.
+     */
+    private static void accuracy(PerceptualFade fade, boolean turning) {
+        int maxHueError = 0;
+        int maxSaturationError = 0;
+        long hueErrors = 0;
+        long saturationErrors = 0;
+        int compared = 0;
+        for (int fromHue = 0; fromHue < 360; fromHue += 15) {
+            for (int toHue = 0; toHue < 360; toHue += 15) {
+                for (int saturation = 32; saturation <= 255; saturation += 56) {
+                    fade.start(fromHue, saturation, toHue, 255 + 32 - saturation, turning);
+                    for (int i = 0; i <= 32; i++) {
+                        fade.updateDirect(i / 32f);
+                        int hue = fade.getHue();
+                        int expected = fade.getSaturation();
+
+                        fade.update(i / 32f);
+                        int hueError = Math.abs(fade.getHue() - hue);
+                        // Hue barely shows near white
+                        hueError = expected > 16 ? Math.min(hueError, 360 - hueError) : 0;
+                        int saturationError = Math.abs(fade.getSaturation() - expected);
+                        maxHueError = Math.max(maxHueError, hueError);
+                        maxSaturationError = Math.max(maxSaturationError, saturationError);
+                        hueErrors += hueError;
+                        saturationErrors += saturationError;
+                        compared++;
+                    }
+                }
+            }
+        }
+
+        System.out.println(String.format(Locale.ENGLISH,
+                "%s tables vs direct over %d steps: hue mean %.2f max %d, saturation mean %.2f max %d",
+                turning ? "turning" : "straight", compared, (double) hueErrors / compared, maxHueError,
+                (double) saturationErrors / compared, maxSaturationError));
+    }
+
+    /**
+     * Finds the fewest frames for which no step of the fade, as the light shows it, is
+     * noticeable.
+     *
+     * @param fade the started fade, or null to step hue and saturation linearly
+     */
+    private static int framesNeeded(PerceptualFade fade, int[] ends) {
+        float[] previous = new float[3];
+        float[] current = new float[3];
+        for (int frames = 1; frames <= MAX_FRAMES; frames++) {
+            Oklab.fromDevice(ends[0], ends[1], previous);
+            boolean smooth = true;
+            for (int i = 1; i <= frames && smooth; i++) {
+                float progress = (float) i / frames;
+                if (fade != null) {
+                    fade.update(progress);
+                    Oklab.fromDevice(fade.getHue(), fade.getSaturation(), current);
+                } else {
+                    Oklab.fromDevice(linearHue(ends[0], ends[2], progress),
+                            Math.round(ends[1] + (ends[3] - ends[1]) * progress), current);
+                }
+                smooth = Oklab.distance(previous, current) <= NOTICEABLE;
+                float[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            if (smooth) {
+                return frames;
+            }
+        }
+
+        return MAX_FRAMES;
+    }
+
+    /**
+     * Steps the hue the short way around the wheel, as the effect interpreter does.
+     */
+    private static int linearHue(int from, int to, float progress) {
+        int delta = to - from;
+        if (delta > 180) {
+            delta -= 360;
+        } else if (delta < -180) {
+            delta += 360;
+        }
+        int hue = from + Math.round(delta * progress);
+        return hue < 0 ? hue + 360 : hue % 360;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return Long.MIN_VALUE / 2;
+    }
+}
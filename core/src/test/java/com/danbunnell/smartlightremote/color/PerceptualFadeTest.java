@@ -0,0 +1,111 @@
+package com.danbunnell.smartlightremote.color;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PerceptualFadeTest {
+
+    private final float[] lab = new float[3];
+    private final PerceptualFade fade = new PerceptualFade();
+
+    @Test
+    public void fromArgb_matchesPublishedValues() {
+        Oklab.fromArgb(0xFFFF0000, lab);
+        assertEquals(0.628f, lab[0], 0.002f);
+        assertEquals(0.225f, lab[1], 0.002f);
+        assertEquals(0.126f, lab[2], 0.002f);
+
+        Oklab.fromArgb(0xFFFFFFFF, lab);
+        assertEquals(1f, lab[0], 0.001f);
+        assertEquals(0f, lab[1], 0.001f);
+        assertEquals(0f, lab[2], 0.001f);
+    }
+
+    @Test
+    public void toDevice_roundTripsDeviceColours() {
+        for (int hue = 0; hue < 360; hue += 7) {
+            for (int saturation = 64; saturation <= 255; saturation += 37) {
+                Oklab.fromDevice(hue, saturation, lab);
+                int device = Oklab.toDevice(lab[0], lab[1], lab[2]);
+
+                int hueError = Math.abs(Oklab.hueOf(device) - hue);
+                assertTrue(hue + "/" + saturation, Math.min(hueError, 360 - hueError) <= 2);
+                assertEquals(hue + "/" + saturation, saturation, Oklab.saturationOf(device), 2);
+            }
+        }
+    }
+
+    @Test
+    public void update_reachesBothEnds() {
+        fade.start(30, 200, 250, 120, true);
+
+        fade.update(0);
+        assertEquals(30, fade.getHue(), 2);
+        assertEquals(200, fade.getSaturation(), 4);
+
+        fade.update(1);
+        assertEquals(250, fade.getHue(), 2);
+        assertEquals(120, fade.getSaturation(), 4);
+    }
+
+    @Test
+    public void update_turnsTheShortWayRound() {
+        fade.start(350, 255, 10, 255, true);
+
+        for (int i = 0; i <= 10; i++) {
+            fade.update(i / 10f);
+            int hue = fade.getHue();
+            assertTrue("step " + i + " hue " + hue, hue >= 340 || hue <= 20);
+        }
+    }
+
+    @Test
+    public void update_fromWhiteKeepsTheTargetHue() {
+        fade.start(0, 0, 120, 255, true);
+
+        fade.update(0.5f);
+        assertEquals(120, fade.getHue(), 8);
+        assertTrue(fade.getSaturation() > 0 && fade.getSaturation() < 255);
+    }
+
+    @Test
+    public void update_agreesWithDirectConversion() {
+        int[][] fades = { { 0, 200, 120, 200 }, { 200, 90, 20, 255 }, { 300, 255, 60, 40 }, { 180, 30, 270, 230 } };
+        for (int[] ends : fades) {
+            for (boolean turning : new boolean[] { true, false }) {
+                fade.start(ends[0], ends[1], ends[2], ends[3], turning);
+                for (int i = 0; i <= 50; i++) {
+                    fade.updateDirect(i / 50f);
+                    int hue = fade.getHue();
+                    int saturation = fade.getSaturation();
+
+                    fade.update(i / 50f);
+                    String step = (turning ? "turning " : "straight ") + hue + "/" + saturation;
+                    assertEquals(step, saturation, fade.getSaturation(), 4);
+                    if (saturation > 16) {
+                        int hueError = Math.abs(fade.getHue() - hue);
+                        assertTrue(step + " vs " + fade.getHue(), Math.min(hueError, 360 - hueError) <= 2);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void update_straightPathPassesPalerColoursThanTurning() {
+        fade.start(0, 255, 180, 255, false);
+        fade.update(0.5f);
+        int straight = fade.getSaturation();
+
+        fade.start(0, 255, 180, 255, true);
+        fade.update(0.5f);
+        int turning = fade.getSaturation();
+
+        assertTrue(straight + " vs " + turning, straight < 100);
+        assertTrue(straight + " vs " + turning, turning > 200);
+
+        fade.update(1);
+        assertEquals(180, fade.getHue(), 2);
+    }
+}
@@ -0,0 +1,75 @@
+package com.danbunnell.smartlightremote.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DecimatingFilterTest {
+
+    /**
+     * Gets the RMS output for a tone, skipping the filter's start-up.
+     */
+    private static double toneGain(DecimatingFilter filter, double cyclesPerSample) {
+        double sum = 0;
+        int outputs = 0;
+        for (int i = 0; i < 20000; i++) {
+            float output = filter.filter((float) Math.sin(2 * Math.PI * cyclesPerSample * i));
+            if (filter.isOutputReady() && i > 1000) {
+                sum += output * output;
+                outputs++;
+            }
+        }
+        return Math.sqrt(sum / outputs) * Math.sqrt(2);
+    }
+
+    @Test
+    public void outputIsReady_everyFactorInputs() {
+        DecimatingFilter filter = new DecimatingFilter(5, 8);
+        int ready = 0;
+        for (int i = 0; i < 100; i++) {
+            filter.filter(1f);
+            if (filter.isOutputReady()) {
+                ready++;
+                assertEquals(4, i % 5);
+            }
+        }
+        assertEquals(20, ready);
+    }
+
+    @Test
+    public void constantInput_passesWithUnityGain() {
+        DecimatingFilter filter = new DecimatingFilter(5, 8);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(9.81f, filter.filter(9.81f), 1e-4f);
+        }
+    }
+
+    @Test
+    public void slowMotion_passes() {
+        // 2 Hz at 200 Hz
+        assertEquals(1.0, toneGain(new DecimatingFilter(5, 8), 0.01), 0.05);
+    }
+
+    @Test
+    public void toneAboveOutputNyquist_isRejected() {
+        // 37 Hz at 200 Hz would alias to 3 Hz at a 40 Hz output
+        assertTrue(toneGain(new DecimatingFilter(5, 8), 0.185) < 0.01);
+    }
+
+    @Test
+    public void upstreamFilter_runsAtInputRate() {
+        final int[] calls = new int[1];
+        DecimatingFilter filter = new DecimatingFilter(new SignalFilter() {
+            @Override
+            public float filter(float vector) {
+                calls[0]++;
+                return vector;
+            }
+        }, 4, 4);
+
+        for (int i = 0; i < 40; i++) {
+            filter.filter(0f);
+        }
+        assertEquals(40, calls[0]);
+    }
+}
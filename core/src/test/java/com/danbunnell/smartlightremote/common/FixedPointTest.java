@@ -0,0 +1,67 @@
+package com.danbunnell.smartlightremote.common;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FixedPointTest {
+
+    @Test
+    public void sqrt_isFloorOfSquareRoot() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(40));
+            long root = FixedPoint.sqrt(value);
+            assertTrue(root * root <= value);
+            assertTrue((root + 1) * (root + 1) > value);
+        }
+        assertEquals(0, FixedPoint.sqrt(0));
+        assertEquals(3037000499L, FixedPoint.sqrt(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void magnitude_matchesFloatPath() {
+        Random random = new Random(2);
+        for (int i = 0; i < 100000; i++) {
+            float x = (float) (random.nextGaussian() * 20);
+            float y = (float) (random.nextGaussian() * 20);
+            float z = (float) (random.nextGaussian() * 20);
+            float expected = (float) Math.sqrt(x * x + y * y + z * z);
+            int actual = FixedPoint.magnitude(FixedPoint.fromFloat(x), FixedPoint.fromFloat(y), FixedPoint.fromFloat(z));
+            assertEquals(expected, FixedPoint.toFloat(actual), 1e-3f);
+        }
+    }
+
+    @Test
+    public void movingAverage_matchesFloatFilter() {
+        Random random = new Random(3);
+        MovingAverageFilter reference = new MovingAverageFilter(50);
+        FixedPointMovingAverageFilter filter = new FixedPointMovingAverageFilter(50);
+
+        for (int i = 0; i < 10000; i++) {
+            float value = (float) (9.81 + random.nextGaussian() * 5);
+            assertEquals(reference.filter(value), filter.filter(value), 1e-3f);
+        }
+    }
+
+    @Test
+    public void movingAverage_roundsNegativeAveragesDown() {
+        FixedPointMovingAverageFilter filter = new FixedPointMovingAverageFilter(2);
+        assertEquals(-1, filter.filterFixed(-1));
+        assertEquals(-1, filter.filterFixed(0));
+    }
+
+    @Test
+    public void hueMapping_isWithinOneStepOfFloatPath() {
+        for (int i = 0; i <= 35 * 1000; i++) {
+            float magnitude = i / 1000f;
+            int expected = HueMapping.fromMagnitude(magnitude);
+            int actual = HueMapping.fromMagnitudeFixed(FixedPoint.fromFloat(magnitude));
+            assertTrue(magnitude + ": " + expected + " vs " + actual, Math.abs(expected - actual) <= 1);
+        }
+        assertEquals(HueMapping.MAX_HUE, HueMapping.fromMagnitudeFixed(FixedPoint.fromFloat(100)));
+        assertEquals(0, HueMapping.fromMagnitudeFixed(0));
+    }
+}
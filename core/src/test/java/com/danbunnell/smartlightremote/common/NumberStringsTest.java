@@ -0,0 +1,31 @@
+package com.danbunnell.smartlightremote.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NumberStringsTest {
+
+    private final char[] buffer = new char[32];
+
+    @Test
+    public void appendFixed_roundsToDecimals() {
+        assertEquals("3.14", format(3.14159f, 2));
+        assertEquals("10.0", format(9.96f, 1));
+        assertEquals("0.050", format(0.05f, 3));
+        assertEquals("-12.50", format(-12.5f, 2));
+        assertEquals("359", format(359f, 0));
+    }
+
+    @Test
+    public void appendFixed_appendsAtOffset() {
+        buffer[0] = '[';
+        int end = NumberStrings.appendFixed(buffer, 1, 7.25f, 2);
+        buffer[end] = ']';
+        assertEquals("[7.25]", new String(buffer, 0, end + 1));
+    }
+
+    private String format(float value, int decimals) {
+        return new String(buffer, 0, NumberStrings.appendFixed(buffer, 0, value, decimals));
+    }
+}
@@ -0,0 +1,80 @@
+package com.danbunnell.smartlightremote.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PredictiveFilterTest {
+
+    @Test
+    public void constantInput_passesUnchanged() {
+        PredictiveFilter filter = new PredictiveFilter(null, 5, 200);
+        filter.setHorizonMs(100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(9.81f, filter.filter(9.81f), 1e-4f);
+        }
+    }
+
+    @Test
+    public void ramp_isProjectedAheadByTheHorizon() {
+        PredictiveFilter filter = new PredictiveFilter(null, 5, 200);
+        filter.setHorizonMs(100);
+
+        // 0.01 per millisecond, so 1 ahead of the input after settling
+        float output = 0;
+        for (int i = 0; i < 200; i++) {
+            output = filter.filter(0.05f * i);
+        }
+        assertEquals(0.05f * 199 + 1, output, 0.01f);
+    }
+
+    @Test
+    public void zeroHorizon_tracksTheUpstreamOutput() {
+        PredictiveFilter filter = new PredictiveFilter(null, 5, 200);
+        filter.setHorizonMs(0);
+        // Tracks a ramp without lag once the rate has settled
+        for (int i = 0; i < 200; i++) {
+            float output = filter.filter(0.05f * i);
+            if (i >= 100) {
+                assertEquals(0.05f * i, output, 0.01f);
+            }
+        }
+    }
+
+    @Test
+    public void reversal_staysWithinRawInputsPlusLimit() {
+        PredictiveFilter filter = new PredictiveFilter(new MovingAverageFilter(20), 5, 200);
+        filter.setHorizonMs(100);
+        filter.setOvershootLimit(0.5f);
+
+        // Up to 10, then straight back down: the projection keeps rising after the turn
+        for (int i = 0; i <= 100; i++) {
+            assertTrue(filter.filter(0.1f * i) <= 10.5f);
+        }
+        for (int i = 99; i >= 0; i--) {
+            assertTrue(filter.filter(0.1f * i) <= 10.5f);
+        }
+    }
+
+    @Test
+    public void multiRateUpstream_decidesWhenOutputIsReady() {
+        PredictiveFilter filter = new PredictiveFilter(new DecimatingFilter(5, 8), 5, 200);
+        filter.setHorizonMs(50);
+        int ready = 0;
+        for (int i = 0; i < 100; i++) {
+            filter.filter(1f);
+            if (filter.isOutputReady()) {
+                ready++;
+                assertEquals(4, i % 5);
+            }
+        }
+        assertEquals(20, ready);
+    }
+
+    @Test
+    public void horizon_isClampedToTheMaximum() {
+        PredictiveFilter filter = new PredictiveFilter(null, 5, 200);
+        filter.setHorizonMs(1000);
+        assertEquals(200, filter.getHorizonMs(), 1e-4f);
+    }
+}
@@ -0,0 +1,69 @@
+package com.danbunnell.smartlightremote.effect;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EffectCompilerTest {
+    @Test
+    public void source_compilesToBytecode() {
+        byte[] program = EffectCompiler.compile("# comment\nloop 2\n  fade 300 128 1000 in-out\nend\nhold 500");
+
+        byte[] expected = new byte[] {
+                EffectProgram.FORMAT_VERSION,
+                EffectProgram.OP_LOOP, 2,
+                EffectProgram.OP_KEYFRAME, 0x01, 0x2C, (byte) 128, 0x03, (byte) 0xE8, EffectProgram.EASING_IN_OUT,
+                EffectProgram.OP_END_LOOP,
+                EffectProgram.OP_HOLD, 0x01, (byte) 0xF4,
+                EffectProgram.OP_END };
+        assertArrayEquals(expected, program);
+        assertNull(EffectProgram.validate(program, program.length));
+    }
+
+    @Test
+    public void perceptualFade_isSplitIntoKeyframesEndingAtTarget() {
+        byte[] program = EffectCompiler.compile("fade 0 255 100\nfade 120 255 1000 in-out perceptual");
+
+        // The version byte, the first keyframe, eight segments and the end
+        int keyframe = 7;
+        assertEquals(1 + 9 * keyframe + 1, program.length);
+        assertNull(EffectProgram.validate(program, program.length));
+
+        int totalMs = 0;
+        int previousHue = 0;
+        for (int i = 1; i <= 8; i++) {
+            int pc = 1 + i * keyframe;
+            assertEquals(EffectProgram.OP_KEYFRAME, program[pc]);
+            int hue = (program[pc + 1] & 0xFF) << 8 | (program[pc + 2] & 0xFF);
+            assertTrue(hue >= previousHue && hue <= 120);
+            assertEquals(EffectProgram.EASING_LINEAR, program[pc + 6]);
+            totalMs += (program[pc + 4] & 0xFF) << 8 | (program[pc + 5] & 0xFF);
+            previousHue = hue;
+        }
+        assertEquals(120, previousHue);
+        assertEquals(1000, totalMs);
+    }
+
+    @Test
+    public void perceptualFade_withUnknownStart_isOneKeyframe() {
+        byte[] perceptual = EffectCompiler.compile("loop 2\nfade 120 255 1000 perceptual\nend");
+        byte[] plain = EffectCompiler.compile("loop 2\nfade 120 255 1000\nend");
+
+        assertArrayEquals(plain, perceptual);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unbalancedLoop_isRejected() {
+        EffectCompiler.compile("loop 2\nfade 0 255 100");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownEasing_isRejected() {
+        EffectCompiler.compile("fade 0 255 100 bounce");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endlessLoopWithoutDuration_isRejected() {
+        EffectCompiler.compile("loop forever\nhold 0\nend");
+    }
+}
@@ -0,0 +1,89 @@
+package com.danbunnell.smartlightremote.effect;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EffectInterpreterTest {
+    @Test
+    public void keyframe_interpolatesFromCurrentColour() {
+        byte[] program = new EffectCompiler()
+                .keyframe(100, 200, 1000, EffectProgram.EASING_LINEAR)
+                .compile();
+
+        EffectInterpreter interpreter = new EffectInterpreter();
+        assertNull(interpreter.start(program, program.length, 0, 0, 0));
+
+        assertTrue(interpreter.update(500));
+        assertEquals(50, interpreter.getHue());
+        assertEquals(100, interpreter.getSaturation());
+
+        assertFalse(interpreter.update(1000));
+        assertEquals(100, interpreter.getHue());
+        assertEquals(200, interpreter.getSaturation());
+    }
+
+    @Test
+    public void hue_takesShortestPathAcrossZero() {
+        byte[] program = new EffectCompiler()
+                .keyframe(20, 255, 1000, EffectProgram.EASING_LINEAR)
+                .compile();
+
+        EffectInterpreter interpreter = new EffectInterpreter();
+        interpreter.start(program, program.length, 340, 255, 0);
+
+        interpreter.update(250);
+        assertEquals(350, interpreter.getHue());
+        interpreter.update(750);
+        assertEquals(10, interpreter.getHue());
+    }
+
+    @Test
+    public void easing_hitsEndpoints() {
+        for (int easing = EffectProgram.EASING_LINEAR; easing < EffectProgram.EASING_STEP; easing++) {
+            assertEquals(0, EffectInterpreter.ease(easing, 0));
+            assertEquals(1024, EffectInterpreter.ease(easing, 1024));
+        }
+        assertEquals(1024, EffectInterpreter.ease(EffectProgram.EASING_STEP, 0));
+    }
+
+    @Test
+    public void countedLoop_endsAfterCount() {
+        byte[] program = new EffectCompiler()
+                .loop(3)
+                .keyframe(120, 255, 100, EffectProgram.EASING_LINEAR)
+                .keyframe(0, 255, 100, EffectProgram.EASING_LINEAR)
+                .endLoop()
+                .compile();
+
+        EffectInterpreter interpreter = new EffectInterpreter();
+        interpreter.start(program, program.length, 0, 255, 0);
+
+        assertTrue(interpreter.update(599));
+        assertFalse(interpreter.update(600));
+    }
+
+    @Test
+    public void endlessLoop_doesNotDriftWithIrregularUpdates() {
+        byte[] program = new EffectCompiler()
+                .loop(0)
+                .keyframe(120, 255, 100, EffectProgram.EASING_LINEAR)
+                .keyframe(0, 255, 100, EffectProgram.EASING_LINEAR)
+                .endLoop()
+                .compile();
+
+        EffectInterpreter interpreter = new EffectInterpreter();
+        interpreter.start(program, program.length, 0, 255, 0);
+
+        long now = 0;
+        for (int i = 0; i < 10000; i++) {
+            now += 7 + (i % 13);
+            interpreter.update(now);
+        }
+
+        // Ten thousand irregular updates later, the phase still follows from the start time
+        long cycleStart = now - now % 200 + 200;
+        interpreter.update(cycleStart + 50);
+        assertEquals(60, interpreter.getHue());
+    }
+}
@@ -0,0 +1,121 @@
+package com.danbunnell.smartlightremote.effect;
+
+import com.danbunnell.smartlightremote.protocol.CommandSink;
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+import com.danbunnell.smartlightremote.simulation.SimulatedLight;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EffectUploaderTest {
+
+    /**
+     * Packs each frame into its own write and records the light's effect status.
+     */
+    private static class LightSink implements CommandSink, SimulatedLight.NotificationListener {
+        final SimulatedLight light = new SimulatedLight(true, true);
+        final List<Integer> statuses = new ArrayList<>();
+        int dropChunk = -1;
+        int corruptChunk = -1;
+        private int chunk;
+
+        LightSink() {
+            light.setNotificationListener(this);
+        }
+
+        @Override
+        public boolean send(byte command, byte arg0, byte arg1) {
+            return sendFrame(new byte[] { command, arg0, arg1 }, 0, LightProtocol.LEGACY_FRAME_LENGTH);
+        }
+
+        @Override
+        public boolean sendFrame(byte[] frame, int offset, int length) {
+            if (frame[offset] == LightProtocol.CMD_EFFECT_CHUNK) {
+                int index = chunk++;
+                if (index == dropChunk) {
+                    return true;
+                }
+                if (index == corruptChunk) {
+                    frame[offset + length - 1] ^= 0x01;
+                }
+            }
+
+            byte[] write = new byte[length + 2];
+            write[0] = LightProtocol.PACKED_WRITE_MARKER;
+            write[1] = (byte) length;
+            System.arraycopy(frame, offset, write, 2, length);
+            light.onWrite(write, write.length);
+            return true;
+        }
+
+        @Override
+        public void onNotification(byte[] value, int length) {
+            if (value[0] == LightProtocol.CMD_CLIENT_NOTIFY_EFFECT_STATUS) {
+                statuses.add(value[1] & 0xFF);
+            }
+        }
+    }
+
+    private static byte[] rainbow() {
+        EffectCompiler compiler = new EffectCompiler().loop(0);
+        for (int hue = 0; hue < 360; hue += 30) {
+            compiler.keyframe(hue, 255, 250, EffectProgram.EASING_IN_OUT);
+        }
+        return compiler.endLoop().compile();
+    }
+
+    @Test
+    public void upload_startsPlaybackOnTheLight() {
+        byte[] program = rainbow();
+        LightSink sink = new LightSink();
+
+        int frames = EffectUploader.upload(program, sink);
+
+        int chunks = (program.length + EffectUploader.CHUNK_DATA_LENGTH - 1) / EffectUploader.CHUNK_DATA_LENGTH;
+        assertEquals(chunks + 2, frames);
+        assertEquals(1, sink.statuses.size());
+        assertEquals(LightProtocol.EFFECT_STATUS_PLAYING, (int) sink.statuses.get(0));
+        assertTrue(sink.light.isPlayingEffect());
+
+        sink.light.advanceTo(375);
+        assertEquals(15, sink.light.getHue());
+    }
+
+    @Test
+    public void corruptChunk_isRejectedByChecksum() {
+        LightSink sink = new LightSink();
+        sink.corruptChunk = 2;
+
+        EffectUploader.upload(rainbow(), sink);
+
+        assertEquals(LightProtocol.EFFECT_STATUS_BAD_CHECKSUM, (int) sink.statuses.get(0));
+        assertFalse(sink.light.isPlayingEffect());
+    }
+
+    @Test
+    public void droppedChunk_isRejectedByChecksum() {
+        LightSink sink = new LightSink();
+        sink.dropChunk = 1;
+
+        EffectUploader.upload(rainbow(), sink);
+
+        assertEquals(LightProtocol.EFFECT_STATUS_BAD_CHECKSUM, (int) sink.statuses.get(0));
+    }
+
+    @Test
+    public void streamedColour_stopsTheEffect() {
+        LightSink sink = new LightSink();
+        EffectUploader.upload(rainbow(), sink);
+
+        byte[] setHue = new byte[] { LightProtocol.CMD_SET_HUE, 0, 90 };
+        sink.light.onWrite(setHue, setHue.length);
+        sink.light.advanceTo(1000);
+
+        assertFalse(sink.light.isPlayingEffect());
+        assertEquals(90, sink.light.getHue());
+    }
+}
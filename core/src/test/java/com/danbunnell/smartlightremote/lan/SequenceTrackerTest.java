@@ -0,0 +1,73 @@
+package com.danbunnell.smartlightremote.lan;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SequenceTrackerTest {
+
+    @Test
+    public void dropsOlderSequences() {
+        SequenceTracker tracker = new SequenceTracker();
+
+        assertTrue(tracker.accept((short) 1, 5));
+        assertFalse(tracker.accept((short) 1, 3));
+        assertFalse(tracker.accept((short) 1, 5));
+        assertTrue(tracker.accept((short) 1, 6));
+        assertEquals(2, tracker.getStaleCount());
+        assertEquals(2, tracker.getAcceptedCount());
+    }
+
+    @Test
+    public void acceptsSequencesAcrossWrapAround() {
+        SequenceTracker tracker = new SequenceTracker();
+
+        assertTrue(tracker.accept((short) 1, Integer.MAX_VALUE));
+        assertTrue(tracker.accept((short) 1, Integer.MIN_VALUE));
+        assertTrue(tracker.accept((short) 1, -1));
+        assertTrue(tracker.accept((short) 1, 0));
+        assertFalse(tracker.accept((short) 1, Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void newSessionStartsAfresh() {
+        SequenceTracker tracker = new SequenceTracker();
+
+        assertTrue(tracker.accept((short) 1, 1000));
+        assertTrue(tracker.accept((short) 2, 1));
+        assertFalse(tracker.accept((short) 2, 1));
+    }
+
+    @Test
+    public void olderSessionIsDropped() {
+        SequenceTracker tracker = new SequenceTracker();
+
+        assertTrue(tracker.accept((short) 2, 1));
+        assertFalse(tracker.accept((short) 1, 1000));
+        assertTrue(tracker.accept((short) 2, 2));
+        assertFalse(tracker.accept((short) 1, 1001));
+        assertTrue(tracker.accept((short) Short.MIN_VALUE, 1));
+        assertEquals(2, tracker.getStaleCount());
+    }
+
+    @Test
+    public void olderSessionHeardRepeatedly_isAdopted() {
+        SequenceTracker tracker = new SequenceTracker();
+
+        assertTrue(tracker.accept((short) 100, 1));
+        for (int i = 1; i < SequenceTracker.STALE_SESSION_LIMIT; i++) {
+            assertFalse(tracker.accept((short) 5, i));
+        }
+        assertTrue(tracker.accept((short) 5, SequenceTracker.STALE_SESSION_LIMIT));
+        assertFalse(tracker.accept((short) 5, 1));
+    }
+
+    @Test
+    public void nextSession_movesForward() {
+        short first = LanProtocol.nextSession((short) 0, 5000);
+        assertEquals(5, first);
+        assertEquals(6, LanProtocol.nextSession(first, 5999));
+        assertEquals(7, LanProtocol.nextSession((short) 6, 7000));
+        assertTrue(LanProtocol.isNewerSession(LanProtocol.nextSession(Short.MAX_VALUE, 0), Short.MAX_VALUE));
+    }
+}
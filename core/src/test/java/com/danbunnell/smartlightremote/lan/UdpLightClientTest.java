@@ -0,0 +1,195 @@
+package com.danbunnell.smartlightremote.lan;
+
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+import com.danbunnell.smartlightremote.simulation.LoopbackLightServer;
+import com.danbunnell.smartlightremote.simulation.SimulatedLight;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class UdpLightClientTest {
+
+    private static final long TIMEOUT_MS = 2000;
+
+    private SimulatedLight light;
+    private LoopbackLightServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        light = new SimulatedLight(true);
+        server = new LoopbackLightServer(light);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void hueReachesLightAndIsAcknowledged() throws Exception {
+        UdpLightClient client = new UdpLightClient(server.getAddress(), UdpLightClient.DEFAULT_BATCH_INTERVAL_MS);
+        final AtomicInteger notifiedHue = new AtomicInteger(-1);
+        client.setListener(new UdpLightClient.Listener() {
+            @Override
+            public void onNotification(byte[] value, int length) {
+                if (value[0] == LightProtocol.CMD_CLIENT_NOTIFY_HUE) {
+                    notifiedHue.set(LightProtocol.bytesToWord(value[1], value[2]));
+                }
+            }
+        });
+
+        client.start();
+        try {
+            client.send(LightProtocol.CMD_SET_HUE, (byte) 0x01, (byte) 0x2C);
+            waitFor(new Condition() {
+                @Override
+                public boolean isMet() {
+                    return notifiedHue.get() == 300;
+                }
+            });
+            waitFor(acknowledged(client, 1));
+        } finally {
+            client.stop();
+        }
+
+        assertEquals(300, hue());
+        assertEquals(1, client.getDatagramsSent());
+        assertEquals(1, client.getRoundTripNanos().getCount());
+    }
+
+    @Test
+    public void batchesFramesIssuedWithinInterval() throws Exception {
+        UdpLightClient client = new UdpLightClient(server.getAddress(), 200);
+        client.setPackedWrites(true);
+
+        client.start();
+        try {
+            // The first command after a quiet spell goes out alone and starts the interval
+            client.send(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 5);
+            waitFor(acknowledged(client, 1));
+
+            byte[] frame = new byte[] { LightProtocol.CMD_SET_SATURATION, 0, 0 };
+            for (int i = 0; i < 20; i++) {
+                frame[1] = (byte) (100 + i);
+                client.sendFrame(frame, 0, frame.length);
+            }
+            client.send(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 10);
+            client.send(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 20);
+
+            waitFor(acknowledged(client, 2));
+        } finally {
+            client.stop();
+        }
+
+        assertEquals(2, client.getDatagramsSent());
+        assertEquals(1, client.getCommandsCoalesced());
+        assertEquals(20, hue());
+        synchronized (light) {
+            assertEquals(22, light.getCommandsApplied());
+            assertEquals(119, light.getSaturation());
+        }
+    }
+
+    @Test
+    public void listenerError_stopsClientVisibly() throws Exception {
+        final UdpLightClient client = new UdpLightClient(server.getAddress(), UdpLightClient.DEFAULT_BATCH_INTERVAL_MS);
+        client.setListener(new UdpLightClient.Listener() {
+            @Override
+            public void onNotification(byte[] value, int length) {
+                throw new IllegalStateException("listener failed");
+            }
+        });
+
+        client.start();
+        try {
+            client.send(LightProtocol.CMD_SET_HUE, (byte) 0x00, (byte) 0x2D);
+            waitFor(new Condition() {
+                @Override
+                public boolean isMet() {
+                    return client.getFailure() != null;
+                }
+            });
+
+            assertEquals("listener failed", client.getFailure().getMessage());
+            assertFalse(client.send(LightProtocol.CMD_SET_HUE, (byte) 0x00, (byte) 0x2E));
+
+            client.setListener(null);
+            client.start();
+            assertNull(client.getFailure());
+            assertTrue(client.send(LightProtocol.CMD_SET_HUE, (byte) 0x00, (byte) 0x2F));
+            waitFor(new Condition() {
+                @Override
+                public boolean isMet() {
+                    return hue() == 47;
+                }
+            });
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test
+    public void serverDropsStaleDatagrams() throws Exception {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.connect(server.getAddress());
+            channel.write(commands((short) 7, 2, 200));
+            channel.write(commands((short) 7, 1, 100));
+            channel.write(commands((short) 8, 1, 50));
+
+            waitFor(new Condition() {
+                @Override
+                public boolean isMet() {
+                    return server.getDatagramsReceived() == 3;
+                }
+            });
+        } finally {
+            channel.close();
+        }
+
+        assertEquals(1, server.getStaleDatagrams());
+        assertEquals(50, hue());
+    }
+
+    private int hue() {
+        synchronized (light) {
+            return light.getHue();
+        }
+    }
+
+    private static ByteBuffer commands(short session, int sequence, int hue) {
+        ByteBuffer buffer = ByteBuffer.allocate(LanProtocol.HEADER_LENGTH + LightProtocol.LEGACY_FRAME_LENGTH);
+        LanProtocol.writeHeader(buffer, LanProtocol.TYPE_COMMANDS, session, sequence);
+        buffer.put(LightProtocol.CMD_SET_HUE).put((byte) (hue >> 8)).put((byte) hue);
+        buffer.flip();
+        return buffer;
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private static Condition acknowledged(final UdpLightClient client, final long datagrams) {
+        return new Condition() {
+            @Override
+            public boolean isMet() {
+                return client.getAcksReceived() >= datagrams;
+            }
+        };
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.isMet()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
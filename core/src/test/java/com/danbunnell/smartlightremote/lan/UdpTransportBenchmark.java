@@ -0,0 +1,89 @@
+package com.danbunnell.smartlightremote.lan;
+
+import com.danbunnell.smartlightremote.metrics.Histogram;
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+import com.danbunnell.smartlightremote.simulation.LoopbackLightServer;
+import com.danbunnell.smartlightremote.simulation.SimulatedEventLoop;
+import com.danbunnell.smartlightremote.simulation.SimulatedLight;
+
+import java.util.Locale;
+
+/**
+ * Load-tests the UDP transport against the loopback stand-in: frames pushed as fast as the
+ * queue takes them, at several batch intervals, and a paced 100 Hz hue stream for latency.
+ *
+ * Run from the IDE; prints delivered frames and datagrams per second and round-trip
+ * percentiles per configuration.
+ */
+public class UdpTransportBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final long RUN_MS = 2000;
+    private static final int[] BATCH_INTERVALS_MS = { 0, 2, 10 };
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("round " + (round + 1));
+            for (int interval : BATCH_INTERVALS_MS) {
+                run("flood", interval, 0);
+            }
+            run("100 Hz", UdpLightClient.DEFAULT_BATCH_INTERVAL_MS, 10);
+        }
+    }
+
+    /**
+     * Sends ordered hue frames for a while and prints what reached the light.
+     *
+     * @param name            the configuration name
+     * @param batchIntervalMs the client's batch interval
+     * @param periodMs        time between frames, or 0 to send as fast as the queue accepts
+     */
+    private static void run(String name, int batchIntervalMs, long periodMs) throws Exception {
+        SimulatedLight light = new SimulatedLight(true);
+        LoopbackLightServer server = new LoopbackLightServer(light);
+        UdpLightClient client = new UdpLightClient(server.getAddress(), batchIntervalMs);
+        client.setPackedWrites(true);
+        client.start();
+
+        byte[] frame = new byte[] { LightProtocol.CMD_SET_HUE, 0, 0 };
+        long framesQueued = 0;
+        long start = System.nanoTime();
+        long end = start + RUN_MS * 1000000L;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            frame[1] = (byte) (framesQueued % 360 >> 8);
+            frame[2] = (byte) (framesQueued % 360);
+            if (client.sendFrame(frame, 0, frame.length)) {
+                framesQueued++;
+            } else {
+                Thread.yield();
+            }
+            if (periodMs > 0) {
+                Thread.sleep(periodMs);
+            }
+        }
+        double seconds = (now - start) / 1e9;
+
+        // Let the last datagram land
+        Thread.sleep(100);
+        client.stop();
+        server.close();
+
+        long applied;
+        synchronized (light) {
+            applied = light.getCommandsApplied();
+        }
+        Histogram rtt = client.getRoundTripNanos();
+        System.out.println(String.format(Locale.ENGLISH,
+                "  %-6s batch %2d ms: %9.0f frames/s queued, %9.0f applied, %7.0f datagrams/s "
+                        + "(%.1f frames each), rtt p50 %.0f us p99 %.0f us, %d send error(s)",
+                name, batchIntervalMs,
+                framesQueued / seconds,
+                applied / seconds,
+                client.getDatagramsSent() / seconds,
+                (double) applied / Math.max(1, client.getDatagramsSent()),
+                SimulatedEventLoop.percentile(rtt, 0.5) / 1e3,
+                SimulatedEventLoop.percentile(rtt, 0.99) / 1e3,
+                client.getSendErrors()));
+    }
+}
@@ -0,0 +1,87 @@
+package com.danbunnell.smartlightremote.metrics;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+    @Test
+    public void sameName_returnsSameMetric() {
+        MetricsRegistry registry = new MetricsRegistry();
+
+        assertSame(registry.counter("writes"), registry.counter("writes"));
+        assertSame(registry.gauge("rssi"), registry.gauge("rssi"));
+        assertSame(registry.histogram("latency", new long[] { 1 }), registry.histogram("latency", new long[] { 2 }));
+    }
+
+    @Test
+    public void histogram_countsValuesIntoBuckets() {
+        Histogram histogram = new Histogram(new long[] { 10, 100 });
+        histogram.record(5);
+        histogram.record(10);
+        histogram.record(50);
+        histogram.record(1000);
+
+        assertEquals(2, histogram.getBucket(0));
+        assertEquals(1, histogram.getBucket(1));
+        assertEquals(1, histogram.getBucket(2));
+        assertEquals(4, histogram.getCount());
+        assertEquals(1065, histogram.getSum());
+        assertEquals(1000, histogram.getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void histogram_rejectsUnorderedBounds() {
+        new Histogram(new long[] { 10, 10 });
+    }
+
+    @Test
+    public void concurrentUpdates_areNotLost() throws InterruptedException {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final Counter counter = registry.counter("samples");
+        final Histogram histogram = registry.histogram("dispatch", Histogram.exponentialBounds(1, 8));
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int value = t * 50;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        counter.increment();
+                        histogram.record(value);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(400000, counter.get());
+        assertEquals(400000, histogram.getCount());
+        assertEquals(150, histogram.getMax());
+    }
+
+    @Test
+    public void dump_printsEveryMetricByName() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("b.count").add(3);
+        registry.counter("a.count").increment();
+        registry.gauge("rssi").set(-60);
+        registry.histogram("latency", new long[] { 10 }).record(20);
+
+        StringWriter out = new StringWriter();
+        registry.dump(new PrintWriter(out), "  ");
+
+        String expected = "  a.count = 1\n"
+                + "  b.count = 3\n"
+                + "  rssi = -60\n"
+                + "  latency: count 1, sum 20, max 20 [<=10: 0, inf: 1]\n";
+        assertEquals(expected, out.toString().replace(System.getProperty("line.separator"), "\n"));
+    }
+}
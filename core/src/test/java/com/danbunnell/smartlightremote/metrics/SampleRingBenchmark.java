@@ -0,0 +1,89 @@
+package com.danbunnell.smartlightremote.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures what the debug overlay costs the signals it plots: the time to add a sample, alone
+ * and while a reader copies the ring as fast as it can, and the time and allocation of the
+ * copy the overlay makes for each trace on every frame.
+ */
+public class SampleRingBenchmark {
+
+    private static final int ADDS = 20000000;
+    private static final int COPIES = 200000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws InterruptedException {
+        for (int round = 0; round < ROUNDS; round++) {
+            final SampleRing ring = new SampleRing(SampleRing.DEFAULT_CAPACITY);
+
+            double aloneNanos = timeAdds(ring);
+
+            // A reader copying back to back is far harsher than one copy per display frame
+            final float[] snapshot = new float[ring.getCapacity()];
+            final AtomicBoolean stop = new AtomicBoolean();
+            final long[] copies = new long[1];
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!stop.get()) {
+                        ring.copyLatest(snapshot, snapshot.length);
+                        copies[0]++;
+                    }
+                }
+            });
+            reader.start();
+            double contendedNanos = timeAdds(ring);
+            stop.set(true);
+            reader.join();
+
+            // Reading the counter allocates; measure that so it can be subtracted
+            long calibration = allocatedBytes();
+            calibration = allocatedBytes() - calibration;
+            long allocatedBefore = allocatedBytes();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < COPIES; i++) {
+                ring.copyLatest(snapshot, snapshot.length);
+            }
+            double copyNanos = (double) (System.nanoTime() - start) / COPIES;
+            long allocated = allocatedBytes() - allocatedBefore - calibration;
+
+            System.out.println(String.format(Locale.ENGLISH,
+                    "add: %.2f ns alone, %.2f ns with a reader copying (%d copies); "
+                            + "copy of %d samples: %.2f us (%.3f%% of a 60 Hz frame); %s",
+                    aloneNanos,
+                    contendedNanos,
+                    copies[0],
+                    snapshot.length,
+                    copyNanos / 1e3,
+                    100 * copyNanos / 16.7e6,
+                    allocated < 0 ? "allocation not measurable" : allocated + " byte(s) allocated"));
+        }
+    }
+
+    private static double timeAdds(SampleRing ring) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ADDS; i++) {
+            ring.add(i);
+        }
+        return (double) (System.nanoTime() - start) / ADDS;
+    }
+
+    /**
+     * Gets the bytes allocated by this thread so far, where the JVM reports it.
+     *
+     * @return the allocated bytes, or a large negative value if unavailable
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return Long.MIN_VALUE / 2;
+    }
+}
@@ -0,0 +1,71 @@
+package com.danbunnell.smartlightremote.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampleRingTest {
+
+    @Test
+    public void copyLatest_returnsNewestSamplesOldestFirst() {
+        SampleRing ring = new SampleRing(8);
+        for (int i = 0; i < 11; i++) {
+            ring.add(i);
+        }
+
+        float[] out = new float[8];
+        assertEquals(8, ring.copyLatest(out, 8));
+        assertArrayEquals(new float[] { 3, 4, 5, 6, 7, 8, 9, 10 }, out, 0);
+
+        assertEquals(3, ring.copyLatest(out, 3));
+        assertEquals(8, out[0], 0);
+        assertEquals(10, out[2], 0);
+        assertEquals(11, ring.getWrittenCount());
+    }
+
+    @Test
+    public void copyLatest_beforeRingFills_returnsWhatWasWritten() {
+        SampleRing ring = new SampleRing(8);
+        float[] out = new float[8];
+        assertEquals(0, ring.copyLatest(out, 8));
+
+        ring.add(1.5f);
+        ring.add(2.5f);
+        assertEquals(2, ring.copyLatest(out, 8));
+        assertEquals(1.5f, out[0], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacity_mustBePowerOfTwo() {
+        new SampleRing(100);
+    }
+
+    @Test
+    public void concurrentWriter_readerSeesConsecutiveSamples() throws InterruptedException {
+        final SampleRing ring = new SampleRing(64);
+        final int total = 2000000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= total; i++) {
+                    ring.add(i);
+                }
+            }
+        });
+        writer.start();
+
+        float[] out = new float[64];
+        int snapshots = 0;
+        while (writer.isAlive() || snapshots == 0) {
+            int count = ring.copyLatest(out, out.length);
+            for (int i = 1; i < count; i++) {
+                assertEquals(out[i - 1] + 1, out[i], 0);
+            }
+            snapshots++;
+        }
+        writer.join();
+
+        assertEquals(64, ring.copyLatest(out, out.length));
+        assertEquals(total, out[63], 0);
+    }
+}
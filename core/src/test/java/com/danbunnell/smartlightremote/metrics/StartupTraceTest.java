@@ -0,0 +1,36 @@
+package com.danbunnell.smartlightremote.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StartupTraceTest {
+    @Test
+    public void marks_areRelativeToProcessStart() {
+        StartupTrace trace = new StartupTrace(1000);
+        trace.mark(StartupTrace.MARK_ACTIVITY_CREATED, 1150);
+
+        assertEquals(150, trace.getElapsedMs(StartupTrace.MARK_ACTIVITY_CREATED));
+        assertEquals(-1, trace.getElapsedMs(StartupTrace.MARK_FIRST_FRAME));
+    }
+
+    @Test
+    public void controllable_needsFirstFrameAndService() {
+        StartupTrace trace = new StartupTrace(0);
+
+        assertFalse(trace.mark(StartupTrace.MARK_FIRST_FRAME, 300));
+        assertTrue(trace.mark(StartupTrace.MARK_SERVICE_BOUND, 420));
+        assertEquals(420, trace.getElapsedMs(StartupTrace.MARK_CONTROLLABLE));
+    }
+
+    @Test
+    public void repeatedMarks_keepFirstOccurrence() {
+        StartupTrace trace = new StartupTrace(0);
+        trace.mark(StartupTrace.MARK_SERVICE_BOUND, 100);
+        trace.mark(StartupTrace.MARK_FIRST_FRAME, 200);
+
+        assertFalse(trace.mark(StartupTrace.MARK_FIRST_FRAME, 5000));
+        assertEquals(200, trace.getElapsedMs(StartupTrace.MARK_FIRST_FRAME));
+        assertEquals(200, trace.getElapsedMs(StartupTrace.MARK_CONTROLLABLE));
+    }
+}
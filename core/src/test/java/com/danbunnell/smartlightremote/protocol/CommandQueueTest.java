@@ -0,0 +1,117 @@
+package com.danbunnell.smartlightremote.protocol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CommandQueueTest {
+    @Test
+    public void stateCommands_areCoalesced() {
+        CommandQueue queue = new CommandQueue(8);
+        queue.enqueueLatest(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 10);
+        queue.enqueueLatest(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 20);
+
+        byte[] out = new byte[20];
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.getCoalescedCount());
+        assertEquals(3, queue.drain(out, out.length, false));
+        assertEquals(20, out[2]);
+    }
+
+    @Test
+    public void coalescedCommand_neverOvertakesOrderedFrames() {
+        CommandQueue queue = new CommandQueue(8);
+        queue.enqueueLatest(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 10);
+        queue.enqueue(new byte[] { 0x40, 1 }, 0, 2);
+        queue.enqueueLatest(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 20);
+
+        byte[] out = new byte[20];
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getCoalescedCount());
+        assertEquals(2, queue.drain(out, out.length, false));
+        assertEquals(0x40, out[0]);
+        assertEquals(3, queue.drain(out, out.length, false));
+        assertEquals(20, out[2]);
+    }
+
+    @Test
+    public void peekedCommand_isNotCoalesced() {
+        CommandQueue queue = new CommandQueue(8);
+        queue.enqueueLatest(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 10);
+
+        byte[] out = new byte[20];
+        assertEquals(3, queue.peek(out, out.length, false));
+        queue.enqueueLatest(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 20);
+        queue.removePeeked();
+
+        assertEquals(1, queue.size());
+        assertEquals(3, queue.drain(out, out.length, false));
+        assertEquals(20, out[2]);
+    }
+
+    @Test
+    public void legacyDrain_writesOneFrame() {
+        CommandQueue queue = new CommandQueue(8);
+        queue.enqueueLatest(LightProtocol.CMD_SET_HUE, (byte) 1, (byte) 2);
+        queue.enqueueLatest(LightProtocol.CMD_SET_SATURATION, (byte) 3, (byte) 0);
+
+        byte[] out = new byte[20];
+        assertEquals(3, queue.drain(out, out.length, false));
+        assertEquals(LightProtocol.CMD_SET_HUE, out[0]);
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void packedDrain_prefixesEachFrameWithItsLength() {
+        CommandQueue queue = new CommandQueue(8);
+        queue.enqueueLatest(LightProtocol.CMD_SET_HUE, (byte) 1, (byte) 2);
+        queue.enqueueLatest(LightProtocol.CMD_SET_SATURATION, (byte) 3, (byte) 0);
+
+        byte[] out = new byte[20];
+        int length = queue.drain(out, out.length, true);
+
+        byte[] expected = new byte[] {
+                LightProtocol.PACKED_WRITE_MARKER,
+                3, LightProtocol.CMD_SET_HUE, 1, 2,
+                3, LightProtocol.CMD_SET_SATURATION, 3, 0 };
+        byte[] actual = new byte[length];
+        System.arraycopy(out, 0, actual, 0, length);
+        assertArrayEquals(expected, actual);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void packedDrain_ofSingleFrame_usesLegacyForm() {
+        CommandQueue queue = new CommandQueue(8);
+        queue.enqueueLatest(LightProtocol.CMD_SET_HUE, (byte) 1, (byte) 2);
+
+        byte[] out = new byte[20];
+        assertEquals(3, queue.drain(out, out.length, true));
+        assertEquals(LightProtocol.CMD_SET_HUE, out[0]);
+        assertEquals(2, out[2]);
+    }
+
+    @Test
+    public void packedDrain_stopsAtMaxLength() {
+        CommandQueue queue = new CommandQueue(16);
+        byte[] frame = new byte[] { LightProtocol.CMD_SET_HUE, 0, 0 };
+        for (int i = 0; i < 10; i++) {
+            frame[2] = (byte) i;
+            queue.enqueue(frame, 0, frame.length);
+        }
+
+        byte[] out = new byte[20];
+        assertEquals(17, queue.drain(out, out.length, true));
+        assertEquals(6, queue.size());
+    }
+
+    @Test
+    public void fullQueue_dropsFrames() {
+        CommandQueue queue = new CommandQueue(1);
+        byte[] frame = new byte[] { LightProtocol.CMD_SET_HUE, 0, 0 };
+
+        assertTrue(queue.enqueue(frame, 0, frame.length));
+        assertFalse(queue.enqueue(frame, 0, frame.length));
+        assertEquals(1, queue.getDroppedCount());
+    }
+}
@@ -0,0 +1,95 @@
+package com.danbunnell.smartlightremote.protocol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EchoSuppressorTest {
+    @Test
+    public void deviceChange_withNothingInFlight_isAccepted() {
+        EchoSuppressor suppressor = new EchoSuppressor(8, 1000);
+
+        assertEquals(EchoSuppressor.ACCEPTED, suppressor.onNotification(120, 0));
+        assertEquals(1, suppressor.getAcceptedCount());
+    }
+
+    @Test
+    public void dragEchoes_areSuppressedInOrder() {
+        EchoSuppressor suppressor = new EchoSuppressor(8, 1000);
+        suppressor.recordWrite(10, 0);
+        suppressor.recordWrite(11, 5);
+        suppressor.recordWrite(10, 10);
+
+        assertEquals(EchoSuppressor.STALE, suppressor.onNotification(10, 20));
+        assertEquals(EchoSuppressor.STALE, suppressor.onNotification(11, 25));
+        assertEquals(EchoSuppressor.ECHO, suppressor.onNotification(10, 30));
+        assertEquals(0, suppressor.getInFlightCount());
+        assertEquals(2, suppressor.getLastAcknowledgedSequence());
+        assertEquals(3, suppressor.getSuppressedCount());
+    }
+
+    @Test
+    public void lostEcho_isRetiredByNewerAcknowledgement() {
+        EchoSuppressor suppressor = new EchoSuppressor(8, 1000);
+        suppressor.recordWrite(1, 0);
+        suppressor.recordWrite(2, 0);
+        suppressor.recordWrite(3, 0);
+
+        assertEquals(EchoSuppressor.ECHO, suppressor.onNotification(3, 10));
+        assertEquals(0, suppressor.getInFlightCount());
+        assertEquals(EchoSuppressor.ACCEPTED, suppressor.onNotification(1, 1500));
+    }
+
+    @Test
+    public void lateEchoOfFirstWrite_afterSecondIsAcknowledged_isStale() {
+        EchoSuppressor suppressor = new EchoSuppressor(8, 1000);
+        suppressor.recordWrite(10, 0);
+        suppressor.recordWrite(20, 2);
+
+        assertEquals(EchoSuppressor.ECHO, suppressor.onNotification(20, 30));
+        assertEquals(EchoSuppressor.STALE, suppressor.onNotification(10, 35));
+        assertEquals(EchoSuppressor.ECHO, suppressor.onNotification(20, 40));
+        assertEquals(EchoSuppressor.ACCEPTED, suppressor.onNotification(30, 45));
+        assertEquals(1, suppressor.getAcceptedCount());
+    }
+
+    @Test
+    public void echoOfFirstWrite_whileSecondInFlight_isStale() {
+        EchoSuppressor suppressor = new EchoSuppressor(8, 1000);
+        suppressor.recordWrite(10, 0);
+        suppressor.recordWrite(20, 2);
+
+        assertEquals(EchoSuppressor.STALE, suppressor.onNotification(10, 30));
+        assertEquals(1, suppressor.getInFlightCount());
+        assertEquals(EchoSuppressor.ECHO, suppressor.onNotification(20, 40));
+    }
+
+    @Test
+    public void unmatchedValue_whileWritesInFlight_isStale() {
+        EchoSuppressor suppressor = new EchoSuppressor(8, 1000);
+        suppressor.recordWrite(200, 0);
+
+        assertEquals(EchoSuppressor.STALE, suppressor.onNotification(50, 10));
+        assertEquals(1, suppressor.getInFlightCount());
+    }
+
+    @Test
+    public void unacknowledgedWrites_expire() {
+        EchoSuppressor suppressor = new EchoSuppressor(8, 100);
+        suppressor.recordWrite(200, 0);
+
+        assertEquals(EchoSuppressor.ACCEPTED, suppressor.onNotification(50, 500));
+    }
+
+    @Test
+    public void fullTracker_dropsOldestWrite() {
+        EchoSuppressor suppressor = new EchoSuppressor(2, 1000);
+        suppressor.recordWrite(1, 0);
+        suppressor.recordWrite(2, 0);
+        suppressor.recordWrite(3, 0);
+
+        assertEquals(2, suppressor.getInFlightCount());
+        assertEquals(EchoSuppressor.STALE, suppressor.onNotification(1, 10));
+        assertEquals(EchoSuppressor.ECHO, suppressor.onNotification(3, 10));
+    }
+}
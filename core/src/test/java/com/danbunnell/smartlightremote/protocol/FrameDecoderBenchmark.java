@@ -0,0 +1,69 @@
+package com.danbunnell.smartlightremote.protocol;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures {@link FrameDecoder} throughput on the JVM.
+ *
+ * Run from the IDE; prints frames per second for whole and fragmented notifications.
+ */
+public class FrameDecoderBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int PASSES_PER_ROUND = 2000;
+
+    public static void main(String[] args) {
+        byte[] stream = FrameDecoderTest.randomStream(new Random(1), 4096);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            measure("20-byte notifications", stream, 20);
+            measure("fragmented, 7-byte   ", stream, 7);
+            measure("3-byte notifications ", stream, 3);
+        }
+    }
+
+    /**
+     * Decodes the stream in fixed-size notifications and prints the throughput.
+     */
+    private static void measure(String label, byte[] stream, int notificationLength) {
+        final long[] frames = new long[1];
+        FrameDecoder decoder = new FrameDecoder(new FrameDecoder.Listener() {
+            @Override
+            public void onHue(int hue) {
+                frames[0] += hue;
+            }
+
+            @Override
+            public void onSaturation(int saturation) {
+                frames[0] += saturation;
+            }
+
+            @Override
+            public void onCapabilities(int capabilities) {
+                frames[0] += capabilities;
+            }
+
+            @Override
+            public void onEffectStatus(int status) {
+                frames[0] += status;
+            }
+
+            @Override
+            public void onUnknownFrame(byte command, byte[] frame, int offset, int length) {
+                frames[0] += length;
+            }
+        });
+
+        long start = System.nanoTime();
+        for (int pass = 0; pass < PASSES_PER_ROUND; pass++) {
+            for (int position = 0; position < stream.length; position += notificationLength) {
+                decoder.decode(stream, position, Math.min(notificationLength, stream.length - position));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(String.format(Locale.ENGLISH, "%s: %.1f M frames/s (checksum %d)",
+                label, decoder.getFramesDecoded() / (elapsed / 1e9) / 1e6, frames[0]));
+    }
+}
@@ -0,0 +1,169 @@
+package com.danbunnell.smartlightremote.protocol;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+
+    /**
+     * Records decoded frames as strings for comparison.
+     */
+    private static class RecordingListener implements FrameDecoder.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onHue(int hue) {
+            events.add("hue " + hue);
+        }
+
+        @Override
+        public void onSaturation(int saturation) {
+            events.add("saturation " + saturation);
+        }
+
+        @Override
+        public void onCapabilities(int capabilities) {
+            events.add("capabilities " + capabilities);
+        }
+
+        @Override
+        public void onEffectStatus(int status) {
+            events.add("effect status " + status);
+        }
+
+        @Override
+        public void onUnknownFrame(byte command, byte[] frame, int offset, int length) {
+            StringBuilder event = new StringBuilder("unknown");
+            for (int i = 0; i < length; i++) {
+                event.append(' ').append(frame[offset + i]);
+            }
+            events.add(event.toString());
+        }
+    }
+
+    @Test
+    public void legacyNotification_decodesOneFrame() {
+        RecordingListener listener = new RecordingListener();
+        new FrameDecoder(listener).decode(new byte[] { LightProtocol.CMD_CLIENT_NOTIFY_HUE, 0x01, 0x2C }, 0, 3);
+
+        assertEquals(1, listener.events.size());
+        assertEquals("hue 300", listener.events.get(0));
+    }
+
+    @Test
+    public void saturation_doesNotFallThroughToUnknown() {
+        RecordingListener listener = new RecordingListener();
+        new FrameDecoder(listener).decode(new byte[] { LightProtocol.CMD_CLIENT_NOTIFY_SATURATION, 0x7F, 0x00 }, 0, 3);
+
+        assertEquals(1, listener.events.size());
+        assertEquals("saturation 127", listener.events.get(0));
+    }
+
+    @Test
+    public void decodeFrame_dispatchesCompleteFrameWithoutHeader() {
+        RecordingListener listener = new RecordingListener();
+        FrameDecoder decoder = new FrameDecoder(listener);
+        decoder.decodeFrame(new byte[] { 9, LightProtocol.CMD_CLIENT_NOTIFY_HUE, 0x00, 0x2D }, 1, 3);
+        decoder.decodeFrame(new byte[0], 0, 0);
+
+        assertEquals(1, listener.events.size());
+        assertEquals("hue 45", listener.events.get(0));
+        assertEquals(1, decoder.getMalformedFrames());
+    }
+
+    @Test
+    public void batchedNotification_decodesEveryFrame() {
+        RecordingListener listener = new RecordingListener();
+        byte[] data = new byte[] {
+                LightProtocol.CMD_CLIENT_NOTIFY_HUE, 0x00, 0x0A,
+                LightProtocol.EXTENDED_FRAME_MARKER, 0x02, 0x70, 0x01,
+                LightProtocol.CMD_CLIENT_NOTIFY_SATURATION, (byte) 0xFF, 0x00 };
+        new FrameDecoder(listener).decode(data, 0, data.length);
+
+        assertEquals(3, listener.events.size());
+        assertEquals("unknown 112 1", listener.events.get(1));
+        assertEquals("saturation 255", listener.events.get(2));
+    }
+
+    @Test
+    public void zeroLengthExtendedFrame_isSkipped() {
+        RecordingListener listener = new RecordingListener();
+        FrameDecoder decoder = new FrameDecoder(listener);
+        byte[] data = new byte[] {
+                LightProtocol.EXTENDED_FRAME_MARKER, 0x00,
+                LightProtocol.CMD_CLIENT_NOTIFY_HUE, 0x00, 0x05 };
+        decoder.decode(data, 0, data.length);
+
+        assertEquals(1, decoder.getMalformedFrames());
+        assertEquals("hue 5", listener.events.get(0));
+    }
+
+    @Test
+    public void fuzz_randomFragmentation_matchesWholeStream() {
+        Random random = new Random(590);
+
+        for (int iteration = 0; iteration < 500; iteration++) {
+            byte[] stream = randomStream(random, 1 + random.nextInt(60));
+
+            RecordingListener expected = new RecordingListener();
+            new FrameDecoder(expected).decode(stream, 0, stream.length);
+
+            RecordingListener actual = new RecordingListener();
+            FrameDecoder decoder = new FrameDecoder(actual);
+            int position = 0;
+            while (position < stream.length) {
+                int length = Math.min(stream.length - position, random.nextInt(24));
+                decoder.decode(stream, position, length);
+                position += length;
+            }
+
+            assertEquals("iteration " + iteration, expected.events, actual.events);
+        }
+    }
+
+    @Test
+    public void fuzz_randomBytes_neverThrow() {
+        Random random = new Random(42);
+        FrameDecoder decoder = new FrameDecoder(new RecordingListener());
+        byte[] data = new byte[64];
+
+        for (int iteration = 0; iteration < 10000; iteration++) {
+            random.nextBytes(data);
+            decoder.decode(data, 0, random.nextInt(data.length + 1));
+        }
+    }
+
+    /**
+     * Builds a stream of random legacy and extended frames.
+     *
+     * @param random     the random source
+     * @param frameCount the number of frames
+     * @return           the encoded stream
+     */
+    static byte[] randomStream(Random random, int frameCount) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        for (int i = 0; i < frameCount; i++) {
+            if (random.nextInt(4) == 0) {
+                int length = 1 + random.nextInt(40);
+                stream.write(LightProtocol.EXTENDED_FRAME_MARKER);
+                stream.write(length);
+                for (int j = 0; j < length; j++) {
+                    stream.write(random.nextInt(256));
+                }
+            } else {
+                stream.write(1 + random.nextInt(3));
+                stream.write(random.nextInt(2));
+                stream.write(random.nextInt(256));
+            }
+        }
+
+        return stream.toByteArray();
+    }
+}
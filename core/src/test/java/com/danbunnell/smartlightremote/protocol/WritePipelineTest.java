@@ -0,0 +1,90 @@
+package com.danbunnell.smartlightremote.protocol;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WritePipelineTest {
+
+    /**
+     * Records writes, refusing them while another operation holds the link.
+     */
+    private static class BusyTransport implements WritePipeline.Transport {
+        final List<byte[]> written = new ArrayList<>();
+        boolean busy;
+
+        @Override
+        public boolean write(byte[] payload, int length) {
+            if (this.busy) {
+                return false;
+            }
+
+            this.written.add(Arrays.copyOf(payload, length));
+            return true;
+        }
+    }
+
+    private final BusyTransport transport = new BusyTransport();
+    private final WritePipeline pipeline = new WritePipeline(transport);
+
+    @Test
+    public void refusedWrite_staysQueuedUntilRetry() {
+        transport.busy = true;
+        pipeline.send(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 120);
+
+        assertEquals(0, transport.written.size());
+        assertEquals(1, pipeline.getWritesRefused());
+        assertEquals(1, pipeline.getQueue().size());
+
+        transport.busy = false;
+        pipeline.retry();
+
+        assertEquals(1, transport.written.size());
+        assertArrayEquals(new byte[] { LightProtocol.CMD_SET_HUE, 0, 120 }, transport.written.get(0));
+        assertEquals(0, pipeline.getQueue().size());
+        assertEquals(0, pipeline.getWritesFailed());
+    }
+
+    @Test
+    public void refusedWrite_takesNewerValueAndKeepsFrameOrder() {
+        transport.busy = true;
+        byte[] chunk = { 0x40, 1, 2, 3, 4 };
+        pipeline.sendFrame(chunk, 0, chunk.length);
+        pipeline.send(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 10);
+        pipeline.send(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 20);
+
+        transport.busy = false;
+        pipeline.retry();
+        pipeline.onWriteComplete(true);
+
+        assertEquals(2, transport.written.size());
+        assertArrayEquals(chunk, transport.written.get(0));
+        assertArrayEquals(new byte[] { LightProtocol.CMD_SET_HUE, 0, 20 }, transport.written.get(1));
+    }
+
+    @Test
+    public void refusedPackedWrite_isRetriedWhole() {
+        pipeline.setPackedWrites(true);
+        pipeline.send(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 1);
+        transport.busy = true;
+        pipeline.send(LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 2);
+        pipeline.send(LightProtocol.CMD_SET_SATURATION, (byte) 200, (byte) 0);
+
+        // The first write is still in flight, so nothing is attempted yet
+        assertEquals(0, pipeline.getWritesRefused());
+        pipeline.onWriteComplete(true);
+        assertEquals(1, pipeline.getWritesRefused());
+
+        transport.busy = false;
+        pipeline.retry();
+
+        assertEquals(2, transport.written.size());
+        assertEquals(LightProtocol.PACKED_WRITE_MARKER, transport.written.get(1)[0]);
+        assertEquals(9, transport.written.get(1).length);
+        assertEquals(0, pipeline.getQueue().size());
+    }
+}
@@ -0,0 +1,307 @@
+package com.danbunnell.smartlightremote.simulation;
+
+import com.danbunnell.smartlightremote.BLE.ProtocolCapture;
+import com.danbunnell.smartlightremote.BLE.ProtocolCaptureReader;
+import com.danbunnell.smartlightremote.protocol.FrameDecoder;
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Replays a protocol capture pulled from a device against a {@link SimulatedLight}, and
+ * compares what the light should have reported with what was actually received.
+ *
+ * Reports gaps in the write stream, how long the light took to echo each write, notifications
+ * the simulated light sent that never arrived, and received values the simulated light never
+ * sent, which is usually enough to tell a stalled link from firmware that dropped or misparsed
+ * a command.
+ *
+ * Run from the IDE with the capture file as the only argument; a synthetic session is
+ * captured and replayed otherwise.
+ */
+public class CaptureReplay {
+
+    private static final long STALL_NANOS = 100000000L;
+
+    private final FrameDecoder recordedDecoder;
+    private final FrameDecoder simulatedDecoder;
+    private final int[] recorded = new int[] { -1, -1 };
+    private final int[] simulated = new int[] { -1, -1 };
+
+    // Simulated notifications per channel that have not been matched by a received one yet
+    private final ArrayDeque<Integer>[] expected;
+
+    private long txFrames;
+    private long rxFrames;
+    private long truncatedFrames;
+    private long stalls;
+    private long maxTxGapNanos;
+    private long lastTxNanos = -1;
+
+    private long pendingEchoSinceNanos = -1;
+    private long echoes;
+    private long totalEchoNanos;
+    private long maxEchoNanos;
+
+    private long lostNotifications;
+    private long divergences;
+    private long firstDivergenceNanos = -1;
+    private long startNanos = -1;
+    private long currentNanos;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private CaptureReplay() {
+        this.expected = new ArrayDeque[] { new ArrayDeque<Integer>(), new ArrayDeque<Integer>() };
+        this.recordedDecoder = new FrameDecoder(new StateTracker(this.recorded) {
+            @Override
+            void onValue(int channel, int value) {
+                match(channel, value);
+            }
+        });
+        this.simulatedDecoder = new FrameDecoder(new StateTracker(this.simulated) {
+            @Override
+            void onValue(int channel, int value) {
+                expected[channel].addLast(value);
+            }
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        File file;
+        if (args.length > 0) {
+            file = new File(args[0]);
+        } else {
+            file = File.createTempFile("protocol-capture", ".bin");
+            file.deleteOnExit();
+            writeSyntheticCapture(file);
+        }
+
+        boolean packed = usesPackedWrites(file);
+        CaptureReplay replay = new CaptureReplay();
+
+        ProtocolCaptureReader reader = new ProtocolCaptureReader(new FileInputStream(file));
+        try {
+            replay.run(reader, new SimulatedLight(packed));
+        } finally {
+            reader.close();
+        }
+
+        System.out.println(replay.summary(packed));
+    }
+
+    /**
+     * Feeds every captured write to the light and every captured notification to the decoder.
+     *
+     * @param reader the capture
+     * @param light  the light to replay against
+     * @throws IOException if the capture cannot be read
+     */
+    private void run(ProtocolCaptureReader reader, SimulatedLight light) throws IOException {
+        light.setNotificationListener(new SimulatedLight.NotificationListener() {
+            @Override
+            public void onNotification(byte[] value, int length) {
+                simulatedDecoder.decode(value, 0, length);
+            }
+        });
+
+        while (reader.next()) {
+            long now = reader.getTimestampNanos();
+            if (this.startNanos < 0) {
+                this.startNanos = now;
+            }
+
+            if (reader.getCapturedLength() < reader.getLength()) {
+                this.truncatedFrames++;
+                continue;
+            }
+
+            if (reader.getDirection() == ProtocolCapture.DIRECTION_TX) {
+                this.txFrames++;
+                if (this.lastTxNanos >= 0) {
+                    long gap = now - this.lastTxNanos;
+                    this.maxTxGapNanos = Math.max(this.maxTxGapNanos, gap);
+                    if (gap > STALL_NANOS) {
+                        this.stalls++;
+                    }
+                }
+                this.lastTxNanos = now;
+
+                if (this.pendingEchoSinceNanos < 0) {
+                    this.pendingEchoSinceNanos = now;
+                }
+                light.onWrite(reader.getFrame(), reader.getLength());
+            } else {
+                this.rxFrames++;
+                if (this.pendingEchoSinceNanos >= 0) {
+                    long latency = now - this.pendingEchoSinceNanos;
+                    this.echoes++;
+                    this.totalEchoNanos += latency;
+                    this.maxEchoNanos = Math.max(this.maxEchoNanos, latency);
+                    this.pendingEchoSinceNanos = -1;
+                }
+
+                this.currentNanos = now;
+                this.recordedDecoder.decode(reader.getFrame(), 0, reader.getLength());
+            }
+        }
+    }
+
+    /**
+     * Matches a received value against the values the simulated light sent on the same channel.
+     * Simulated values skipped over were lost on the way; a value with no match at all means the
+     * light and the simulation disagree.
+     *
+     * @param channel 0 for hue, 1 for saturation
+     * @param value   the received value
+     */
+    private void match(int channel, int value) {
+        int skipped = 0;
+        for (Integer candidate : this.expected[channel]) {
+            if (candidate == value) {
+                Iterator<Integer> iterator = this.expected[channel].iterator();
+                for (int i = 0; i <= skipped; i++) {
+                    iterator.next();
+                    iterator.remove();
+                }
+                this.lostNotifications += skipped;
+                return;
+            }
+            skipped++;
+        }
+
+        this.divergences++;
+        if (this.firstDivergenceNanos < 0) {
+            this.firstDivergenceNanos = this.currentNanos;
+        }
+    }
+
+    /**
+     * Summarizes the replay.
+     *
+     * @param packed whether the light was emulated with packed writes
+     * @return       a human-readable summary
+     */
+    private String summary(boolean packed) {
+        return String.format(Locale.ENGLISH,
+                "%d TX / %d RX frames (%d truncated, %s writes)%n"
+                        + "largest gap between writes %.1f ms, %d stall(s) over %d ms%n"
+                        + "echo latency avg %.1f ms, max %.1f ms over %d echo(es)%n"
+                        + "%d notification(s) lost, %d divergence(s)%s%n"
+                        + "final hue %d/%d, saturation %d/%d (received/simulated)",
+                this.txFrames, this.rxFrames, this.truncatedFrames, packed ? "packed" : "legacy",
+                this.maxTxGapNanos / 1e6, this.stalls, STALL_NANOS / 1000000,
+                this.echoes == 0 ? 0.0 : this.totalEchoNanos / 1e6 / this.echoes,
+                this.maxEchoNanos / 1e6, this.echoes,
+                this.lostNotifications, this.divergences,
+                this.firstDivergenceNanos < 0 ? "" : String.format(Locale.ENGLISH,
+                        ", first at %.1f ms", (this.firstDivergenceNanos - this.startNanos) / 1e6),
+                this.recorded[0], this.simulated[0], this.recorded[1], this.simulated[1]);
+    }
+
+    /**
+     * Checks whether the capture contains packed writes.
+     *
+     * @param file the capture
+     * @return     true if any write starts with the packed write marker
+     */
+    private static boolean usesPackedWrites(File file) throws IOException {
+        ProtocolCaptureReader reader = new ProtocolCaptureReader(new FileInputStream(file));
+        try {
+            while (reader.next()) {
+                if (reader.getDirection() == ProtocolCapture.DIRECTION_TX
+                        && reader.getCapturedLength() > 0
+                        && reader.getFrame()[0] == LightProtocol.PACKED_WRITE_MARKER) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Captures a short drag against a simulated light, with one echo lost on the way back.
+     *
+     * @param file the file to write the capture to
+     */
+    private static void writeSyntheticCapture(File file) throws IOException {
+        final ProtocolCapture capture = new ProtocolCapture(1024);
+        final int[] notifications = new int[1];
+
+        SimulatedLight light = new SimulatedLight(false);
+        light.setNotificationListener(new SimulatedLight.NotificationListener() {
+            @Override
+            public void onNotification(byte[] value, int length) {
+                if (++notifications[0] != 40) {
+                    capture.record(ProtocolCapture.DIRECTION_RX, value, 0, length);
+                }
+            }
+        });
+
+        byte[] frame = new byte[LightProtocol.LEGACY_FRAME_LENGTH];
+        for (int hue = 0; hue < 180; hue += 2) {
+            frame[0] = LightProtocol.CMD_SET_HUE;
+            frame[1] = (byte) (hue >> 8);
+            frame[2] = (byte) hue;
+            capture.record(ProtocolCapture.DIRECTION_TX, frame, 0, frame.length);
+            light.onWrite(frame, frame.length);
+        }
+
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            capture.dump(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Keeps the latest hue and saturation reported by a decoder.
+     */
+    private abstract static class StateTracker implements FrameDecoder.Listener {
+        private final int[] state;
+
+        StateTracker(int[] state) {
+            this.state = state;
+        }
+
+        /**
+         * Called for every reported value.
+         *
+         * @param channel 0 for hue, 1 for saturation
+         * @param value   the value
+         */
+        abstract void onValue(int channel, int value);
+
+        @Override
+        public void onHue(int hue) {
+            this.state[0] = hue;
+            this.onValue(0, hue);
+        }
+
+        @Override
+        public void onSaturation(int saturation) {
+            this.state[1] = saturation;
+            this.onValue(1, saturation);
+        }
+
+        @Override
+        public void onCapabilities(int capabilities) {
+        }
+
+        @Override
+        public void onEffectStatus(int status) {
+        }
+
+        @Override
+        public void onUnknownFrame(byte command, byte[] frame, int offset, int length) {
+        }
+    }
+}
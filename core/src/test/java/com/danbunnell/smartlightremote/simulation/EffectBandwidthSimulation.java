@@ -0,0 +1,112 @@
+package com.danbunnell.smartlightremote.simulation;
+
+import com.danbunnell.smartlightremote.effect.EffectCompiler;
+import com.danbunnell.smartlightremote.effect.EffectInterpreter;
+import com.danbunnell.smartlightremote.effect.EffectUploader;
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+import com.danbunnell.smartlightremote.protocol.WritePipeline;
+
+import java.util.Locale;
+
+/**
+ * Compares streaming an animation frame by frame with uploading it once as an effect program.
+ *
+ * Run from the IDE; prints air bytes per minute and how closely the light follows the
+ * intended animation in each mode. An uploaded effect starts when the light reports it
+ * playing, so its error is measured against a reference started at that moment.
+ */
+public class EffectBandwidthSimulation {
+
+    private static final long CONNECTION_INTERVAL_MICROS = 30000;
+    private static final long DURATION_MS = 60000;
+    private static final int STREAM_RATE_HZ = 30;
+
+    private static final String EFFECT =
+            "loop forever\n"
+                    + "  fade 0 255 1500 in-out\n"
+                    + "  fade 120 255 1500 in-out\n"
+                    + "  fade 240 255 1500 in-out\n"
+                    + "  hold 500\n"
+                    + "end\n";
+
+    public static void main(String[] args) {
+        byte[] program = EffectCompiler.compile(EFFECT);
+        System.out.println(String.format(Locale.ENGLISH, "program: %d bytes", program.length));
+
+        simulate("streamed at " + STREAM_RATE_HZ + " Hz", program, false);
+        simulate("uploaded once        ", program, true);
+    }
+
+    /**
+     * Plays the program for {@link #DURATION_MS} in one mode.
+     *
+     * @param label    the mode name
+     * @param program  the compiled program
+     * @param uploaded whether to upload the program rather than stream its output
+     */
+    private static void simulate(String label, final byte[] program, boolean uploaded) {
+        final SimulatedLight light = new SimulatedLight(true, true);
+        SimulatedLink link = new SimulatedLink(light, CONNECTION_INTERVAL_MICROS);
+        WritePipeline pipeline = new WritePipeline(link);
+        link.setPipeline(pipeline);
+        pipeline.setPackedWrites(true);
+
+        final EffectInterpreter reference = new EffectInterpreter();
+        final long[] startMs = new long[] { -1 };
+        final long[] nowMs = new long[1];
+
+        if (!uploaded) {
+            reference.start(program, program.length, 0, 255, 0);
+            startMs[0] = 0;
+        } else {
+            light.setNotificationListener(new SimulatedLight.NotificationListener() {
+                @Override
+                public void onNotification(byte[] value, int length) {
+                    if (value[0] == LightProtocol.CMD_CLIENT_NOTIFY_EFFECT_STATUS
+                            && value[1] == LightProtocol.EFFECT_STATUS_PLAYING) {
+                        reference.start(program, program.length, light.getHue(), light.getSaturation(), nowMs[0]);
+                        startMs[0] = nowMs[0];
+                    }
+                }
+            });
+
+            EffectUploader.upload(program, pipeline);
+        }
+
+        long streamPeriodMs = 1000 / STREAM_RATE_HZ;
+        long totalError = 0;
+        int maxError = 0;
+        long measuredMs = 0;
+        for (long now = 0; now <= DURATION_MS; now++) {
+            nowMs[0] = now;
+            reference.update(now);
+
+            if (!uploaded && now % streamPeriodMs == 0) {
+                int hue = reference.getHue();
+                pipeline.send(LightProtocol.CMD_SET_HUE, (byte) (hue >> 8), (byte) hue);
+                pipeline.send(LightProtocol.CMD_SET_SATURATION, (byte) reference.getSaturation(), (byte) 0x00);
+            }
+
+            light.advanceTo(now);
+            link.advanceTo(now * 1000);
+            if (startMs[0] < 0) {
+                continue;
+            }
+
+            int error = Math.abs(light.getHue() - reference.getHue());
+            error = Math.min(error, 360 - error);
+            totalError += error;
+            maxError = Math.max(maxError, error);
+            measuredMs++;
+        }
+
+        System.out.println(String.format(Locale.ENGLISH,
+                "%s: %6d air bytes/min, %5d writes, started after %3d ms, hue error avg %.2f, max %d degrees",
+                label,
+                link.getAirBytes() * 60000 / DURATION_MS,
+                link.getWrites(),
+                startMs[0],
+                measuredMs == 0 ? 0.0 : (double) totalError / measuredMs,
+                maxError));
+    }
+}
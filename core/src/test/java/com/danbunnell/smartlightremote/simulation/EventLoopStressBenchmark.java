@@ -0,0 +1,86 @@
+package com.danbunnell.smartlightremote.simulation;
+
+import com.danbunnell.smartlightremote.metrics.Histogram;
+
+import java.util.Locale;
+
+/**
+ * Measures command latency through the single-threaded event loop while several threads
+ * submit commands at once, as the UI, sensor and scan threads do on a device.
+ *
+ * Run from the IDE; prints dispatch and end-to-end latency percentiles per load level.
+ */
+public class EventLoopStressBenchmark {
+
+    private static final long CONNECTION_INTERVAL_MICROS = 7500;
+    private static final long DURATION_MS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        run(1, 200);
+        run(4, 200);
+        run(4, 1000);
+        run(8, 1000);
+    }
+
+    /**
+     * Runs producers at a fixed rate and prints the latencies.
+     *
+     * @param producerCount   the number of producer threads
+     * @param ratePerProducer commands per second from each producer
+     */
+    private static void run(int producerCount, final int ratePerProducer) throws Exception {
+        final SimulatedEventLoop loop = new SimulatedEventLoop(CONNECTION_INTERVAL_MICROS, true);
+        Thread[] producers = new Thread[producerCount];
+        for (int t = 0; t < producerCount; t++) {
+            final int seed = t;
+            producers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long periodNanos = 1000000000L / ratePerProducer;
+                    long next = System.nanoTime();
+                    long end = next + DURATION_MS * 1000000L;
+                    int step = seed * 37;
+
+                    while (next < end) {
+                        if (step % 2 == 0) {
+                            loop.sendHue(step % 360);
+                        } else {
+                            loop.sendSaturation(step % 256);
+                        }
+                        step++;
+
+                        next += periodNanos;
+                        long sleepNanos = next - System.nanoTime();
+                        if (sleepNanos > 0) {
+                            try {
+                                Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        SimulatedEventLoop.Result result = loop.drainAndStop();
+        Histogram dispatch = loop.getDispatchLatencyMicros();
+        Histogram endToEnd = loop.getEndToEndLatencyMicros();
+
+        System.out.println(String.format(Locale.ENGLISH,
+                "%d producer(s) x %d/s: %d commands, %d writes; "
+                        + "dispatch p50 <= %d us, p99 <= %d us, max %d us; "
+                        + "end-to-end p50 <= %.1f ms, p99 <= %.1f ms, max %.1f ms",
+                producerCount, ratePerProducer, result.commandsDispatched, result.writes,
+                SimulatedEventLoop.percentile(dispatch, 0.5),
+                SimulatedEventLoop.percentile(dispatch, 0.99),
+                dispatch.getMax(),
+                SimulatedEventLoop.percentile(endToEnd, 0.5) / 1000.0,
+                SimulatedEventLoop.percentile(endToEnd, 0.99) / 1000.0,
+                endToEnd.getMax() / 1000.0));
+    }
+}
@@ -0,0 +1,39 @@
+package com.danbunnell.smartlightremote.simulation;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EventLoopStressTest {
+    @Test
+    public void concurrentProducers_leaveLightInLastDispatchedState() throws Exception {
+        final SimulatedEventLoop loop = new SimulatedEventLoop(7500, true);
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            final Random random = new Random(t);
+            producers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 5000; i++) {
+                        loop.sendHue(random.nextInt(360));
+                        loop.sendSaturation(random.nextInt(256));
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        SimulatedEventLoop.Result result = loop.drainAndStop();
+
+        assertEquals(40000, result.commandsDispatched);
+        assertEquals(0, result.commandsRejected);
+        assertEquals(result.lastHueSent, result.lightHue);
+        assertEquals(result.lastSaturationSent, result.lightSaturation);
+        assertTrue(result.writes > 0);
+    }
+}
@@ -0,0 +1,149 @@
+package com.danbunnell.smartlightremote.simulation;
+
+import com.danbunnell.smartlightremote.lan.LanProtocol;
+import com.danbunnell.smartlightremote.lan.SequenceTracker;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * A stand-in for a Wi-Fi bridge with a {@link SimulatedLight} behind it, listening on the
+ * loopback interface.
+ *
+ * Command datagrams that are not stale are written to the light and acknowledged; the light's
+ * notifications are sent to whichever client spoke last. The light is only touched on the
+ * server thread or while holding its monitor.
+ */
+public class LoopbackLightServer {
+
+    private final SimulatedLight light;
+    private final DatagramChannel channel;
+    private final SequenceTracker tracker = new SequenceTracker();
+    private final Thread thread;
+
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(LanProtocol.MAX_DATAGRAM_LENGTH);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(LanProtocol.MAX_DATAGRAM_LENGTH);
+    private final byte[] payload = new byte[LanProtocol.MAX_PAYLOAD_LENGTH];
+    private final short session = 0x1234;
+    private int nextSequence = 1;
+    private SocketAddress client;
+
+    private volatile long datagramsReceived;
+
+    /**
+     * Binds to an ephemeral loopback port and starts serving.
+     *
+     * @param light the light behind the bridge
+     * @throws IOException if the port cannot be bound
+     */
+    public LoopbackLightServer(SimulatedLight light) throws IOException {
+        this.light = light;
+        this.channel = DatagramChannel.open();
+        this.channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        light.setNotificationListener(new SimulatedLight.NotificationListener() {
+            @Override
+            public void onNotification(byte[] value, int length) {
+                notifyClient(value, length);
+            }
+        });
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "LoopbackLightServer");
+        this.thread.start();
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) this.channel.getLocalAddress();
+    }
+
+    public long getDatagramsReceived() {
+        return this.datagramsReceived;
+    }
+
+    /**
+     * Gets the number of command datagrams dropped because a newer one had been applied.
+     *
+     * @return the stale datagram count
+     */
+    public long getStaleDatagrams() {
+        synchronized (this.light) {
+            return this.tracker.getStaleCount();
+        }
+    }
+
+    /**
+     * Stops serving and releases the port.
+     *
+     * @throws IOException          if the channel cannot be closed
+     * @throws InterruptedException if interrupted while waiting for the server thread
+     */
+    public void close() throws IOException, InterruptedException {
+        this.channel.close();
+        this.thread.join();
+    }
+
+    private void serve() {
+        try {
+            while (true) {
+                this.receiveBuffer.clear();
+                SocketAddress sender = this.channel.receive(this.receiveBuffer);
+                this.receiveBuffer.flip();
+                this.datagramsReceived++;
+
+                if (LanProtocol.readType(this.receiveBuffer) != LanProtocol.TYPE_COMMANDS) {
+                    continue;
+                }
+                short session = this.receiveBuffer.getShort();
+                int sequence = this.receiveBuffer.getInt();
+                int length = this.receiveBuffer.remaining();
+                this.receiveBuffer.get(this.payload, 0, length);
+
+                synchronized (this.light) {
+                    this.client = sender;
+                    if (this.tracker.accept(session, sequence)) {
+                        this.light.onWrite(this.payload, length);
+                    }
+                }
+
+                // Stale datagrams are acknowledged too; they did arrive
+                this.sendBuffer.clear();
+                LanProtocol.writeHeader(this.sendBuffer, LanProtocol.TYPE_ACK, session, sequence);
+                this.sendBuffer.flip();
+                this.channel.send(this.sendBuffer, sender);
+            }
+        } catch (ClosedChannelException e) {
+            // Closed by close()
+        } catch (IOException e) {
+            throw new IllegalStateException("Loopback server failed", e);
+        }
+    }
+
+    /**
+     * Forwards a notification from the light. Called with the light's monitor held.
+     */
+    private void notifyClient(byte[] value, int length) {
+        if (this.client == null) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(LanProtocol.HEADER_LENGTH + length);
+        LanProtocol.writeHeader(buffer, LanProtocol.TYPE_NOTIFICATION, this.session, this.nextSequence++);
+        buffer.put(value, 0, length);
+        buffer.flip();
+        try {
+            this.channel.send(buffer, this.client);
+        } catch (IOException e) {
+            // The client has gone; UDP would lose it anyway
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.danbunnell.smartlightremote.simulation;
+
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+import com.danbunnell.smartlightremote.protocol.WritePipeline;
+
+import java.util.Locale;
+
+/**
+ * Compares legacy 3-byte writes with packed writes on a simulated link.
+ *
+ * Run from the IDE; prints one line per scenario and link configuration.
+ */
+public class PackedWriteSimulation {
+
+    private static final long CONNECTION_INTERVAL_MICROS = 30000;
+    private static final long DURATION_MICROS = 10000000;
+
+    private interface Workload {
+        /**
+         * Issues the commands due at a point in time.
+         *
+         * @param pipeline  the pipeline to send through
+         * @param nowMicros the simulated time in microseconds
+         * @return          the number of commands issued
+         */
+        int issue(WritePipeline pipeline, long nowMicros);
+    }
+
+    public static void main(String[] args) {
+        run("hue+saturation drag, 60 Hz", new Workload() {
+            @Override
+            public int issue(WritePipeline pipeline, long nowMicros) {
+                if (nowMicros % 16667 != 0) {
+                    return 0;
+                }
+
+                int step = (int) (nowMicros / 16667);
+                pipeline.send(LightProtocol.CMD_SET_HUE, (byte) ((step % 360) >> 8), (byte) (step % 360));
+                pipeline.send(LightProtocol.CMD_SET_SATURATION, (byte) (step % 256), (byte) 0x00);
+                return 2;
+            }
+        });
+
+        run("motion mode, 200 Hz hue", new Workload() {
+            @Override
+            public int issue(WritePipeline pipeline, long nowMicros) {
+                if (nowMicros % 5000 != 0) {
+                    return 0;
+                }
+
+                int hue = (int) ((nowMicros / 5000) % 360);
+                pipeline.send(LightProtocol.CMD_SET_HUE, (byte) (hue >> 8), (byte) hue);
+                return 1;
+            }
+        });
+
+        run("keyframe bursts, 48 ordered frames per second", new Workload() {
+            private final byte[] frame = new byte[LightProtocol.LEGACY_FRAME_LENGTH];
+
+            @Override
+            public int issue(WritePipeline pipeline, long nowMicros) {
+                if (nowMicros % 1000000 != 0) {
+                    return 0;
+                }
+
+                for (int i = 0; i < 48; i++) {
+                    int hue = (i * 7) % 360;
+                    frame[0] = LightProtocol.CMD_SET_HUE;
+                    frame[1] = (byte) (hue >> 8);
+                    frame[2] = (byte) hue;
+                    pipeline.sendFrame(frame, 0, frame.length);
+                }
+                return 48;
+            }
+        });
+    }
+
+    /**
+     * Runs a workload against each link configuration.
+     *
+     * @param name     the workload name
+     * @param workload the workload
+     */
+    private static void run(String name, Workload workload) {
+        System.out.println(name);
+        simulate("  legacy,  MTU 23 ", workload, false, LightProtocol.DEFAULT_MTU);
+        simulate("  packed,  MTU 23 ", workload, true, LightProtocol.DEFAULT_MTU);
+        simulate("  packed,  MTU 247", workload, true, LightProtocol.PREFERRED_MTU);
+    }
+
+    /**
+     * Simulates one link configuration.
+     */
+    private static void simulate(String label, Workload workload, boolean packed, int mtu) {
+        SimulatedLight light = new SimulatedLight(packed);
+        SimulatedLink link = new SimulatedLink(light, CONNECTION_INTERVAL_MICROS);
+        WritePipeline pipeline = new WritePipeline(link);
+        link.setPipeline(pipeline);
+        pipeline.setMtu(mtu);
+        pipeline.setPackedWrites(packed);
+
+        long issued = 0;
+        for (long now = 0; now <= DURATION_MICROS; now += 1) {
+            issued += workload.issue(pipeline, now);
+            link.advanceTo(now);
+        }
+
+        long applied = light.getCommandsApplied();
+        System.out.println(String.format(Locale.ENGLISH,
+                "%s: %6d issued, %6d coalesced, %5d dropped, %5d applied, %5d writes (%.2f cmd/write), "
+                        + "%7d air bytes, %.1f air bytes per applied command",
+                label,
+                issued,
+                pipeline.getQueue().getCoalescedCount(),
+                pipeline.getQueue().getDroppedCount(),
+                applied,
+                link.getWrites(),
+                link.getWrites() == 0 ? 0.0 : (double) applied / link.getWrites(),
+                link.getAirBytes(),
+                applied == 0 ? 0.0 : (double) link.getAirBytes() / applied));
+    }
+}
@@ -0,0 +1,157 @@
+package com.danbunnell.smartlightremote.simulation;
+
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+import com.danbunnell.smartlightremote.sync.ClockSync;
+
+import java.util.Random;
+
+/**
+ * A light with its own skewed 32-bit microsecond clock, behind a BLE link whose latency
+ * jitters with the connection interval.
+ *
+ * Simulated time is the phone's clock. Each direction of the link waits a random part of the
+ * connection interval for the next connection event, and occasionally a whole extra interval
+ * for a retransmission. The light answers clock sync requests and applies timed hue commands
+ * at the exact instant its clock reaches their target, as a hardware timer would.
+ */
+public class SimulatedClockLight {
+
+    /**
+     * time between receiving a request and sending its reply
+     */
+    private static final long PROCESSING_MICROS = 150;
+
+    /**
+     * fixed latency of the stacks on both ends, per direction
+     */
+    private static final long STACK_MICROS = 1000;
+
+    private final long clockOffsetMicros;
+    private final double clockSkew;
+    private final long connectionIntervalMicros;
+    private final double retransmitProbability;
+    private final Random random;
+    private final byte[] reply = new byte[2 + ClockSync.REPLY_LENGTH];
+
+    private int hue;
+    private long hueAppliedMicros = -1;
+
+    /**
+     * Initializes a new instance of the {@link SimulatedClockLight} class.
+     *
+     * @param clockOffsetMicros        the light's clock reading when the phone's reads 0
+     * @param clockSkewPpm             how much faster the light's clock runs, in parts per million
+     * @param connectionIntervalMicros the BLE connection interval
+     * @param retransmitProbability    the chance that a packet misses its connection event
+     * @param seed                     seeds the link jitter
+     */
+    public SimulatedClockLight(long clockOffsetMicros, double clockSkewPpm, long connectionIntervalMicros,
+                               double retransmitProbability, long seed) {
+        this.clockOffsetMicros = clockOffsetMicros;
+        this.clockSkew = clockSkewPpm * 1e-6;
+        this.connectionIntervalMicros = connectionIntervalMicros;
+        this.retransmitProbability = retransmitProbability;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Gets the light's full clock reading at a phone time.
+     *
+     * @param nowMicros the phone time
+     * @return          the light's clock, before truncation to 32 bits
+     */
+    public long lightTimeMicros(long nowMicros) {
+        return this.clockOffsetMicros + Math.round(nowMicros * (1 + this.clockSkew));
+    }
+
+    /**
+     * Draws the latency of one direction of the link.
+     *
+     * @return the latency in microseconds
+     */
+    public long linkDelayMicros() {
+        long delay = STACK_MICROS + (long) (this.random.nextDouble() * this.connectionIntervalMicros);
+        while (this.random.nextDouble() < this.retransmitProbability) {
+            delay += this.connectionIntervalMicros;
+        }
+        return delay;
+    }
+
+    /**
+     * Runs one clock sync exchange starting at a phone time.
+     *
+     * @param sync      the phone's side of the exchange
+     * @param nowMicros the phone time the request is sent
+     * @return          the phone time the reply arrives
+     */
+    public long exchange(ClockSync sync, long nowMicros) {
+        byte[] request = new byte[ClockSync.REQUEST_LENGTH];
+        sync.buildRequest(request, 0, nowMicros);
+
+        long received = nowMicros + this.linkDelayMicros();
+        long sent = received + PROCESSING_MICROS;
+        int receivedClock = (int) this.lightTimeMicros(received);
+        int sentClock = (int) this.lightTimeMicros(sent);
+
+        this.reply[0] = LightProtocol.EXTENDED_FRAME_MARKER;
+        this.reply[1] = ClockSync.REPLY_LENGTH;
+        this.reply[2] = LightProtocol.CMD_CLIENT_NOTIFY_TIME_SYNC;
+        this.reply[3] = request[1];
+        writeInt(this.reply, 4, receivedClock);
+        writeInt(this.reply, 8, sentClock);
+
+        long arrived = sent + this.linkDelayMicros();
+        sync.onReply(this.reply, 2, ClockSync.REPLY_LENGTH, arrived);
+        return arrived;
+    }
+
+    /**
+     * Delivers a frame over the link.
+     *
+     * @param frame     buffer holding the frame
+     * @param offset    offset of the frame
+     * @param length    length of the frame
+     * @param nowMicros the phone time the frame is sent
+     */
+    public void write(byte[] frame, int offset, int length, long nowMicros) {
+        long received = nowMicros + this.linkDelayMicros();
+
+        if (frame[offset] == LightProtocol.CMD_AT && length >= ClockSync.TIMED_COMMAND_LENGTH) {
+            int target = (frame[offset + 1] & 0xFF) << 24 | (frame[offset + 2] & 0xFF) << 16
+                    | (frame[offset + 3] & 0xFF) << 8 | (frame[offset + 4] & 0xFF);
+            long clock = this.lightTimeMicros(received);
+            long targetClock = clock + (target - (int) clock);
+            long due = (long) Math.ceil((targetClock - this.clockOffsetMicros) / (1 + this.clockSkew));
+            this.apply(frame, offset + 5, Math.max(received, due));
+        } else {
+            this.apply(frame, offset, received);
+        }
+    }
+
+    public int getHue() {
+        return this.hue;
+    }
+
+    /**
+     * Gets when the last hue command took effect.
+     *
+     * @return the phone time, or -1 if no hue has been applied
+     */
+    public long getHueAppliedMicros() {
+        return this.hueAppliedMicros;
+    }
+
+    private void apply(byte[] frame, int offset, long nowMicros) {
+        if (frame[offset] == LightProtocol.CMD_SET_HUE) {
+            this.hue = LightProtocol.bytesToWord(frame[offset + 1], frame[offset + 2]);
+            this.hueAppliedMicros = nowMicros;
+        }
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 24);
+        data[offset + 1] = (byte) (value >> 16);
+        data[offset + 2] = (byte) (value >> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
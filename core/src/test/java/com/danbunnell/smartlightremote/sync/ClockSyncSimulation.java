@@ -0,0 +1,110 @@
+package com.danbunnell.smartlightremote.sync;
+
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+import com.danbunnell.smartlightremote.simulation.SimulatedClockLight;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures how closely the clock estimate follows lights with skewed clocks over jittery BLE
+ * links, and how far apart a synchronized flash lands across a room of lights compared with
+ * sending the command to each light straight away.
+ *
+ * Run from the IDE; prints clock error percentiles and flash spread per link profile.
+ */
+public class ClockSyncSimulation {
+
+    private static final long SECOND = 1000000L;
+    private static final int LIGHTS = 8;
+    private static final long DURATION_MICROS = 600 * SECOND;
+
+    /**
+     * lead time of a synchronized flash, enough for the frame to reach every light
+     */
+    private static final long FLASH_LEAD_MICROS = 250000;
+
+    public static void main(String[] args) {
+        run("7.5 ms interval", 7500, 0.02);
+        run("30 ms interval", 30000, 0.1);
+        run("50 ms interval, lossy", 50000, 0.3);
+    }
+
+    private static void run(String name, long connectionIntervalMicros, double retransmitProbability) {
+        Random random = new Random(1);
+        SimulatedClockLight[] lights = new SimulatedClockLight[LIGHTS];
+        ClockSync[] syncs = new ClockSync[LIGHTS];
+        long[] nextExchange = new long[LIGHTS];
+        for (int i = 0; i < LIGHTS; i++) {
+            // Crystals within 100 ppm, clocks started at arbitrary times
+            lights[i] = new SimulatedClockLight(random.nextLong() & 0xFFFFFFFFL, random.nextGaussian() * 50,
+                    connectionIntervalMicros, retransmitProbability, random.nextLong());
+            syncs[i] = new ClockSync(new ClockSyncEstimator(ClockSyncEstimator.DEFAULT_WINDOW));
+            nextExchange[i] = random.nextInt(1000) * 1000L;
+        }
+
+        long[] errors = new long[(int) (DURATION_MICROS / SECOND) * LIGHTS];
+        int errorCount = 0;
+        long[] timedSpreads = new long[(int) (DURATION_MICROS / (10 * SECOND))];
+        long[] immediateSpreads = new long[timedSpreads.length];
+        int flashCount = 0;
+        byte[] frame = new byte[ClockSync.TIMED_COMMAND_LENGTH];
+
+        for (long now = 0; now < DURATION_MICROS; now += 1000) {
+            for (int i = 0; i < LIGHTS; i++) {
+                if (now >= nextExchange[i]) {
+                    long replied = lights[i].exchange(syncs[i], now);
+                    nextExchange[i] = Math.max(replied, now + syncs[i].getRequestIntervalMs() * 1000);
+                }
+            }
+
+            // Sample the error once a second after a ten-second warm-up
+            if (now % SECOND == 0 && now >= 10 * SECOND) {
+                for (int i = 0; i < LIGHTS; i++) {
+                    errors[errorCount++] = Math.abs(
+                            syncs[i].getEstimator().toLightUs(now) - lights[i].lightTimeMicros(now));
+                }
+            }
+
+            // Flash every ten seconds, once timed and once straight away
+            if (now % (10 * SECOND) == 0 && now >= 10 * SECOND) {
+                long fireAt = now + FLASH_LEAD_MICROS;
+                long timedMin = Long.MAX_VALUE;
+                long timedMax = Long.MIN_VALUE;
+                long immediateMin = Long.MAX_VALUE;
+                long immediateMax = Long.MIN_VALUE;
+                for (int i = 0; i < LIGHTS; i++) {
+                    int length = syncs[i].buildTimedCommand(frame, 0, fireAt,
+                            LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 1);
+                    lights[i].write(frame, 0, length, now);
+                    timedMin = Math.min(timedMin, lights[i].getHueAppliedMicros());
+                    timedMax = Math.max(timedMax, lights[i].getHueAppliedMicros());
+
+                    frame[0] = LightProtocol.CMD_SET_HUE;
+                    lights[i].write(frame, 0, LightProtocol.LEGACY_FRAME_LENGTH, now);
+                    immediateMin = Math.min(immediateMin, lights[i].getHueAppliedMicros());
+                    immediateMax = Math.max(immediateMax, lights[i].getHueAppliedMicros());
+                }
+                timedSpreads[flashCount] = timedMax - timedMin;
+                immediateSpreads[flashCount++] = immediateMax - immediateMin;
+            }
+        }
+
+        Arrays.sort(errors, 0, errorCount);
+        Arrays.sort(timedSpreads, 0, flashCount);
+        Arrays.sort(immediateSpreads, 0, flashCount);
+        System.out.println(String.format(Locale.ENGLISH,
+                "%s: clock error p50 %.2f ms, p99 %.2f ms, max %.2f ms; flash spread across %d lights "
+                        + "timed p50 %.2f ms max %.2f ms, immediate p50 %.2f ms max %.2f ms",
+                name,
+                errors[errorCount / 2] / 1e3,
+                errors[(int) (errorCount * 0.99)] / 1e3,
+                errors[errorCount - 1] / 1e3,
+                LIGHTS,
+                timedSpreads[flashCount / 2] / 1e3,
+                timedSpreads[flashCount - 1] / 1e3,
+                immediateSpreads[flashCount / 2] / 1e3,
+                immediateSpreads[flashCount - 1] / 1e3));
+    }
+}
@@ -0,0 +1,121 @@
+package com.danbunnell.smartlightremote.sync;
+
+import com.danbunnell.smartlightremote.protocol.LightProtocol;
+import com.danbunnell.smartlightremote.simulation.SimulatedClockLight;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClockSyncTest {
+
+    private static final long SECOND = 1000000L;
+
+    @Test
+    public void recoversOffsetAndDriftOverSymmetricLink() {
+        ClockSyncEstimator estimator = new ClockSyncEstimator(ClockSyncEstimator.DEFAULT_WINDOW);
+        double drift = 80e-6;
+        long offset = 123456789L;
+
+        for (long t = 0; t < 60 * SECOND; t += SECOND) {
+            long t1 = t + 1000000000L;
+            long t4 = t1 + 20000;
+            long t2 = offset + Math.round((t1 + 9000) * (1 + drift));
+            long t3 = offset + Math.round((t1 + 11000) * (1 + drift));
+            estimator.addSample(t1, t2, t3, t4);
+        }
+
+        long now = 1000000000L + 70 * SECOND;
+        long expected = offset + Math.round(now * (1 + drift));
+        assertTrue(estimator.isSynchronized());
+        assertEquals(expected, estimator.toLightUs(now), 2);
+        assertEquals(80, estimator.getDriftPpm(), 0.1);
+        assertEquals(now, estimator.toLocalUs(expected), 2);
+    }
+
+    @Test
+    public void tracksSkewedClocksOverJitteryLink() {
+        double[] skews = { -90, -25, 0, 40, 110 };
+        for (int i = 0; i < skews.length; i++) {
+            // A 30 ms connection interval with 10% retransmissions
+            SimulatedClockLight light = new SimulatedClockLight(
+                    1000000L * i * 977, skews[i], 30000, 0.1, 42 + i);
+            ClockSync sync = synchronize(light, 300 * SECOND);
+
+            // Well inside a connection interval, and still so a while after the last exchange
+            long now = 305 * SECOND;
+            long error = sync.getEstimator().toLightUs(now) - light.lightTimeMicros(now);
+            assertTrue("light " + i + " off by " + error + " us", Math.abs(error) < 5000);
+            assertEquals(skews[i], sync.getEstimator().getDriftPpm(), 20);
+        }
+    }
+
+    @Test
+    public void timedCommandsLandTogether() {
+        double[] skews = { -60, 15, 95 };
+        SimulatedClockLight[] lights = new SimulatedClockLight[skews.length];
+        ClockSync[] syncs = new ClockSync[skews.length];
+        for (int i = 0; i < lights.length; i++) {
+            lights[i] = new SimulatedClockLight(SECOND * 3 * i + 17, skews[i], 30000, 0.1, 7 + i);
+            syncs[i] = synchronize(lights[i], 60 * SECOND);
+        }
+
+        byte[] frame = new byte[ClockSync.TIMED_COMMAND_LENGTH];
+        long sendAt = 61 * SECOND;
+        long fireAt = sendAt + 200000;
+        long earliest = Long.MAX_VALUE;
+        long latest = Long.MIN_VALUE;
+        for (int i = 0; i < lights.length; i++) {
+            int length = syncs[i].buildTimedCommand(frame, 0, fireAt, LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 90);
+            lights[i].write(frame, 0, length, sendAt);
+
+            assertEquals(90, lights[i].getHue());
+            earliest = Math.min(earliest, lights[i].getHueAppliedMicros());
+            latest = Math.max(latest, lights[i].getHueAppliedMicros());
+        }
+
+        assertTrue("spread " + (latest - earliest) + " us", latest - earliest < 3000);
+        assertEquals(fireAt, earliest, 3000);
+    }
+
+    @Test
+    public void followsLightClockAcrossWrapAround() {
+        // The light's 32-bit clock wraps about 20 seconds in
+        SimulatedClockLight light = new SimulatedClockLight(0xFFFFFFFFL - 20 * SECOND, 50, 15000, 0, 3);
+        ClockSync sync = synchronize(light, 40 * SECOND);
+
+        long now = 41 * SECOND;
+        assertEquals(light.lightTimeMicros(now), sync.getEstimator().toLightUs(now), 1000);
+    }
+
+    @Test
+    public void refusesTimedCommandsUntilSynchronized() {
+        ClockSync sync = new ClockSync(new ClockSyncEstimator(ClockSyncEstimator.DEFAULT_WINDOW));
+        byte[] frame = new byte[ClockSync.TIMED_COMMAND_LENGTH];
+
+        assertEquals(-1, sync.buildTimedCommand(frame, 0, 0, LightProtocol.CMD_SET_HUE, (byte) 0, (byte) 0));
+    }
+
+    @Test
+    public void ignoresRepliesToUnknownRequests() {
+        ClockSync sync = new ClockSync(new ClockSyncEstimator(ClockSyncEstimator.DEFAULT_WINDOW));
+        byte[] reply = new byte[] { LightProtocol.CMD_CLIENT_NOTIFY_TIME_SYNC, 5, 0, 0, 0, 1, 0, 0, 0, 2 };
+
+        assertFalse(sync.onReply(reply, 0, reply.length, 1000));
+        assertEquals(1, sync.getRepliesUnmatched());
+        assertEquals(0, sync.getEstimator().getSampleCount());
+    }
+
+    /**
+     * Runs exchanges at the rate RBLService would for a while.
+     */
+    private static ClockSync synchronize(SimulatedClockLight light, long durationMicros) {
+        ClockSync sync = new ClockSync(new ClockSyncEstimator(ClockSyncEstimator.DEFAULT_WINDOW));
+        long now = 0;
+        while (now < durationMicros) {
+            long replied = light.exchange(sync, now);
+            now = Math.max(replied, now + sync.getRequestIntervalMs() * 1000);
+        }
+        return sync;
+    }
+}